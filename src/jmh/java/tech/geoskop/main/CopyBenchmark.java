@@ -0,0 +1,87 @@
+package tech.geoskop.main;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ucar.ma2.InvalidRangeException;
+
+/**
+ * Throughput of the full copy of NetCDFTool.main (SubsetCopy of every variable,
+ * tas twice as tas and precipitation, the whole grid) by heap budget and
+ * threads. The bytes copied are reported per second as the counter "bytes".
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class CopyBenchmark {
+
+	@Param({ "3650" })
+	public int nt;
+
+	@Param({ "106" })
+	public int ny;
+
+	@Param({ "213" })
+	public int nx;
+
+	@Param({ "4194304", "67108864" })
+	public long heapBudget;
+
+	@Param({ "1", "4" })
+	public int threads;
+
+	private String source;
+	private String destination;
+
+	@Setup(Level.Trial)
+	public void fixture() throws IOException, InvalidRangeException {
+		source = SyntheticFixture.of(nt, ny, nx);
+		destination = SyntheticFixture.output("copy_" + threads + "_" + heapBudget + ".nc");
+	}
+
+	@Benchmark
+	public CopyStats copy(CopiedBytes copied) throws IOException, InvalidRangeException {
+		CopyStats stats = new SubsetCopy(source, destination)
+				.addVariable(NetCDFTool.SPATIAL_REF)
+				.addVariable(NetCDFTool.LATITUDE)
+				.addVariable(NetCDFTool.LONGITUDE)
+				.addVariable(NetCDFTool.TIME)
+				.addVariable(NetCDFTool.TEMPERATURE)
+				.addVariable(NetCDFTool.TEMPERATURE, NetCDFTool.PRECIPITATION)
+				.setHeapBudget(heapBudget)
+				.setThreads(threads)
+				.copy();
+
+		copied.bytes += stats.getBytes();
+		return stats;
+	}
+
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class CopiedBytes {
+		public long bytes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			bytes = 0;
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package tech.geoskop.main;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Range;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Variable;
+
+/**
+ * The chunk size of printMainVar: the whole variable streamed through the
+ * Exporter into the console layout (PrintSink) and the CSV sink, both writing to
+ * a stream that drops the bytes, so only reading and formatting are measured,
+ * with and without reading ahead.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PrintBenchmark {
+
+	@Param({ "365" })
+	public int nt;
+
+	@Param({ "106" })
+	public int ny;
+
+	@Param({ "213" })
+	public int nx;
+
+	// Steps of time of a chunk.
+	@Param({ "1", "10", "100", "1000" })
+	public int chunkSize;
+
+	// Chunks read ahead, 0 to read and print in turn.
+	@Param({ "0", "2" })
+	public int prefetch;
+
+	private NetcdfFile file;
+	private Variable tas;
+	private List<Range> section;
+
+	@Setup(Level.Trial)
+	public void open() throws IOException, InvalidRangeException {
+		file = NetcdfFiles.open(SyntheticFixture.of(nt, ny, nx));
+		tas = file.findVariable(NetCDFTool.TEMPERATURE);
+
+		section = new ArrayList<>();
+		for (int length : tas.getShape()) {
+			section.add(new Range(0, length - 1));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void close() throws IOException {
+		file.close();
+	}
+
+	@Benchmark
+	public long print() throws IOException, InvalidRangeException {
+		try (PrintSink sink = new PrintSink(new NullOutputStream())) {
+			return Exporter.export(tas, section, chunkSize, prefetch, sink);
+		}
+	}
+
+	@Benchmark
+	public long csv() throws IOException, InvalidRangeException {
+		try (CsvSink sink = new CsvSink(new NullOutputStream(), PrintSink.DECIMALS)) {
+			return Exporter.export(tas, section, chunkSize, prefetch, sink);
+		}
+	}
+
+	/**
+	 * Drops everything written to it.
+	 */
+	static class NullOutputStream extends OutputStream {
+
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package tech.geoskop.main;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Range;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Variable;
+
+/**
+ * loadMainVar with a string range against a list of Range and the mapped
+ * reader (Netcdf3Mapped) into a reused buffer, and the cost of reading a window
+ * one point at a time against a single series read.
+ *
+ * Every invocation reads a different window of steps, cycling over the file, so
+ * the same cached bytes are not read again and again.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadBenchmark {
+
+	@Param({ "3650" })
+	public int nt;
+
+	@Param({ "106" })
+	public int ny;
+
+	@Param({ "213" })
+	public int nx;
+
+	// Steps of time read by each invocation.
+	@Param({ "1", "30" })
+	public int steps;
+
+	private NetcdfFile file;
+	private Variable tas;
+	private int next;
+	private float[] buffer;
+
+	@Setup(Level.Trial)
+	public void open() throws IOException, InvalidRangeException {
+		file = NetcdfFiles.open(SyntheticFixture.of(nt, ny, nx));
+		tas = file.findVariable(NetCDFTool.TEMPERATURE);
+		buffer = new float[steps * ny * nx];
+	}
+
+	@TearDown(Level.Trial)
+	public void close() throws IOException {
+		file.close();
+	}
+
+	private int nextWindow() {
+		int first = next;
+		next = next + steps >= nt ? 0 : next + steps;
+		return first;
+	}
+
+	@Benchmark
+	public Array stringRange() throws IOException, InvalidRangeException {
+		int t0 = nextWindow();
+
+		return NetCDFTool.loadMainVar(tas, t0, t0 + steps - 1, 0, ny - 1, 0, nx - 1);
+	}
+
+	@Benchmark
+	public Array rangeList() throws IOException, InvalidRangeException {
+		int t0 = nextWindow();
+
+		return NetCDFTool.loadMainVar(tas, new Range(t0, t0 + steps - 1), new Range(0, ny - 1),
+				new Range(0, nx - 1));
+	}
+
+	@Benchmark
+	public Array sectionList() throws IOException, InvalidRangeException {
+		int t0 = nextWindow();
+
+		List<Range> ranges = new ArrayList<>();
+		ranges.add(new Range(t0, t0 + steps - 1));
+		ranges.add(null);
+		ranges.add(null);
+
+		return tas.read(ranges);
+	}
+
+	@Benchmark
+	public void singlePoints(Blackhole blackhole) throws IOException, InvalidRangeException {
+		int t0 = nextWindow();
+
+		for (int t = t0; t < t0 + steps; t++) {
+			blackhole.consume(NetCDFTool.loadMainVar(tas, t, ny / 2, nx / 2));
+		}
+	}
+
+	@Benchmark
+	public Array pointSeries() throws IOException, InvalidRangeException {
+		int t0 = nextWindow();
+
+		return NetCDFTool.loadMainVar(tas, new Range(t0, t0 + steps - 1), new Range(ny / 2, ny / 2),
+				new Range(nx / 2, nx / 2));
+	}
+
+	@Benchmark
+	public float[] mappedSection() throws IOException, InvalidRangeException {
+		int t0 = nextWindow();
+
+		List<Range> ranges = new ArrayList<>();
+		ranges.add(new Range(t0, t0 + steps - 1));
+		ranges.add(new Range(0, ny - 1));
+		ranges.add(new Range(0, nx - 1));
+
+		return Netcdf3Mapped.readFloats(tas, ranges, buffer);
+	}
+}
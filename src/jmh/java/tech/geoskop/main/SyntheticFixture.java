@@ -0,0 +1,166 @@
+package tech.geoskop.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import ucar.ma2.Array;
+import ucar.ma2.ArrayChar;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.Attribute;
+import ucar.nc2.Dimension;
+import ucar.nc2.write.NetcdfFormatWriter;
+
+/**
+ * Synthetic netcdf-3 files with the layout of testmean.nc (spatial_ref, lat and
+ * lon on y, x, time in minutes since 1850-01-01, tas on time, y, x) and any
+ * size, for the benchmarks.
+ *
+ * The files are kept in java.io.tmpdir/geolab-bench, named by their size, and
+ * only written the first time they are asked for.
+ *
+ */
+public class SyntheticFixture {
+
+	public static final String DIRECTORY = "geolab-bench";
+	public static final String TIME_UNITS = "minutes since 1850-01-01";
+	public static final int MINUTES_PER_DAY = 1440;
+
+	// Bytes of tas written at once.
+	private static final long SLAB_BYTES = 16L * 1024 * 1024;
+
+	private SyntheticFixture() {
+	}
+
+	/**
+	 * Path of the fixture of a size, written if it does not exist yet.
+	 *
+	 * @param nt steps of time.
+	 * @param ny
+	 * @param nx
+	 * @return
+	 * @throws IOException
+	 * @throws InvalidRangeException
+	 */
+	public static String of(int nt, int ny, int nx) throws IOException, InvalidRangeException {
+		File directory = new File(System.getProperty("java.io.tmpdir"), DIRECTORY);
+		directory.mkdirs();
+
+		File file = new File(directory, String.format("synthetic_%dx%dx%d.nc", nt, ny, nx));
+		if (!file.exists()) {
+			File partial = new File(directory, file.getName() + ".part");
+			create(partial.getPath(), nt, ny, nx);
+			if (!partial.renameTo(file)) {
+				throw new IOException("Cannot rename " + partial + " to " + file);
+			}
+		}
+
+		return file.getPath();
+	}
+
+	/**
+	 * Path of a new file in the fixture directory, deleted first if it exists.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public static String output(String name) {
+		File directory = new File(System.getProperty("java.io.tmpdir"), DIRECTORY);
+		directory.mkdirs();
+
+		File file = new File(directory, name);
+		file.delete();
+
+		return file.getPath();
+	}
+
+	/**
+	 * Writes a fixture: a 0.1 degree grid from 36N, -10E, daily steps and a smooth
+	 * temperature field in K.
+	 *
+	 * @param path
+	 * @param nt
+	 * @param ny
+	 * @param nx
+	 * @throws IOException
+	 * @throws InvalidRangeException
+	 */
+	public static void create(String path, int nt, int ny, int nx) throws IOException, InvalidRangeException {
+		NetcdfFormatWriter.Builder builder = NetcdfFormatWriter.createNewNetcdf3(path);
+
+		Dimension nchar = builder.addDimension("nchar", 256);
+		Dimension y = builder.addDimension("y", ny);
+		Dimension x = builder.addDimension("x", nx);
+		Dimension time = builder.addDimension("time", nt);
+
+		List<Dimension> grid = new ArrayList<>();
+		grid.add(y);
+		grid.add(x);
+
+		List<Dimension> cube = new ArrayList<>();
+		cube.add(time);
+		cube.add(y);
+		cube.add(x);
+
+		builder.addVariable(NetCDFTool.SPATIAL_REF, DataType.CHAR, "nchar")
+				.addAttribute(new Attribute("crs_wkt", "GEOGCS[\"WGS 84\"]"));
+		builder.addVariable(NetCDFTool.LATITUDE, DataType.FLOAT, grid)
+				.addAttribute(new Attribute(NetCDFTool.UNITS, "degrees_north"));
+		builder.addVariable(NetCDFTool.LONGITUDE, DataType.FLOAT, grid)
+				.addAttribute(new Attribute(NetCDFTool.UNITS, "degrees_east"));
+		builder.addVariable(NetCDFTool.TIME, DataType.INT, "time")
+				.addAttribute(new Attribute(NetCDFTool.UNITS, TIME_UNITS))
+				.addAttribute(new Attribute(TimeUnits.CALENDAR, TimeUnits.STANDARD));
+		builder.addVariable(NetCDFTool.TEMPERATURE, DataType.FLOAT, cube)
+				.addAttribute(new Attribute(NetCDFTool.UNITS, "K"));
+
+		LargeFile.setFormat(builder, path, LargeFile.bytes(DataType.CHAR, nchar.getLength()),
+				LargeFile.bytes(DataType.FLOAT, ny, nx), LargeFile.bytes(DataType.FLOAT, ny, nx),
+				LargeFile.bytes(DataType.INT, nt), LargeFile.bytes(DataType.FLOAT, nt, ny, nx));
+
+		try (NetcdfFormatWriter writer = builder.build()) {
+			ArrayChar wkt = new ArrayChar.D1(nchar.getLength());
+			wkt.setString("GEOGCS[\"WGS 84\"]");
+			writer.write(writer.findVariable(NetCDFTool.SPATIAL_REF), wkt);
+
+			float[] lat = new float[ny * nx];
+			float[] lon = new float[ny * nx];
+			for (int j = 0; j < ny; j++) {
+				for (int i = 0; i < nx; i++) {
+					lat[j * nx + i] = 36f + 0.1f * j;
+					lon[j * nx + i] = -10f + 0.1f * i;
+				}
+			}
+			writer.write(writer.findVariable(NetCDFTool.LATITUDE),
+					Array.factory(DataType.FLOAT, new int[] { ny, nx }, lat));
+			writer.write(writer.findVariable(NetCDFTool.LONGITUDE),
+					Array.factory(DataType.FLOAT, new int[] { ny, nx }, lon));
+
+			int[] minutes = new int[nt];
+			for (int t = 0; t < nt; t++) {
+				minutes[t] = t * MINUTES_PER_DAY;
+			}
+			writer.write(writer.findVariable(NetCDFTool.TIME), Array.factory(DataType.INT, new int[] { nt }, minutes));
+
+			int cells = ny * nx;
+			int steps = (int) Math.max(1, Math.min(nt, SLAB_BYTES / (4L * cells)));
+
+			for (int t0 = 0; t0 < nt; t0 += steps) {
+				int ts = Math.min(steps, nt - t0);
+				float[] tas = new float[ts * cells];
+
+				for (int t = 0; t < ts; t++) {
+					float season = (float) (10 * Math.sin(2 * Math.PI * (t0 + t) / 365.25));
+					for (int k = 0; k < cells; k++) {
+						tas[t * cells + k] = 285f + season - 0.05f * (k / nx) + 0.01f * (k % nx);
+					}
+				}
+
+				writer.write(writer.findVariable(NetCDFTool.TEMPERATURE), new int[] { t0, 0, 0 },
+						Array.factory(DataType.FLOAT, new int[] { ts, ny, nx }, tas));
+			}
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package tech.geoskop.main;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Decoding of a whole time axis into dates: dateMetaDatatoDateString per value
+ * (units parsed every time), the fixed units of
+ * minutesFrom_1850_01_01_toDateString, and TimeAxis decoding once.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TimeDecodeBenchmark {
+
+	// 20088 is the axis of testmean.nc.
+	@Param({ "365", "20088" })
+	public int nt;
+
+	private int[] minutes;
+
+	@Setup(Level.Trial)
+	public void axis() {
+		minutes = new int[nt];
+		for (int t = 0; t < nt; t++) {
+			minutes[t] = t * SyntheticFixture.MINUTES_PER_DAY;
+		}
+	}
+
+	@Benchmark
+	public void dateMetaData(Blackhole blackhole) {
+		for (int t = 0; t < nt; t++) {
+			blackhole.consume(NetCDFTool.dateMetaDatatoDateString(minutes[t], SyntheticFixture.TIME_UNITS));
+		}
+	}
+
+	@Benchmark
+	public void fixedUnits(Blackhole blackhole) {
+		for (int t = 0; t < nt; t++) {
+			blackhole.consume(NetCDFTool.minutesFrom_1850_01_01_toDateString(minutes[t]));
+		}
+	}
+
+	@Benchmark
+	public void timeAxis(Blackhole blackhole) {
+		TimeAxis axis = TimeAxis.decode(minutes, SyntheticFixture.TIME_UNITS, TimeUnits.STANDARD);
+
+		for (int t = 0; t < nt; t++) {
+			blackhole.consume(axis.getIsoDate(t));
+		}
+	}
+}
@@ -0,0 +1,220 @@
+package tech.geoskop.main;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Buffered writer of ASCII text that formats numbers and dates itself, without
+ * String.format nor intermediate Strings, so writing a value allocates
+ * nothing.
+ *
+ */
+public class AsciiWriter implements Flushable, Closeable {
+
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private static final long[] POWERS_OF_TEN = { 1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L,
+			100000000L, 1000000000L, 10000000000L };
+
+	private final OutputStream output;
+	private final byte[] buffer;
+	private int position;
+
+	// Digits of a number, written backwards.
+	private final byte[] digits = new byte[20];
+
+	public AsciiWriter(OutputStream output) {
+		this(output, DEFAULT_BUFFER_SIZE);
+	}
+
+	public AsciiWriter(OutputStream output, int bufferSize) {
+		this.output = output;
+		this.buffer = new byte[bufferSize];
+	}
+
+	public AsciiWriter append(char c) throws IOException {
+		if (position == buffer.length) {
+			flushBuffer();
+		}
+		buffer[position++] = (byte) c;
+		return this;
+	}
+
+	public AsciiWriter append(CharSequence text) throws IOException {
+		for (int i = 0; i < text.length(); i++) {
+			append(text.charAt(i));
+		}
+		return this;
+	}
+
+	public AsciiWriter newLine() throws IOException {
+		return append('\n');
+	}
+
+	public AsciiWriter append(int value) throws IOException {
+		return append((long) value);
+	}
+
+	public AsciiWriter append(long value) throws IOException {
+		if (value == Long.MIN_VALUE) {
+			return append(Long.toString(value));
+		}
+
+		if (value < 0) {
+			append('-');
+			value = -value;
+		}
+
+		int count = 0;
+		do {
+			digits[count++] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value != 0);
+
+		while (count > 0) {
+			append((char) digits[--count]);
+		}
+		return this;
+	}
+
+	/**
+	 * Appends a number with a fixed number of decimals (0 to 10), rounded half
+	 * away from zero.
+	 *
+	 * @param value
+	 * @param decimals
+	 * @return
+	 * @throws IOException
+	 */
+	public AsciiWriter append(double value, int decimals) throws IOException {
+		if (Double.isNaN(value)) {
+			return append("NaN");
+		}
+
+		if (Double.isInfinite(value)) {
+			return append(value > 0 ? "Infinity" : "-Infinity");
+		}
+
+		long scale = POWERS_OF_TEN[decimals];
+		double abs = Math.abs(value);
+
+		if (abs * scale >= Long.MAX_VALUE) {
+			// Out of range of a long: rare, let the JDK format it.
+			return append(Double.toString(value));
+		}
+
+		long scaled = Math.round(abs * scale);
+
+		if (value < 0 && scaled != 0) {
+			append('-');
+		}
+
+		append(scaled / scale);
+
+		if (decimals > 0) {
+			append('.');
+			long fraction = scaled % scale;
+			for (int d = decimals - 1; d >= 0; d--) {
+				append((char) ('0' + (fraction / POWERS_OF_TEN[d]) % 10));
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Appends a number with a fixed number of decimals, right aligned in a field
+	 * of the given width, as "%width.decimalsf" does.
+	 *
+	 * @param value
+	 * @param decimals
+	 * @param width
+	 * @return
+	 * @throws IOException
+	 */
+	public AsciiWriter append(double value, int decimals, int width) throws IOException {
+		for (int pad = width - length(value, decimals); pad > 0; pad--) {
+			append(' ');
+		}
+		return append(value, decimals);
+	}
+
+	/**
+	 * Number of characters of a number appended with a fixed number of decimals.
+	 */
+	private static int length(double value, int decimals) {
+		if (Double.isNaN(value)) {
+			return 3;
+		}
+
+		double abs = Math.abs(value);
+		long scale = POWERS_OF_TEN[decimals];
+
+		if (Double.isInfinite(value) || abs * scale >= Long.MAX_VALUE) {
+			return Double.toString(value).length();
+		}
+
+		long scaled = Math.round(abs * scale);
+		long integral = scaled / scale;
+
+		int length = (value < 0 && scaled != 0 ? 1 : 0) + (decimals > 0 ? decimals + 1 : 0) + 1;
+		while (integral >= 10) {
+			integral /= 10;
+			length++;
+		}
+		return length;
+	}
+
+	/**
+	 * Appends a date as yyyy-MM-dd.
+	 *
+	 * @param year
+	 * @param month 1 to 12.
+	 * @param day
+	 * @return
+	 * @throws IOException
+	 */
+	public AsciiWriter appendDate(int year, int month, int day) throws IOException {
+		appendPadded(year, 4);
+		append('-');
+		appendPadded(month, 2);
+		append('-');
+		return appendPadded(day, 2);
+	}
+
+	/**
+	 * Appends a positive number padded with zeros on the left.
+	 *
+	 * @param value
+	 * @param width
+	 * @return
+	 * @throws IOException
+	 */
+	public AsciiWriter appendPadded(int value, int width) throws IOException {
+		for (int d = width - 1; d > 0 && value < POWERS_OF_TEN[d]; d--) {
+			append('0');
+		}
+		return append(value);
+	}
+
+	private void flushBuffer() throws IOException {
+		output.write(buffer, 0, position);
+		position = 0;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		flushBuffer();
+		output.flush();
+	}
+
+	/**
+	 * Flushes the buffer and closes the stream.
+	 */
+	@Override
+	public void close() throws IOException {
+		flush();
+		output.close();
+	}
+}
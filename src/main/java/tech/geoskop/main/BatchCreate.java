@@ -0,0 +1,218 @@
+package tech.geoskop.main;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ucar.ma2.InvalidRangeException;
+
+/**
+ * Creation of a file per combination of a parameter matrix (model x algo x ssp,
+ * ...) from one template, compiled once into a TemplateSchema. The
+ * ${parameter} placeholders of the file name, attributes and data sources are
+ * replaced by the values of each combination.
+ *
+ * The files are created by a fixed pool of threads, each with the heap budget
+ * of the template divided among them, so the memory used does not grow with the
+ * threads.
+ *
+ * <pre>
+ * Map&lt;String, Long&gt; files = new BatchCreate(TemplateSchema.compile("tas.json"))
+ * 		.addParameter("model", "CNRM-CM6-1", "MPI-ESM1-2-HR").addParameter("algo", "QDM", "EQM")
+ * 		.addParameter("ssp", "126", "245", "585").setThreads(4).create();
+ * </pre>
+ *
+ */
+public class BatchCreate {
+
+	private final TemplateSchema schema;
+
+	// parameter -> values, in the order of the matrix.
+	private final Map<String, List<String>> parameters = new LinkedHashMap<>();
+
+	private int threads = 1;
+	private boolean fill = true;
+
+	public BatchCreate(TemplateSchema schema) {
+		this.schema = schema;
+	}
+
+	public BatchCreate addParameter(String name, String... values) {
+		if (values.length == 0) {
+			throw new IllegalArgumentException("Parameter " + name + " has no values");
+		}
+		parameters.put(name, Arrays.asList(values));
+		return this;
+	}
+
+	/**
+	 * Number of files created at the same time.
+	 *
+	 * @param threads
+	 * @return
+	 */
+	public BatchCreate setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Threads must be at least 1: " + threads);
+		}
+		this.threads = threads;
+		return this;
+	}
+
+	/**
+	 * False to leave the variables without a data source unwritten instead of
+	 * writing their fill value, much faster for large skeletons.
+	 *
+	 * @param fill
+	 * @return
+	 */
+	public BatchCreate setFill(boolean fill) {
+		this.fill = fill;
+		return this;
+	}
+
+	/**
+	 * Combinations of the matrix, the last parameter varying fastest.
+	 *
+	 * @return
+	 */
+	public List<Map<String, String>> combinations() {
+		for (String parameter : schema.getParameters()) {
+			if (!parameters.containsKey(parameter)) {
+				throw new IllegalArgumentException("No values for parameter " + parameter + " of " + schema);
+			}
+		}
+
+		List<Map<String, String>> combinations = new ArrayList<>();
+		combinations.add(new HashMap<String, String>());
+
+		for (Map.Entry<String, List<String>> parameter : parameters.entrySet()) {
+			List<Map<String, String>> expanded = new ArrayList<>(combinations.size() * parameter.getValue().size());
+			for (Map<String, String> combination : combinations) {
+				for (String value : parameter.getValue()) {
+					Map<String, String> values = new HashMap<>(combination);
+					values.put(parameter.getKey(), value);
+					expanded.add(values);
+				}
+			}
+			combinations = expanded;
+		}
+
+		return combinations;
+	}
+
+	/**
+	 * Creates the files of all the combinations. On the first failure the files
+	 * not started are cancelled.
+	 *
+	 * @return path -> bytes of data written, in the order of the combinations.
+	 * @throws IOException
+	 * @throws InvalidRangeException
+	 */
+	public Map<String, Long> create() throws IOException, InvalidRangeException {
+		List<Map<String, String>> combinations = combinations();
+
+		// Two combinations with the same path would write the same file.
+		Map<String, Map<String, String>> paths = new LinkedHashMap<>();
+		for (Map<String, String> values : combinations) {
+			Map<String, String> previous = paths.put(schema.path(values), values);
+			if (previous != null) {
+				throw new IllegalArgumentException(
+						"Parameters " + previous + " and " + values + " give the same file " + schema.path(values));
+			}
+		}
+
+		int workers = Math.min(threads, combinations.size());
+		long heapBudget = Math.max(1, schema.getHeapBudget() / workers);
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, workers));
+
+		Map<String, Future<Long>> futures = new LinkedHashMap<>();
+		for (Map.Entry<String, Map<String, String>> path : paths.entrySet()) {
+			Map<String, String> values = path.getValue();
+			futures.put(path.getKey(), pool.submit(() -> schema.create(values, fill, heapBudget)));
+		}
+		pool.shutdown();
+
+		Map<String, Long> bytes = new LinkedHashMap<>();
+
+		try {
+			for (Map.Entry<String, Future<Long>> future : futures.entrySet()) {
+				bytes.put(future.getKey(), future.getValue().get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted creating the files of " + schema, e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof InvalidRangeException) {
+				throw (InvalidRangeException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException("Failed creating the files of " + schema, cause);
+		} finally {
+			pool.shutdownNow();
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * Creates the files of a template over a matrix: template.json
+	 * model=A,B algo=X,Y ssp=126,245,585 [threads=4] [fill=false]
+	 *
+	 * @param args
+	 * @throws IOException
+	 * @throws InvalidRangeException
+	 */
+	public static void main(String[] args) throws IOException, InvalidRangeException {
+		if (args.length < 1) {
+			System.err.println(
+					"Usage: BatchCreate template.json [name=value1,value2,...] ... [threads=N] [fill=false]");
+			return;
+		}
+
+		IoMetrics.install();
+
+		BatchCreate batch = new BatchCreate(TemplateSchema.compile(args[0]))
+				.setThreads(Runtime.getRuntime().availableProcessors());
+
+		for (int a = 1; a < args.length; a++) {
+			int equals = args[a].indexOf('=');
+			if (equals <= 0) {
+				throw new IllegalArgumentException("Expected name=value1,value2,...: " + args[a]);
+			}
+
+			String name = args[a].substring(0, equals);
+			String value = args[a].substring(equals + 1);
+
+			if ("threads".equals(name)) {
+				batch.setThreads(Integer.parseInt(value));
+			} else if ("fill".equals(name)) {
+				batch.setFill(Boolean.parseBoolean(value));
+			} else {
+				batch.addParameter(name, value.split(","));
+			}
+		}
+
+		long start = System.nanoTime();
+		Map<String, Long> files = batch.create();
+
+		long bytes = 0;
+		for (Map.Entry<String, Long> file : files.entrySet()) {
+			System.out.println(file.getKey() + " " + file.getValue());
+			bytes += file.getValue();
+		}
+		System.out.println(String.format("Created %d files, %d bytes in %.3f s", files.size(), bytes,
+				(System.nanoTime() - start) / 1e9));
+	}
+}
@@ -0,0 +1,113 @@
+package tech.geoskop.main;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Export sink writing the values as raw little-endian binary, in the type of
+ * the variable and in row-major order, with no header: the shape is the one of
+ * the exported section.
+ *
+ */
+public class BinarySink implements ExportSink {
+
+	public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer;
+
+	public BinarySink(WritableByteChannel channel) {
+		this(channel, DEFAULT_BUFFER_SIZE);
+	}
+
+	public BinarySink(WritableByteChannel channel, int bufferSize) {
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * A sink writing to a new file.
+	 *
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	public static BinarySink toFile(String path) throws IOException {
+		return new BinarySink(FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+	}
+
+	@Override
+	public void begin(String variable, int[] shape) throws IOException {
+	}
+
+	@Override
+	public void row(int[] index, Object storage, int offset, int length, int stride) throws IOException {
+		if (storage instanceof float[]) {
+			float[] values = (float[]) storage;
+			for (int k = 0; k < length; k++) {
+				ensure(Float.BYTES).putFloat(values[offset + k]);
+			}
+		} else if (storage instanceof double[]) {
+			double[] values = (double[]) storage;
+			for (int k = 0; k < length; k++) {
+				ensure(Double.BYTES).putDouble(values[offset + k]);
+			}
+		} else if (storage instanceof int[]) {
+			int[] values = (int[]) storage;
+			for (int k = 0; k < length; k++) {
+				ensure(Integer.BYTES).putInt(values[offset + k]);
+			}
+		} else if (storage instanceof short[]) {
+			short[] values = (short[]) storage;
+			for (int k = 0; k < length; k++) {
+				ensure(Short.BYTES).putShort(values[offset + k]);
+			}
+		} else if (storage instanceof long[]) {
+			long[] values = (long[]) storage;
+			for (int k = 0; k < length; k++) {
+				ensure(Long.BYTES).putLong(values[offset + k]);
+			}
+		} else if (storage instanceof byte[]) {
+			byte[] values = (byte[]) storage;
+			for (int k = 0; k < length; k++) {
+				ensure(Byte.BYTES).put(values[offset + k]);
+			}
+		} else {
+			throw new IllegalArgumentException("Unsupported array " + storage.getClass());
+		}
+	}
+
+	private ByteBuffer ensure(int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			drain();
+		}
+		return buffer;
+	}
+
+	private void drain() throws IOException {
+		// Through Buffer: ByteBuffer.flip() and clear() are not on Java 8.
+		((Buffer) buffer).flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		((Buffer) buffer).clear();
+	}
+
+	@Override
+	public void end() throws IOException {
+		drain();
+	}
+
+	@Override
+	public void close() throws IOException {
+		drain();
+		channel.close();
+	}
+}
@@ -0,0 +1,215 @@
+package tech.geoskop.main;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * Metadata of a netcdf file in a MetadataCatalog: dimensions, variables,
+ * global attributes, dates of the first and last time steps and bounding box of
+ * lat/lon, with the modification time and length of the file it was read from.
+ *
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class CatalogEntry {
+
+	// No date: the file has no time variable.
+	public static final int NO_DATE = 0;
+
+	private String path;
+	private long lastModified;
+	private long length;
+
+	// name -> length.
+	private Map<String, Integer> dimensions = new LinkedHashMap<>();
+	private List<VariableEntry> variables = new ArrayList<>();
+	private Map<String, String> attributes = new LinkedHashMap<>();
+
+	// yyyyMMdd, NO_DATE without time.
+	private int firstDate = NO_DATE;
+	private int lastDate = NO_DATE;
+
+	// NaN without lat/lon.
+	private double latMin = Double.NaN;
+	private double latMax = Double.NaN;
+	private double lonMin = Double.NaN;
+	private double lonMax = Double.NaN;
+
+	public CatalogEntry() {
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public void setPath(String path) {
+		this.path = path;
+	}
+
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	public void setLastModified(long lastModified) {
+		this.lastModified = lastModified;
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	public void setLength(long length) {
+		this.length = length;
+	}
+
+	public Map<String, Integer> getDimensions() {
+		return dimensions;
+	}
+
+	public void setDimensions(Map<String, Integer> dimensions) {
+		this.dimensions = dimensions;
+	}
+
+	public List<VariableEntry> getVariables() {
+		return variables;
+	}
+
+	public void setVariables(List<VariableEntry> variables) {
+		this.variables = variables;
+	}
+
+	public Map<String, String> getAttributes() {
+		return attributes;
+	}
+
+	public void setAttributes(Map<String, String> attributes) {
+		this.attributes = attributes;
+	}
+
+	public int getFirstDate() {
+		return firstDate;
+	}
+
+	public void setFirstDate(int firstDate) {
+		this.firstDate = firstDate;
+	}
+
+	public int getLastDate() {
+		return lastDate;
+	}
+
+	public void setLastDate(int lastDate) {
+		this.lastDate = lastDate;
+	}
+
+	public double getLatMin() {
+		return latMin;
+	}
+
+	public void setLatMin(double latMin) {
+		this.latMin = latMin;
+	}
+
+	public double getLatMax() {
+		return latMax;
+	}
+
+	public void setLatMax(double latMax) {
+		this.latMax = latMax;
+	}
+
+	public double getLonMin() {
+		return lonMin;
+	}
+
+	public void setLonMin(double lonMin) {
+		this.lonMin = lonMin;
+	}
+
+	public double getLonMax() {
+		return lonMax;
+	}
+
+	public void setLonMax(double lonMax) {
+		this.lonMax = lonMax;
+	}
+
+	public VariableEntry findVariable(String name) {
+		for (VariableEntry variable : variables) {
+			if (variable.getName().equals(name)) {
+				return variable;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return "CatalogEntry [path=" + path + ", dimensions=" + dimensions + ", variables=" + variables
+				+ ", firstDate=" + firstDate + ", lastDate=" + lastDate + ", lat=" + latMin + ":" + latMax + ", lon="
+				+ lonMin + ":" + lonMax + "]";
+	}
+
+	/**
+	 * A variable: type, dimensions, shape and attributes.
+	 */
+	@JsonIgnoreProperties(ignoreUnknown = true)
+	public static class VariableEntry {
+		private String name;
+		private String type;
+		private List<String> dimensions = new ArrayList<>();
+		private int[] shape;
+		private Map<String, String> attributes = new LinkedHashMap<>();
+
+		public VariableEntry() {
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public String getType() {
+			return type;
+		}
+
+		public void setType(String type) {
+			this.type = type;
+		}
+
+		public List<String> getDimensions() {
+			return dimensions;
+		}
+
+		public void setDimensions(List<String> dimensions) {
+			this.dimensions = dimensions;
+		}
+
+		public int[] getShape() {
+			return shape;
+		}
+
+		public void setShape(int[] shape) {
+			this.shape = shape;
+		}
+
+		public Map<String, String> getAttributes() {
+			return attributes;
+		}
+
+		public void setAttributes(Map<String, String> attributes) {
+			this.attributes = attributes;
+		}
+
+		@Override
+		public String toString() {
+			return type + " " + name + dimensions;
+		}
+	}
+}
@@ -0,0 +1,390 @@
+package tech.geoskop.main;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Range;
+import ucar.nc2.Variable;
+
+/**
+ * Scan of a section of a variable in chunks along its first dimension, read
+ * ahead on a background thread: while the caller processes chunk N the chunks
+ * N+1 ... N+prefetch are being read, so the disk and the CPU work at the same
+ * time.
+ *
+ * At most prefetch + 1 chunks are in memory: the one of the caller and the ones
+ * read ahead (size the chunks with slabSteps). A chunk is valid until the next
+ * call to next, which gives it back. With asFloats the chunks are also
+ * converted to float on the background thread, into float[] buffers recycled
+ * from chunk to chunk. With a prefetch of 0 the chunks are read by the caller,
+ * one at a time.
+ *
+ * <pre>
+ * try (ChunkIterator chunks = new ChunkIterator(variable, steps, ChunkIterator.DEFAULT_PREFETCH)) {
+ * 	while (chunks.hasNext()) {
+ * 		ChunkIterator.Chunk chunk = chunks.next();
+ * 		...
+ * 	}
+ * }
+ * </pre>
+ *
+ */
+public class ChunkIterator implements Closeable {
+
+	public static final int DEFAULT_PREFETCH = 2;
+
+	private static final Chunk END = new Chunk(-1, null, 0, 0, null, null);
+
+	private final Variable variable;
+	private final List<Range> section;
+	private final int slabSteps;
+	private final int prefetch;
+	private final int chunks;
+
+	private final long rowValues;
+
+	private boolean floats;
+	private Netcdf3Mapped mapped;
+
+	private ExecutorService reader;
+	private final BlockingQueue<Chunk> queue = new LinkedBlockingQueue<>();
+	private Semaphore permits;
+	private final AtomicReference<Exception> failure = new AtomicReference<>();
+	private final ConcurrentLinkedQueue<float[]> buffers = new ConcurrentLinkedQueue<>();
+
+	private Chunk current;
+	private int taken;
+
+	/**
+	 * Scan of a whole variable.
+	 *
+	 * @param variable
+	 * @param slabSteps steps of the first dimension of a chunk.
+	 * @param prefetch  chunks read ahead.
+	 */
+	public ChunkIterator(Variable variable, int slabSteps, int prefetch) {
+		this(variable, wholeSection(variable), slabSteps, prefetch);
+	}
+
+	/**
+	 * Scan of a section of a variable.
+	 *
+	 * @param variable
+	 * @param section   one range per dimension, Fortran 0 based inclusive upper
+	 *                  bound.
+	 * @param slabSteps steps of the first dimension of a chunk.
+	 * @param prefetch  chunks read ahead.
+	 */
+	public ChunkIterator(Variable variable, List<Range> section, int slabSteps, int prefetch) {
+		if (section.isEmpty()) {
+			throw new IllegalArgumentException("Variable " + variable.getShortName() + " has no dimension to scan");
+		}
+
+		this.variable = variable;
+		this.section = section;
+		this.slabSteps = Math.max(1, slabSteps);
+		this.prefetch = Math.max(0, prefetch);
+
+		int length = section.get(0).length();
+		this.chunks = (length + this.slabSteps - 1) / this.slabSteps;
+
+		long values = 1;
+		for (int d = 1; d < section.size(); d++) {
+			values *= section.get(d).length();
+		}
+		this.rowValues = values;
+	}
+
+	/**
+	 * Steps of a chunk so prefetch + 1 chunks fit in the heap budget.
+	 *
+	 * @param variable
+	 * @param heapBudget
+	 * @param prefetch
+	 * @return at least one.
+	 */
+	public static int slabSteps(Variable variable, long heapBudget, int prefetch) {
+		int[] shape = variable.getShape();
+
+		long rowBytes = variable.getElementSize();
+		for (int d = 1; d < shape.length; d++) {
+			rowBytes *= shape[d];
+		}
+
+		long steps = heapBudget / ((Math.max(0, prefetch) + 1) * Math.max(1, rowBytes));
+
+		return (int) Math.max(1, Math.min(shape.length > 0 ? shape[0] : 1, steps));
+	}
+
+	/**
+	 * Converts the chunks to float (Chunk.getFloats) on the background thread. A
+	 * FLOAT variable of a classic netcdf-3 file is read from its mapping
+	 * (Netcdf3Mapped), without the Array. Call it before the first next.
+	 *
+	 * @return this.
+	 */
+	public ChunkIterator asFloats() {
+		this.floats = true;
+		this.mapped = variable.getDataType() == DataType.FLOAT ? Netcdf3Mapped.of(variable) : null;
+		return this;
+	}
+
+	public int getChunks() {
+		return chunks;
+	}
+
+	public boolean hasNext() {
+		return taken < chunks;
+	}
+
+	/**
+	 * The next chunk. The previous one is given back, its data must not be used
+	 * anymore.
+	 *
+	 * @return
+	 * @throws IOException
+	 * @throws InvalidRangeException
+	 */
+	public Chunk next() throws IOException, InvalidRangeException {
+		if (!hasNext()) {
+			throw new IllegalStateException("No more chunks of " + variable.getShortName());
+		}
+
+		release(current);
+		current = null;
+
+		if (prefetch == 0) {
+			current = read(taken);
+		} else {
+			if (reader == null) {
+				start();
+			}
+
+			Chunk chunk;
+			try {
+				chunk = queue.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted reading " + variable.getShortName(), e);
+			}
+
+			if (chunk == END) {
+				Exception e = failure.get();
+				if (e instanceof InvalidRangeException) {
+					throw (InvalidRangeException) e;
+				}
+				throw new IOException("Failed reading " + variable.getShortName(), e);
+			}
+
+			current = chunk;
+		}
+
+		taken++;
+		return current;
+	}
+
+	@Override
+	public void close() {
+		if (reader != null) {
+			reader.shutdownNow();
+			reader = null;
+		}
+		queue.clear();
+		buffers.clear();
+		current = null;
+	}
+
+	private void start() {
+		permits = new Semaphore(prefetch);
+		reader = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "read-ahead-" + variable.getShortName());
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		reader.execute(() -> {
+			try {
+				for (int c = 0; c < chunks; c++) {
+					permits.acquire();
+					queue.put(read(c));
+				}
+			} catch (InterruptedException e) {
+				// Closed before the end.
+				Thread.currentThread().interrupt();
+			} catch (IOException | InvalidRangeException | RuntimeException e) {
+				failure.compareAndSet(null, e);
+				queue.offer(END);
+			}
+		});
+	}
+
+	/**
+	 * Reads a chunk, converted to float if asked.
+	 */
+	private Chunk read(int c) throws IOException, InvalidRangeException {
+		Range first = section.get(0);
+		int offSet = c * slabSteps;
+		int upTo = Math.min(offSet + slabSteps, first.length()) - 1;
+
+		List<Range> ranges = new ArrayList<>(section);
+		ranges.set(0, new Range(first.element(offSet), first.element(upTo), first.stride()));
+
+		int steps = upTo - offSet + 1;
+
+		// A mapped float variable is copied straight into a recycled buffer.
+		if (floats && mapped != null) {
+			IoMetrics.Sample sample = IoMetrics.start(IoMetrics.READ, variable);
+			float[] values = mapped.readFloats(variable.getShortName(), ranges, buffers.poll());
+			sample.stop(4L * steps * rowValues);
+
+			return new Chunk(offSet, ranges, steps, steps * rowValues, null, values);
+		}
+
+		IoMetrics.Sample sample = IoMetrics.start(IoMetrics.READ, variable);
+		Array data = sample.stop(variable.read(ranges));
+
+		float[] values = null;
+		if (floats) {
+			values = toFloats(data);
+		}
+
+		return new Chunk(offSet, ranges, steps, data.getSize(), data, values);
+	}
+
+	/**
+	 * The float storage of an array: its own if it is float, else a recycled
+	 * buffer with the values converted.
+	 */
+	private float[] toFloats(Array data) {
+		if (data.getDataType() == DataType.FLOAT) {
+			return (float[]) data.get1DJavaArray(DataType.FLOAT);
+		}
+
+		int length = (int) data.getSize();
+		float[] values = buffers.poll();
+		if (values == null || values.length < length) {
+			values = new float[length];
+		}
+
+		for (int i = 0; i < length; i++) {
+			values[i] = data.getFloat(i);
+		}
+
+		return values;
+	}
+
+	/**
+	 * Gives back a chunk: a permit to read one more and its float buffer, if it
+	 * is not the storage of the array.
+	 */
+	private void release(Chunk chunk) {
+		if (chunk == null) {
+			return;
+		}
+
+		if (chunk.floats != null && (chunk.data == null || chunk.data.getDataType() != DataType.FLOAT)) {
+			buffers.offer(chunk.floats);
+		}
+
+		if (permits != null) {
+			permits.release();
+		}
+	}
+
+	private static List<Range> wholeSection(Variable variable) {
+		List<Range> section = new ArrayList<>();
+		try {
+			for (int length : variable.getShape()) {
+				section.add(new Range(0, length - 1));
+			}
+		} catch (InvalidRangeException e) {
+			throw new IllegalArgumentException("Empty dimension in " + variable.getShortName(), e);
+		}
+		return section;
+	}
+
+	/**
+	 * A chunk of the scan.
+	 */
+	public static class Chunk {
+		private final int first;
+		private final List<Range> ranges;
+		private final int steps;
+		private final long size;
+		private final Array data;
+		private final float[] floats;
+
+		Chunk(int first, List<Range> ranges, int steps, long size, Array data, float[] floats) {
+			this.first = first;
+			this.ranges = ranges;
+			this.steps = steps;
+			this.size = size;
+			this.data = data;
+			this.floats = floats;
+		}
+
+		/**
+		 * Position in the section of the first step of the chunk.
+		 */
+		public int getFirst() {
+			return first;
+		}
+
+		/**
+		 * Ranges of the chunk in the variable.
+		 */
+		public List<Range> getRanges() {
+			return ranges;
+		}
+
+		public int getSteps() {
+			return steps;
+		}
+
+		/**
+		 * Values of the chunk.
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * The array read, null if the chunk was read from a mapping.
+		 */
+		public Array getData() {
+			return data;
+		}
+
+		/**
+		 * The values as float, with asFloats; a recycled buffer may be longer than
+		 * the chunk.
+		 */
+		public float[] getFloats() {
+			return floats;
+		}
+
+		/**
+		 * The float values, with asFloats, as a cube of the shape of the chunk
+		 * (rank 1 to 3).
+		 */
+		public FloatCube getFloatCube() {
+			int[] shape = new int[ranges.size()];
+			for (int d = 0; d < shape.length; d++) {
+				shape[d] = ranges.get(d).length();
+			}
+			return FloatCube.wrap(floats, shape);
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package tech.geoskop.main;
+
+/**
+ * Definition of a daily climate index counted per year: the days whose value
+ * is above or below a threshold (tropical nights, frost days, summer days), or
+ * the longest spell of consecutive such days (hot spells, dry spells).
+ *
+ * Each index expects a daily input variable, which is not checked: tropical
+ * nights and frost days the daily minimum temperature (tasmin), summer days and
+ * hot spells the daily maximum temperature (tasmax), dry spells the daily
+ * precipitation (pr) in mm/day. Temperature thresholds are given in degrees
+ * Celsius and converted when the variable is in Kelvin; other thresholds are in
+ * the units of the variable.
+ *
+ */
+public class ClimateIndex {
+
+	public static final double KELVIN = 273.15;
+
+	public enum Kind {
+		COUNT, SPELL
+	}
+
+	public enum Condition {
+		ABOVE, BELOW
+	}
+
+	// Daily tasmin.
+	public static final ClimateIndex TROPICAL_NIGHTS = temperature("tr", "Tropical nights", Kind.COUNT,
+			Condition.ABOVE, 20);
+
+	// Daily tasmin.
+	public static final ClimateIndex FROST_DAYS = temperature("fd", "Frost days", Kind.COUNT, Condition.BELOW, 0);
+
+	// Daily tasmax.
+	public static final ClimateIndex SUMMER_DAYS = temperature("su", "Summer days", Kind.COUNT, Condition.ABOVE,
+			25);
+
+	// Daily tasmax.
+	public static final ClimateIndex HOT_SPELL = temperature("csu", "Maximum number of consecutive summer days",
+			Kind.SPELL, Condition.ABOVE, 25);
+
+	// Daily pr, in mm/day.
+	public static final ClimateIndex DRY_SPELL = new ClimateIndex("cdd", "Maximum number of consecutive dry days",
+			Kind.SPELL, Condition.BELOW, 1, false);
+
+	private final String name;
+	private final String longName;
+	private final Kind kind;
+	private final Condition condition;
+	private final double threshold;
+	private final boolean celsius;
+
+	public ClimateIndex(String name, String longName, Kind kind, Condition condition, double threshold,
+			boolean celsius) {
+		this.name = name;
+		this.longName = longName;
+		this.kind = kind;
+		this.condition = condition;
+		this.threshold = threshold;
+		this.celsius = celsius;
+	}
+
+	/**
+	 * An index with a threshold in degrees Celsius.
+	 *
+	 * @param name
+	 * @param longName
+	 * @param kind
+	 * @param condition
+	 * @param celsius
+	 * @return
+	 */
+	public static ClimateIndex temperature(String name, String longName, Kind kind, Condition condition,
+			double celsius) {
+		return new ClimateIndex(name, longName, kind, condition, celsius, true);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getLongName() {
+		return longName;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	public Condition getCondition() {
+		return condition;
+	}
+
+	/**
+	 * The threshold in the units of a variable.
+	 *
+	 * @param units
+	 * @return
+	 */
+	public double getThreshold(String units) {
+		if (celsius && units != null && (units.equals("K") || units.equalsIgnoreCase("kelvin"))) {
+			return threshold + KELVIN;
+		}
+		return threshold;
+	}
+
+	@Override
+	public String toString() {
+		return "ClimateIndex [name=" + name + ", kind=" + kind + ", condition=" + condition + ", threshold="
+				+ threshold + (celsius ? " C" : "") + "]";
+	}
+}
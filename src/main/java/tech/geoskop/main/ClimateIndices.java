@@ -0,0 +1,408 @@
+package tech.geoskop.main;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.Attribute;
+import ucar.nc2.Dimension;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Variable;
+import ucar.nc2.write.NetcdfFormatWriter;
+
+/**
+ * Computation of annual climate indices (tropical nights, frost days, summer
+ * days, hot and dry spells, see ClimateIndex) of a daily (time, y, x) variable
+ * in a single streaming pass, written to a new netcdf file with one step per
+ * year.
+ *
+ * The variable is read once, ahead (ChunkIterator), in time slabs bounded by
+ * the heap budget, whatever the number of indices. The state of an index is a
+ * couple of short counters per cell (days, current spell), reset every year,
+ * so the memory does not depend on the length of the series. The cells are
+ * split in tiles across a fork-join pool.
+ *
+ * Usage:
+ *
+ * <pre>
+ * CopyStats stats = new ClimateIndices(source, destination, "tasmin").addIndex(ClimateIndex.TROPICAL_NIGHTS)
+ * 		.addIndex(ClimateIndex.FROST_DAYS).compute();
+ * </pre>
+ *
+ */
+public class ClimateIndices {
+
+	// Value of a cell without data in a year.
+	public static final short NO_DATA = -1;
+
+	// Cells below which a fork-join task is not split.
+	private static final int CELLS_PER_TASK = 4096;
+
+	private final String sourcePath;
+	private final String destinationPath;
+	private final String variableName;
+
+	// name -> index.
+	private final Map<String, ClimateIndex> indices = new LinkedHashMap<>();
+
+	private long heapBudget = SubsetCopy.DEFAULT_HEAP_BUDGET;
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	public ClimateIndices(String sourcePath, String destinationPath, String variableName) {
+		this.sourcePath = sourcePath;
+		this.destinationPath = destinationPath;
+		this.variableName = variableName;
+	}
+
+	public ClimateIndices addIndex(ClimateIndex index) {
+		indices.put(index.getName(), index);
+		return this;
+	}
+
+	public ClimateIndices setHeapBudget(long heapBudget) {
+		if (heapBudget <= 0) {
+			throw new IllegalArgumentException("Heap budget must be positive: " + heapBudget);
+		}
+		this.heapBudget = heapBudget;
+		return this;
+	}
+
+	public ClimateIndices setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Threads must be at least 1: " + threads);
+		}
+		this.threads = threads;
+		return this;
+	}
+
+	/**
+	 * Creates the destination file and computes the indices.
+	 *
+	 * @return
+	 * @throws IOException
+	 * @throws InvalidRangeException
+	 */
+	public CopyStats compute() throws IOException, InvalidRangeException {
+		if (indices.isEmpty()) {
+			throw new IllegalArgumentException("No indices to compute");
+		}
+
+		long start = System.nanoTime();
+		long bytes = 0;
+		int slabs = 0;
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+
+		try (NetcdfFile source = NetcdfFiles.open(sourcePath)) {
+			Variable time = source.findVariable(NetCDFTool.TIME);
+			Variable variable = source.findVariable(variableName);
+
+			if (time == null) {
+				throw new IllegalArgumentException("No " + NetCDFTool.TIME + " in " + sourcePath);
+			}
+			if (variable == null) {
+				throw new IllegalArgumentException("Variable " + variableName + " not found in " + sourcePath);
+			}
+			if (variable.getRank() < 1 || !NetCDFTool.TIME.equals(variable.getDimension(0).getShortName())) {
+				throw new IllegalArgumentException("Variable " + variableName + " is not (time, ...)");
+			}
+
+			TimeAxis axis = TimeAxis.of(source, time);
+			TemporalAggregation.Periods years = TemporalAggregation.Periods.of(axis,
+					TemporalAggregation.Period.ANNUAL);
+
+			NetcdfFormatWriter.Builder builder = NetcdfFormatWriter.createNewNetcdf3(destinationPath);
+			List<Variable> copied = define(source, time, variable, years, builder);
+
+			try (NetcdfFormatWriter writer = builder.build()) {
+				years.write(writer, axis.getUnits());
+
+				for (Variable staticVariable : copied) {
+					Array data = staticVariable.read();
+					writer.write(writer.findVariable(staticVariable.getShortName()), data);
+					bytes += data.getSize() * staticVariable.getElementSize();
+				}
+
+				long[] read = compute(variable, years, writer, pool);
+				bytes += read[0];
+				slabs += (int) read[1];
+			}
+		} finally {
+			pool.shutdown();
+		}
+
+		return new CopyStats(1, slabs, bytes, System.nanoTime() - start);
+	}
+
+	/**
+	 * The single pass: slabs are split at the end of the years, so every segment
+	 * of steps belongs to one year, and a year is written when its last step is
+	 * counted.
+	 *
+	 * @return bytes and slabs read.
+	 */
+	private long[] compute(Variable variable, TemporalAggregation.Periods years, NetcdfFormatWriter writer,
+			ForkJoinPool pool) throws IOException, InvalidRangeException {
+
+		int[] shape = variable.getShape();
+		int cells = 1;
+		for (int d = 1; d < shape.length; d++) {
+			cells *= shape[d];
+		}
+
+		float fill = (float) variable.attributes().findAttributeDouble(TemporalAggregation.FILL_VALUE,
+				variable.attributes().findAttributeDouble(TemporalAggregation.MISSING_VALUE, Double.NaN));
+
+		String units = variable.getUnitsString();
+		List<ClimateIndex> list = new ArrayList<>(indices.values());
+		IndexState[] states = new IndexState[list.size()];
+		for (int i = 0; i < states.length; i++) {
+			ClimateIndex index = list.get(i);
+			states[i] = new IndexState(index, (float) index.getThreshold(units), cells);
+		}
+		short[] valid = new short[cells];
+
+		int steps = ChunkIterator.slabSteps(variable, heapBudget, ChunkIterator.DEFAULT_PREFETCH);
+		long bytes = 0;
+		int slabs = 0;
+
+		// The next slabs are read while the indices take this one.
+		try (ChunkIterator chunks = new ChunkIterator(variable, steps, ChunkIterator.DEFAULT_PREFETCH).asFloats()) {
+			while (chunks.hasNext()) {
+				ChunkIterator.Chunk chunk = chunks.next();
+				float[] values = chunk.getFloats();
+				int t0 = chunk.getFirst();
+				int ts = chunk.getSteps();
+
+				int from = 0;
+				while (from < ts) {
+					int year = years.periodOf[t0 + from];
+					int to = Math.min(ts, years.lastStep[year] - t0 + 1);
+
+					pool.invoke(new SegmentTask(values, cells, from, to, 0, cells, fill, states, valid));
+
+					if (years.lastStep[year] == t0 + to - 1) {
+						write(year, shape, states, valid, writer);
+					}
+					from = to;
+				}
+
+				bytes += chunk.getSize() * variable.getElementSize();
+				slabs++;
+			}
+		}
+
+		return new long[] { bytes, slabs };
+	}
+
+	/**
+	 * Writes the indices of a year and resets the counters.
+	 */
+	private void write(int year, int[] shape, IndexState[] states, short[] valid, NetcdfFormatWriter writer)
+			throws IOException, InvalidRangeException {
+
+		int[] origin = new int[shape.length];
+		int[] count = shape.clone();
+		origin[0] = year;
+		count[0] = 1;
+
+		for (IndexState state : states) {
+			short[] result = new short[valid.length];
+			for (int c = 0; c < valid.length; c++) {
+				result[c] = valid[c] == 0 ? NO_DATA : state.days[c];
+			}
+
+			writer.write(writer.findVariable(state.index.getName()), origin,
+					Array.factory(DataType.SHORT, count, result));
+			state.reset();
+		}
+
+		Arrays.fill(valid, (short) 0);
+	}
+
+	/**
+	 * Adds the dimensions, the annual time and bounds, the variables without time
+	 * and the indices to the builder.
+	 *
+	 * @return the variables copied as they are.
+	 */
+	private List<Variable> define(NetcdfFile source, Variable time, Variable variable,
+			TemporalAggregation.Periods years, NetcdfFormatWriter.Builder builder) {
+
+		Map<String, Dimension> mapDims = new HashMap<>();
+		List<Long> variableBytes = new ArrayList<>();
+
+		List<Variable> copied = TemporalAggregation.defineTime(source, time, years, builder, mapDims, variableBytes);
+
+		List<Dimension> dimensions = TemporalAggregation.dimensions(builder, mapDims, variable);
+		int[] shape = variable.getShape();
+		shape[0] = years.size();
+
+		for (ClimateIndex index : indices.values()) {
+			builder.addVariable(index.getName(), DataType.SHORT, dimensions)
+					.addAttribute(new Attribute("long_name", index.getLongName()))
+					.addAttribute(new Attribute(NetCDFTool.UNITS, "days"))
+					.addAttribute(new Attribute("threshold", index.getThreshold(variable.getUnitsString())))
+					.addAttribute(new Attribute("condition", variableName + " "
+							+ (index.getCondition() == ClimateIndex.Condition.ABOVE ? ">" : "<")))
+					.addAttribute(new Attribute(TemporalAggregation.FILL_VALUE, NO_DATA));
+
+			variableBytes.add(LargeFile.bytes(DataType.SHORT, shape));
+		}
+
+		LargeFile.setFormat(builder, destinationPath, variableBytes.stream().mapToLong(Long::longValue).toArray());
+
+		return copied;
+	}
+
+	/**
+	 * Per-cell counters of an index in the current year: days for a count, or
+	 * longest spell and current spell for a spell.
+	 */
+	static class IndexState {
+		final ClimateIndex index;
+		final float threshold;
+		final boolean above;
+		final short[] days;
+		final short[] run;
+
+		IndexState(ClimateIndex index, float threshold, int cells) {
+			this.index = index;
+			this.threshold = threshold;
+			this.above = index.getCondition() == ClimateIndex.Condition.ABOVE;
+			this.days = new short[cells];
+			this.run = index.getKind() == ClimateIndex.Kind.SPELL ? new short[cells] : null;
+		}
+
+		/**
+		 * Counts a step of a range of cells. NaN never meets the condition, so it
+		 * breaks a spell.
+		 */
+		void add(float[] values, int offset, int from, int to) {
+			for (int c = from; c < to; c++) {
+				float value = values[offset + c];
+				boolean meets = above ? value > threshold : value < threshold;
+
+				if (run == null) {
+					if (meets) {
+						days[c]++;
+					}
+				} else if (meets) {
+					run[c]++;
+					if (run[c] > days[c]) {
+						days[c] = run[c];
+					}
+				} else {
+					run[c] = 0;
+				}
+			}
+		}
+
+		void reset() {
+			Arrays.fill(days, (short) 0);
+			if (run != null) {
+				Arrays.fill(run, (short) 0);
+			}
+		}
+	}
+
+	/**
+	 * Counts the steps [from, to) of a slab for a tile of cells, splitting the
+	 * tile while it is large.
+	 */
+	private static class SegmentTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final float[] values;
+		private final int cells;
+		private final int from;
+		private final int to;
+		private final int cellFrom;
+		private final int cellTo;
+		private final float fill;
+		private final IndexState[] states;
+		private final short[] valid;
+
+		SegmentTask(float[] values, int cells, int from, int to, int cellFrom, int cellTo, float fill,
+				IndexState[] states, short[] valid) {
+			this.values = values;
+			this.cells = cells;
+			this.from = from;
+			this.to = to;
+			this.cellFrom = cellFrom;
+			this.cellTo = cellTo;
+			this.fill = fill;
+			this.states = states;
+			this.valid = valid;
+		}
+
+		@Override
+		protected void compute() {
+			if (cellTo - cellFrom > CELLS_PER_TASK) {
+				int middle = (cellFrom + cellTo) >>> 1;
+				invokeAll(new SegmentTask(values, cells, from, to, cellFrom, middle, fill, states, valid),
+						new SegmentTask(values, cells, from, to, middle, cellTo, fill, states, valid));
+				return;
+			}
+
+			for (int t = from; t < to; t++) {
+				int offset = t * cells;
+
+				for (int c = cellFrom; c < cellTo; c++) {
+					float value = values[offset + c];
+					if (value == fill) {
+						values[offset + c] = Float.NaN;
+					} else if (!Float.isNaN(value)) {
+						valid[c]++;
+					}
+				}
+
+				for (IndexState state : states) {
+					state.add(values, offset, cellFrom, cellTo);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Computes indices of a file: source destination variable index... (tr, fd,
+	 * su, csu, cdd).
+	 *
+	 * @param args
+	 * @throws IOException
+	 * @throws InvalidRangeException
+	 */
+	public static void main(String[] args) throws IOException, InvalidRangeException {
+		if (args.length < 4) {
+			System.err.println("Usage: ClimateIndices source.nc destination.nc variable tr|fd|su|csu|cdd ...");
+			return;
+		}
+
+		Map<String, ClimateIndex> known = new HashMap<>();
+		for (ClimateIndex index : new ClimateIndex[] { ClimateIndex.TROPICAL_NIGHTS, ClimateIndex.FROST_DAYS,
+				ClimateIndex.SUMMER_DAYS, ClimateIndex.HOT_SPELL, ClimateIndex.DRY_SPELL }) {
+			known.put(index.getName(), index);
+		}
+
+		ClimateIndices climateIndices = new ClimateIndices(args[0], args[1], args[2]);
+		for (int a = 3; a < args.length; a++) {
+			ClimateIndex index = known.get(args[a]);
+			if (index == null) {
+				throw new IllegalArgumentException("Unknown index " + args[a] + ", one of " + known.keySet());
+			}
+			climateIndices.addIndex(index);
+		}
+
+		System.out.println(climateIndices.compute());
+	}
+}
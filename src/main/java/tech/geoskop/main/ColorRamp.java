@@ -0,0 +1,94 @@
+package tech.geoskop.main;
+
+/**
+ * Linear colour ramp between colour stops, precomputed in a table so colouring
+ * a value is a scale and a lookup.
+ *
+ */
+public class ColorRamp {
+
+	public static final int TABLE_SIZE = 256;
+
+	// Transparent, for NaN.
+	public static final int NO_DATA = 0x00000000;
+
+	private final double min;
+	private final double max;
+	private final int[] table = new int[TABLE_SIZE];
+
+	/**
+	 * A ramp from min to max through equally spaced colours.
+	 *
+	 * @param min
+	 * @param max
+	 * @param colors RGB colours, at least two.
+	 */
+	public ColorRamp(double min, double max, int... colors) {
+		if (colors.length < 2) {
+			throw new IllegalArgumentException("A ramp needs at least two colors");
+		}
+		if (!(max > min)) {
+			throw new IllegalArgumentException("Max " + max + " must be greater than min " + min);
+		}
+
+		this.min = min;
+		this.max = max;
+
+		for (int i = 0; i < TABLE_SIZE; i++) {
+			double position = (double) i / (TABLE_SIZE - 1) * (colors.length - 1);
+			int stop = Math.min((int) position, colors.length - 2);
+			double t = position - stop;
+
+			table[i] = 0xFF000000 | interpolate(colors[stop], colors[stop + 1], t);
+		}
+	}
+
+	/**
+	 * Blue, white, red ramp for temperatures in Kelvin.
+	 *
+	 * @param min
+	 * @param max
+	 * @return
+	 */
+	public static ColorRamp temperature(double min, double max) {
+		return new ColorRamp(min, max, 0x313695, 0x4575B4, 0x74ADD1, 0xE0F3F8, 0xFEE090, 0xF46D43, 0xA50026);
+	}
+
+	/**
+	 * ARGB colour of a value, clamped to the ramp, transparent for NaN.
+	 *
+	 * @param value
+	 * @return
+	 */
+	public int argb(double value) {
+		if (Double.isNaN(value)) {
+			return NO_DATA;
+		}
+
+		int i = (int) ((value - min) / (max - min) * (TABLE_SIZE - 1));
+
+		if (i < 0) {
+			i = 0;
+		} else if (i >= TABLE_SIZE) {
+			i = TABLE_SIZE - 1;
+		}
+
+		return table[i];
+	}
+
+	public double getMin() {
+		return min;
+	}
+
+	public double getMax() {
+		return max;
+	}
+
+	private static int interpolate(int from, int to, double t) {
+		int r = (int) Math.round(((from >> 16) & 0xFF) * (1 - t) + ((to >> 16) & 0xFF) * t);
+		int g = (int) Math.round(((from >> 8) & 0xFF) * (1 - t) + ((to >> 8) & 0xFF) * t);
+		int b = (int) Math.round((from & 0xFF) * (1 - t) + (to & 0xFF) * t);
+
+		return (r << 16) | (g << 8) | b;
+	}
+}
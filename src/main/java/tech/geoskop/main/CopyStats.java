@@ -0,0 +1,55 @@
+package tech.geoskop.main;
+
+/**
+ * Summary of a copy: what was copied and how fast.
+ *
+ */
+public class CopyStats {
+
+	private final int variables;
+	private final int slabs;
+	private final long bytes;
+	private final long nanos;
+
+	public CopyStats(int variables, int slabs, long bytes, long nanos) {
+		this.variables = variables;
+		this.slabs = slabs;
+		this.bytes = bytes;
+		this.nanos = nanos;
+	}
+
+	public int getVariables() {
+		return variables;
+	}
+
+	public int getSlabs() {
+		return slabs;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	public long getNanos() {
+		return nanos;
+	}
+
+	public double getSeconds() {
+		return nanos / 1e9;
+	}
+
+	/**
+	 * Throughput in MB (10^6 bytes) per second.
+	 *
+	 * @return
+	 */
+	public double getMegabytesPerSecond() {
+		return nanos == 0 ? 0 : (bytes / 1e6) / getSeconds();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Copied %d variables, %d slabs, %d bytes in %.3f s (%.1f MB/s)", variables, slabs, bytes,
+				getSeconds(), getMegabytesPerSecond());
+	}
+}
@@ -114,6 +114,15 @@ public class CreateNetCdfBack {
 		
 		// 5. MainVar2 XXX ?
 		
+		// tas alone is ~1.8 GB: classic or 64-bit offset from the size of the
+		// variables.
+		LargeFile.setFormat(builder, PATH_TO_NET_CDF_CREATE_FILE,
+				LargeFile.bytes(DataType.CHAR, spatialRefDim.getLength()),
+				LargeFile.bytes(DataType.FLOAT, latDim.getLength(), lonDim.getLength()),
+				LargeFile.bytes(DataType.FLOAT, latDim.getLength(), lonDim.getLength()),
+				LargeFile.bytes(DataType.INT, timeDim.getLength()),
+				LargeFile.bytes(DataType.FLOAT, timeDim.getLength(), latDim.getLength(), lonDim.getLength()));
+
 		// 10) Now that the metadata (Dimensions, Variables, and Attributes) is added to the builder, build the writer
 		// At this point, the (empty) file will be written to disk, and the metadata is fixed and cannot be changed or
 		// added.
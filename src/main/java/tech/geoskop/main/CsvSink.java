@@ -0,0 +1,89 @@
+package tech.geoskop.main;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Export sink writing one CSV line per value: the indices of the value and the
+ * value, preceded by its date when a time axis is given.
+ *
+ */
+public class CsvSink implements ExportSink {
+
+	private final AsciiWriter writer;
+	private final int decimals;
+	private TimeAxis timeAxis;
+
+	public CsvSink(OutputStream output, int decimals) {
+		this.writer = new AsciiWriter(output);
+		this.decimals = decimals;
+	}
+
+	/**
+	 * A sink writing to a new file.
+	 *
+	 * @param path
+	 * @param decimals
+	 * @return
+	 * @throws IOException
+	 */
+	public static CsvSink toFile(String path, int decimals) throws IOException {
+		return new CsvSink(Channels.newOutputStream(FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)), decimals);
+	}
+
+	/**
+	 * Adds a date column, the date of the first index.
+	 *
+	 * @param timeAxis
+	 * @return
+	 */
+	public CsvSink setTimeAxis(TimeAxis timeAxis) {
+		this.timeAxis = timeAxis;
+		return this;
+	}
+
+	@Override
+	public void begin(String variable, int[] shape) throws IOException {
+		if (timeAxis != null) {
+			writer.append("date,");
+		}
+		for (int d = 0; d < shape.length; d++) {
+			writer.append("i").append(d).append(',');
+		}
+		writer.append(variable).newLine();
+	}
+
+	@Override
+	public void row(int[] index, Object storage, int offset, int length, int stride) throws IOException {
+		int last = index.length - 1;
+
+		for (int k = 0; k < length; k++) {
+			if (timeAxis != null) {
+				int date = timeAxis.getDate(index[0]);
+				writer.appendDate(TimeUnits.year(date), TimeUnits.month(date), TimeUnits.day(date)).append(',');
+			}
+			for (int d = 0; d < last; d++) {
+				writer.append(index[d]).append(',');
+			}
+			if (last >= 0) {
+				writer.append(index[last] + k * stride).append(',');
+			}
+			writer.append(ZarrChunks.getDouble(storage, offset + k), decimals).newLine();
+		}
+	}
+
+	@Override
+	public void end() throws IOException {
+		writer.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		writer.close();
+	}
+}
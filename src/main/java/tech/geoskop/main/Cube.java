@@ -0,0 +1,129 @@
+package tech.geoskop.main;
+
+import ucar.ma2.Range;
+
+/**
+ * Layout of a (time, y, x) cube over a flat primitive array: an offset and a
+ * stride per dimension, so a slice is a new layout over the same array, without
+ * copying. Arrays of rank 1 or 2 are cubes with leading dimensions of length 1.
+ *
+ * FloatCube, DoubleCube, IntCube and ShortCube add the array and cursors over a
+ * row (along x), a column (along y) or the series of a cell (along time). A
+ * cursor is a reusable (offset, stride, length) over the array, so the loops
+ * over it are plain indexed loops the JIT can unroll and, with a stride of 1,
+ * vectorise.
+ *
+ */
+public abstract class Cube {
+
+	protected final int offset;
+	protected final int nt;
+	protected final int ny;
+	protected final int nx;
+	protected final int st;
+	protected final int sy;
+	protected final int sx;
+
+	protected Cube(int offset, int nt, int ny, int nx, int st, int sy, int sx) {
+		if (nt < 0 || ny < 0 || nx < 0) {
+			throw new IllegalArgumentException("Negative shape " + nt + ", " + ny + ", " + nx);
+		}
+
+		this.offset = offset;
+		this.nt = nt;
+		this.ny = ny;
+		this.nx = nx;
+		this.st = st;
+		this.sy = sy;
+		this.sx = sx;
+	}
+
+	public int getNt() {
+		return nt;
+	}
+
+	public int getNy() {
+		return ny;
+	}
+
+	public int getNx() {
+		return nx;
+	}
+
+	public int getOffset() {
+		return offset;
+	}
+
+	public int getStrideT() {
+		return st;
+	}
+
+	public int getStrideY() {
+		return sy;
+	}
+
+	public int getStrideX() {
+		return sx;
+	}
+
+	public long size() {
+		return (long) nt * ny * nx;
+	}
+
+	/**
+	 * Position in the array of a value.
+	 */
+	public int index(int t, int j, int i) {
+		return offset + t * st + j * sy + i * sx;
+	}
+
+	/**
+	 * True if the values are the array from the offset, row-major, without gaps.
+	 */
+	public boolean isContiguous() {
+		return sx == 1 && sy == nx && st == ny * nx;
+	}
+
+	/**
+	 * Shape of an array of rank 1 to 3 as (nt, ny, nx).
+	 */
+	static int[] shape3(int[] shape) {
+		if (shape.length > 3) {
+			throw new IllegalArgumentException("A cube has at most 3 dimensions, not " + shape.length);
+		}
+
+		int[] shape3 = { 1, 1, 1 };
+		System.arraycopy(shape, 0, shape3, 3 - shape.length, shape.length);
+		return shape3;
+	}
+
+	/**
+	 * Layout of a slice: offset, nt, ny, nx, st, sy, sx. A null range keeps the
+	 * whole dimension.
+	 */
+	int[] sliceLayout(Range t, Range y, Range x) {
+		check(t, nt, "time");
+		check(y, ny, "y");
+		check(x, nx, "x");
+
+		int offset = this.offset + (t == null ? 0 : t.first() * st) + (y == null ? 0 : y.first() * sy)
+				+ (x == null ? 0 : x.first() * sx);
+
+		return new int[] { offset, t == null ? nt : t.length(), y == null ? ny : y.length(),
+				x == null ? nx : x.length(), t == null ? st : st * t.stride(), y == null ? sy : sy * y.stride(),
+				x == null ? sx : sx * x.stride() };
+	}
+
+	private static void check(Range range, int length, String dimension) {
+		if (range != null && (range.first() < 0 || range.last() >= length)) {
+			throw new IllegalArgumentException(
+					"Range " + range.first() + ":" + range.last() + " out of " + dimension + " of length " + length);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + " [" + nt + ", " + ny + ", " + nx + "] strides [" + st + ", " + sy + ", "
+				+ sx + "]";
+	}
+}
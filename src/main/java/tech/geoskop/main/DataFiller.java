@@ -0,0 +1,312 @@
+package tech.geoskop.main;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Range;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Variable;
+import ucar.nc2.write.NetcdfFormatWriter;
+
+/**
+ * Writes the data of the variables of a file created from a
+ * NetcdfCreationTemplate, from the DataSource of each variable.
+ *
+ * Every variable is written in record slabs along its first dimension (time
+ * for the main variables), as many steps per slab as fit in the heap budget,
+ * so no variable is ever fully in memory. The files copied from are opened
+ * once and kept open until the filler is closed.
+ *
+ */
+public class DataFiller implements Closeable {
+
+	private final NetcdfFormatWriter writer;
+	private final long heapBudget;
+
+	// path -> opened file, for copy sources.
+	private final Map<String, NetcdfFile> sources = new HashMap<>();
+
+	public DataFiller(NetcdfFormatWriter writer, long heapBudget) {
+		if (heapBudget <= 0) {
+			throw new IllegalArgumentException("Heap budget must be positive: " + heapBudget);
+		}
+		this.writer = writer;
+		this.heapBudget = heapBudget;
+	}
+
+	/**
+	 * Writes the values of a variable.
+	 *
+	 * @param name
+	 * @param data
+	 * @return bytes written.
+	 * @throws IOException
+	 * @throws InvalidRangeException
+	 */
+	public long fill(String name, DataSource data) throws IOException, InvalidRangeException {
+		Variable variable = writer.findVariable(name);
+		if (variable == null) {
+			throw new IllegalArgumentException("Variable " + name + " not found in the file being created");
+		}
+
+		String type = data.getType();
+
+		if (DataSource.CONSTANT.equals(type) && variable.getDataType() == DataType.CHAR && data.getText() != null) {
+			return fillText(variable, data.getText());
+		}
+
+		int[] shape = variable.getShape();
+		DataType dataType = variable.getDataType();
+
+		if (shape.length == 0) {
+			Array value = slab(variable, data, null, new int[0], new int[0]);
+			write(variable, new int[0], value);
+			return variable.getElementSize();
+		}
+
+		long rowBytes = variable.getElementSize();
+		for (int d = 1; d < shape.length; d++) {
+			rowBytes *= shape[d];
+		}
+		int steps = (int) Math.max(1, Math.min(shape[0], heapBudget / Math.max(1, rowBytes)));
+
+		List<Range> section = DataSource.COPY.equals(type) ? copySection(variable, data) : null;
+		FileChannel channel = DataSource.BINARY.equals(type)
+				? FileChannel.open(Paths.get(data.getFile()), StandardOpenOption.READ)
+				: null;
+
+		long bytes = 0;
+
+		try {
+			for (int t0 = 0; t0 < shape[0]; t0 += steps) {
+				int[] origin = new int[shape.length];
+				int[] count = shape.clone();
+				origin[0] = t0;
+				count[0] = Math.min(steps, shape[0] - t0);
+
+				Array slab = channel != null ? binarySlab(channel, data, dataType, origin, count, rowBytes)
+						: slab(variable, data, section, origin, count);
+
+				write(variable, origin, slab);
+				bytes += count[0] * rowBytes;
+			}
+		} finally {
+			if (channel != null) {
+				channel.close();
+			}
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * A slab of a constant, linear or copy source.
+	 */
+	private Array slab(Variable variable, DataSource data, List<Range> section, int[] origin, int[] count)
+			throws IOException, InvalidRangeException {
+
+		DataType dataType = variable.getDataType();
+		String type = data.getType();
+
+		if (DataSource.COPY.equals(type)) {
+			if (section == null) {
+				section = copySection(variable, data);
+			}
+
+			List<Range> ranges = new ArrayList<>(section);
+			if (!ranges.isEmpty()) {
+				Range first = section.get(0);
+				ranges.set(0, new Range(first.element(origin[0]), first.element(origin[0] + count[0] - 1),
+						first.stride()));
+			}
+
+			IoMetrics.Sample sample = IoMetrics.start(IoMetrics.READ, data.getVariable());
+			Array read = sample.stop(source(data).read(ranges));
+			if (read.getDataType() == dataType) {
+				return Array.factory(dataType, count, read.get1DJavaArray(dataType));
+			}
+
+			Array converted = Array.factory(dataType, count);
+			for (int i = 0; i < read.getSize(); i++) {
+				converted.setDouble(i, read.getDouble(i));
+			}
+			return converted;
+		}
+
+		int length = 1;
+		for (int c : count) {
+			length *= c;
+		}
+		Object storage = ZarrChunks.newArray(dataType, length);
+
+		if (DataSource.CONSTANT.equals(type)) {
+			ZarrChunks.fill(storage, data.getValue());
+
+		} else if (DataSource.LINEAR.equals(type)) {
+			int axis = data.getAxis();
+			if (axis < 0 || axis >= count.length) {
+				throw new IllegalArgumentException("Axis " + axis + " out of the dimensions of " + variable.getShortName());
+			}
+
+			// Elements with the same index along the axis are runs of inner elements.
+			int inner = 1;
+			for (int d = axis + 1; d < count.length; d++) {
+				inner *= count[d];
+			}
+
+			Array array = Array.factory(dataType, count, storage);
+			for (int i = 0; i < length; i++) {
+				int index = origin[axis] + (i / inner) % count[axis];
+				array.setDouble(i, data.getStart() + data.getStep() * index);
+			}
+			return array;
+
+		} else {
+			throw new IllegalArgumentException("Unknown data source " + type + " of " + variable.getShortName());
+		}
+
+		return Array.factory(dataType, count, storage);
+	}
+
+	/**
+	 * A slab of a raw binary file, read at its offset.
+	 */
+	private Array binarySlab(FileChannel channel, DataSource data, DataType dataType, int[] origin, int[] count,
+			long rowBytes) throws IOException {
+
+		ByteBuffer buffer = ByteBuffer.allocate((int) (count[0] * rowBytes));
+		long position = data.getOffset() + origin[0] * rowBytes;
+
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of " + data.getFile() + " at " + (position + buffer.position()));
+			}
+		}
+
+		ByteOrder order = "big".equalsIgnoreCase(data.getByteOrder()) ? ByteOrder.BIG_ENDIAN
+				: ByteOrder.LITTLE_ENDIAN;
+
+		return Array.factory(dataType, count, ZarrChunks.fromBytes(buffer.array(), dataType, order));
+	}
+
+	/**
+	 * Writes a slab, timed and counted by IoMetrics.
+	 */
+	private void write(Variable variable, int[] origin, Array slab) throws IOException, InvalidRangeException {
+		IoMetrics.Sample sample = IoMetrics.start(IoMetrics.WRITE, variable);
+		writer.write(variable, origin, slab);
+		sample.stop(slab);
+	}
+
+	/**
+	 * Writes a text in a CHAR variable, padded with zeros.
+	 */
+	private long fillText(Variable variable, String text) throws IOException, InvalidRangeException {
+		char[] chars = new char[(int) variable.getSize()];
+		text.getChars(0, Math.min(text.length(), chars.length), chars, 0);
+
+		write(variable, new int[variable.getRank()], Array.factory(DataType.CHAR, variable.getShape(), chars));
+		return chars.length;
+	}
+
+	/**
+	 * The ranges of the section to copy, checked against the variable written.
+	 */
+	private List<Range> copySection(Variable variable, DataSource data) throws IOException, InvalidRangeException {
+		Variable source = source(data);
+		List<Range> section = ranges(data.getSection(), source.getShape());
+
+		int[] shape = variable.getShape();
+		long sourceSize = 1;
+		for (Range range : section) {
+			sourceSize *= range.length();
+		}
+
+		if (section.size() != shape.length || (shape.length > 0 && section.get(0).length() != shape[0])
+				|| sourceSize != variable.getSize()) {
+			throw new IllegalArgumentException("Section " + section + " of " + data.getFile() + "#"
+					+ data.getVariable() + " does not match the shape of " + variable.getShortName());
+		}
+
+		return section;
+	}
+
+	private Variable source(DataSource data) throws IOException {
+		NetcdfFile file = sources.get(data.getFile());
+		if (file == null) {
+			file = NetcdfFiles.open(data.getFile());
+			sources.put(data.getFile(), file);
+		}
+
+		Variable variable = file.findVariable(data.getVariable());
+		if (variable == null) {
+			throw new IllegalArgumentException("Variable " + data.getVariable() + " not found in " + data.getFile());
+		}
+		return variable;
+	}
+
+	/**
+	 * Parses a section like "0:999, :, 10" (Fortran 0 based inclusive upper bound,
+	 * optional stride first:last:stride, ":" for the whole dimension); null or
+	 * blank is the whole variable.
+	 *
+	 * @param spec
+	 * @param shape
+	 * @return
+	 * @throws InvalidRangeException
+	 */
+	static List<Range> ranges(String spec, int[] shape) throws InvalidRangeException {
+		List<Range> ranges = new ArrayList<>();
+
+		if (spec == null || spec.trim().isEmpty()) {
+			for (int length : shape) {
+				ranges.add(new Range(0, length - 1));
+			}
+			return ranges;
+		}
+
+		String[] parts = spec.split(",");
+		if (parts.length != shape.length) {
+			throw new InvalidRangeException("Section " + spec + " does not match rank " + shape.length);
+		}
+
+		for (int d = 0; d < parts.length; d++) {
+			String part = parts[d].trim();
+
+			if (part.equals(":")) {
+				ranges.add(new Range(0, shape[d] - 1));
+				continue;
+			}
+
+			String[] bounds = part.split(":");
+			int first = Integer.parseInt(bounds[0].trim());
+			int last = bounds.length > 1 ? Integer.parseInt(bounds[1].trim()) : first;
+			int stride = bounds.length > 2 ? Integer.parseInt(bounds[2].trim()) : 1;
+
+			ranges.add(new Range(first, last, stride));
+		}
+
+		return ranges;
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (NetcdfFile file : sources.values()) {
+			file.close();
+		}
+		sources.clear();
+	}
+}
@@ -0,0 +1,190 @@
+package tech.geoskop.main;
+
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.Range;
+
+/**
+ * A (time, y, x) cube of doubles over a flat array (see Cube).
+ *
+ * <pre>
+ * DoubleCube cube = DoubleCube.of(variable.read(ranges));
+ * DoubleCube.Cursor row = new DoubleCube.Cursor();
+ * for (int t = 0; t &lt; cube.getNt(); t++) {
+ * 	for (int j = 0; j &lt; cube.getNy(); j++) {
+ * 		cube.row(t, j, row);
+ * 		for (int i = 0; i &lt; row.length(); i++) {
+ * 			... row.get(i)
+ * 		}
+ * 	}
+ * }
+ * </pre>
+ *
+ */
+public final class DoubleCube extends Cube {
+
+	private final double[] data;
+
+	/**
+	 * A contiguous cube over the array from 0.
+	 */
+	public DoubleCube(double[] data, int nt, int ny, int nx) {
+		this(data, 0, nt, ny, nx, ny * nx, nx, 1);
+	}
+
+	public DoubleCube(double[] data, int offset, int nt, int ny, int nx, int st, int sy, int sx) {
+		super(offset, nt, ny, nx, st, sy, sx);
+		this.data = data;
+	}
+
+	/**
+	 * A contiguous cube of rank 1 to 3 over an array.
+	 *
+	 * @param data
+	 * @param shape
+	 * @return
+	 */
+	public static DoubleCube wrap(double[] data, int... shape) {
+		int[] shape3 = shape3(shape);
+		return new DoubleCube(data, shape3[0], shape3[1], shape3[2]);
+	}
+
+	/**
+	 * A cube over the values of an Array of rank 1 to 3: its storage if it is a
+	 * contiguous DOUBLE array, else a converted copy.
+	 *
+	 * @param array
+	 * @return
+	 */
+	public static DoubleCube of(Array array) {
+		return wrap((double[]) array.get1DJavaArray(DataType.DOUBLE), array.getShape());
+	}
+
+	public double[] getData() {
+		return data;
+	}
+
+	public double get(int t, int j, int i) {
+		return data[index(t, j, i)];
+	}
+
+	public void set(int t, int j, int i, double value) {
+		data[index(t, j, i)] = value;
+	}
+
+	/**
+	 * A slice over the same array; a null range keeps the whole dimension.
+	 */
+	public DoubleCube slice(Range t, Range y, Range x) {
+		int[] l = sliceLayout(t, y, x);
+		return new DoubleCube(data, l[0], l[1], l[2], l[3], l[4], l[5], l[6]);
+	}
+
+	/**
+	 * The grid of a time step, as a cube with nt = 1.
+	 */
+	public DoubleCube step(int t) {
+		return new DoubleCube(data, index(t, 0, 0), 1, ny, nx, st, sy, sx);
+	}
+
+	/**
+	 * Sets a cursor on the row j of step t, along x.
+	 */
+	public Cursor row(int t, int j, Cursor cursor) {
+		return cursor.set(data, index(t, j, 0), sx, nx);
+	}
+
+	/**
+	 * Sets a cursor on the column i of step t, along y.
+	 */
+	public Cursor column(int t, int i, Cursor cursor) {
+		return cursor.set(data, index(t, 0, i), sy, ny);
+	}
+
+	/**
+	 * Sets a cursor on the series of the cell (j, i), along time.
+	 */
+	public Cursor series(int j, int i, Cursor cursor) {
+		return cursor.set(data, index(0, j, i), st, nt);
+	}
+
+	/**
+	 * Copies the values, row-major, into an array from a position.
+	 *
+	 * @return the next position.
+	 */
+	public int copyTo(double[] destination, int position) {
+		if (isContiguous()) {
+			int size = (int) size();
+			System.arraycopy(data, offset, destination, position, size);
+			return position + size;
+		}
+
+		Cursor row = new Cursor();
+		for (int t = 0; t < nt; t++) {
+			for (int j = 0; j < ny; j++) {
+				position = row(t, j, row).copyTo(destination, position);
+			}
+		}
+		return position;
+	}
+
+	/**
+	 * A strided line of a cube, reusable.
+	 */
+	public static final class Cursor {
+		private double[] data;
+		private int offset;
+		private int stride;
+		private int length;
+
+		Cursor set(double[] data, int offset, int stride, int length) {
+			this.data = data;
+			this.offset = offset;
+			this.stride = stride;
+			this.length = length;
+			return this;
+		}
+
+		public int length() {
+			return length;
+		}
+
+		public double get(int k) {
+			return data[offset + k * stride];
+		}
+
+		public void set(int k, double value) {
+			data[offset + k * stride] = value;
+		}
+
+		/**
+		 * Sum of the values, NaN left out.
+		 */
+		public double sum() {
+			double sum = 0;
+			for (int k = 0, p = offset; k < length; k++, p += stride) {
+				double value = data[p];
+				if (!Double.isNaN(value)) {
+					sum += value;
+				}
+			}
+			return sum;
+		}
+
+		/**
+		 * @return the next position.
+		 */
+		public int copyTo(double[] destination, int position) {
+			if (stride == 1) {
+				System.arraycopy(data, offset, destination, position, length);
+				return position + length;
+			}
+
+			for (int k = 0, p = offset; k < length; k++, p += stride) {
+				destination[position++] = data[p];
+			}
+			return position;
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package tech.geoskop.main;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Destination of the values of a section exported by Exporter.
+ *
+ * Values arrive row by row: a row is a run of consecutive values along the
+ * last dimension, taken from the primitive storage (float[], int[], ...) of
+ * the slab being exported, so a sink never needs to copy or box them.
+ *
+ */
+public interface ExportSink extends Closeable {
+
+	/**
+	 * Called once before the first row.
+	 *
+	 * @param variable name of the variable.
+	 * @param shape    shape of the exported section.
+	 * @throws IOException
+	 */
+	void begin(String variable, int[] shape) throws IOException;
+
+	/**
+	 * A row of values.
+	 *
+	 * @param index   indices in the variable of the first value of the row.
+	 * @param storage primitive array of the slab.
+	 * @param offset  position of the first value of the row in the storage.
+	 * @param length  values of the row.
+	 * @param stride  distance between indices of consecutive values (stride of
+	 *                the range of the last dimension).
+	 * @throws IOException
+	 */
+	void row(int[] index, Object storage, int offset, int length, int stride) throws IOException;
+
+	/**
+	 * Called once after the last row.
+	 *
+	 * @throws IOException
+	 */
+	void end() throws IOException;
+}
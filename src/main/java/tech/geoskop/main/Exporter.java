@@ -0,0 +1,167 @@
+package tech.geoskop.main;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Range;
+import ucar.nc2.Variable;
+
+/**
+ * Streaming export of a section of a variable to one or more sinks (CSV,
+ * NDJSON, binary, console).
+ *
+ * The section is read once, in slabs along its first dimension, and every row
+ * of a slab is pushed to all the sinks, so several formats share one read. The
+ * slabs are read ahead (ChunkIterator), so no more than prefetch + 1 slabs are
+ * in memory.
+ *
+ */
+public class Exporter {
+
+	public static final int DEFAULT_SLAB_STEPS = 1000;
+
+	private Exporter() {
+	}
+
+	/**
+	 * Exports a whole variable.
+	 *
+	 * @param variable
+	 * @param slabSteps
+	 * @param sinks
+	 * @return values exported.
+	 * @throws IOException
+	 * @throws InvalidRangeException
+	 */
+	public static long export(Variable variable, int slabSteps, ExportSink... sinks)
+			throws IOException, InvalidRangeException {
+		List<Range> section = new ArrayList<>();
+		for (int length : variable.getShape()) {
+			section.add(new Range(0, length - 1));
+		}
+		return export(variable, section, slabSteps, sinks);
+	}
+
+	/**
+	 * Exports a section of a variable.
+	 *
+	 * @param variable
+	 * @param section   one range per dimension, Fortran 0 based inclusive upper
+	 *                  bound.
+	 * @param slabSteps steps of the first dimension read at once.
+	 * @param sinks
+	 * @return values exported.
+	 * @throws IOException
+	 * @throws InvalidRangeException
+	 */
+	public static long export(Variable variable, List<Range> section, int slabSteps, ExportSink... sinks)
+			throws IOException, InvalidRangeException {
+		return export(variable, section, slabSteps, ChunkIterator.DEFAULT_PREFETCH, sinks);
+	}
+
+	/**
+	 * Exports a section of a variable, reading ahead prefetch slabs.
+	 *
+	 * @param variable
+	 * @param section   one range per dimension, Fortran 0 based inclusive upper
+	 *                  bound.
+	 * @param slabSteps steps of the first dimension read at once.
+	 * @param prefetch  slabs read ahead while the sinks format one, 0 to read
+	 *                  them in turn.
+	 * @param sinks
+	 * @return values exported.
+	 * @throws IOException
+	 * @throws InvalidRangeException
+	 */
+	public static long export(Variable variable, List<Range> section, int slabSteps, int prefetch,
+			ExportSink... sinks) throws IOException, InvalidRangeException {
+
+		int rank = section.size();
+		int[] shape = new int[rank];
+		for (int d = 0; d < rank; d++) {
+			shape[d] = section.get(d).length();
+		}
+
+		for (ExportSink sink : sinks) {
+			sink.begin(variable.getShortName(), shape);
+		}
+
+		long values = 0;
+
+		if (rank == 0) {
+			IoMetrics.Sample sample = IoMetrics.start(IoMetrics.READ, variable);
+			Array data = sample.stop(variable.read());
+			Object storage = data.get1DJavaArray(data.getDataType());
+			for (ExportSink sink : sinks) {
+				sink.row(new int[0], storage, 0, 1, 1);
+			}
+			values = 1;
+		} else {
+			// The next slabs are read while the sinks format this one.
+			try (ChunkIterator chunks = new ChunkIterator(variable, section, slabSteps, prefetch)) {
+				while (chunks.hasNext()) {
+					ChunkIterator.Chunk chunk = chunks.next();
+
+					IoMetrics.Sample format = IoMetrics.start(IoMetrics.FORMAT, variable);
+					values += exportSlab(chunk.getData(), chunk.getRanges(), sinks);
+					format.stop(chunk.getData());
+				}
+			}
+		}
+
+		for (ExportSink sink : sinks) {
+			sink.end();
+		}
+
+		return values;
+	}
+
+	/**
+	 * Pushes the rows of a slab to the sinks.
+	 *
+	 * @param slab
+	 * @param ranges ranges of the slab in the variable.
+	 * @param sinks
+	 * @return values pushed.
+	 * @throws IOException
+	 */
+	static long exportSlab(Array slab, List<Range> ranges, ExportSink[] sinks) throws IOException {
+		int rank = ranges.size();
+		int[] shape = slab.getShape();
+		Object storage = slab.get1DJavaArray(slab.getDataType());
+
+		int rows = 1;
+		for (int d = 0; d < rank - 1; d++) {
+			rows *= shape[d];
+		}
+
+		int rowLength = shape[rank - 1];
+		int stride = ranges.get(rank - 1).stride();
+
+		int[] counter = new int[rank];
+		int[] index = new int[rank];
+		index[rank - 1] = ranges.get(rank - 1).first();
+
+		for (int r = 0; r < rows; r++) {
+			for (int d = 0; d < rank - 1; d++) {
+				index[d] = ranges.get(d).first() + counter[d] * ranges.get(d).stride();
+			}
+
+			for (ExportSink sink : sinks) {
+				sink.row(index, storage, r * rowLength, rowLength, stride);
+			}
+
+			for (int d = rank - 2; d >= 0; d--) {
+				if (++counter[d] < shape[d]) {
+					break;
+				}
+				counter[d] = 0;
+			}
+		}
+
+		return (long) rows * rowLength;
+	}
+}
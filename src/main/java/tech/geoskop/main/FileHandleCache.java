@@ -0,0 +1,406 @@
+package tech.geoskop.main;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Range;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Variable;
+
+/**
+ * Open NetcdfFile handles kept by path, for serving many small reads without
+ * opening the file and parsing its header every time. A handle also keeps the
+ * variables found in it and the decoded time axis, lat/lon and GridIndex.
+ *
+ * A handle is acquired and closed after use, which gives it back: it is counted
+ * while in use and only closed once it is not. The least recently used handles
+ * not in use are closed beyond maxHandles. A file changed since it was opened
+ * (modification time or length) gets a new handle; the old one is closed when
+ * its last user gives it back.
+ *
+ * NetcdfFile is not thread-safe, so the reads of a handle are serialized; they
+ * would be anyway, on the single RandomAccessFile of the file.
+ *
+ * <pre>
+ * try (FileHandleCache.Handle handle = FileHandleCache.shared().acquire(path)) {
+ * 	Array data = handle.read(NetCDFTool.TEMPERATURE, ranges);
+ * }
+ * </pre>
+ *
+ */
+public class FileHandleCache {
+
+	public static final int DEFAULT_MAX_HANDLES = 64;
+
+	private static volatile FileHandleCache shared;
+
+	private final int maxHandles;
+
+	// Access order: the first entry is the least recently used.
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	private long hits;
+	private long misses;
+
+	public FileHandleCache(int maxHandles) {
+		if (maxHandles < 1) {
+			throw new IllegalArgumentException("Max handles must be at least 1: " + maxHandles);
+		}
+		this.maxHandles = maxHandles;
+	}
+
+	/**
+	 * The cache shared by the process, of geoskop.handles handles
+	 * (DEFAULT_MAX_HANDLES by default).
+	 *
+	 * @return
+	 */
+	public static FileHandleCache shared() {
+		if (shared == null) {
+			synchronized (FileHandleCache.class) {
+				if (shared == null) {
+					shared = new FileHandleCache(Integer.getInteger("geoskop.handles", DEFAULT_MAX_HANDLES));
+				}
+			}
+		}
+		return shared;
+	}
+
+	/**
+	 * A handle of a file, open or reused. Close it to give it back.
+	 *
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	public Handle acquire(String path) throws IOException {
+		String key = new File(path).getAbsolutePath();
+		File location = new File(key);
+		long lastModified = location.lastModified();
+		long length = location.length();
+
+		synchronized (this) {
+			Entry entry = entries.get(key);
+			if (entry != null && entry.lastModified == lastModified && entry.length == length) {
+				hits++;
+				entry.users++;
+				return new Handle(entry);
+			}
+
+			if (entry != null) {
+				// Changed since it was opened.
+				entries.remove(key);
+				retire(entry);
+			}
+			misses++;
+		}
+
+		// Opened outside the lock, a slow open does not hold the other paths.
+		Entry opened = new Entry(key, NetcdfFiles.open(key), lastModified, length);
+
+		synchronized (this) {
+			Entry entry = entries.get(key);
+			if (entry != null && entry.lastModified == lastModified && entry.length == length) {
+				// Opened by another thread at the same time.
+				retire(opened);
+			} else {
+				if (entry != null) {
+					entries.remove(key);
+					retire(entry);
+				}
+				entry = opened;
+				entries.put(key, entry);
+				evict();
+			}
+
+			entry.users++;
+			return new Handle(entry);
+		}
+	}
+
+	/**
+	 * Drops the handle of a file, closed once it is not in use.
+	 *
+	 * @param path
+	 */
+	public synchronized void invalidate(String path) {
+		Entry entry = entries.remove(new File(path).getAbsolutePath());
+		if (entry != null) {
+			retire(entry);
+		}
+	}
+
+	/**
+	 * Drops all the handles, closed once they are not in use.
+	 */
+	public synchronized void clear() {
+		for (Entry entry : entries.values()) {
+			retire(entry);
+		}
+		entries.clear();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public int getMaxHandles() {
+		return maxHandles;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Closes the least recently used handles not in use beyond maxHandles. The
+	 * ones in use are kept, even if there are more.
+	 */
+	private void evict() {
+		Iterator<Entry> eldest = entries.values().iterator();
+		int open = entries.size();
+		while (open > maxHandles && eldest.hasNext()) {
+			Entry entry = eldest.next();
+			if (entry.users == 0) {
+				eldest.remove();
+				retire(entry);
+				open--;
+			}
+		}
+	}
+
+	private void retire(Entry entry) {
+		entry.retired = true;
+		if (entry.users == 0) {
+			entry.close();
+		}
+	}
+
+	private synchronized void release(Entry entry) {
+		entry.users--;
+		if (entry.users == 0) {
+			if (entry.retired) {
+				entry.close();
+			} else {
+				evict();
+			}
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "FileHandleCache [size=" + entries.size() + ", maxHandles=" + maxHandles + ", hits=" + hits
+				+ ", misses=" + misses + "]";
+	}
+
+	/**
+	 * An open file and what was decoded from it.
+	 */
+	private static class Entry {
+		final String path;
+		final NetcdfFile file;
+		final long lastModified;
+		final long length;
+
+		// name -> variable; a missing one is not kept.
+		final Map<String, Variable> variables = new ConcurrentHashMap<>();
+
+		// Guarded by the cache.
+		int users;
+		boolean retired;
+
+		// Guarded by this.
+		TimeAxis timeAxis;
+		GridIndex gridIndex;
+		double[] latitudes;
+		double[] longitudes;
+
+		Entry(String path, NetcdfFile file, long lastModified, long length) {
+			this.path = path;
+			this.file = file;
+			this.lastModified = lastModified;
+			this.length = length;
+		}
+
+		synchronized void close() {
+			try {
+				file.close();
+			} catch (IOException e) {
+				// Nothing more to do with it.
+			}
+		}
+	}
+
+	/**
+	 * A file in use. Closing it gives it back to the cache, it must not be used
+	 * after.
+	 */
+	public class Handle implements Closeable {
+		private final Entry entry;
+		private boolean closed;
+
+		Handle(Entry entry) {
+			this.entry = entry;
+		}
+
+		/**
+		 * The file, for what the handle has no method for. Read it while
+		 * synchronized on getLock(), as the reads of the handle do.
+		 */
+		public NetcdfFile getFile() {
+			return entry.file;
+		}
+
+		/**
+		 * The lock of the reads of the file, shared by all its handles.
+		 */
+		public Object getLock() {
+			return entry;
+		}
+
+		public String getPath() {
+			return entry.path;
+		}
+
+		/**
+		 * A variable of the file, found once.
+		 *
+		 * @param name
+		 * @return null if the file has no such variable.
+		 */
+		public Variable findVariable(String name) {
+			Variable variable = entry.variables.get(name);
+			if (variable == null) {
+				synchronized (entry) {
+					variable = entry.file.findVariable(name);
+				}
+				if (variable != null) {
+					entry.variables.put(name, variable);
+				}
+			}
+			return variable;
+		}
+
+		/**
+		 * Reads a section of a variable.
+		 *
+		 * @param name
+		 * @param ranges one range per dimension, null for the whole dimension.
+		 * @return
+		 * @throws IOException
+		 * @throws InvalidRangeException
+		 */
+		public Array read(String name, List<Range> ranges) throws IOException, InvalidRangeException {
+			Variable variable = findVariable(name);
+			if (variable == null) {
+				throw new IllegalArgumentException("Variable " + name + " not found in " + entry.path);
+			}
+
+			IoMetrics.Sample sample = IoMetrics.start(IoMetrics.READ, variable);
+			synchronized (entry) {
+				return sample.stop(variable.read(ranges));
+			}
+		}
+
+		/**
+		 * The decoded time axis, null if the file has no time variable.
+		 *
+		 * @return
+		 * @throws IOException
+		 */
+		public TimeAxis getTimeAxis() throws IOException {
+			synchronized (entry) {
+				if (entry.timeAxis == null) {
+					Variable time = entry.file.findVariable(NetCDFTool.TIME);
+					if (time != null) {
+						entry.timeAxis = TimeAxis.of(entry.file, time);
+					}
+				}
+				return entry.timeAxis;
+			}
+		}
+
+		/**
+		 * The lat values, row-major for a 2D grid.
+		 *
+		 * @return
+		 * @throws IOException
+		 */
+		public double[] getLatitudes() throws IOException {
+			synchronized (entry) {
+				if (entry.latitudes == null) {
+					entry.latitudes = values(NetCDFTool.LATITUDE);
+				}
+				return entry.latitudes;
+			}
+		}
+
+		/**
+		 * The lon values, row-major for a 2D grid.
+		 *
+		 * @return
+		 * @throws IOException
+		 */
+		public double[] getLongitudes() throws IOException {
+			synchronized (entry) {
+				if (entry.longitudes == null) {
+					entry.longitudes = values(NetCDFTool.LONGITUDE);
+				}
+				return entry.longitudes;
+			}
+		}
+
+		/**
+		 * The index of a curvilinear (2D lat/lon) grid.
+		 *
+		 * @return
+		 * @throws IOException
+		 */
+		public GridIndex getGridIndex() throws IOException {
+			synchronized (entry) {
+				if (entry.gridIndex == null) {
+					entry.gridIndex = GridIndex.of(entry.file);
+				}
+				return entry.gridIndex;
+			}
+		}
+
+		private double[] values(String name) throws IOException {
+			Variable variable = entry.file.findVariable(name);
+			if (variable == null) {
+				throw new IllegalArgumentException("Variable " + name + " not found in " + entry.path);
+			}
+
+			Array data = variable.read();
+			double[] values = new double[(int) data.getSize()];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = data.getDouble(i);
+			}
+			return values;
+		}
+
+		/**
+		 * Gives the handle back; a second close does nothing.
+		 */
+		@Override
+		public void close() {
+			if (!closed) {
+				closed = true;
+				release(entry);
+			}
+		}
+	}
+}
@@ -0,0 +1,396 @@
+package tech.geoskop.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Range;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.Variable;
+
+/**
+ * Spatial index of a curvilinear grid, whose lat and lon are 2D (y, x)
+ * variables, for turning coordinates into grid indices (j, i) without scanning
+ * every cell.
+ *
+ * The cells are kept in an implicit KD-tree over (lon * cos(lat0), lat), an
+ * equirectangular projection around the mean latitude of the grid. A bounding
+ * box in lat/lon is a box in this projection, so box queries are exact. The
+ * nearest cell found in the projection is then refined against its grid
+ * neighbours with great-circle distances.
+ *
+ * The index of a file is built once and cached, until the file changes.
+ *
+ */
+public class GridIndex {
+
+	// location -> index.
+	private static final Map<String, CachedIndex> CACHE = new ConcurrentHashMap<>();
+
+	private final int ny;
+	private final int nx;
+	private final double[] lat;
+	private final double[] lon;
+
+	// Projected coordinates of each cell.
+	private final double[] px;
+	private final double[] py;
+	private final double lonScale;
+
+	// Valid cells in KD-tree order: the node of [lo, hi) is at (lo + hi) / 2,
+	// split on x at even depths and on y at odd ones.
+	private final int[] tree;
+
+	private GridIndex(int ny, int nx, double[] lat, double[] lon) {
+		this.ny = ny;
+		this.nx = nx;
+		this.lat = lat;
+		this.lon = lon;
+
+		double sumLat = 0;
+		int valid = 0;
+		for (int cell = 0; cell < lat.length; cell++) {
+			if (!Double.isNaN(lat[cell]) && !Double.isNaN(lon[cell])) {
+				sumLat += lat[cell];
+				valid++;
+			}
+		}
+
+		this.lonScale = valid == 0 ? 1 : Math.cos(Math.toRadians(sumLat / valid));
+		this.px = new double[lat.length];
+		this.py = new double[lat.length];
+		this.tree = new int[valid];
+
+		int position = 0;
+		for (int cell = 0; cell < lat.length; cell++) {
+			px[cell] = lon[cell] * lonScale;
+			py[cell] = lat[cell];
+			if (!Double.isNaN(lat[cell]) && !Double.isNaN(lon[cell])) {
+				tree[position++] = cell;
+			}
+		}
+
+		build(0, tree.length, 0);
+	}
+
+	/**
+	 * Builds the index of 2D (y, x) lat and lon arrays.
+	 *
+	 * @param latitude
+	 * @param longitude
+	 * @return
+	 */
+	public static GridIndex build(Array latitude, Array longitude) {
+		int[] shape = latitude.getShape();
+		double[] lat = new double[(int) latitude.getSize()];
+		double[] lon = new double[lat.length];
+
+		for (int cell = 0; cell < lat.length; cell++) {
+			lat[cell] = latitude.getDouble(cell);
+			lon[cell] = longitude.getDouble(cell);
+		}
+
+		return new GridIndex(shape[0], shape[1], lat, lon);
+	}
+
+	/**
+	 * Builds the index of row-major (y, x) lat and lon values, as of a
+	 * rectilinear grid expanded to 2D.
+	 *
+	 * @param ny
+	 * @param nx
+	 * @param latitude
+	 * @param longitude
+	 * @return
+	 */
+	public static GridIndex build(int ny, int nx, double[] latitude, double[] longitude) {
+		if (latitude.length != ny * nx || longitude.length != ny * nx) {
+			throw new IllegalArgumentException("lat/lon of " + latitude.length + "/" + longitude.length
+					+ " values do not match a grid of " + ny + " x " + nx);
+		}
+		return new GridIndex(ny, nx, latitude, longitude);
+	}
+
+	/**
+	 * The index of the lat and lon variables of a file, from the cache if the
+	 * file did not change since it was built.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static GridIndex of(NetcdfFile file) throws IOException {
+		String key = file.getLocation();
+		File location = new File(key);
+
+		CachedIndex cached = CACHE.get(key);
+		if (cached != null && cached.lastModified == location.lastModified() && cached.length == location.length()) {
+			return cached.index;
+		}
+
+		Variable latitude = file.findVariable(NetCDFTool.LATITUDE);
+		Variable longitude = file.findVariable(NetCDFTool.LONGITUDE);
+
+		GridIndex index = build(latitude.read(), longitude.read());
+		CACHE.put(key, new CachedIndex(index, location.lastModified(), location.length()));
+
+		return index;
+	}
+
+	public static void clearCache() {
+		CACHE.clear();
+	}
+
+	public int getNy() {
+		return ny;
+	}
+
+	public int getNx() {
+		return nx;
+	}
+
+	public double getLat(int j, int i) {
+		return lat[j * nx + i];
+	}
+
+	public double getLon(int j, int i) {
+		return lon[j * nx + i];
+	}
+
+	/**
+	 * The cell nearest to a coordinate.
+	 *
+	 * @param latitude
+	 * @param longitude
+	 * @return {j, i}, or null if the grid has no valid cell.
+	 */
+	public int[] nearest(double latitude, double longitude) {
+		if (tree.length == 0) {
+			return null;
+		}
+
+		double qx = longitude * lonScale;
+		double qy = latitude;
+
+		int[] best = { tree[tree.length / 2] };
+		double[] bestDistance = { Double.MAX_VALUE };
+		nearest(0, tree.length, 0, qx, qy, best, bestDistance);
+
+		// Refine with great-circle distances, walking to better neighbours.
+		int cell = best[0];
+		double distance = greatCircle(latitude, longitude, cell);
+		boolean moved = true;
+
+		while (moved) {
+			moved = false;
+			int j = cell / nx;
+			int i = cell % nx;
+
+			for (int dj = -1; dj <= 1; dj++) {
+				for (int di = -1; di <= 1; di++) {
+					int nj = j + dj;
+					int ni = i + di;
+					if ((dj == 0 && di == 0) || nj < 0 || nj >= ny || ni < 0 || ni >= nx) {
+						continue;
+					}
+
+					int neighbour = nj * nx + ni;
+					double d = greatCircle(latitude, longitude, neighbour);
+					if (d < distance) {
+						distance = d;
+						cell = neighbour;
+						moved = true;
+					}
+				}
+			}
+		}
+
+		return new int[] { cell / nx, cell % nx };
+	}
+
+	/**
+	 * Index ranges (y, x) of the cells inside a lat/lon box, in the longitude
+	 * convention of the grid.
+	 *
+	 * @param latMin
+	 * @param latMax
+	 * @param lonMin
+	 * @param lonMax
+	 * @return {yRange, xRange}, Fortran 0 based inclusive upper bound, or null if
+	 *         no cell is inside.
+	 * @throws InvalidRangeException
+	 */
+	public List<Range> boundingBox(double latMin, double latMax, double lonMin, double lonMax)
+			throws InvalidRangeException {
+
+		// {jMin, jMax, iMin, iMax}
+		int[] bounds = { Integer.MAX_VALUE, -1, Integer.MAX_VALUE, -1 };
+
+		inBox(0, tree.length, 0, lonMin * lonScale, lonMax * lonScale, latMin, latMax, bounds);
+
+		if (bounds[1] < 0) {
+			return null;
+		}
+
+		List<Range> ranges = new ArrayList<>();
+		ranges.add(new Range(bounds[0], bounds[1]));
+		ranges.add(new Range(bounds[2], bounds[3]));
+
+		return ranges;
+	}
+
+	private void nearest(int lo, int hi, int depth, double qx, double qy, int[] best, double[] bestDistance) {
+		if (lo >= hi) {
+			return;
+		}
+
+		int middle = (lo + hi) >>> 1;
+		int cell = tree[middle];
+
+		double dx = px[cell] - qx;
+		double dy = py[cell] - qy;
+		double distance = dx * dx + dy * dy;
+
+		if (distance < bestDistance[0]) {
+			bestDistance[0] = distance;
+			best[0] = cell;
+		}
+
+		double split = (depth & 1) == 0 ? dx : dy;
+
+		// The side of the query first; the other one only if the split is closer than
+		// the best.
+		if (split > 0) {
+			nearest(lo, middle, depth + 1, qx, qy, best, bestDistance);
+			if (split * split < bestDistance[0]) {
+				nearest(middle + 1, hi, depth + 1, qx, qy, best, bestDistance);
+			}
+		} else {
+			nearest(middle + 1, hi, depth + 1, qx, qy, best, bestDistance);
+			if (split * split < bestDistance[0]) {
+				nearest(lo, middle, depth + 1, qx, qy, best, bestDistance);
+			}
+		}
+	}
+
+	private void inBox(int lo, int hi, int depth, double xMin, double xMax, double yMin, double yMax,
+			int[] bounds) {
+		if (lo >= hi) {
+			return;
+		}
+
+		int middle = (lo + hi) >>> 1;
+		int cell = tree[middle];
+		double x = px[cell];
+		double y = py[cell];
+
+		if (x >= xMin && x <= xMax && y >= yMin && y <= yMax) {
+			int j = cell / nx;
+			int i = cell % nx;
+			bounds[0] = Math.min(bounds[0], j);
+			bounds[1] = Math.max(bounds[1], j);
+			bounds[2] = Math.min(bounds[2], i);
+			bounds[3] = Math.max(bounds[3], i);
+		}
+
+		double value = (depth & 1) == 0 ? x : y;
+		double min = (depth & 1) == 0 ? xMin : yMin;
+		double max = (depth & 1) == 0 ? xMax : yMax;
+
+		if (min <= value) {
+			inBox(lo, middle, depth + 1, xMin, xMax, yMin, yMax, bounds);
+		}
+		if (max >= value) {
+			inBox(middle + 1, hi, depth + 1, xMin, xMax, yMin, yMax, bounds);
+		}
+	}
+
+	/**
+	 * Orders tree[lo, hi) so the median of the axis of the depth is in the middle,
+	 * lower values before and higher after, and recurses on both halves.
+	 */
+	private void build(int lo, int hi, int depth) {
+		if (hi - lo <= 1) {
+			return;
+		}
+
+		int middle = (lo + hi) >>> 1;
+		double[] axis = (depth & 1) == 0 ? px : py;
+
+		select(lo, hi - 1, middle, axis);
+
+		build(lo, middle, depth + 1);
+		build(middle + 1, hi, depth + 1);
+	}
+
+	/**
+	 * Quickselect of the k-th cell of tree[left, right] by a coordinate.
+	 */
+	private void select(int left, int right, int k, double[] axis) {
+		while (left < right) {
+			double pivot = axis[tree[(left + right) >>> 1]];
+			int i = left;
+			int j = right;
+
+			while (i <= j) {
+				while (axis[tree[i]] < pivot) {
+					i++;
+				}
+				while (axis[tree[j]] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					int swap = tree[i];
+					tree[i] = tree[j];
+					tree[j] = swap;
+					i++;
+					j--;
+				}
+			}
+
+			if (k <= j) {
+				right = j;
+			} else if (k >= i) {
+				left = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Great-circle angle (radians) between a coordinate and a cell (haversine).
+	 */
+	private double greatCircle(double latitude, double longitude, int cell) {
+		if (Double.isNaN(lat[cell]) || Double.isNaN(lon[cell])) {
+			return Double.MAX_VALUE;
+		}
+
+		double phi1 = Math.toRadians(latitude);
+		double phi2 = Math.toRadians(lat[cell]);
+		double dPhi = phi2 - phi1;
+		double dLambda = Math.toRadians(lon[cell] - longitude);
+
+		double a = Math.sin(dPhi / 2) * Math.sin(dPhi / 2)
+				+ Math.cos(phi1) * Math.cos(phi2) * Math.sin(dLambda / 2) * Math.sin(dLambda / 2);
+
+		return 2 * Math.asin(Math.min(1, Math.sqrt(a)));
+	}
+
+	private static class CachedIndex {
+		final GridIndex index;
+		final long lastModified;
+		final long length;
+
+		CachedIndex(GridIndex index, long lastModified, long length) {
+			this.index = index;
+			this.lastModified = lastModified;
+			this.length = length;
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package tech.geoskop.main;
+
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.Range;
+
+/**
+ * A (time, y, x) cube of ints over a flat array (see Cube).
+ *
+ * <pre>
+ * IntCube cube = IntCube.of(variable.read(ranges));
+ * IntCube.Cursor row = new IntCube.Cursor();
+ * for (int t = 0; t &lt; cube.getNt(); t++) {
+ * 	for (int j = 0; j &lt; cube.getNy(); j++) {
+ * 		cube.row(t, j, row);
+ * 		for (int i = 0; i &lt; row.length(); i++) {
+ * 			... row.get(i)
+ * 		}
+ * 	}
+ * }
+ * </pre>
+ *
+ */
+public final class IntCube extends Cube {
+
+	private final int[] data;
+
+	/**
+	 * A contiguous cube over the array from 0.
+	 */
+	public IntCube(int[] data, int nt, int ny, int nx) {
+		this(data, 0, nt, ny, nx, ny * nx, nx, 1);
+	}
+
+	public IntCube(int[] data, int offset, int nt, int ny, int nx, int st, int sy, int sx) {
+		super(offset, nt, ny, nx, st, sy, sx);
+		this.data = data;
+	}
+
+	/**
+	 * A contiguous cube of rank 1 to 3 over an array.
+	 *
+	 * @param data
+	 * @param shape
+	 * @return
+	 */
+	public static IntCube wrap(int[] data, int... shape) {
+		int[] shape3 = shape3(shape);
+		return new IntCube(data, shape3[0], shape3[1], shape3[2]);
+	}
+
+	/**
+	 * A cube over the values of an Array of rank 1 to 3: its storage if it is a
+	 * contiguous INT array, else a converted copy.
+	 *
+	 * @param array
+	 * @return
+	 */
+	public static IntCube of(Array array) {
+		return wrap((int[]) array.get1DJavaArray(DataType.INT), array.getShape());
+	}
+
+	public int[] getData() {
+		return data;
+	}
+
+	public int get(int t, int j, int i) {
+		return data[index(t, j, i)];
+	}
+
+	public void set(int t, int j, int i, int value) {
+		data[index(t, j, i)] = value;
+	}
+
+	/**
+	 * A slice over the same array; a null range keeps the whole dimension.
+	 */
+	public IntCube slice(Range t, Range y, Range x) {
+		int[] l = sliceLayout(t, y, x);
+		return new IntCube(data, l[0], l[1], l[2], l[3], l[4], l[5], l[6]);
+	}
+
+	/**
+	 * The grid of a time step, as a cube with nt = 1.
+	 */
+	public IntCube step(int t) {
+		return new IntCube(data, index(t, 0, 0), 1, ny, nx, st, sy, sx);
+	}
+
+	/**
+	 * Sets a cursor on the row j of step t, along x.
+	 */
+	public Cursor row(int t, int j, Cursor cursor) {
+		return cursor.set(data, index(t, j, 0), sx, nx);
+	}
+
+	/**
+	 * Sets a cursor on the column i of step t, along y.
+	 */
+	public Cursor column(int t, int i, Cursor cursor) {
+		return cursor.set(data, index(t, 0, i), sy, ny);
+	}
+
+	/**
+	 * Sets a cursor on the series of the cell (j, i), along time.
+	 */
+	public Cursor series(int j, int i, Cursor cursor) {
+		return cursor.set(data, index(0, j, i), st, nt);
+	}
+
+	/**
+	 * Copies the values, row-major, into an array from a position.
+	 *
+	 * @return the next position.
+	 */
+	public int copyTo(int[] destination, int position) {
+		if (isContiguous()) {
+			int size = (int) size();
+			System.arraycopy(data, offset, destination, position, size);
+			return position + size;
+		}
+
+		Cursor row = new Cursor();
+		for (int t = 0; t < nt; t++) {
+			for (int j = 0; j < ny; j++) {
+				position = row(t, j, row).copyTo(destination, position);
+			}
+		}
+		return position;
+	}
+
+	/**
+	 * A strided line of a cube, reusable.
+	 */
+	public static final class Cursor {
+		private int[] data;
+		private int offset;
+		private int stride;
+		private int length;
+
+		Cursor set(int[] data, int offset, int stride, int length) {
+			this.data = data;
+			this.offset = offset;
+			this.stride = stride;
+			this.length = length;
+			return this;
+		}
+
+		public int length() {
+			return length;
+		}
+
+		public int get(int k) {
+			return data[offset + k * stride];
+		}
+
+		public void set(int k, int value) {
+			data[offset + k * stride] = value;
+		}
+
+		public long sum() {
+			long sum = 0;
+			for (int k = 0, p = offset; k < length; k++, p += stride) {
+				sum += data[p];
+			}
+			return sum;
+		}
+
+		/**
+		 * @return the next position.
+		 */
+		public int copyTo(int[] destination, int position) {
+			if (stride == 1) {
+				System.arraycopy(data, offset, destination, position, length);
+				return position + length;
+			}
+
+			for (int k = 0, p = offset; k < length; k++, p += stride) {
+				destination[position++] = data[p];
+			}
+			return position;
+		}
+	}
+}
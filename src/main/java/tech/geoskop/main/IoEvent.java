@@ -0,0 +1,33 @@
+package tech.geoskop.main;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event of a read, write or format of a variable, committed by
+ * IoMetrics.Sample. Record it with -XX:StartFlightRecording and look for
+ * tech.geoskop.Io in JDK Mission Control or jfr print --events tech.geoskop.Io.
+ *
+ */
+@Name("tech.geoskop.Io")
+@Label("Variable I/O")
+@Category({ "Geoskop", "I/O" })
+@Description("Read, write or format of a netCDF variable")
+@StackTrace(false)
+public class IoEvent extends Event {
+
+	@Label("Operation")
+	String operation;
+
+	@Label("Variable")
+	String variable;
+
+	@Label("Bytes")
+	@DataAmount
+	long bytes;
+}
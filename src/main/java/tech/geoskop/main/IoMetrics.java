@@ -0,0 +1,334 @@
+package tech.geoskop.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpServer;
+
+import ucar.ma2.Array;
+
+/**
+ * Calls, bytes and latency histograms of the reads, writes and formatting of
+ * every variable, to tell where the time of a slow ingest goes.
+ *
+ * A Sample is started before the operation and stopped after it; it adds to the
+ * counters of its (operation, variable) and commits an IoEvent for JFR, when
+ * the runtime has the jdk.jfr API (Java 8u262 and later); without it the
+ * counters still work. The histograms have a bucket per power of 2 of
+ * microseconds.
+ *
+ * The counters are dumped as JSON with dump, and with install a run dumps them
+ * at exit (system property geoskop.metrics.json=path) or serves them on
+ * http://localhost:port/metrics (geoskop.metrics.port=port).
+ *
+ */
+public class IoMetrics {
+
+	public static final String READ = "read";
+	public static final String WRITE = "write";
+	public static final String FORMAT = "format";
+
+	public static final String JSON_PROPERTY = "geoskop.metrics.json";
+	public static final String PORT_PROPERTY = "geoskop.metrics.port";
+
+	// Bucket b counts latencies under 2^b us, the last one the rest.
+	public static final int BUCKETS = 32;
+
+	private static final Map<String, Counters> COUNTERS = new ConcurrentHashMap<>();
+	private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+	// Whether IoEvent can be loaded, tried once.
+	private static final boolean JFR = jfr();
+
+	private static HttpServer server;
+	private static boolean installed;
+
+	private IoMetrics() {
+	}
+
+	/**
+	 * Starts the timing of an operation on a variable.
+	 *
+	 * @param operation READ, WRITE or FORMAT.
+	 * @param variable
+	 * @return
+	 */
+	public static Sample start(String operation, ucar.nc2.Variable variable) {
+		return new Sample(operation, variable.getShortName());
+	}
+
+	public static Sample start(String operation, String variable) {
+		return new Sample(operation, variable);
+	}
+
+	public static void clear() {
+		COUNTERS.clear();
+	}
+
+	/**
+	 * Dumps and/or serves the counters as asked by the system properties
+	 * geoskop.metrics.json and geoskop.metrics.port. Does nothing the second
+	 * time.
+	 *
+	 * @throws IOException if the port cannot be bound.
+	 */
+	public static synchronized void install() throws IOException {
+		if (installed) {
+			return;
+		}
+		installed = true;
+
+		String path = System.getProperty(JSON_PROPERTY);
+		if (path != null) {
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				try {
+					dump(new File(path));
+				} catch (IOException e) {
+					System.err.println("Cannot dump the metrics to " + path + ": " + e.getMessage());
+				}
+			}, "metrics-dump"));
+		}
+
+		String port = System.getProperty(PORT_PROPERTY);
+		if (port != null) {
+			serve(Integer.parseInt(port));
+		}
+	}
+
+	/**
+	 * Serves the counters as JSON on http://localhost:port/metrics, from a daemon
+	 * thread, until stop or the end of the run.
+	 *
+	 * @param port 0 for any free port.
+	 * @return the port.
+	 * @throws IOException
+	 */
+	public static synchronized int serve(int port) throws IOException {
+		if (server != null) {
+			return server.getAddress().getPort();
+		}
+
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/metrics", exchange -> {
+			byte[] body = MAPPER.writeValueAsBytes(toJson());
+
+			exchange.getResponseHeaders().set("Content-Type", "application/json");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream output = exchange.getResponseBody()) {
+				output.write(body);
+			}
+		});
+
+		// The dispatcher thread inherits the daemon flag of the thread starting it,
+		// so the endpoint does not keep the run alive once it is done.
+		HttpServer starting = server;
+		Thread starter = new Thread(starting::start, "metrics-start");
+		starter.setDaemon(true);
+		starter.start();
+		try {
+			starter.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		return server.getAddress().getPort();
+	}
+
+	public static synchronized void stop() {
+		if (server != null) {
+			server.stop(0);
+			server = null;
+		}
+	}
+
+	public static void dump(File file) throws IOException {
+		MAPPER.writeValue(file, toJson());
+	}
+
+	public static void dump(OutputStream output) throws IOException {
+		MAPPER.writeValue(output, toJson());
+	}
+
+	/**
+	 * The counters by operation and variable: calls, bytes, total and max
+	 * nanoseconds, approximate p50/p99 in microseconds and the non empty buckets
+	 * of the histogram, keyed by their upper bound in microseconds.
+	 *
+	 * @return
+	 */
+	public static ObjectNode toJson() {
+		ObjectNode root = MAPPER.createObjectNode();
+
+		for (Map.Entry<String, Counters> entry : new TreeMap<>(COUNTERS).entrySet()) {
+			Counters counters = entry.getValue();
+			long[] histogram = counters.histogram();
+
+			if (!root.has(counters.operation)) {
+				root.putObject(counters.operation);
+			}
+
+			ObjectNode node = ((ObjectNode) root.get(counters.operation)).putObject(counters.variable);
+			node.put("calls", counters.calls.sum());
+			node.put("bytes", counters.bytes.sum());
+			node.put("totalNanos", counters.nanos.sum());
+			node.put("maxNanos", counters.maxNanos.get());
+			node.put("p50Micros", percentile(histogram, 0.50));
+			node.put("p99Micros", percentile(histogram, 0.99));
+
+			ObjectNode buckets = node.putObject("histogramMicros");
+			for (int b = 0; b < BUCKETS; b++) {
+				if (histogram[b] > 0) {
+					buckets.put(b < BUCKETS - 1 ? "<" + (1L << b) : ">=" + (1L << (BUCKETS - 2)), histogram[b]);
+				}
+			}
+		}
+
+		return root;
+	}
+
+	/**
+	 * Upper bound, in microseconds, of the bucket of a percentile.
+	 */
+	static long percentile(long[] histogram, double fraction) {
+		long total = 0;
+		for (long count : histogram) {
+			total += count;
+		}
+
+		long rank = (long) Math.ceil(fraction * total);
+		long seen = 0;
+		for (int b = 0; b < histogram.length; b++) {
+			seen += histogram[b];
+			if (seen >= rank && seen > 0) {
+				return 1L << b;
+			}
+		}
+		return 0;
+	}
+
+	static int bucket(long nanos) {
+		long micros = nanos / 1000;
+
+		return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+	}
+
+	private static boolean jfr() {
+		try {
+			return JfrEvents.available();
+		} catch (LinkageError e) {
+			return false;
+		}
+	}
+
+	private static Counters counters(String operation, String variable) {
+		return COUNTERS.computeIfAbsent(operation + '|' + variable, key -> new Counters(operation, variable));
+	}
+
+	/**
+	 * An operation being timed.
+	 */
+	public static class Sample {
+		private final String operation;
+		private final String variable;
+		private final long start;
+		// An IoEvent, null without JFR.
+		private final Object event;
+
+		Sample(String operation, String variable) {
+			this.operation = operation;
+			this.variable = variable;
+			this.event = JFR ? JfrEvents.begin() : null;
+			this.start = System.nanoTime();
+		}
+
+		/**
+		 * Stops the sample with the bytes of an array read or written.
+		 *
+		 * @param data
+		 * @return the array.
+		 */
+		public Array stop(Array data) {
+			stop(data.getSize() * data.getDataType().getSize());
+			return data;
+		}
+
+		public void stop(long bytes) {
+			long nanos = System.nanoTime() - start;
+
+			Counters counters = counters(operation, variable);
+			counters.calls.increment();
+			counters.bytes.add(bytes);
+			counters.nanos.add(nanos);
+			counters.maxNanos.accumulate(nanos);
+			counters.histogram.incrementAndGet(bucket(nanos));
+
+			if (event != null) {
+				JfrEvents.end(event, operation, variable, bytes);
+			}
+		}
+	}
+
+	/**
+	 * The only references to IoEvent, so IoMetrics and Sample load without the
+	 * jdk.jfr API.
+	 */
+	private static final class JfrEvents {
+
+		static boolean available() {
+			new IoEvent();
+			return true;
+		}
+
+		static Object begin() {
+			IoEvent event = new IoEvent();
+			event.begin();
+			return event;
+		}
+
+		static void end(Object sample, String operation, String variable, long bytes) {
+			IoEvent event = (IoEvent) sample;
+			event.end();
+			if (event.shouldCommit()) {
+				event.operation = operation;
+				event.variable = variable;
+				event.bytes = bytes;
+				event.commit();
+			}
+		}
+	}
+
+	private static class Counters {
+		final String operation;
+		final String variable;
+		final LongAdder calls = new LongAdder();
+		final LongAdder bytes = new LongAdder();
+		final LongAdder nanos = new LongAdder();
+		final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+		final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+		Counters(String operation, String variable) {
+			this.operation = operation;
+			this.variable = variable;
+		}
+
+		long[] histogram() {
+			long[] counts = new long[BUCKETS];
+			for (int b = 0; b < BUCKETS; b++) {
+				counts[b] = histogram.get(b);
+			}
+			return counts;
+		}
+	}
+}
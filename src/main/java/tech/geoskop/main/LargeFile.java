@@ -0,0 +1,136 @@
+package tech.geoskop.main;
+
+import ucar.ma2.DataType;
+import ucar.nc2.write.NetcdfFileFormat;
+import ucar.nc2.write.NetcdfFormatWriter;
+
+/**
+ * Choice of the netcdf-3 format of a new file from the size of its variables,
+ * before anything is written, so a large file does not fail at the very end.
+ *
+ * Classic files keep 32-bit signed offsets, so the whole file must stay under 2
+ * GiB. 64-bit offset files remove that limit but keep 32-bit variable sizes, so
+ * every variable must stay under 4 GiB. CDF5 (64-bit data) would lift it too,
+ * but netcdf-java does not write it: a plan with a larger variable has to be
+ * split along time (see SubsetCopy.setMaxFileSize), which names the parts with
+ * partPath.
+ *
+ */
+public class LargeFile {
+
+	// Max bytes of a classic file: offsets are signed 32-bit.
+	public static final long CLASSIC_LIMIT = (1L << 31) - 4;
+
+	// Max bytes of a variable of a 64-bit offset file: sizes are 32-bit.
+	public static final long OFFSET_64BIT_VARIABLE_LIMIT = (1L << 32) - 4;
+
+	// Room left for the header, dimensions and attributes.
+	public static final long HEADER_ALLOWANCE = 64 * 1024;
+
+	private LargeFile() {
+	}
+
+	/**
+	 * Bytes of a variable in a netcdf-3 file, padded to 4 bytes.
+	 *
+	 * @param dataType
+	 * @param shape
+	 * @return
+	 */
+	public static long bytes(DataType dataType, int... shape) {
+		long bytes = dataType.getSize();
+		for (int length : shape) {
+			bytes *= length;
+		}
+		return (bytes + 3) & ~3L;
+	}
+
+	/**
+	 * The smallest netcdf-3 format able to hold the variables, or null if none
+	 * can.
+	 *
+	 * @param variableBytes bytes of each variable.
+	 * @return
+	 */
+	public static NetcdfFileFormat formatFor(long... variableBytes) {
+		long total = HEADER_ALLOWANCE;
+		long largest = 0;
+
+		for (long bytes : variableBytes) {
+			total += bytes;
+			largest = Math.max(largest, bytes);
+		}
+
+		if (total <= CLASSIC_LIMIT) {
+			return NetcdfFileFormat.NETCDF3;
+		}
+		if (largest <= OFFSET_64BIT_VARIABLE_LIMIT) {
+			return NetcdfFileFormat.NETCDF3_64BIT_OFFSET;
+		}
+		return null;
+	}
+
+	/**
+	 * Sets on the builder the format of formatFor.
+	 *
+	 * @param builder
+	 * @param location      for the message when it does not fit.
+	 * @param variableBytes bytes of each variable.
+	 * @return the format.
+	 * @throws IllegalArgumentException if no netcdf-3 format can hold the
+	 *                                  variables.
+	 */
+	public static NetcdfFileFormat setFormat(NetcdfFormatWriter.Builder builder, String location,
+			long... variableBytes) {
+
+		NetcdfFileFormat format = formatFor(variableBytes);
+
+		if (format == null) {
+			long largest = 0;
+			for (long bytes : variableBytes) {
+				largest = Math.max(largest, bytes);
+			}
+			throw new IllegalArgumentException("A variable of " + location + " takes " + largest
+					+ " bytes, more than netcdf-3 can hold (" + OFFSET_64BIT_VARIABLE_LIMIT
+					+ "): split it along time");
+		}
+
+		builder.setFormat(format);
+		return format;
+	}
+
+	/**
+	 * Steps of the time dimension of each part of a file split along time.
+	 *
+	 * @param fixedBytes   bytes of the variables without time, in every part.
+	 * @param bytesPerStep bytes of a step of all the variables with time.
+	 * @param maxFileSize  max bytes of a part.
+	 * @return at least one.
+	 */
+	public static int stepsPerPart(long fixedBytes, long bytesPerStep, long maxFileSize) {
+		long room = maxFileSize - HEADER_ALLOWANCE - fixedBytes;
+		long steps = bytesPerStep > 0 ? room / bytesPerStep : Integer.MAX_VALUE;
+
+		return (int) Math.max(1, Math.min(Integer.MAX_VALUE, steps));
+	}
+
+	/**
+	 * Path of the part of a file with the steps first to last (inclusive) of the
+	 * time dimension: tas_2021-2075.nc -> tas_2021-2075_t000000-009999.nc.
+	 *
+	 * @param path
+	 * @param first
+	 * @param last
+	 * @return
+	 */
+	public static String partPath(String path, int first, int last) {
+		int separator = Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\'));
+		int dot = path.lastIndexOf('.');
+
+		if (dot <= separator) {
+			dot = path.length();
+		}
+
+		return String.format("%s_t%06d-%06d%s", path.substring(0, dot), first, last, path.substring(dot));
+	}
+}
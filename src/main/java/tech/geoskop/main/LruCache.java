@@ -0,0 +1,112 @@
+package tech.geoskop.main;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * Least recently used cache bounded by the total weight of its values (bytes,
+ * usually). Thread-safe.
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class LruCache<K, V> {
+
+	private final long maxWeight;
+	private final ToLongFunction<V> weigher;
+
+	// Access order: the first entry is the least recently used.
+	private final LinkedHashMap<K, V> map = new LinkedHashMap<>(16, 0.75f, true);
+
+	private long weight;
+	private long hits;
+	private long misses;
+
+	public LruCache(long maxWeight, ToLongFunction<V> weigher) {
+		if (maxWeight <= 0) {
+			throw new IllegalArgumentException("Max weight must be positive: " + maxWeight);
+		}
+		this.maxWeight = maxWeight;
+		this.weigher = weigher;
+	}
+
+	public synchronized V get(K key) {
+		V value = map.get(key);
+		if (value == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return value;
+	}
+
+	/**
+	 * Adds a value, evicting the least recently used ones until the cache is back
+	 * within its weight. A value heavier than the cache is not kept.
+	 *
+	 * @param key
+	 * @param value
+	 */
+	public synchronized void put(K key, V value) {
+		long valueWeight = weigher.applyAsLong(value);
+
+		V previous = map.remove(key);
+		if (previous != null) {
+			weight -= weigher.applyAsLong(previous);
+		}
+
+		if (valueWeight > maxWeight) {
+			return;
+		}
+
+		map.put(key, value);
+		weight += valueWeight;
+
+		Iterator<Map.Entry<K, V>> eldest = map.entrySet().iterator();
+		while (weight > maxWeight && eldest.hasNext()) {
+			weight -= weigher.applyAsLong(eldest.next().getValue());
+			eldest.remove();
+		}
+	}
+
+	public synchronized V remove(K key) {
+		V value = map.remove(key);
+		if (value != null) {
+			weight -= weigher.applyAsLong(value);
+		}
+		return value;
+	}
+
+	public synchronized void clear() {
+		map.clear();
+		weight = 0;
+	}
+
+	public synchronized int size() {
+		return map.size();
+	}
+
+	public synchronized long getWeight() {
+		return weight;
+	}
+
+	public long getMaxWeight() {
+		return maxWeight;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "LruCache [size=" + map.size() + ", weight=" + weight + ", maxWeight=" + maxWeight + ", hits=" + hits
+				+ ", misses=" + misses + "]";
+	}
+}
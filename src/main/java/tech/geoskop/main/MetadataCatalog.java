@@ -0,0 +1,489 @@
+package tech.geoskop.main;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ucar.ma2.Array;
+import ucar.nc2.Attribute;
+import ucar.nc2.Dimension;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Variable;
+
+/**
+ * Catalog of the netcdf files of a directory tree, kept in a gzipped JSON file,
+ * so questions like "which files have tas for ssp585 between 2040 and 2050"
+ * are answered without opening any netcdf file.
+ *
+ * A scan reads the metadata (see CatalogEntry) of the new and changed files, by
+ * modification time and length, on a pool of threads, and keeps the entries of
+ * the others; the entries of the files gone are dropped.
+ *
+ * <pre>
+ * MetadataCatalog catalog = MetadataCatalog.load(new File("catalog.json.gz"));
+ * catalog.scan(new File("/data/cordex"), 8);
+ * catalog.save();
+ * List&lt;CatalogEntry&gt; files = catalog.query().variable("tas").attribute("experiment_id", "ssp585")
+ * 		.dates(20400101, 20501231).list();
+ * </pre>
+ *
+ */
+public class MetadataCatalog {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private final File file;
+
+	// path -> entry, sorted by path.
+	private final Map<String, CatalogEntry> entries = new TreeMap<>();
+
+	// variable -> entries with it, rebuilt after a scan or load.
+	private Map<String, List<CatalogEntry>> byVariable = Collections.emptyMap();
+
+	// path -> why it could not be read, of the last scan.
+	private final Map<String, String> skipped = new TreeMap<>();
+
+	public MetadataCatalog(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * The catalog kept in a file, empty if the file does not exist yet.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static MetadataCatalog load(File file) throws IOException {
+		MetadataCatalog catalog = new MetadataCatalog(file);
+
+		if (file.isFile()) {
+			try (InputStream input = new GZIPInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+				List<CatalogEntry> entries = MAPPER.readValue(input, new TypeReference<List<CatalogEntry>>() {
+				});
+				for (CatalogEntry entry : entries) {
+					catalog.entries.put(entry.getPath(), entry);
+				}
+			}
+		}
+
+		catalog.index();
+		return catalog;
+	}
+
+	/**
+	 * Writes the catalog to its file, through a temporary file so a reader never
+	 * sees half of it.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void save() throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		File temporary = File.createTempFile(file.getName(), ".tmp", parent);
+
+		try {
+			try (OutputStream output = new GZIPOutputStream(
+					new BufferedOutputStream(new FileOutputStream(temporary)))) {
+				MAPPER.writeValue(output, new ArrayList<>(entries.values()));
+			}
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			temporary.delete();
+		}
+	}
+
+	/**
+	 * Brings the entries of a directory tree up to date: the new and changed .nc
+	 * files are read, the others kept, the ones gone dropped. A file that cannot
+	 * be read (corrupt, bad time units...) is left out of the catalog and listed
+	 * in getSkipped; the next scan tries it again.
+	 *
+	 * @param directory
+	 * @param threads   files read at the same time.
+	 * @return files read.
+	 * @throws IOException
+	 */
+	public synchronized int scan(File directory, int threads) throws IOException {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Threads must be at least 1: " + threads);
+		}
+
+		String root = directory.getAbsolutePath();
+		List<File> files;
+		try (Stream<Path> paths = Files.walk(directory.toPath())) {
+			files = paths.filter(path -> path.toString().endsWith(".nc") && Files.isRegularFile(path))
+					.map(Path::toFile).collect(Collectors.toList());
+		}
+
+		Map<String, CatalogEntry> scanned = new HashMap<>();
+		List<File> changed = new ArrayList<>();
+		skipped.clear();
+
+		for (File nc : files) {
+			String path = nc.getAbsolutePath();
+			CatalogEntry entry = entries.get(path);
+			if (entry != null && entry.getLastModified() == nc.lastModified() && entry.getLength() == nc.length()) {
+				scanned.put(path, entry);
+			} else {
+				changed.add(nc);
+			}
+		}
+
+		if (!changed.isEmpty()) {
+			ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, changed.size()));
+			List<Future<CatalogEntry>> futures = new ArrayList<>();
+			for (File nc : changed) {
+				futures.add(pool.submit(() -> read(nc)));
+			}
+			pool.shutdown();
+
+			try {
+				for (int f = 0; f < futures.size(); f++) {
+					try {
+						CatalogEntry entry = futures.get(f).get();
+						scanned.put(entry.getPath(), entry);
+					} catch (ExecutionException e) {
+						skipped.put(changed.get(f).getAbsolutePath(), String.valueOf(e.getCause()));
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted scanning " + root, e);
+			} finally {
+				pool.shutdownNow();
+			}
+		}
+
+		// The entries of the tree are replaced, the ones of other trees kept.
+		String prefix = root.endsWith(File.separator) ? root : root + File.separator;
+		entries.keySet().removeIf(path -> path.startsWith(prefix));
+		entries.putAll(scanned);
+		index();
+
+		return changed.size() - skipped.size();
+	}
+
+	/**
+	 * Reads the metadata of a file.
+	 *
+	 * @param nc
+	 * @return
+	 * @throws IOException
+	 */
+	public static CatalogEntry read(File nc) throws IOException {
+		CatalogEntry entry = new CatalogEntry();
+		entry.setPath(nc.getAbsolutePath());
+		// Before opening, so a file changed while it is read is read again.
+		entry.setLastModified(nc.lastModified());
+		entry.setLength(nc.length());
+
+		try (NetcdfFile file = NetcdfFiles.open(nc.getPath())) {
+			for (Dimension dimension : file.getDimensions()) {
+				entry.getDimensions().put(dimension.getShortName(), dimension.getLength());
+			}
+
+			entry.setAttributes(attributes(file.getRootGroup().attributes()));
+
+			for (Variable variable : file.getVariables()) {
+				CatalogEntry.VariableEntry variableEntry = new CatalogEntry.VariableEntry();
+				variableEntry.setName(variable.getShortName());
+				variableEntry.setType(variable.getDataType().toString());
+				variableEntry.setShape(variable.getShape());
+				for (Dimension dimension : variable.getDimensions()) {
+					variableEntry.getDimensions().add(dimension.getShortName());
+				}
+				variableEntry.setAttributes(attributes(variable.attributes()));
+				entry.getVariables().add(variableEntry);
+			}
+
+			Variable time = file.findVariable(NetCDFTool.TIME);
+			if (time != null && time.getSize() > 0 && time.getUnitsString() != null) {
+				TimeAxis axis = TimeAxis.read(time);
+				entry.setFirstDate(axis.getDate(0));
+				entry.setLastDate(axis.getDate(axis.size() - 1));
+			}
+
+			Variable latitude = file.findVariable(NetCDFTool.LATITUDE);
+			Variable longitude = file.findVariable(NetCDFTool.LONGITUDE);
+			if (latitude != null && longitude != null) {
+				double[] lat = bounds(latitude.read());
+				double[] lon = bounds(longitude.read());
+				entry.setLatMin(lat[0]);
+				entry.setLatMax(lat[1]);
+				entry.setLonMin(lon[0]);
+				entry.setLonMax(lon[1]);
+			}
+		}
+
+		return entry;
+	}
+
+	public synchronized Collection<CatalogEntry> getEntries() {
+		return new ArrayList<>(entries.values());
+	}
+
+	public synchronized CatalogEntry getEntry(String path) {
+		return entries.get(new File(path).getAbsolutePath());
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Files the last scan could not read: path -> failure.
+	 */
+	public synchronized Map<String, String> getSkipped() {
+		return new TreeMap<>(skipped);
+	}
+
+	public Query query() {
+		return new Query();
+	}
+
+	private void index() {
+		Map<String, List<CatalogEntry>> index = new HashMap<>();
+		for (CatalogEntry entry : entries.values()) {
+			for (CatalogEntry.VariableEntry variable : entry.getVariables()) {
+				index.computeIfAbsent(variable.getName(), name -> new ArrayList<>()).add(entry);
+			}
+		}
+		byVariable = index;
+	}
+
+	/**
+	 * Attribute values as text: a string as it is, numbers separated by spaces.
+	 */
+	private static Map<String, String> attributes(Iterable<Attribute> attributes) {
+		Map<String, String> values = new LinkedHashMap<>();
+		for (Attribute attribute : attributes) {
+			String value;
+			if (attribute.isString()) {
+				value = attribute.getStringValue();
+			} else if (attribute.getLength() == 1) {
+				value = String.valueOf(attribute.getNumericValue());
+			} else {
+				StringBuilder text = new StringBuilder();
+				for (int i = 0; i < attribute.getLength(); i++) {
+					text.append(i > 0 ? " " : "").append(attribute.getNumericValue(i));
+				}
+				value = text.toString();
+			}
+			values.put(attribute.getShortName(), value);
+		}
+		return values;
+	}
+
+	/**
+	 * Min and max of the values of an array, NaN left out.
+	 */
+	private static double[] bounds(Array data) {
+		double min = Double.NaN;
+		double max = Double.NaN;
+		for (int i = 0; i < data.getSize(); i++) {
+			double value = data.getDouble(i);
+			if (!Double.isNaN(value)) {
+				min = Double.isNaN(min) ? value : Math.min(min, value);
+				max = Double.isNaN(max) ? value : Math.max(max, value);
+			}
+		}
+		return new double[] { min, max };
+	}
+
+	/**
+	 * Filters over the entries of the catalog; every filter set must match.
+	 */
+	public class Query {
+		private String variable;
+		private final Map<String, String> attributes = new LinkedHashMap<>();
+		private String pathContains;
+		private int fromDate = CatalogEntry.NO_DATE;
+		private int toDate = CatalogEntry.NO_DATE;
+		private double[] box;
+
+		Query() {
+		}
+
+		/**
+		 * Files with a variable.
+		 */
+		public Query variable(String name) {
+			this.variable = name;
+			return this;
+		}
+
+		/**
+		 * Files with a global attribute of a value, case ignored.
+		 */
+		public Query attribute(String name, String value) {
+			attributes.put(name, value);
+			return this;
+		}
+
+		/**
+		 * Files whose path has a text, like "ssp585" of a file name.
+		 */
+		public Query pathContains(String text) {
+			this.pathContains = text;
+			return this;
+		}
+
+		/**
+		 * Files whose time axis overlaps the dates (yyyyMMdd, inclusive).
+		 */
+		public Query dates(int from, int to) {
+			this.fromDate = from;
+			this.toDate = to;
+			return this;
+		}
+
+		/**
+		 * Files whose lat/lon bounding box overlaps a box.
+		 */
+		public Query box(double latMin, double latMax, double lonMin, double lonMax) {
+			this.box = new double[] { latMin, latMax, lonMin, lonMax };
+			return this;
+		}
+
+		public List<CatalogEntry> list() {
+			Collection<CatalogEntry> candidates;
+			synchronized (MetadataCatalog.this) {
+				if (variable != null) {
+					List<CatalogEntry> withVariable = byVariable.get(variable);
+					candidates = withVariable == null ? Collections.<CatalogEntry>emptyList()
+							: new ArrayList<>(withVariable);
+				} else {
+					candidates = new ArrayList<>(entries.values());
+				}
+			}
+
+			List<CatalogEntry> found = new ArrayList<>();
+			for (CatalogEntry entry : candidates) {
+				if (matches(entry)) {
+					found.add(entry);
+				}
+			}
+			return found;
+		}
+
+		private boolean matches(CatalogEntry entry) {
+			for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+				if (!attribute.getValue().equalsIgnoreCase(entry.getAttributes().get(attribute.getKey()))) {
+					return false;
+				}
+			}
+
+			if (pathContains != null && !entry.getPath().contains(pathContains)) {
+				return false;
+			}
+
+			if (fromDate != CatalogEntry.NO_DATE || toDate != CatalogEntry.NO_DATE) {
+				if (entry.getFirstDate() == CatalogEntry.NO_DATE) {
+					return false;
+				}
+				if (entry.getLastDate() < fromDate || (toDate != CatalogEntry.NO_DATE && entry.getFirstDate() > toDate)) {
+					return false;
+				}
+			}
+
+			if (box != null) {
+				// NaN bounds never overlap.
+				if (!(entry.getLatMax() >= box[0] && entry.getLatMin() <= box[1] && entry.getLonMax() >= box[2]
+						&& entry.getLonMin() <= box[3])) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+	}
+
+	/**
+	 * Updates the catalog of a directory and lists the files matching filters:
+	 * directory catalog.json.gz [var=tas] [path=ssp585] [dates=20400101,20501231]
+	 * [box=latMin,latMax,lonMin,lonMax] [attribute=value] ...
+	 *
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: MetadataCatalog directory catalog.json.gz [var=tas] [path=text]"
+					+ " [dates=yyyyMMdd,yyyyMMdd] [box=latMin,latMax,lonMin,lonMax] [attribute=value] ...");
+			return;
+		}
+
+		MetadataCatalog catalog = load(new File(args[1]));
+
+		long start = System.nanoTime();
+		int read = catalog.scan(new File(args[0]), Runtime.getRuntime().availableProcessors());
+		catalog.save();
+		System.out.println(String.format("Read %d of %d files in %.3f s", read, catalog.size(),
+				(System.nanoTime() - start) / 1e9));
+		for (Map.Entry<String, String> skipped : catalog.getSkipped().entrySet()) {
+			System.err.println("Skipped " + skipped.getKey() + ": " + skipped.getValue());
+		}
+
+		Query query = catalog.query();
+		for (int a = 2; a < args.length; a++) {
+			int equals = args[a].indexOf('=');
+			if (equals <= 0) {
+				throw new IllegalArgumentException("Expected name=value: " + args[a]);
+			}
+
+			String name = args[a].substring(0, equals);
+			String value = args[a].substring(equals + 1);
+			String[] values = value.split(",");
+
+			if ("var".equals(name)) {
+				query.variable(value);
+			} else if ("path".equals(name)) {
+				query.pathContains(value);
+			} else if ("dates".equals(name)) {
+				query.dates(Integer.parseInt(values[0]), Integer.parseInt(values[1]));
+			} else if ("box".equals(name)) {
+				query.box(Double.parseDouble(values[0]), Double.parseDouble(values[1]), Double.parseDouble(values[2]),
+						Double.parseDouble(values[3]));
+			} else {
+				query.attribute(name, value);
+			}
+		}
+
+		start = System.nanoTime();
+		List<CatalogEntry> found = query.list();
+		for (CatalogEntry entry : found) {
+			System.out.println(entry.getFirstDate() == CatalogEntry.NO_DATE ? entry.getPath()
+					: entry.getPath() + " " + TimeAxis.isoDate(entry.getFirstDate()) + " "
+							+ TimeAxis.isoDate(entry.getLastDate()));
+		}
+		System.out.println(String.format("%d files in %.3f ms", found.size(), (System.nanoTime() - start) / 1e6));
+	}
+}
@@ -0,0 +1,742 @@
+package tech.geoskop.main;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Range;
+import ucar.nc2.Attribute;
+import ucar.nc2.Dimension;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Variable;
+import ucar.nc2.write.NetcdfFormatWriter;
+
+/**
+ * Merge of N regional files (LAT0LON0, LAT0LON1, LAT0LON2, ...) sharing the
+ * time axis into a single netcdf file with the combined (y, x) grid.
+ *
+ * The grids of the regions must be compatible: same variables, types, time
+ * axis and grid spacing. The offset of each region in the combined grid is
+ * taken from its first lat/lon coordinates, unless it is given. Cells not
+ * covered by any region are left to the fill value.
+ *
+ * As in SubsetCopy, the regions are read in slabs along time by a pool of
+ * workers and the calling thread writes each slab at its origin in the
+ * destination, so no region is ever whole in memory.
+ *
+ * Usage:
+ *
+ * <pre>
+ * CopyStats stats = new MosaicMerge(destination).addRegion(lat0lon0).addRegion(lat0lon1).addRegion(lat0lon2)
+ * 		.setThreads(4).merge();
+ * </pre>
+ *
+ */
+public class MosaicMerge {
+
+	// Max difference, relative to the spacing, between the grids of two regions.
+	private static final double SPACING_TOLERANCE = 1e-3;
+
+	// Max distance, in cells, of an offset to an integer.
+	private static final double OFFSET_TOLERANCE = 0.1;
+
+	private final String destinationPath;
+
+	private final List<String> regions = new ArrayList<>();
+
+	// region -> {yOffset, xOffset}, when given.
+	private final Map<Integer, int[]> givenOffsets = new HashMap<>();
+
+	private final Set<String> variables = new LinkedHashSet<>();
+
+	private String yDimension;
+	private String xDimension;
+	private long heapBudget = SubsetCopy.DEFAULT_HEAP_BUDGET;
+	private int threads = 1;
+	private int queueCapacity = SubsetCopy.DEFAULT_QUEUE_CAPACITY;
+
+	public MosaicMerge(String destinationPath) {
+		this.destinationPath = destinationPath;
+	}
+
+	/**
+	 * Adds a region, placed by its coordinates.
+	 *
+	 * @param path
+	 * @return
+	 */
+	public MosaicMerge addRegion(String path) {
+		regions.add(path);
+		return this;
+	}
+
+	/**
+	 * Adds a region at a given offset of the combined grid. Either every region
+	 * has its offset or none has.
+	 *
+	 * @param path
+	 * @param yOffset
+	 * @param xOffset
+	 * @return
+	 */
+	public MosaicMerge addRegion(String path, int yOffset, int xOffset) {
+		givenOffsets.put(regions.size(), new int[] { yOffset, xOffset });
+		regions.add(path);
+		return this;
+	}
+
+	/**
+	 * Adds a variable to merge. Without variables, all the variables of the first
+	 * region are merged.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public MosaicMerge addVariable(String name) {
+		variables.add(name);
+		return this;
+	}
+
+	/**
+	 * Names of the dimensions of the grid. By default the last two dimensions of
+	 * the first variable of rank 3.
+	 *
+	 * @param yDimension
+	 * @param xDimension
+	 * @return
+	 */
+	public MosaicMerge setGridDimensions(String yDimension, String xDimension) {
+		this.yDimension = yDimension;
+		this.xDimension = xDimension;
+		return this;
+	}
+
+	public MosaicMerge setHeapBudget(long heapBudget) {
+		if (heapBudget <= 0) {
+			throw new IllegalArgumentException("Heap budget must be positive: " + heapBudget);
+		}
+		this.heapBudget = heapBudget;
+		return this;
+	}
+
+	public MosaicMerge setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Threads must be at least 1: " + threads);
+		}
+		this.threads = threads;
+		return this;
+	}
+
+	public MosaicMerge setQueueCapacity(int queueCapacity) {
+		if (queueCapacity < 1) {
+			throw new IllegalArgumentException("Queue capacity must be at least 1: " + queueCapacity);
+		}
+		this.queueCapacity = queueCapacity;
+		return this;
+	}
+
+	/**
+	 * Checks the regions, creates the destination file and merges the data.
+	 *
+	 * @return
+	 * @throws IOException
+	 * @throws InvalidRangeException
+	 */
+	public CopyStats merge() throws IOException, InvalidRangeException {
+		if (regions.isEmpty()) {
+			throw new IllegalArgumentException("No regions to merge");
+		}
+
+		long start = System.nanoTime();
+		List<NetcdfFile> files = new ArrayList<>();
+		List<RegionSlab> slabs;
+		long bytes;
+
+		try {
+			for (String region : regions) {
+				files.add(NetcdfFiles.open(region));
+			}
+
+			NetcdfFile first = files.get(0);
+			List<Variable> merged = variables(first);
+
+			resolveGridDimensions(merged);
+			checkCompatible(files, merged);
+
+			int[][] offsets = offsets(files);
+			int[] gridShape = gridShape(files, offsets);
+
+			NetcdfFormatWriter.Builder builder = NetcdfFormatWriter.createNewNetcdf3(destinationPath);
+			define(first, merged, gridShape, builder);
+
+			slabs = slabs(files, merged, offsets);
+
+			try (NetcdfFormatWriter writer = builder.build()) {
+				bytes = threads > 1 ? mergeParallel(slabs, writer) : mergeSerial(files, slabs, writer);
+			}
+		} finally {
+			for (NetcdfFile file : files) {
+				file.close();
+			}
+		}
+
+		return new CopyStats(variables.size(), slabs.size(), bytes, System.nanoTime() - start);
+	}
+
+	private List<Variable> variables(NetcdfFile first) {
+		List<Variable> merged = new ArrayList<>();
+
+		if (variables.isEmpty()) {
+			for (Variable variable : first.getVariables()) {
+				variables.add(variable.getShortName());
+			}
+		}
+
+		for (String name : variables) {
+			Variable variable = first.findVariable(name);
+			if (variable == null) {
+				throw new IllegalArgumentException("Variable " + name + " not found in " + regions.get(0));
+			}
+			merged.add(variable);
+		}
+
+		return merged;
+	}
+
+	private void resolveGridDimensions(List<Variable> merged) {
+		if (yDimension != null) {
+			return;
+		}
+
+		for (Variable variable : merged) {
+			if (variable.getRank() == 3) {
+				yDimension = variable.getDimension(1).getShortName();
+				xDimension = variable.getDimension(2).getShortName();
+				return;
+			}
+		}
+
+		throw new IllegalArgumentException("No (time, y, x) variable to find the grid dimensions");
+	}
+
+	/**
+	 * Same variables, types and dimensions in every region, same length of the
+	 * dimensions other than the grid ones, and same time axis.
+	 */
+	private void checkCompatible(List<NetcdfFile> files, List<Variable> merged) throws IOException {
+		NetcdfFile first = files.get(0);
+
+		for (int r = 1; r < files.size(); r++) {
+			NetcdfFile file = files.get(r);
+
+			for (Variable expected : merged) {
+				Variable variable = file.findVariable(expected.getShortName());
+
+				if (variable == null) {
+					throw new IllegalArgumentException(
+							"Variable " + expected.getShortName() + " not found in " + regions.get(r));
+				}
+				if (variable.getDataType() != expected.getDataType() || variable.getRank() != expected.getRank()) {
+					throw new IllegalArgumentException("Variable " + expected.getShortName() + " of " + regions.get(r)
+							+ " differs in type or rank from " + regions.get(0));
+				}
+
+				for (int axis = 0; axis < variable.getRank(); axis++) {
+					Dimension dimension = variable.getDimension(axis);
+					Dimension expectedDim = expected.getDimension(axis);
+					String dimName = dimension.getShortName();
+
+					if (!dimName.equals(expectedDim.getShortName()) || (!isGrid(dimName)
+							&& dimension.getLength() != expectedDim.getLength())) {
+						throw new IllegalArgumentException("Dimension " + dimName + " of " + expected.getShortName()
+								+ " in " + regions.get(r) + " differs from " + regions.get(0));
+					}
+				}
+			}
+
+			Variable time = file.findVariable(NetCDFTool.TIME);
+			Variable firstTime = first.findVariable(NetCDFTool.TIME);
+
+			if (firstTime != null) {
+				if (time == null || !sameValues(time.read(), firstTime.read())) {
+					throw new IllegalArgumentException("Time axis of " + regions.get(r) + " differs from "
+							+ regions.get(0));
+				}
+
+				String units = time.getUnitsString();
+				if (units != null && !units.equals(firstTime.getUnitsString())) {
+					throw new IllegalArgumentException("Time units of " + regions.get(r) + " differ from "
+							+ regions.get(0));
+				}
+			}
+		}
+	}
+
+	private static boolean sameValues(Array a, Array b) {
+		if (a.getSize() != b.getSize()) {
+			return false;
+		}
+		for (int i = 0; i < a.getSize(); i++) {
+			if (Double.compare(a.getDouble(i), b.getDouble(i)) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean isGrid(String dimName) {
+		return dimName.equals(yDimension) || dimName.equals(xDimension);
+	}
+
+	/**
+	 * {yOffset, xOffset} of each region: the given one, or the distance in cells
+	 * between its first coordinates and the ones of the first region, shifted so
+	 * the lowest offset is 0.
+	 */
+	private int[][] offsets(List<NetcdfFile> files) throws IOException {
+		int[][] offsets = new int[files.size()][];
+
+		// Given offsets are in the combined grid, computed ones relative to the
+		// other regions: they cannot be mixed.
+		if (!givenOffsets.isEmpty() && givenOffsets.size() != files.size()) {
+			throw new IllegalArgumentException("Offsets given for " + givenOffsets.size() + " of " + files.size()
+					+ " regions of " + destinationPath + ": give them for all the regions or for none");
+		}
+
+		if (givenOffsets.size() == files.size()) {
+			for (int r = 0; r < files.size(); r++) {
+				offsets[r] = givenOffsets.get(r);
+			}
+			checkOverlap(files, offsets);
+			return offsets;
+		}
+
+		// {firstLat, latStep, firstLon, lonStep} of each region, steps NaN for a
+		// single row or column. Without any step along an axis, all the regions
+		// start at offset 0 of that axis.
+		double[][] axes = new double[files.size()][];
+		double latStep = Double.NaN;
+		double lonStep = Double.NaN;
+
+		for (int r = 0; r < files.size(); r++) {
+			axes[r] = gridAxes(files.get(r), regions.get(r));
+
+			latStep = checkStep(latStep, axes[r][1], NetCDFTool.LATITUDE, r);
+			lonStep = checkStep(lonStep, axes[r][3], NetCDFTool.LONGITUDE, r);
+		}
+
+		int minY = Integer.MAX_VALUE;
+		int minX = Integer.MAX_VALUE;
+
+		for (int r = 0; r < files.size(); r++) {
+			int y = cells((axes[r][0] - axes[0][0]) / latStep, r);
+			int x = cells((axes[r][2] - axes[0][2]) / lonStep, r);
+
+			offsets[r] = new int[] { y, x };
+			minY = Math.min(minY, y);
+			minX = Math.min(minX, x);
+		}
+
+		for (int[] offset : offsets) {
+			offset[0] -= minY;
+			offset[1] -= minX;
+		}
+
+		checkOverlap(files, offsets);
+		return offsets;
+	}
+
+	/**
+	 * First coordinates and steps of a region from its lat and lon variables, 1D
+	 * (y), (x) or 2D (y, x).
+	 */
+	private double[] gridAxes(NetcdfFile file, String region) throws IOException {
+		Variable lat = file.findVariable(NetCDFTool.LATITUDE);
+		Variable lon = file.findVariable(NetCDFTool.LONGITUDE);
+
+		if (lat == null || lon == null) {
+			throw new IllegalArgumentException("No lat/lon in " + region + ", give the offset of the region");
+		}
+
+		try {
+			Array latY;
+			Array lonX;
+
+			if (lat.getRank() == 2) {
+				int ny = lat.getShape(0);
+				int nx = lon.getShape(1);
+				latY = lat.read(new int[] { 0, 0 }, new int[] { Math.min(2, ny), 1 });
+				lonX = lon.read(new int[] { 0, 0 }, new int[] { 1, Math.min(2, nx) });
+			} else {
+				latY = lat.read(new int[] { 0 }, new int[] { Math.min(2, lat.getShape(0)) });
+				lonX = lon.read(new int[] { 0 }, new int[] { Math.min(2, lon.getShape(0)) });
+			}
+
+			return new double[] { latY.getDouble(0),
+					latY.getSize() > 1 ? latY.getDouble(1) - latY.getDouble(0) : Double.NaN, lonX.getDouble(0),
+					lonX.getSize() > 1 ? lonX.getDouble(1) - lonX.getDouble(0) : Double.NaN };
+		} catch (InvalidRangeException e) {
+			throw new IOException("Failed reading the grid of " + region, e);
+		}
+	}
+
+	private double checkStep(double step, double regionStep, String axis, int region) {
+		if (Double.isNaN(regionStep)) {
+			return step;
+		}
+		if (Double.isNaN(step)) {
+			return regionStep;
+		}
+		if (Math.abs(regionStep - step) > Math.abs(step) * SPACING_TOLERANCE) {
+			throw new IllegalArgumentException("Spacing of " + axis + " of " + regions.get(region) + " ("
+					+ regionStep + ") differs from the other regions (" + step + ")");
+		}
+		return step;
+	}
+
+	private int cells(double distance, int region) {
+		if (Double.isNaN(distance)) {
+			return 0;
+		}
+
+		long cells = Math.round(distance);
+		if (Math.abs(distance - cells) > OFFSET_TOLERANCE) {
+			throw new IllegalArgumentException("Grid of " + regions.get(region)
+					+ " is not aligned with the other regions: offset of " + distance + " cells");
+		}
+		return (int) cells;
+	}
+
+	private void checkOverlap(List<NetcdfFile> files, int[][] offsets) {
+		for (int a = 0; a < files.size(); a++) {
+			int[] sizeA = gridSize(files.get(a));
+			for (int b = a + 1; b < files.size(); b++) {
+				int[] sizeB = gridSize(files.get(b));
+
+				boolean overlapY = offsets[a][0] < offsets[b][0] + sizeB[0] && offsets[b][0] < offsets[a][0] + sizeA[0];
+				boolean overlapX = offsets[a][1] < offsets[b][1] + sizeB[1] && offsets[b][1] < offsets[a][1] + sizeA[1];
+
+				if (overlapY && overlapX) {
+					throw new IllegalArgumentException("Regions " + regions.get(a) + " and " + regions.get(b)
+							+ " overlap");
+				}
+			}
+		}
+	}
+
+	private int[] gridSize(NetcdfFile file) {
+		return new int[] { file.findDimension(yDimension).getLength(), file.findDimension(xDimension).getLength() };
+	}
+
+	private int[] gridShape(List<NetcdfFile> files, int[][] offsets) {
+		int[] shape = new int[2];
+		for (int r = 0; r < files.size(); r++) {
+			int[] size = gridSize(files.get(r));
+			shape[0] = Math.max(shape[0], offsets[r][0] + size[0]);
+			shape[1] = Math.max(shape[1], offsets[r][1] + size[1]);
+		}
+		return shape;
+	}
+
+	/**
+	 * Adds dimensions (the grid ones with the combined size), variables and
+	 * attributes of the first region to the builder, and sets the format for the
+	 * size of the merge.
+	 */
+	private void define(NetcdfFile first, List<Variable> merged, int[] gridShape, NetcdfFormatWriter.Builder builder) {
+		long[] variableBytes = new long[merged.size()];
+
+		for (Attribute attribute : first.getRootGroup().attributes()) {
+			builder.addAttribute(attribute);
+		}
+
+		Map<String, Dimension> mapDims = new HashMap<>();
+
+		for (int v = 0; v < merged.size(); v++) {
+			Variable variable = merged.get(v);
+			List<Dimension> dimensions = new ArrayList<Dimension>();
+
+			for (Dimension sourceDim : variable.getDimensions()) {
+				String dimName = sourceDim.getShortName();
+
+				Dimension dimension = mapDims.get(dimName);
+				if (dimension == null) {
+					int length = dimName.equals(yDimension) ? gridShape[0]
+							: dimName.equals(xDimension) ? gridShape[1] : sourceDim.getLength();
+					dimension = builder.addDimension(dimName, length);
+					mapDims.put(dimName, dimension);
+				}
+				dimensions.add(dimension);
+			}
+
+			int[] shape = new int[dimensions.size()];
+			for (int axis = 0; axis < shape.length; axis++) {
+				shape[axis] = dimensions.get(axis).getLength();
+			}
+			variableBytes[v] = LargeFile.bytes(variable.getDataType(), shape);
+
+			builder.addVariable(variable.getShortName(), variable.getDataType(), dimensions)
+					.addAttributes(variable.attributes());
+		}
+
+		LargeFile.setFormat(builder, destinationPath, variableBytes);
+	}
+
+	/**
+	 * The slabs of every region: along time for the variables with time, whole
+	 * otherwise. The variables without grid dimensions are taken from the first
+	 * region only. Ordered by step and then by region, so the writer moves
+	 * forward through the file.
+	 */
+	private List<RegionSlab> slabs(List<NetcdfFile> files, List<Variable> merged, int[][] offsets)
+			throws InvalidRangeException {
+
+		List<RegionSlab> slabs = new ArrayList<>();
+
+		for (Variable firstVariable : merged) {
+			String name = firstVariable.getShortName();
+			boolean gridded = false;
+			int streamAxis = -1;
+
+			for (int axis = 0; axis < firstVariable.getRank(); axis++) {
+				String dimName = firstVariable.getDimension(axis).getShortName();
+				gridded |= isGrid(dimName);
+				if (dimName.equals(NetCDFTool.TIME)) {
+					streamAxis = axis;
+				}
+			}
+
+			int regionCount = gridded ? files.size() : 1;
+			List<List<RegionSlab>> perRegion = new ArrayList<>();
+			int maxSlabs = 0;
+
+			for (int r = 0; r < regionCount; r++) {
+				Variable variable = files.get(r).findVariable(name);
+				int rank = variable.getRank();
+
+				int[] origin = new int[rank];
+				List<Range> ranges = new ArrayList<>();
+				long bytesPerStep = variable.getElementSize();
+
+				for (int axis = 0; axis < rank; axis++) {
+					String dimName = variable.getDimension(axis).getShortName();
+					int length = variable.getShape(axis);
+
+					origin[axis] = dimName.equals(yDimension) ? offsets[r][0]
+							: dimName.equals(xDimension) ? offsets[r][1] : 0;
+					ranges.add(new Range(0, length - 1));
+
+					if (axis != streamAxis) {
+						bytesPerStep *= length;
+					}
+				}
+
+				List<RegionSlab> regionSlabs = new ArrayList<>();
+
+				if (streamAxis < 0) {
+					regionSlabs.add(new RegionSlab(r, name, origin, ranges));
+				} else {
+					// In parallel, every worker and every place in the queue may hold a slab.
+					long slabsInMemory = threads > 1 ? threads + queueCapacity : 1;
+					int length = variable.getShape(streamAxis);
+					int steps = (int) Math.min(length, Math.max(1, heapBudget / slabsInMemory / bytesPerStep));
+
+					for (int offSet = 0; offSet < length; offSet += steps) {
+						List<Range> slabRanges = new ArrayList<>(ranges);
+						slabRanges.set(streamAxis, new Range(offSet, Math.min(offSet + steps, length) - 1));
+
+						int[] slabOrigin = origin.clone();
+						slabOrigin[streamAxis] = offSet;
+
+						regionSlabs.add(new RegionSlab(r, name, slabOrigin, slabRanges));
+					}
+				}
+
+				perRegion.add(regionSlabs);
+				maxSlabs = Math.max(maxSlabs, regionSlabs.size());
+			}
+
+			for (int s = 0; s < maxSlabs; s++) {
+				for (List<RegionSlab> regionSlabs : perRegion) {
+					if (s < regionSlabs.size()) {
+						slabs.add(regionSlabs.get(s));
+					}
+				}
+			}
+		}
+
+		return slabs;
+	}
+
+	private long mergeSerial(List<NetcdfFile> files, List<RegionSlab> slabs, NetcdfFormatWriter writer)
+			throws IOException, InvalidRangeException {
+		long bytes = 0;
+
+		for (RegionSlab slab : slabs) {
+			Variable variable = files.get(slab.region).findVariable(slab.variable);
+			Array data = variable.read(slab.ranges);
+			writer.write(writer.findVariable(slab.variable), slab.origin, data);
+
+			bytes += data.getSize() * variable.getElementSize();
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * The workers read the slabs into the queue and the calling thread writes
+	 * them.
+	 */
+	private long mergeParallel(List<RegionSlab> slabs, NetcdfFormatWriter writer)
+			throws IOException, InvalidRangeException {
+		BlockingQueue<ReadRegionSlab> queue = new ArrayBlockingQueue<>(queueCapacity);
+		AtomicInteger next = new AtomicInteger();
+		AtomicReference<Exception> failure = new AtomicReference<>();
+
+		int workers = Math.min(threads, slabs.size());
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, workers));
+
+		for (int w = 0; w < workers; w++) {
+			pool.execute(() -> readSlabs(slabs, next, queue, failure));
+		}
+
+		long bytes = 0;
+
+		try {
+			for (int written = 0; written < slabs.size(); written++) {
+				ReadRegionSlab read = queue.take();
+
+				if (read.slab == null) {
+					Exception e = failure.get();
+					if (e instanceof InvalidRangeException) {
+						throw (InvalidRangeException) e;
+					}
+					throw new IOException("Failed reading the regions of " + destinationPath, e);
+				}
+
+				Variable variable = writer.findVariable(read.slab.variable);
+				writer.write(variable, read.slab.origin, read.data);
+
+				bytes += read.data.getSize() * variable.getElementSize();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted merging " + destinationPath, e);
+		} finally {
+			pool.shutdownNow();
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * Worker loop: takes the next slab not yet read until there are no more. A
+	 * failure is recorded and signaled to the writer with an empty slab.
+	 */
+	private void readSlabs(List<RegionSlab> slabs, AtomicInteger next, BlockingQueue<ReadRegionSlab> queue,
+			AtomicReference<Exception> failure) {
+
+		// NetcdfFile is not thread-safe, every worker has its own handles.
+		Map<Integer, NetcdfFile> files = new HashMap<>();
+
+		try {
+			for (int i = next.getAndIncrement(); i < slabs.size(); i = next.getAndIncrement()) {
+				if (failure.get() != null) {
+					return;
+				}
+
+				RegionSlab slab = slabs.get(i);
+
+				NetcdfFile file = files.get(slab.region);
+				if (file == null) {
+					file = NetcdfFiles.open(regions.get(slab.region));
+					files.put(slab.region, file);
+				}
+
+				queue.put(new ReadRegionSlab(slab, file.findVariable(slab.variable).read(slab.ranges)));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException | InvalidRangeException | RuntimeException e) {
+			failure.compareAndSet(null, e);
+			try {
+				queue.put(new ReadRegionSlab(null, null));
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		} finally {
+			for (NetcdfFile file : files.values()) {
+				try {
+					file.close();
+				} catch (IOException e) {
+					failure.compareAndSet(null, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Merges the regions given as arguments: destination region1 region2 ...
+	 *
+	 * @param args
+	 * @throws IOException
+	 * @throws InvalidRangeException
+	 */
+	public static void main(String[] args) throws IOException, InvalidRangeException {
+		if (args.length < 2) {
+			System.err.println("Usage: MosaicMerge destination.nc region1.nc [region2.nc ...]");
+			return;
+		}
+
+		MosaicMerge merge = new MosaicMerge(args[0]).setThreads(Runtime.getRuntime().availableProcessors());
+		for (int r = 1; r < args.length; r++) {
+			merge.addRegion(args[r]);
+		}
+
+		System.out.println(merge.merge());
+	}
+
+	/**
+	 * A section of a variable of a region and its origin in the destination.
+	 */
+	static class RegionSlab {
+		final int region;
+		final String variable;
+		final int[] origin;
+		final List<Range> ranges;
+
+		RegionSlab(int region, String variable, int[] origin, List<Range> ranges) {
+			this.region = region;
+			this.variable = variable;
+			this.origin = origin;
+			this.ranges = ranges;
+		}
+	}
+
+	/**
+	 * A slab read by a worker, waiting for the writer. A null slab signals a
+	 * failure.
+	 */
+	static class ReadRegionSlab {
+		final RegionSlab slab;
+		final Array data;
+
+		ReadRegionSlab(RegionSlab slab, Array data) {
+			this.slab = slab;
+			this.data = data;
+		}
+	}
+}
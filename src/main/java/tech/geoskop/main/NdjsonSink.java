@@ -0,0 +1,98 @@
+package tech.geoskop.main;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Export sink writing one JSON object per line and row:
+ * {"index":[t,j,i],"stride":1,"values":[...]}, index being the one of the
+ * first value. Missing values (NaN) are written as null.
+ *
+ */
+public class NdjsonSink implements ExportSink {
+
+	private final AsciiWriter writer;
+	private final int decimals;
+	private TimeAxis timeAxis;
+
+	public NdjsonSink(OutputStream output, int decimals) {
+		this.writer = new AsciiWriter(output);
+		this.decimals = decimals;
+	}
+
+	/**
+	 * A sink writing to a new file.
+	 *
+	 * @param path
+	 * @param decimals
+	 * @return
+	 * @throws IOException
+	 */
+	public static NdjsonSink toFile(String path, int decimals) throws IOException {
+		return new NdjsonSink(Channels.newOutputStream(FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)), decimals);
+	}
+
+	/**
+	 * Adds a date field, the date of the first index.
+	 *
+	 * @param timeAxis
+	 * @return
+	 */
+	public NdjsonSink setTimeAxis(TimeAxis timeAxis) {
+		this.timeAxis = timeAxis;
+		return this;
+	}
+
+	@Override
+	public void begin(String variable, int[] shape) throws IOException {
+	}
+
+	@Override
+	public void row(int[] index, Object storage, int offset, int length, int stride) throws IOException {
+		writer.append('{');
+
+		if (timeAxis != null && index.length > 0) {
+			int date = timeAxis.getDate(index[0]);
+			writer.append("\"date\":\"").appendDate(TimeUnits.year(date), TimeUnits.month(date), TimeUnits.day(date))
+					.append("\",");
+		}
+
+		writer.append("\"index\":[");
+		for (int d = 0; d < index.length; d++) {
+			if (d > 0) {
+				writer.append(',');
+			}
+			writer.append(index[d]);
+		}
+		writer.append("],\"stride\":").append(stride).append(",\"values\":[");
+
+		for (int k = 0; k < length; k++) {
+			if (k > 0) {
+				writer.append(',');
+			}
+			double value = ZarrChunks.getDouble(storage, offset + k);
+			if (Double.isNaN(value) || Double.isInfinite(value)) {
+				writer.append("null");
+			} else {
+				writer.append(value, decimals);
+			}
+		}
+
+		writer.append("]}").newLine();
+	}
+
+	@Override
+	public void end() throws IOException {
+		writer.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		writer.close();
+	}
+}
@@ -3,16 +3,14 @@ package tech.geoskop.main;
 import static java.lang.System.out;
 
 import java.io.IOException;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Calendar;
 import java.util.Iterator;
 import java.util.List;
 import java.util.stream.Stream;
 
 import ucar.ma2.Array;
+import ucar.ma2.DataType;
 import ucar.ma2.Index;
 import ucar.ma2.InvalidRangeException;
 import ucar.ma2.Range;
@@ -21,7 +19,6 @@ import ucar.nc2.Dimension;
 import ucar.nc2.NetcdfFile;
 import ucar.nc2.NetcdfFiles;
 import ucar.nc2.Variable;
-import ucar.nc2.write.NetcdfFormatWriter;
 
 /**
  * Class for inspecting and copying a netcdf file .
@@ -43,6 +40,11 @@ import ucar.nc2.write.NetcdfFormatWriter;
  * LAT0LON0/LAT0LON1/LAT0LON2 (three regions) -> netCDF3 (single netCDF) ZARR de
  * temperatura ZARR de precipitacion ZARR de viento ZARR de noches tropicales ZA
  * 
+ * The regions are merged with MosaicMerge.
+ * 
+ * The reads and prints are timed by IoMetrics (JFR events and counters, see
+ * -Dgeoskop.metrics.json and -Dgeoskop.metrics.port).
+ * 
  * TO DO: Use log and not console for printing data.
  *
  */
@@ -55,9 +57,13 @@ public class NetCDFTool {
 	public static final String SPATIAL_REF = "spatial_ref";
 	public static final String TIME = "time";
 	public static final String TEMPERATURE = "tas";
+	public static final String PRECIPITATION = "precipitation";
 	public static final String PATH_TO_NET_CDF_FILE = "src/main/resources/testmean.nc";
 	public static final String PATH_TO_NET_CDF_COPY_FILE = "src/main/resources/copyByRange.nc";
 
+	private static final TimeUnits MINUTES_SINCE_1850 = TimeUnits.parse("minutes since 1850-01-01",
+			TimeUnits.STANDARD);
+
 	public static int[] convertTimeMetaDateToIntArray(String metadata) {
 		// "minutes since 1850-01-01";
 		String[] data = metadata.split(" ");
@@ -71,33 +77,21 @@ public class NetCDFTool {
 	}
 
 	public static String minutesFrom_1850_01_01_toDateString(int minutes) {
-		DateFormat formatter = new SimpleDateFormat("yyyy-MM-dd");
-
-		Calendar calendar = Calendar.getInstance();
-
-		// set(int year, int month, int date, int hourOfDay, int minute, int second)
-		calendar.set(1850, 0, 1);
-
-		calendar.add(Calendar.MINUTE, minutes);
-
-		return formatter.format(calendar.getTime());
+		return TimeAxis.isoDate(MINUTES_SINCE_1850.dateOf(MINUTES_SINCE_1850.dayOf(minutes)));
 	}
 
+	/**
+	 * Date of an offset in the units of the time metadata, in UTC. For printing a
+	 * whole axis, decode it once with TimeAxis instead.
+	 * 
+	 * @param minutes
+	 * @param dateMetaData "minutes since 1850-01-01"
+	 * @return yyyy-MM-dd
+	 */
 	public static String dateMetaDatatoDateString(int minutes, String dateMetaData) {
-		DateFormat formatter = new SimpleDateFormat("yyyy-MM-dd");
-
-		Calendar calendar = Calendar.getInstance();
-
-		int[] dateInArray = convertTimeMetaDateToIntArray(dateMetaData);
-
-		// calendar.set(int year, int month, int date, int hourOfDay, int minute, int
-		// second)
-		// Month is zero-based.
-		calendar.set(dateInArray[0], dateInArray[1] - 1, dateInArray[2]);
-
-		calendar.add(Calendar.MINUTE, minutes);
+		TimeUnits units = TimeUnits.parse(dateMetaData, TimeUnits.STANDARD);
 
-		return formatter.format(calendar.getTime());
+		return TimeAxis.isoDate(units.dateOf(units.dayOf(minutes)));
 	}
 
 	/**
@@ -110,20 +104,17 @@ public class NetCDFTool {
 	 */
 	public static void main(String[] args) throws IOException, InvalidRangeException {
 
-		try (NetcdfFile ncfile = NetcdfFiles.open(PATH_TO_NET_CDF_FILE)) {
+		IoMetrics.install();
 
-			NetcdfFormatWriter.Builder builder = NetcdfFormatWriter.createNewNetcdf3(PATH_TO_NET_CDF_COPY_FILE);
+		try (NetcdfFile ncfile = NetcdfFiles.open(PATH_TO_NET_CDF_FILE)) {
 
 			printMetadata(ncfile.getVariables());
 
 			Variable latitude = ncfile.findVariable(LATITUDE);
 			Variable longitude = ncfile.findVariable(LONGITUDE);
-			Variable spatialRef = ncfile.findVariable(SPATIAL_REF);
-			Variable time = ncfile.findVariable(TIME);
 
 			// main var
 			Variable mainVar = ncfile.findVariable(TEMPERATURE);
-			Variable notExisting = ncfile.findVariable(NOT_EXISTING);
 
 			// Ranges
 //			Range latRange = new Range(10, 20); // 0, 105
@@ -134,89 +125,26 @@ public class NetCDFTool {
 			Range latRange = new Range(0, latitude.getShape(0) - 1); // 0, 105
 			Range lonRange = new Range(0, longitude.getShape(1) - 1); // 0, 212
 			Range timeRange = new Range(0, 1); // 0, 20087
-			
-			List<Range> latRanges = new ArrayList<>();
-			List<Range> lonRanges = new ArrayList<>();
-
-			latRanges.add(latRange);
-			latRanges.add(lonRange);
-
-			lonRanges.add(latRange);
-			lonRanges.add(lonRange);
-
-			List<Range> timeRanges = new ArrayList<>();
-			timeRanges.add(timeRange);
-
-			// spatialRef
-			Dimension spatialRefDim = builder.addDimension(spatialRef.getFullName(), spatialRef.getShape(0));
-			List<Dimension> spatialRefDims = new ArrayList<Dimension>();
-			spatialRefDims.add(spatialRefDim);
-
-			builder.addVariable(spatialRef.getFullName(), spatialRef.getDataType(), spatialRefDims)
-					.addAttributes(spatialRef.attributes());
-
-			// Latitude
-			Dimension latDim = builder.addDimension(latitude.getFullName(), latRange.last() - (latRange.first() - 1));
-			Dimension lonDim = builder.addDimension(longitude.getFullName(), lonRange.last() - (lonRange.first() - 1));
-			List<Dimension> latLonDims = new ArrayList<Dimension>();
-			latLonDims.add(latDim);
-			latLonDims.add(lonDim);
-
-			builder.addVariable(latitude.getFullName(), latitude.getDataType(), latLonDims)
-					.addAttributes(latitude.attributes());
-
-			// Longitude
-			builder.addVariable(longitude.getFullName(), longitude.getDataType(), latLonDims)
-					.addAttributes(longitude.attributes());
-
-			// Time
-			Dimension timeDim = builder.addDimension(time.getFullName(), timeRange.last() - (timeRange.first() - 1));
-			List<Dimension> timeDims = new ArrayList<Dimension>();
-			timeDims.add(timeDim);
-
-			builder.addVariable(time.getFullName(), time.getDataType(), timeDims).addAttributes(time.attributes());
-
-			// main var
-			List<Dimension> mainVarDims = new ArrayList<Dimension>();
-			// Keep order !
-			mainVarDims.add(timeDim);
-			mainVarDims.add(latDim);
-			mainVarDims.add(lonDim);
-
-			builder.addVariable(mainVar.getFullName(), mainVar.getDataType(), mainVarDims)
-			.addAttributes(mainVar.attributes());
-
-			// fake main var 2: precipitation 
-			
-			builder.addVariable("precipitation", mainVar.getDataType(), mainVarDims)
-					.addAttributes(mainVar.attributes());
-
-			// The variables are copied to the destination file.
-			try (NetcdfFormatWriter writer = builder.build()) {
-				// write data
-				// } catch (IOException e) {
-			}
-
-			// The actual data is copied to the destination file.
-			try (NetcdfFormatWriter writer = NetcdfFormatWriter.openExisting(PATH_TO_NET_CDF_COPY_FILE).build()) {
-				// write data to the new file.
-				Variable latNew = writer.findVariable(LATITUDE);
-				writer.write(latNew, latitude.read(latRanges));
-
-				Variable lonNew = writer.findVariable(LONGITUDE);
-				writer.write(lonNew, longitude.read(lonRanges));
-
-				// Fortran 0 based inclusive index.
-				Variable timeNew = writer.findVariable(TIME);
-				writer.write(timeNew, time.read(timeRanges));
-
-				Variable mainNew = writer.findVariable(TEMPERATURE);
-				writer.write(mainNew, loadMainVar(mainVar, timeRange, latRange, lonRange));
 
-				Variable fakeNew = writer.findVariable("precipitation");
-				writer.write(fakeNew, loadMainVar(mainVar, timeRange, latRange, lonRange));
-				
-			}
+			// The main var is streamed in time slabs bounded by the heap budget, so the
+			// whole range is never in memory.
+			CopyStats stats = new SubsetCopy(PATH_TO_NET_CDF_FILE, PATH_TO_NET_CDF_COPY_FILE)
+					.addVariable(SPATIAL_REF)
+					.addVariable(LATITUDE)
+					.addVariable(LONGITUDE)
+					.addVariable(TIME)
+					.addVariable(TEMPERATURE)
+					// fake main var 2: precipitation
+					.addVariable(TEMPERATURE, PRECIPITATION)
+					.setRange(mainVar.getDimension(0).getShortName(), timeRange)
+					.setRange(mainVar.getDimension(1).getShortName(), latRange)
+					.setRange(mainVar.getDimension(2).getShortName(), lonRange)
+					.setHeapBudget(SubsetCopy.DEFAULT_HEAP_BUDGET)
+					.setThreads(Runtime.getRuntime().availableProcessors())
+					.copy();
+
+			out.println(stats);
+			out.println();
 
 			// The new file is printed on the console to check the contents.
 			try (NetcdfFile destinationFile = NetcdfFiles.open(PATH_TO_NET_CDF_COPY_FILE)) {
@@ -316,23 +244,10 @@ public class NetCDFTool {
 	 * @throws InvalidRangeException
 	 */
 	public static void printTime(Variable time, List<Range> ranges) throws IOException, InvalidRangeException {
-		int[] shape = time.getShape();
-
-		Array data = time.read(ranges);
-
-		Index index = data.getIndex();
-
-		out.printf("Time size: %d%n", shape[0]);
-
-		// reference time is: (1850-01-01T00:00) + dval (en minutos) =
-		out.printf("%s %-8s %s %n", "Index", "Minutes", "Date");
-		for (int i = 0; i < shape[0]; i++) {
-			int minutes = data.getInt(index.set(i));
-//			out.printf("%5d %d %s %n", i, minutes, minutesFrom_1850_01_01_toDateString(minutes));
-			out.printf("%5d %d %s %n", i, minutes, dateMetaDatatoDateString(minutes, time.getUnitsString()));
+		Array data = read(time, ranges);
 
-		}
-		out.println();
+		printTime(time, data, TimeAxis.decode(data, time.getUnitsString(),
+				time.attributes().findAttributeString(TimeUnits.CALENDAR, TimeUnits.STANDARD)));
 	}
 
 	/**
@@ -343,23 +258,34 @@ public class NetCDFTool {
 	 * @throws InvalidRangeException
 	 */
 	public static void printTime(Variable time) throws IOException, InvalidRangeException {
-		int[] shape = time.getShape();
+		Array data = read(time);
 
-		Array data = time.read();
+		printTime(time, data, TimeAxis.decode(data, time.getUnitsString(),
+				time.attributes().findAttributeString(TimeUnits.CALENDAR, TimeUnits.STANDARD)));
+	}
 
-		Index index = data.getIndex();
+	/**
+	 * Prints the offsets of a time variable with their dates, decoded once.
+	 * 
+	 * @param time
+	 * @param data
+	 * @param axis
+	 */
+	private static void printTime(Variable time, Array data, TimeAxis axis) {
+		IoMetrics.Sample format = IoMetrics.start(IoMetrics.FORMAT, time);
 
-		out.printf("Time size: %d%n", shape[0]);
+		out.printf("Time size: %d%n", axis.size());
 
 		// reference time is: (1850-01-01T00:00) + dval (en minutos) =
 		out.printf("%s %-8s %s %n", "Index", "Minutes", "Date");
-		for (int i = 0; i < shape[0]; i++) {
-			int minutes = data.getInt(index.set(i));
-//			out.printf("%5d %d %s %n", i, minutes, minutesFrom_1850_01_01_toDateString(minutes));
-			out.printf("%5d %d %s %n", i, minutes, dateMetaDatatoDateString(minutes, time.getUnitsString()));
+		IntCube.Cursor minutes = IntCube.of(data).row(0, 0, new IntCube.Cursor());
 
+		for (int i = 0; i < axis.size(); i++) {
+			out.printf("%5d %d %s %n", i, minutes.get(i), axis.getIsoDate(i));
 		}
 		out.println();
+
+		format.stop(data);
 	}
 
 	/**
@@ -372,7 +298,7 @@ public class NetCDFTool {
 	 * @throws InvalidRangeException
 	 */
 	public static Array loadTime(Variable time, List<Range> ranges) throws IOException, InvalidRangeException {
-		return time.read(ranges);
+		return read(time, ranges);
 	}
 
 	/**
@@ -383,12 +309,14 @@ public class NetCDFTool {
 	 * @throws InvalidRangeException
 	 */
 	public static void printCRS(Variable spatialRef) throws IOException, InvalidRangeException {
-		Array crsArray = spatialRef.read();
+		Array crsArray = read(spatialRef);
+		IoMetrics.Sample format = IoMetrics.start(IoMetrics.FORMAT, spatialRef);
 
 		out.printf("Name: %s%n", spatialRef.getFullName());
 		out.println(crsArray);
 
 		out.println();
+		format.stop(crsArray);
 	}
 
 	/**
@@ -402,7 +330,7 @@ public class NetCDFTool {
 	 */
 
 	public static Array loadLatitude(Variable latitude, List<Range> ranges) throws IOException, InvalidRangeException {
-		return latitude.read(ranges);
+		return read(latitude, ranges);
 	}
 
 	/**
@@ -419,13 +347,15 @@ public class NetCDFTool {
 		int rows = shape[0] - 1;
 
 		// Print in one line the first element of each row.
-		Array latArray = latitude.read("0:" + rows + ", 0");
+		Array latArray = read(latitude, "0:" + rows + ", 0");
+		IoMetrics.Sample format = IoMetrics.start(IoMetrics.FORMAT, latitude);
 
 		out.printf("Latitude size: %d%n", shape[0]);
 		out.printf("For each latitude there must be %d longitude points.%n", shape[1]);
 		out.println(latArray);
 
 		out.println();
+		format.stop(latArray);
 	}
 
 	/**
@@ -439,7 +369,7 @@ public class NetCDFTool {
 	 */
 	public static Array loadLongitude(Variable longitude, List<Range> ranges)
 			throws IOException, InvalidRangeException {
-		return longitude.read(ranges);
+		return read(longitude, ranges);
 	}
 
 	/**
@@ -457,13 +387,15 @@ public class NetCDFTool {
 		int columns = shape[1] - 1;
 
 		// Print in one line all elements of the first row.
-		Array lonArray = longitude.read("0, " + "0:" + columns);
+		Array lonArray = read(longitude, "0, " + "0:" + columns);
+		IoMetrics.Sample format = IoMetrics.start(IoMetrics.FORMAT, longitude);
 
 		out.printf("Longitude size: %d%n", shape[1]);
 		out.printf("For each longitude there must be %d latitude points.%n", shape[0]);
 		out.println(lonArray);
 
 		out.println();
+		format.stop(lonArray);
 	}
 
 	/**
@@ -487,7 +419,7 @@ public class NetCDFTool {
 		String range = String.format("%d:%d, %d:%d, %d:%d", idxTimeIni, idxTimeEnd, idxLatIni, idxLatEnd, idxLonIni,
 				idxLonEnd);
 
-		return mainVar.read(range);
+		return read(mainVar, range);
 
 	}
 
@@ -510,7 +442,35 @@ public class NetCDFTool {
 		ranges.add(latRange);
 		ranges.add(lonRange);
 
-		return mainVar.read(ranges);
+		return read(mainVar, ranges);
+	}
+
+	/**
+	 * Utility for reading the main var within a lat/lon box, using the spatial
+	 * index of the grid (see GridIndex.of). Returns null if no cell is inside the
+	 * box.
+	 * 
+	 * @param mainVar
+	 * @param mainRange
+	 * @param gridIndex
+	 * @param latMin
+	 * @param latMax
+	 * @param lonMin
+	 * @param lonMax
+	 * @return
+	 * @throws IOException
+	 * @throws InvalidRangeException
+	 */
+	public static Array loadMainVar(Variable mainVar, Range mainRange, GridIndex gridIndex, double latMin,
+			double latMax, double lonMin, double lonMax) throws IOException, InvalidRangeException {
+
+		List<Range> box = gridIndex.boundingBox(latMin, latMax, lonMin, lonMax);
+
+		if (box == null) {
+			return null;
+		}
+
+		return loadMainVar(mainVar, mainRange, box.get(0), box.get(1));
 	}
 
 	/**
@@ -535,7 +495,8 @@ public class NetCDFTool {
 		String range = String.format("%d:%d, %d:%d, %d:%d", mainRange.first(), mainRange.last(), latRange.first(),
 				latRange.last(), lonRange.first(), lonRange.last());
 
-		Array data = mainVar.read(ranges);
+		Array data = read(mainVar, ranges);
+		IoMetrics.Sample format = IoMetrics.start(IoMetrics.FORMAT, mainVar);
 
 		int[] shape = data.getShape();
 		Index index = data.getIndex();
@@ -545,18 +506,9 @@ public class NetCDFTool {
 		out.println("Indices temperature: " + index);
 		out.println("Shape " + Arrays.toString(shape));
 
-		for (int i = 0; i < shape[0]; i++) {
-			out.printf("idx time %d %n", i);
-			for (int j = 0; j < shape[1]; j++) {
-				out.printf("idx lat %4d", j);
-				for (int k = 0; k < shape[2]; k++) {
-					double dval = data.getDouble(index.set(i, j, k));
-					out.printf("%15.8f ", dval);
-				}
-				out.println();
-			}
-		}
-		out.println();
+		printRows(data, "idx lat %4d", "%15.8f ");
+
+		format.stop(data);
 	}
 
 	/**
@@ -580,7 +532,8 @@ public class NetCDFTool {
 		String range = String.format("%d:%d, %d:%d, %d:%d", idxTimeIni, idxTimeEnd, idxLatIni, idxLatEnd, idxLonIni,
 				idxLonEnd);
 
-		Array data = mainVar.read(range);
+		Array data = read(mainVar, range);
+		IoMetrics.Sample format = IoMetrics.start(IoMetrics.FORMAT, mainVar);
 
 		int[] shape = data.getShape();
 		Index index = data.getIndex();
@@ -590,18 +543,9 @@ public class NetCDFTool {
 		out.println("Indices temperature: " + index);
 		out.println("Shape " + Arrays.toString(shape));
 
-		for (int i = 0; i < shape[0]; i++) {
-			out.printf("idx time %d %n", i);
-			for (int j = 0; j < shape[1]; j++) {
-				out.printf("idx lat %4d", j);
-				for (int k = 0; k < shape[2]; k++) {
-					double dval = data.getDouble(index.set(i, j, k));
-					out.printf("%15.8f ", dval);
-				}
-				out.println();
-			}
-		}
-		out.println();
+		printRows(data, "idx lat %4d", "%15.8f ");
+
+		format.stop(data);
 	}
 
 	/**
@@ -620,7 +564,53 @@ public class NetCDFTool {
 
 		String range = String.format("%d, %d, %d", idxTime, idxLat, idxLon);
 
-		return mainVar.read(range);
+		return read(mainVar, range);
+	}
+
+	/**
+	 * Utility for reading the whole series of a cell of the main var, as a 1D
+	 * array. In a time major file (y, x, time), see TimeMajorCopy, it is a single
+	 * contiguous read instead of one value per time step.
+	 * 
+	 * @param mainVar
+	 * @param idxLat
+	 * @param idxLon
+	 * @return
+	 * @throws IOException
+	 * @throws InvalidRangeException
+	 */
+	public static Array loadMainVarSeries(Variable mainVar, int idxLat, int idxLon)
+			throws IOException, InvalidRangeException {
+
+		if (TIME.equals(mainVar.getDimension(0).getShortName())) {
+			return loadMainVar(mainVar, 0, mainVar.getShape(0) - 1, idxLat, idxLat, idxLon, idxLon).reduce();
+		}
+
+		return read(mainVar, new int[] { idxLat, idxLon, 0 }, new int[] { 1, 1, mainVar.getShape(2) }).reduce();
+	}
+
+	/**
+	 * Utility for reading the whole series of the cell nearest to a coordinate,
+	 * using the spatial index of the grid (see GridIndex.of).
+	 * 
+	 * @param mainVar
+	 * @param gridIndex
+	 * @param lat
+	 * @param lon
+	 * @return
+	 * @throws IOException
+	 * @throws InvalidRangeException
+	 * @throws IllegalArgumentException if the grid has no valid cell.
+	 */
+	public static Array loadMainVarSeries(Variable mainVar, GridIndex gridIndex, double lat, double lon)
+			throws IOException, InvalidRangeException {
+
+		int[] cell = gridIndex.nearest(lat, lon);
+		if (cell == null) {
+			throw new IllegalArgumentException("No valid cell in the grid for lat " + lat + ", lon " + lon);
+		}
+
+		return loadMainVarSeries(mainVar, cell[0], cell[1]);
 	}
 
 	/**
@@ -641,7 +631,8 @@ public class NetCDFTool {
 
 		String range = String.format("%d, %d, %d", idxTime, idxLat, idxLon);
 
-		Array data = mainVar.read(range);
+		Array data = read(mainVar, range);
+		IoMetrics.Sample format = IoMetrics.start(IoMetrics.FORMAT, mainVar);
 
 		int[] shape = data.getShape();
 		Index index = data.getIndex();
@@ -650,9 +641,12 @@ public class NetCDFTool {
 		out.println("Indices temperature: " + index);
 		out.println("Shape " + Arrays.toString(shape));
 
-		double dval = data.getDouble(index.set(0, 0, 0));
-		out.printf("Temperature: %4.8f %n", dval);
+		double value = data.getDataType() == DataType.DOUBLE ? DoubleCube.of(data).get(0, 0, 0)
+				: FloatCube.of(data).get(0, 0, 0);
+		out.printf("Temperature: %4.8f %n", value);
 		out.println();
+
+		format.stop(data);
 	}
 
 	/**
@@ -667,28 +661,19 @@ public class NetCDFTool {
 		// Exception in thread "main" java.lang.OutOfMemoryError: Java heap space
 
 		int[] shape = mainVar.getShape();
-		Array data = mainVar.read();
-
-		Index index = data.getIndex();
+		Array data = read(mainVar);
+		IoMetrics.Sample format = IoMetrics.start(IoMetrics.FORMAT, mainVar);
 
 		out.println("Shape " + Arrays.toString(shape));
 
-		for (int i = 0; i < shape[0]; i++) {
-			out.printf("idx time %d %n", i);
-			for (int j = 0; j < shape[1]; j++) {
-				out.printf("idx lat %4d  ", j);
-				for (int k = 0; k < shape[2]; k++) {
-					double dval = data.getDouble(index.set(i, j, k));
-					out.printf("%4.8f ", dval);
-				}
-				out.println();
-			}
-		}
-		out.println();
+		printRows(data, "idx lat %4d  ", "%4.8f ");
+
+		format.stop(data);
 	}
 
 	/**
-	 * Wrapper for printing all the data using chunks.
+	 * Wrapper for printing all the data using chunks, streamed through the
+	 * Exporter: the next chunks are read ahead while one is printed.
 	 * 
 	 * @param mainVar
 	 * @throws IOException
@@ -696,30 +681,80 @@ public class NetCDFTool {
 	 */
 	public static void printMainVar(Variable mainVar) throws IOException, InvalidRangeException {
 
-		int[] shape = mainVar.getShape();
-		int mainSize = shape[0];
-		int latSize = shape[1];
-		int lonSize = shape[2];
-
 		// chunkSize could be static, it is a fraction of main size.
-		int chunkSize = 1000;
-		int offSet = 0;
-
-		if (mainSize > chunkSize) {
-			for (int t = chunkSize; t < shape[0]; t += chunkSize) {
-				// out.printf("offset %d, upTo %d%n", offSet, t - 1);
-				printMainVar(mainVar, offSet, t - 1, 0, latSize - 1, 0, lonSize - 1);
-				offSet += chunkSize;
-			}
+		int chunkSize = Exporter.DEFAULT_SLAB_STEPS;
 
-			if (offSet < mainSize) {
-				// out.printf("offset %d, upTo %d%n", offSet, temperaturaSize - 1);
-				printMainVar(mainVar, offSet, mainSize - 1, 0, latSize - 1, 0, lonSize - 1);
-			}
+		try (PrintSink sink = new PrintSink(out)) {
+			Exporter.export(mainVar, chunkSize, sink);
+		}
+	}
 
+	/**
+	 * Prints a (time, lat, lon) section, one block per time step and one line per
+	 * latitude. DOUBLE variables keep their precision, the others are read as
+	 * floats.
+	 * 
+	 * @param data
+	 * @param latFormat   format of the latitude index at the start of a line.
+	 * @param valueFormat
+	 */
+	private static void printRows(Array data, String latFormat, String valueFormat) {
+		if (data.getDataType() == DataType.DOUBLE) {
+			DoubleCube cube = DoubleCube.of(data);
+			DoubleCube.Cursor row = new DoubleCube.Cursor();
+
+			for (int i = 0; i < cube.getNt(); i++) {
+				out.printf("idx time %d %n", i);
+				for (int j = 0; j < cube.getNy(); j++) {
+					out.printf(latFormat, j);
+					cube.row(i, j, row);
+					for (int k = 0; k < row.length(); k++) {
+						out.printf(valueFormat, row.get(k));
+					}
+					out.println();
+				}
+			}
 		} else {
-			printMainVarAll(mainVar);
+			FloatCube cube = FloatCube.of(data);
+			FloatCube.Cursor row = new FloatCube.Cursor();
+
+			for (int i = 0; i < cube.getNt(); i++) {
+				out.printf("idx time %d %n", i);
+				for (int j = 0; j < cube.getNy(); j++) {
+					out.printf(latFormat, j);
+					cube.row(i, j, row);
+					for (int k = 0; k < row.length(); k++) {
+						out.printf(valueFormat, row.get(k));
+					}
+					out.println();
+				}
+			}
 		}
+		out.println();
+	}
 
+	/*
+	 * Reads of the helpers, timed and counted by IoMetrics.
+	 */
+
+	private static Array read(Variable variable) throws IOException {
+		IoMetrics.Sample sample = IoMetrics.start(IoMetrics.READ, variable);
+		return sample.stop(variable.read());
+	}
+
+	private static Array read(Variable variable, String range) throws IOException, InvalidRangeException {
+		IoMetrics.Sample sample = IoMetrics.start(IoMetrics.READ, variable);
+		return sample.stop(variable.read(range));
+	}
+
+	private static Array read(Variable variable, List<Range> ranges) throws IOException, InvalidRangeException {
+		IoMetrics.Sample sample = IoMetrics.start(IoMetrics.READ, variable);
+		return sample.stop(variable.read(ranges));
+	}
+
+	private static Array read(Variable variable, int[] origin, int[] shape)
+			throws IOException, InvalidRangeException {
+		IoMetrics.Sample sample = IoMetrics.start(IoMetrics.READ, variable);
+		return sample.stop(variable.read(origin, shape));
 	}
 }
@@ -0,0 +1,539 @@
+package tech.geoskop.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Range;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.Variable;
+
+/**
+ * Memory-mapped reader of the fixed-size variables of a classic or 64-bit
+ * offset netcdf-3 file.
+ *
+ * The header is parsed once; a fixed-size variable is a big-endian block at a
+ * known offset, so it is mapped and seen as a FloatBuffer, IntBuffer,
+ * ShortBuffer or DoubleBuffer without copying. Sections are read from the
+ * mapping straight into arrays of the caller, so repeated reads are served from
+ * the page cache without allocating. Record variables, CDF5 files, other types
+ * and variables over 2 GiB are not mapped: readFloats falls back to
+ * Variable.read for them.
+ *
+ * The mappings of a file are cached by location until its modification time or
+ * size changes (see of), and released by the garbage collector.
+ *
+ */
+public class Netcdf3Mapped {
+
+	// Header tags of the netcdf-3 format.
+	private static final int NC_DIMENSION = 0x0A;
+	private static final int NC_VARIABLE = 0x0B;
+	private static final int NC_ATTRIBUTE = 0x0C;
+
+	// Bytes of the header mapped first, doubled until it fits.
+	private static final int HEADER_BYTES = 64 * 1024;
+
+	// location -> mapped file, null when it cannot be mapped.
+	private static final Map<String, Cached> CACHE = new ConcurrentHashMap<>();
+
+	private final String location;
+	private final Map<String, Entry> variables = new HashMap<>();
+
+	private Netcdf3Mapped(String location) {
+		this.location = location;
+	}
+
+	/**
+	 * Parses the header of a file and maps its fixed-size variables.
+	 *
+	 * @param path
+	 * @return
+	 * @throws IOException if it is not a classic or 64-bit offset netcdf-3 file.
+	 */
+	public static Netcdf3Mapped open(String path) throws IOException {
+		Netcdf3Mapped mapped = new Netcdf3Mapped(path);
+
+		try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+			long size = channel.size();
+			long headerBytes = Math.min(size, HEADER_BYTES);
+
+			while (true) {
+				ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, headerBytes);
+				try {
+					mapped.parse(header, channel, size);
+					return mapped;
+				} catch (BufferUnderflowException e) {
+					if (headerBytes >= Math.min(size, Integer.MAX_VALUE)) {
+						throw new IOException("Truncated netcdf-3 header in " + path, e);
+					}
+					headerBytes = Math.min(Math.min(size, Integer.MAX_VALUE), headerBytes * 2);
+					mapped.variables.clear();
+				}
+			}
+		}
+	}
+
+	/**
+	 * The mapped file of a NetcdfFile, from the cache if it did not change, or
+	 * null if it is not a netcdf-3 file this reader understands.
+	 *
+	 * @param file
+	 * @return
+	 */
+	public static Netcdf3Mapped of(NetcdfFile file) {
+		String location = file.getLocation();
+		File onDisk = new File(location);
+
+		Cached cached = CACHE.get(location);
+		if (cached != null && cached.lastModified == onDisk.lastModified() && cached.length == onDisk.length()) {
+			return cached.mapped;
+		}
+
+		Netcdf3Mapped mapped = null;
+		if (onDisk.isFile()) {
+			try {
+				mapped = open(location);
+			} catch (IOException | RuntimeException e) {
+				// Not netcdf-3 or a header this reader does not follow, the ucar
+				// reader is used.
+			}
+		}
+
+		CACHE.put(location, new Cached(mapped, onDisk.lastModified(), onDisk.length()));
+		return mapped;
+	}
+
+	/**
+	 * The mapped file of a variable, or null if the variable is not mapped.
+	 *
+	 * @param variable
+	 * @return
+	 */
+	public static Netcdf3Mapped of(Variable variable) {
+		NetcdfFile file = variable.getNetcdfFile();
+		if (file == null || variable.isUnlimited()) {
+			return null;
+		}
+
+		Netcdf3Mapped mapped = of(file);
+		return mapped != null && mapped.isMapped(variable.getShortName()) ? mapped : null;
+	}
+
+	public static void clearCache() {
+		CACHE.clear();
+	}
+
+	/**
+	 * Reads a section of a numeric variable as float into an array, from the
+	 * mapping if the variable is a mapped FLOAT, else with Variable.read.
+	 *
+	 * @param variable
+	 * @param section  one range per dimension, Fortran 0 based inclusive upper
+	 *                 bound.
+	 * @param into     array to fill, or null (or too short) for a new one.
+	 * @return the array with the values of the section from 0.
+	 * @throws IOException
+	 * @throws InvalidRangeException
+	 */
+	public static float[] readFloats(Variable variable, List<Range> section, float[] into)
+			throws IOException, InvalidRangeException {
+
+		Netcdf3Mapped mapped = variable.getDataType() == DataType.FLOAT ? of(variable) : null;
+
+		if (mapped != null) {
+			IoMetrics.Sample sample = IoMetrics.start(IoMetrics.READ, variable);
+			float[] values = mapped.readFloats(variable.getShortName(), section, into);
+			sample.stop(4L * size(section));
+			return values;
+		}
+
+		IoMetrics.Sample sample = IoMetrics.start(IoMetrics.READ, variable);
+		ucar.ma2.Array data = sample.stop(variable.read(section));
+
+		int length = (int) data.getSize();
+		float[] values = into != null && into.length >= length ? into : new float[length];
+		for (int i = 0; i < length; i++) {
+			values[i] = data.getFloat(i);
+		}
+		return values;
+	}
+
+	public String getLocation() {
+		return location;
+	}
+
+	public boolean isMapped(String variable) {
+		return variables.containsKey(variable);
+	}
+
+	public DataType getDataType(String variable) {
+		return entry(variable).dataType;
+	}
+
+	public int[] getShape(String variable) {
+		return entry(variable).shape.clone();
+	}
+
+	/**
+	 * The whole variable as a FloatBuffer, index j * nx + i in row-major order.
+	 *
+	 * @param variable a mapped FLOAT variable.
+	 * @return a view, its position and limit are the caller's.
+	 */
+	public FloatBuffer floats(String variable) {
+		return entry(variable, DataType.FLOAT).data.duplicate().asFloatBuffer();
+	}
+
+	public IntBuffer ints(String variable) {
+		return entry(variable, DataType.INT).data.duplicate().asIntBuffer();
+	}
+
+	public ShortBuffer shorts(String variable) {
+		return entry(variable, DataType.SHORT).data.duplicate().asShortBuffer();
+	}
+
+	public DoubleBuffer doubles(String variable) {
+		return entry(variable, DataType.DOUBLE).data.duplicate().asDoubleBuffer();
+	}
+
+	/**
+	 * Reads a strided section of a FLOAT variable into an array.
+	 *
+	 * @param variable
+	 * @param section  one range per dimension, Fortran 0 based inclusive upper
+	 *                 bound.
+	 * @param into     array to fill, or null (or too short) for a new one.
+	 * @return the array with the values of the section from 0, row-major.
+	 */
+	public float[] readFloats(String variable, List<Range> section, float[] into) {
+		Entry entry = entry(variable, DataType.FLOAT);
+		checkSection(entry, section);
+
+		long size = size(section);
+		float[] values = into != null && into.length >= size ? into : new float[(int) size];
+
+		if (entry.shape.length == 0) {
+			values[0] = entry.floats.get(0);
+		} else {
+			copyFloats(entry.floats, entry.strides, section, 0, 0, values, 0);
+		}
+		return values;
+	}
+
+	/**
+	 * Reads a strided section of an INT variable into an array.
+	 *
+	 * @param variable
+	 * @param section  one range per dimension, Fortran 0 based inclusive upper
+	 *                 bound.
+	 * @param into     array to fill, or null (or too short) for a new one.
+	 * @return the array with the values of the section from 0, row-major.
+	 */
+	public int[] readInts(String variable, List<Range> section, int[] into) {
+		Entry entry = entry(variable, DataType.INT);
+		checkSection(entry, section);
+
+		long size = size(section);
+		int[] values = into != null && into.length >= size ? into : new int[(int) size];
+
+		if (entry.shape.length == 0) {
+			values[0] = entry.ints.get(0);
+		} else {
+			copyInts(entry.ints, entry.strides, section, 0, 0, values, 0);
+		}
+		return values;
+	}
+
+	/**
+	 * Copies the section from dimension d on, returns the next position of the
+	 * array. The absolute gets of the buffer keep it free of shared state.
+	 */
+	private static int copyFloats(FloatBuffer data, int[] strides, List<Range> section, int d, int base,
+			float[] values, int position) {
+		Range range = section.get(d);
+
+		if (d == strides.length - 1) {
+			int index = base + range.first();
+			for (int i = 0; i < range.length(); i++) {
+				values[position++] = data.get(index);
+				index += range.stride();
+			}
+			return position;
+		}
+
+		for (int i = range.first(); i <= range.last(); i += range.stride()) {
+			position = copyFloats(data, strides, section, d + 1, base + i * strides[d], values, position);
+		}
+		return position;
+	}
+
+	private static int copyInts(IntBuffer data, int[] strides, List<Range> section, int d, int base, int[] values,
+			int position) {
+		Range range = section.get(d);
+
+		if (d == strides.length - 1) {
+			int index = base + range.first();
+			for (int i = 0; i < range.length(); i++) {
+				values[position++] = data.get(index);
+				index += range.stride();
+			}
+			return position;
+		}
+
+		for (int i = range.first(); i <= range.last(); i += range.stride()) {
+			position = copyInts(data, strides, section, d + 1, base + i * strides[d], values, position);
+		}
+		return position;
+	}
+
+	private static long size(List<Range> section) {
+		long size = 1;
+		for (Range range : section) {
+			size *= range.length();
+		}
+		return size;
+	}
+
+	private void checkSection(Entry entry, List<Range> section) {
+		if (section.size() != entry.shape.length) {
+			throw new IllegalArgumentException(
+					"Section of rank " + section.size() + " for a variable of rank " + entry.shape.length);
+		}
+		for (int d = 0; d < section.size(); d++) {
+			if (section.get(d).last() >= entry.shape[d]) {
+				throw new IllegalArgumentException("Range " + section.get(d) + " out of dimension " + d
+						+ " of length " + entry.shape[d]);
+			}
+		}
+	}
+
+	private Entry entry(String variable) {
+		Entry entry = variables.get(variable);
+		if (entry == null) {
+			throw new IllegalArgumentException("Variable " + variable + " is not mapped in " + location);
+		}
+		return entry;
+	}
+
+	private Entry entry(String variable, DataType dataType) {
+		Entry entry = entry(variable);
+		if (entry.dataType != dataType) {
+			throw new IllegalArgumentException(
+					"Variable " + variable + " is " + entry.dataType + ", not " + dataType + " in " + location);
+		}
+		return entry;
+	}
+
+	/**
+	 * Parses the header: magic, numrecs, dimensions, global attributes and
+	 * variables. The fixed-size variables of a supported type are mapped.
+	 */
+	private void parse(ByteBuffer header, FileChannel channel, long size) throws IOException {
+		if (header.remaining() < 4 || header.get() != 'C' || header.get() != 'D' || header.get() != 'F') {
+			throw new IOException(location + " is not a netcdf-3 file");
+		}
+
+		int version = header.get();
+		if (version != 1 && version != 2) {
+			throw new IOException(location + " is netcdf-3 version " + version + ", only 1 and 2 are mapped");
+		}
+
+		// numrecs, not needed: record variables are not mapped.
+		header.getInt();
+
+		int[] dimensions = new int[0];
+		int tag = header.getInt();
+		int count = header.getInt();
+		if (tag == NC_DIMENSION) {
+			dimensions = new int[count];
+			for (int d = 0; d < count; d++) {
+				name(header);
+				dimensions[d] = header.getInt();
+			}
+		}
+
+		skipAttributes(header);
+
+		tag = header.getInt();
+		count = header.getInt();
+		if (tag != NC_VARIABLE) {
+			return;
+		}
+
+		for (int v = 0; v < count; v++) {
+			String name = name(header);
+
+			int rank = header.getInt();
+			int[] shape = new int[rank];
+			boolean record = false;
+			for (int d = 0; d < rank; d++) {
+				int length = dimensions[header.getInt()];
+				record |= length == 0;
+				shape[d] = length;
+			}
+
+			skipAttributes(header);
+
+			DataType dataType = dataType(header.getInt());
+			header.getInt(); // vsize, 32-bit, recomputed below.
+			long begin = version == 1 ? header.getInt() & 0xFFFFFFFFL : header.getLong();
+
+			if (record || dataType == null) {
+				continue;
+			}
+
+			long bytes = dataType.getSize();
+			for (int length : shape) {
+				bytes *= length;
+			}
+
+			if (bytes == 0 || bytes > Integer.MAX_VALUE || begin + bytes > size) {
+				continue;
+			}
+
+			MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, begin, bytes);
+			variables.put(name, new Entry(dataType, shape, data));
+		}
+	}
+
+	private static String name(ByteBuffer header) throws IOException {
+		int length = header.getInt();
+		if (length < 0) {
+			throw new IOException("Negative name length " + length);
+		}
+		if (length > header.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		byte[] bytes = new byte[length];
+		header.get(bytes);
+		skipPadding(header, length);
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void skipAttributes(ByteBuffer header) throws IOException {
+		int tag = header.getInt();
+		int count = header.getInt();
+		if (tag != NC_ATTRIBUTE) {
+			return;
+		}
+
+		for (int a = 0; a < count; a++) {
+			name(header);
+			int type = header.getInt();
+			int values = header.getInt();
+
+			long bytes = (long) values * typeSize(type);
+			if (values < 0) {
+				throw new IOException("Negative attribute length " + values);
+			}
+			skip(header, bytes);
+			skipPadding(header, bytes);
+		}
+	}
+
+	private static void skipPadding(ByteBuffer header, long bytes) {
+		skip(header, (4 - bytes % 4) % 4);
+	}
+
+	/**
+	 * Skips bytes of the header; past its mapped part it underflows, as a get
+	 * does, so the header is mapped again larger.
+	 */
+	private static void skip(ByteBuffer header, long bytes) {
+		if (bytes > header.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		// Through Buffer: ByteBuffer.position(int) is not on Java 8.
+		((Buffer) header).position(header.position() + (int) bytes);
+	}
+
+	private static int typeSize(int type) throws IOException {
+		switch (type) {
+		case 1: // byte
+		case 2: // char
+			return 1;
+		case 3: // short
+			return 2;
+		case 4: // int
+		case 5: // float
+			return 4;
+		case 6: // double
+			return 8;
+		default:
+			throw new IOException("Unknown netcdf-3 type " + type);
+		}
+	}
+
+	/**
+	 * The types with a buffer view, null for the others.
+	 */
+	private static DataType dataType(int type) {
+		switch (type) {
+		case 3:
+			return DataType.SHORT;
+		case 4:
+			return DataType.INT;
+		case 5:
+			return DataType.FLOAT;
+		case 6:
+			return DataType.DOUBLE;
+		default:
+			return null;
+		}
+	}
+
+	private static class Entry {
+		final DataType dataType;
+		final int[] shape;
+		final int[] strides;
+		final ByteBuffer data;
+		final FloatBuffer floats;
+		final IntBuffer ints;
+
+		Entry(DataType dataType, int[] shape, ByteBuffer data) {
+			this.dataType = dataType;
+			this.shape = shape;
+			this.data = data;
+			this.floats = dataType == DataType.FLOAT ? data.asFloatBuffer() : null;
+			this.ints = dataType == DataType.INT ? data.asIntBuffer() : null;
+
+			strides = new int[shape.length];
+			int stride = 1;
+			for (int d = shape.length - 1; d >= 0; d--) {
+				strides[d] = stride;
+				stride *= shape[d];
+			}
+		}
+	}
+
+	private static class Cached {
+		final Netcdf3Mapped mapped;
+		final long lastModified;
+		final long length;
+
+		Cached(Netcdf3Mapped mapped, long lastModified, long length) {
+			this.mapped = mapped;
+			this.lastModified = lastModified;
+			this.length = length;
+		}
+	}
+}
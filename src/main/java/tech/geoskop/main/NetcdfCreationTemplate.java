@@ -12,6 +12,9 @@ public class NetcdfCreationTemplate {
 
 	private List<Variable> variables;
 
+	// Bytes of data in memory while filling the variables, 0 for the default.
+	private long heapBudget;
+
 	public FilePathName getFilePathName() {
 		return filePathName;
 	}
@@ -36,13 +39,21 @@ public class NetcdfCreationTemplate {
 		this.variables = variables;
 	}
 
+	public long getHeapBudget() {
+		return heapBudget;
+	}
+
+	public void setHeapBudget(long heapBudget) {
+		this.heapBudget = heapBudget;
+	}
+
 	public NetcdfCreationTemplate() {
 	}
 
 	@Override
 	public String toString() {
 		return "NetcdfCreationTemplate [filePathName=" + filePathName + ", fileMetadata=" + fileMetadata
-				+ ", variables=" + variables + "]";
+				+ ", variables=" + variables + ", heapBudget=" + heapBudget + "]";
 	}
 }
 
@@ -132,6 +143,7 @@ class Variable {
 	private DataType type;
 	private List<Dim> dimensions;
 	private List<Attribute> attributes;
+	private DataSource data;
 
 	public String getName() {
 		return name;
@@ -165,10 +177,146 @@ class Variable {
 		this.attributes = attributes;
 	}
 
+	public DataSource getData() {
+		return data;
+	}
+
+	public void setData(DataSource data) {
+		this.data = data;
+	}
+
 	@Override
 	public String toString() {
 		return "Variable [name=" + name + ", type=" + type + ", dimensions=" + dimensions + ", attributes=" + attributes
-				+ "]";
+				+ ", data=" + data + "]";
+	}
+
+}
+
+/**
+ * Where the values of a variable come from, see DataFiller.
+ * 
+ * type "copy": section (Fortran 0 based inclusive upper bound, like "0:999, :,
+ * :") of the variable of another file.
+ * 
+ * type "constant": value for every element, or text for a CHAR variable.
+ * 
+ * type "linear": start + step * index along the dimension axis.
+ * 
+ * type "binary": raw values of the type of the variable, row major, from
+ * offset bytes of a file, in byteOrder "little" or "big".
+ */
+class DataSource {
+	public static final String COPY = "copy";
+	public static final String CONSTANT = "constant";
+	public static final String LINEAR = "linear";
+	public static final String BINARY = "binary";
+
+	private String type;
+	private String file;
+	private String variable;
+	private String section;
+	private double value;
+	private String text;
+	private double start;
+	private double step = 1;
+	private int axis;
+	private long offset;
+	private String byteOrder = "little";
+
+	public String getType() {
+		return type;
+	}
+
+	public void setType(String type) {
+		this.type = type;
+	}
+
+	public String getFile() {
+		return file;
+	}
+
+	public void setFile(String file) {
+		this.file = file;
+	}
+
+	public String getVariable() {
+		return variable;
+	}
+
+	public void setVariable(String variable) {
+		this.variable = variable;
+	}
+
+	public String getSection() {
+		return section;
+	}
+
+	public void setSection(String section) {
+		this.section = section;
+	}
+
+	public double getValue() {
+		return value;
+	}
+
+	public void setValue(double value) {
+		this.value = value;
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	public void setText(String text) {
+		this.text = text;
+	}
+
+	public double getStart() {
+		return start;
+	}
+
+	public void setStart(double start) {
+		this.start = start;
+	}
+
+	public double getStep() {
+		return step;
+	}
+
+	public void setStep(double step) {
+		this.step = step;
+	}
+
+	public int getAxis() {
+		return axis;
+	}
+
+	public void setAxis(int axis) {
+		this.axis = axis;
+	}
+
+	public long getOffset() {
+		return offset;
+	}
+
+	public void setOffset(long offset) {
+		this.offset = offset;
+	}
+
+	public String getByteOrder() {
+		return byteOrder;
+	}
+
+	public void setByteOrder(String byteOrder) {
+		this.byteOrder = byteOrder;
+	}
+
+	@Override
+	public String toString() {
+		return "DataSource [type=" + type + ", file=" + file + ", variable=" + variable + ", section=" + section
+				+ ", value=" + value + ", text=" + text + ", start=" + start + ", step=" + step + ", axis=" + axis
+				+ ", offset=" + offset + ", byteOrder=" + byteOrder + "]";
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,74 @@
+package tech.geoskop.main;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Export sink printing a (time, lat, lon) section as NetCDFTool always did:
+ * one block per time step, one line per latitude, "%15.8f " per value. The
+ * stream is flushed but not closed, so it can be System.out.
+ *
+ */
+public class PrintSink implements ExportSink {
+
+	public static final int DECIMALS = 8;
+	public static final int WIDTH = 15;
+
+	private final AsciiWriter writer;
+
+	// Time step of the last row.
+	private int time;
+
+	public PrintSink(OutputStream output) {
+		this.writer = new AsciiWriter(output);
+	}
+
+	@Override
+	public void begin(String variable, int[] shape) throws IOException {
+		writer.append("Shape ").append(Arrays.toString(shape)).newLine();
+		time = -1;
+	}
+
+	@Override
+	public void row(int[] index, Object storage, int offset, int length, int stride) throws IOException {
+		int rank = index.length;
+
+		if (rank == 3 && index[0] != time) {
+			time = index[0];
+			writer.append("idx time ").append(time).append(' ').newLine();
+		}
+
+		if (rank >= 2) {
+			writer.append("idx lat ");
+			for (int pad = 4 - digits(index[rank - 2]); pad > 0; pad--) {
+				writer.append(' ');
+			}
+			writer.append(index[rank - 2]);
+		}
+
+		for (int k = 0; k < length; k++) {
+			writer.append(ZarrChunks.getDouble(storage, offset + k), DECIMALS, WIDTH).append(' ');
+		}
+		writer.newLine();
+	}
+
+	private static int digits(int value) {
+		int digits = value < 0 ? 2 : 1;
+		for (int v = Math.abs(value); v >= 10; v /= 10) {
+			digits++;
+		}
+		return digits;
+	}
+
+	@Override
+	public void end() throws IOException {
+		writer.newLine();
+		writer.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		writer.flush();
+	}
+}
@@ -0,0 +1,219 @@
+package tech.geoskop.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Range;
+
+/**
+ * The cells of a grid inside a polygon, with their area weights: a sparse list
+ * of cell indices (j * nx + i, ascending) and cos(lat) weights.
+ *
+ * A cell is inside when its centre is inside the polygon (even-odd rule, so
+ * holes are outside). Only the cells of the bounding box of the polygon, found
+ * with the GridIndex, are tested.
+ *
+ */
+public class RegionMask {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private final String name;
+	private final int[] cells;
+	private final double[] weights;
+
+	public RegionMask(String name, int[] cells, double[] weights) {
+		this.name = name;
+		this.cells = cells;
+		this.weights = weights;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int size() {
+		return cells.length;
+	}
+
+	public int getCell(int k) {
+		return cells[k];
+	}
+
+	public double getWeight(int k) {
+		return weights[k];
+	}
+
+	/**
+	 * Rasterises the features of a GeoJSON file (Polygon or MultiPolygon,
+	 * FeatureCollection or single Feature) against a grid.
+	 *
+	 * @param grid
+	 * @param geoJson
+	 * @param nameProperty property with the name of a region; regions without it
+	 *                     are named by their position.
+	 * @return a mask per feature, in order.
+	 * @throws IOException
+	 * @throws InvalidRangeException
+	 */
+	public static List<RegionMask> rasterize(GridIndex grid, File geoJson, String nameProperty)
+			throws IOException, InvalidRangeException {
+
+		JsonNode root = MAPPER.readTree(geoJson);
+		List<JsonNode> features = new ArrayList<>();
+
+		if ("FeatureCollection".equals(root.path("type").asText())) {
+			root.path("features").forEach(features::add);
+		} else {
+			features.add(root);
+		}
+
+		List<RegionMask> masks = new ArrayList<>();
+
+		for (JsonNode feature : features) {
+			JsonNode geometry = "Feature".equals(feature.path("type").asText()) ? feature.path("geometry") : feature;
+			String name = feature.path("properties").path(nameProperty).asText("region" + masks.size());
+
+			masks.add(rasterize(grid, name, polygons(geometry)));
+		}
+
+		return masks;
+	}
+
+	/**
+	 * Rasterises polygons, each one a list of rings of interleaved lon, lat.
+	 *
+	 * @param grid
+	 * @param name
+	 * @param polygons
+	 * @return
+	 * @throws InvalidRangeException
+	 */
+	public static RegionMask rasterize(GridIndex grid, String name, List<List<double[]>> polygons)
+			throws InvalidRangeException {
+
+		double lonMin = Double.MAX_VALUE;
+		double lonMax = -Double.MAX_VALUE;
+		double latMin = Double.MAX_VALUE;
+		double latMax = -Double.MAX_VALUE;
+
+		for (List<double[]> polygon : polygons) {
+			for (double[] ring : polygon) {
+				for (int k = 0; k < ring.length; k += 2) {
+					lonMin = Math.min(lonMin, ring[k]);
+					lonMax = Math.max(lonMax, ring[k]);
+					latMin = Math.min(latMin, ring[k + 1]);
+					latMax = Math.max(latMax, ring[k + 1]);
+				}
+			}
+		}
+
+		List<Range> box = polygons.isEmpty() ? null : grid.boundingBox(latMin, latMax, lonMin, lonMax);
+		if (box == null) {
+			return new RegionMask(name, new int[0], new double[0]);
+		}
+
+		int nx = grid.getNx();
+		int[] cells = new int[box.get(0).length() * box.get(1).length()];
+		double[] weights = new double[cells.length];
+		int size = 0;
+
+		for (int j = box.get(0).first(); j <= box.get(0).last(); j++) {
+			for (int i = box.get(1).first(); i <= box.get(1).last(); i++) {
+				double lat = grid.getLat(j, i);
+				double lon = grid.getLon(j, i);
+
+				for (List<double[]> polygon : polygons) {
+					if (inside(polygon, lon, lat)) {
+						cells[size] = j * nx + i;
+						weights[size] = Math.cos(Math.toRadians(lat));
+						size++;
+						break;
+					}
+				}
+			}
+		}
+
+		int[] maskCells = new int[size];
+		double[] maskWeights = new double[size];
+		System.arraycopy(cells, 0, maskCells, 0, size);
+		System.arraycopy(weights, 0, maskWeights, 0, size);
+
+		return new RegionMask(name, maskCells, maskWeights);
+	}
+
+	/**
+	 * Even-odd test of a point against all the rings of a polygon.
+	 */
+	static boolean inside(List<double[]> polygon, double x, double y) {
+		if (Double.isNaN(x) || Double.isNaN(y)) {
+			return false;
+		}
+
+		boolean inside = false;
+
+		for (double[] ring : polygon) {
+			int n = ring.length / 2;
+			for (int a = 0, b = n - 1; a < n; b = a++) {
+				double xa = ring[2 * a];
+				double ya = ring[2 * a + 1];
+				double xb = ring[2 * b];
+				double yb = ring[2 * b + 1];
+
+				if ((ya > y) != (yb > y) && x < (xb - xa) * (y - ya) / (yb - ya) + xa) {
+					inside = !inside;
+				}
+			}
+		}
+
+		return inside;
+	}
+
+	/**
+	 * The polygons of a GeoJSON geometry, each one a list of rings of interleaved
+	 * lon, lat.
+	 */
+	private static List<List<double[]>> polygons(JsonNode geometry) {
+		List<List<double[]>> polygons = new ArrayList<>();
+		String type = geometry.path("type").asText();
+		JsonNode coordinates = geometry.path("coordinates");
+
+		if ("Polygon".equals(type)) {
+			polygons.add(rings(coordinates));
+		} else if ("MultiPolygon".equals(type)) {
+			for (JsonNode polygon : coordinates) {
+				polygons.add(rings(polygon));
+			}
+		} else {
+			throw new IllegalArgumentException("Unsupported geometry " + type + ", only Polygon and MultiPolygon");
+		}
+
+		return polygons;
+	}
+
+	private static List<double[]> rings(JsonNode polygon) {
+		List<double[]> rings = new ArrayList<>();
+
+		for (JsonNode ring : polygon) {
+			double[] points = new double[ring.size() * 2];
+			for (int k = 0; k < ring.size(); k++) {
+				points[2 * k] = ring.get(k).get(0).asDouble();
+				points[2 * k + 1] = ring.get(k).get(1).asDouble();
+			}
+			rings.add(points);
+		}
+
+		return rings;
+	}
+
+	@Override
+	public String toString() {
+		return "RegionMask [name=" + name + ", cells=" + cells.length + "]";
+	}
+}
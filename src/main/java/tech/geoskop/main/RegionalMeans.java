@@ -0,0 +1,218 @@
+package tech.geoskop.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Variable;
+
+/**
+ * Area-weighted mean time series of regions (provinces, basins, ...) given as
+ * GeoJSON polygons.
+ *
+ * The polygons are rasterised once against the lat/lon grid of the file into
+ * sparse masks with cos(lat) weights (RegionMask), cached until the file or the
+ * GeoJSON changes. The variable is then read once, in time slabs bounded by the
+ * heap budget and read ahead, and every step of a slab is reduced for all the
+ * regions, in parallel over the regions. Cells without data (NaN or fill value)
+ * are left out of the mean of their step.
+ *
+ */
+public class RegionalMeans {
+
+	public static final int DEFAULT_DECIMALS = 4;
+
+	// location|geojson|property -> masks.
+	private static final Map<String, CachedMasks> CACHE = new ConcurrentHashMap<>();
+
+	private RegionalMeans() {
+	}
+
+	/**
+	 * The masks of the regions of a GeoJSON file on the grid of a file, from the
+	 * cache if neither changed since they were rasterised.
+	 *
+	 * @param file
+	 * @param geoJsonPath
+	 * @param nameProperty
+	 * @return
+	 * @throws IOException
+	 * @throws InvalidRangeException
+	 */
+	public static List<RegionMask> masks(NetcdfFile file, String geoJsonPath, String nameProperty)
+			throws IOException, InvalidRangeException {
+
+		String key = file.getLocation() + '|' + geoJsonPath + '|' + nameProperty;
+		File location = new File(file.getLocation());
+		File geoJson = new File(geoJsonPath);
+
+		CachedMasks cached = CACHE.get(key);
+		if (cached != null && cached.lastModified == location.lastModified() && cached.length == location.length()
+				&& cached.geoJsonLastModified == geoJson.lastModified() && cached.geoJsonLength == geoJson.length()) {
+			return cached.masks;
+		}
+
+		List<RegionMask> masks = RegionMask.rasterize(GridIndex.of(file), geoJson, nameProperty);
+		CACHE.put(key, new CachedMasks(masks, location.lastModified(), location.length(), geoJson.lastModified(),
+				geoJson.length()));
+
+		return masks;
+	}
+
+	public static void clearCache() {
+		CACHE.clear();
+	}
+
+	/**
+	 * Mean series of every region in one pass over a (time, y, x) variable.
+	 *
+	 * @param variable
+	 * @param masks
+	 * @param heapBudget max bytes of the slabs in memory.
+	 * @return [region][time], NaN for steps without data in the region.
+	 * @throws IOException
+	 * @throws InvalidRangeException
+	 */
+	public static double[][] means(Variable variable, List<RegionMask> masks, long heapBudget)
+			throws IOException, InvalidRangeException {
+
+		int[] shape = variable.getShape();
+		int nt = shape[0];
+		int cells = 1;
+		for (int d = 1; d < shape.length; d++) {
+			cells *= shape[d];
+		}
+
+		float fill = (float) variable.attributes().findAttributeDouble(TemporalAggregation.FILL_VALUE,
+				variable.attributes().findAttributeDouble(TemporalAggregation.MISSING_VALUE, Double.NaN));
+
+		double[][] means = new double[masks.size()][nt];
+		int steps = ChunkIterator.slabSteps(variable, heapBudget, ChunkIterator.DEFAULT_PREFETCH);
+		int stepCells = cells;
+
+		// The next slabs are read while the regions of this one are reduced.
+		try (ChunkIterator chunks = new ChunkIterator(variable, steps, ChunkIterator.DEFAULT_PREFETCH).asFloats()) {
+			while (chunks.hasNext()) {
+				ChunkIterator.Chunk chunk = chunks.next();
+				float[] values = chunk.getFloats();
+				int first = chunk.getFirst();
+				int ts = chunk.getSteps();
+
+				IntStream.range(0, masks.size()).parallel().forEach(r -> {
+					RegionMask mask = masks.get(r);
+
+					for (int t = 0; t < ts; t++) {
+						int offset = t * stepCells;
+						double sum = 0;
+						double weights = 0;
+
+						for (int k = 0; k < mask.size(); k++) {
+							float value = values[offset + mask.getCell(k)];
+							if (!Float.isNaN(value) && value != fill) {
+								sum += mask.getWeight(k) * value;
+								weights += mask.getWeight(k);
+							}
+						}
+
+						means[r][first + t] = weights > 0 ? sum / weights : Double.NaN;
+					}
+				});
+			}
+		}
+
+		return means;
+	}
+
+	/**
+	 * Writes the series as CSV: date and a column per region.
+	 *
+	 * @param axis
+	 * @param masks
+	 * @param means
+	 * @param decimals
+	 * @param output
+	 * @return rows written.
+	 * @throws IOException
+	 */
+	public static int writeCsv(TimeAxis axis, List<RegionMask> masks, double[][] means, int decimals,
+			OutputStream output) throws IOException {
+
+		AsciiWriter writer = new AsciiWriter(output);
+
+		writer.append("date");
+		for (RegionMask mask : masks) {
+			writer.append(',').append(mask.getName());
+		}
+		writer.newLine();
+
+		for (int t = 0; t < axis.size(); t++) {
+			writer.appendDate(axis.getYear(t), axis.getMonth(t), axis.getDay(t));
+			for (int r = 0; r < masks.size(); r++) {
+				writer.append(',').append(means[r][t], decimals);
+			}
+			writer.newLine();
+		}
+
+		writer.flush();
+		return axis.size();
+	}
+
+	/**
+	 * Writes the regional means of a variable: file variable regions.geojson
+	 * nameProperty output.csv
+	 *
+	 * @param args
+	 * @throws IOException
+	 * @throws InvalidRangeException
+	 */
+	public static void main(String[] args) throws IOException, InvalidRangeException {
+		if (args.length < 5) {
+			System.err.println("Usage: RegionalMeans file.nc variable regions.geojson nameProperty output.csv");
+			return;
+		}
+
+		try (NetcdfFile file = NetcdfFiles.open(args[0])) {
+			long start = System.nanoTime();
+
+			List<RegionMask> masks = masks(file, args[2], args[3]);
+			TimeAxis axis = TimeAxis.of(file, file.findVariable(NetCDFTool.TIME));
+			double[][] means = means(file.findVariable(args[1]), masks, SubsetCopy.DEFAULT_HEAP_BUDGET);
+
+			try (OutputStream output = Channels.newOutputStream(FileChannel.open(Paths.get(args[4]),
+					StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+				writeCsv(axis, masks, means, DEFAULT_DECIMALS, output);
+			}
+
+			System.out.printf("%d regions, %d steps in %.3f s%n", masks.size(), axis.size(),
+					(System.nanoTime() - start) / 1e9);
+		}
+	}
+
+	private static class CachedMasks {
+		final List<RegionMask> masks;
+		final long lastModified;
+		final long length;
+		final long geoJsonLastModified;
+		final long geoJsonLength;
+
+		CachedMasks(List<RegionMask> masks, long lastModified, long length, long geoJsonLastModified,
+				long geoJsonLength) {
+			this.masks = masks;
+			this.lastModified = lastModified;
+			this.length = length;
+			this.geoJsonLastModified = geoJsonLastModified;
+			this.geoJsonLength = geoJsonLength;
+		}
+	}
+}
@@ -0,0 +1,659 @@
+package tech.geoskop.main;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Interpolation weights from a source grid (curvilinear or rectilinear, as a
+ * GridIndex) to a regular lat/lon target grid, as a sparse matrix in compressed
+ * rows: a row per target cell, with the source cells it takes and their
+ * weights. Applying them to a grid of values is a sparse matrix-vector product
+ * over primitive arrays.
+ *
+ * BILINEAR finds the quadrilateral of four source cells around each target
+ * point, by the nearest cell, and inverts the bilinear map of its corners.
+ * Target points outside the source grid get no weights. CONSERVATIVE
+ * approximates the overlap of each target cell with the source cells by
+ * samples x samples points over it, each one taken by its nearest source cell
+ * and weighted by the cosine of its latitude (its area).
+ *
+ * The weights are expensive to build and are kept in a file, so they are built
+ * once. The file has the dimensions of the source grid, the target grid, the
+ * method and a hash of the source coordinates, all checked before its weights
+ * are used; they are then applied from the mapped file, not copied to the heap.
+ *
+ */
+public class RegridWeights {
+
+	public enum Method {
+		BILINEAR, CONSERVATIVE
+	}
+
+	public static final int DEFAULT_SAMPLES = 4;
+
+	private static final int MAGIC = 0x47524457; // GRDW
+	private static final int VERSION = 2;
+
+	// Magic, version, key, source ny and nx, target grid, method, samples and
+	// non-zeros.
+	private static final int HEADER_BYTES = 4 + 4 + 8 + 4 + 4 + 4 * 8 + 4 + 4 + 4 + 4 + 4;
+
+	// Target rows below which a fork-join task is not split.
+	private static final int ROWS_PER_TASK = 4;
+
+	private final long key;
+	private final int sourceNy;
+	private final int sourceNx;
+	private final TargetGrid target;
+	private final Method method;
+	private final int samples;
+	// Heap arrays when built, views of the mapped file when loaded.
+	private final IntBuffer rowStart;
+	private final IntBuffer column;
+	private final FloatBuffer weight;
+
+	private RegridWeights(long key, int sourceNy, int sourceNx, TargetGrid target, Method method, int samples,
+			IntBuffer rowStart, IntBuffer column, FloatBuffer weight) {
+		this.key = key;
+		this.sourceNy = sourceNy;
+		this.sourceNx = sourceNx;
+		this.target = target;
+		this.method = method;
+		this.samples = samples(method, samples);
+		this.rowStart = rowStart;
+		this.column = column;
+		this.weight = weight;
+	}
+
+	/**
+	 * The weights from a source grid to a target grid, read from a file if it
+	 * has the weights of the same grids and method, else built and saved to it.
+	 *
+	 * @param source
+	 * @param target
+	 * @param method
+	 * @param samples samples per side of a target cell, for CONSERVATIVE.
+	 * @param threads
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static RegridWeights of(GridIndex source, TargetGrid target, Method method, int samples, int threads,
+			File file) throws IOException {
+		RegridWeights weights = load(file, source, target, method, samples);
+		if (weights == null) {
+			weights = build(source, target, method, samples, threads);
+			weights.save(file);
+		}
+		return weights;
+	}
+
+	/**
+	 * Builds the weights, the rows of the target grid being split across a
+	 * fork-join pool.
+	 *
+	 * @param source
+	 * @param target
+	 * @param method
+	 * @param samples samples per side of a target cell, for CONSERVATIVE.
+	 * @param threads
+	 * @return
+	 */
+	public static RegridWeights build(GridIndex source, TargetGrid target, Method method, int samples,
+			int threads) {
+		if (samples < 1) {
+			throw new IllegalArgumentException("Samples must be at least 1: " + samples);
+		}
+
+		int rows = target.getNy() * target.getNx();
+		int[][] columns = new int[rows][];
+		float[][] weights = new float[rows][];
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.invoke(new BuildTask(source, target, method, samples, 0, target.getNy(), columns, weights));
+		} finally {
+			pool.shutdown();
+		}
+
+		int[] rowStart = new int[rows + 1];
+		for (int r = 0; r < rows; r++) {
+			rowStart[r + 1] = rowStart[r] + columns[r].length;
+		}
+
+		int[] column = new int[rowStart[rows]];
+		float[] weight = new float[rowStart[rows]];
+		for (int r = 0; r < rows; r++) {
+			System.arraycopy(columns[r], 0, column, rowStart[r], columns[r].length);
+			System.arraycopy(weights[r], 0, weight, rowStart[r], weights[r].length);
+		}
+
+		return new RegridWeights(key(source, target, method, samples), source.getNy(), source.getNx(), target,
+				method, samples, IntBuffer.wrap(rowStart), IntBuffer.wrap(column), FloatBuffer.wrap(weight));
+	}
+
+	/**
+	 * The weights of a file if they are from the same source grid to the same
+	 * target grid by the same method, else null. They are views of the mapped
+	 * file, which stays mapped after it is closed.
+	 *
+	 * @param file
+	 * @param source
+	 * @param target
+	 * @param method
+	 * @param samples samples per side of a target cell, for CONSERVATIVE.
+	 * @return
+	 * @throws IOException
+	 */
+	public static RegridWeights load(File file, GridIndex source, TargetGrid target, Method method, int samples)
+			throws IOException {
+		if (!file.isFile()) {
+			return null;
+		}
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_BYTES || channel.size() > Integer.MAX_VALUE) {
+				return null;
+			}
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			// Every field, not only the hash, so a collision cannot pass.
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+					|| buffer.getLong() != key(source, target, method, samples) || buffer.getInt() != source.getNy()
+					|| buffer.getInt() != source.getNx() || buffer.getDouble() != target.getLatMin()
+					|| buffer.getDouble() != target.getLonMin() || buffer.getDouble() != target.getLatStep()
+					|| buffer.getDouble() != target.getLonStep() || buffer.getInt() != target.getNy()
+					|| buffer.getInt() != target.getNx() || buffer.getInt() != method.ordinal()
+					|| buffer.getInt() != samples(method, samples)) {
+				return null;
+			}
+
+			int rows = target.getNy() * target.getNx();
+			int nonZeros = buffer.getInt();
+
+			if (nonZeros < 0 || buffer.remaining() != 4L * (rows + 1) + 8L * nonZeros) {
+				return null;
+			}
+
+			int columnStart = HEADER_BYTES + 4 * (rows + 1);
+			int weightStart = columnStart + 4 * nonZeros;
+
+			return new RegridWeights(key(source, target, method, samples), source.getNy(), source.getNx(), target,
+					method, samples, region(buffer, HEADER_BYTES, 4 * (rows + 1)).asIntBuffer(),
+					region(buffer, columnStart, 4 * nonZeros).asIntBuffer(),
+					region(buffer, weightStart, 4 * nonZeros).asFloatBuffer());
+		}
+	}
+
+	/**
+	 * The bytes [from, from + length) of a buffer, as a buffer of their own.
+	 */
+	private static ByteBuffer region(ByteBuffer buffer, int from, int length) {
+		ByteBuffer region = buffer.duplicate();
+		// Through Buffer: ByteBuffer.position(int) and limit(int) are not on Java 8.
+		((Buffer) region).position(from);
+		((Buffer) region).limit(from + length);
+		return region.slice();
+	}
+
+	/**
+	 * Writes the weights to a file, through a temporary file so a reader never
+	 * sees half of it.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void save(File file) throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		parent.mkdirs();
+		File temporary = File.createTempFile(file.getName(), ".tmp", parent);
+
+		try {
+			try (DataOutputStream output = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(temporary), 1 << 16))) {
+				output.writeInt(MAGIC);
+				output.writeInt(VERSION);
+				output.writeLong(key);
+				output.writeInt(sourceNy);
+				output.writeInt(sourceNx);
+				output.writeDouble(target.getLatMin());
+				output.writeDouble(target.getLonMin());
+				output.writeDouble(target.getLatStep());
+				output.writeDouble(target.getLonStep());
+				output.writeInt(target.getNy());
+				output.writeInt(target.getNx());
+				output.writeInt(method.ordinal());
+				output.writeInt(samples);
+				output.writeInt(getNonZeros());
+				for (int r = 0; r <= getRows(); r++) {
+					output.writeInt(rowStart.get(r));
+				}
+				for (int k = 0; k < getNonZeros(); k++) {
+					output.writeInt(column.get(k));
+				}
+				for (int k = 0; k < getNonZeros(); k++) {
+					output.writeFloat(weight.get(k));
+				}
+			}
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			temporary.delete();
+		}
+	}
+
+	/**
+	 * Key of the weights of a source grid to a target grid: a hash of their
+	 * coordinates and of the method.
+	 */
+	public static long key(GridIndex source, TargetGrid target, Method method, int samples) {
+		long hash = 1125899906842597L;
+		hash = 31 * hash + source.getNy();
+		hash = 31 * hash + source.getNx();
+		for (int j = 0; j < source.getNy(); j++) {
+			for (int i = 0; i < source.getNx(); i++) {
+				hash = 31 * hash + Double.doubleToLongBits(source.getLat(j, i));
+				hash = 31 * hash + Double.doubleToLongBits(source.getLon(j, i));
+			}
+		}
+		hash = 31 * hash + target.hashCode();
+		hash = 31 * hash + method.ordinal();
+		hash = 31 * hash + samples(method, samples);
+		return hash;
+	}
+
+	/**
+	 * Samples as they count for a method: none for BILINEAR.
+	 */
+	private static int samples(Method method, int samples) {
+		return method == Method.CONSERVATIVE ? samples : 0;
+	}
+
+	/**
+	 * Target cells.
+	 */
+	public int getRows() {
+		return rowStart.capacity() - 1;
+	}
+
+	/**
+	 * Source cells.
+	 */
+	public int getColumns() {
+		return sourceNy * sourceNx;
+	}
+
+	public int getNonZeros() {
+		return column.capacity();
+	}
+
+	public TargetGrid getTarget() {
+		return target;
+	}
+
+	public Method getMethod() {
+		return method;
+	}
+
+	public long getKey() {
+		return key;
+	}
+
+	/**
+	 * Computes the target rows [from, to) of a grid: the weighted mean of the
+	 * source values they take, the missing ones (NaN or the fill value) left out
+	 * and the others weighted up; NaN if all are missing.
+	 *
+	 * @param source       values of the source grid, row-major.
+	 * @param sourceOffset position of the grid in source.
+	 * @param target       values of the target grid, row-major.
+	 * @param targetOffset position of the grid in target.
+	 * @param from
+	 * @param to
+	 * @param fill         fill value of the source, NaN if none.
+	 */
+	public void apply(float[] source, int sourceOffset, float[] target, int targetOffset, int from, int to,
+			float fill) {
+		boolean hasFill = !Float.isNaN(fill);
+
+		for (int r = from; r < to; r++) {
+			double sum = 0;
+			double weights = 0;
+
+			for (int k = rowStart.get(r), end = rowStart.get(r + 1); k < end; k++) {
+				float value = source[sourceOffset + column.get(k)];
+				if (!Float.isNaN(value) && !(hasFill && value == fill)) {
+					float w = weight.get(k);
+					sum += w * value;
+					weights += w;
+				}
+			}
+
+			target[targetOffset + r] = weights > 0 ? (float) (sum / weights) : Float.NaN;
+		}
+	}
+
+	/**
+	 * Bilinear weights of a point in the source grid: the four corners of the
+	 * quadrilateral around it and their weights.
+	 *
+	 * @return false if no quadrilateral around the nearest cell has the point.
+	 */
+	static boolean bilinear(GridIndex grid, double lat, double lon, int[] corners, double[] weights) {
+		int[] nearest = grid.nearest(lat, lon);
+		if (nearest == null) {
+			return false;
+		}
+
+		// Locally planar around the point.
+		double scale = Math.cos(Math.toRadians(lat));
+		double px = lon * scale;
+
+		for (int j0 = nearest[0] - 1; j0 <= nearest[0]; j0++) {
+			for (int i0 = nearest[1] - 1; i0 <= nearest[1]; i0++) {
+				if (j0 < 0 || i0 < 0 || j0 + 1 >= grid.getNy() || i0 + 1 >= grid.getNx()) {
+					continue;
+				}
+
+				// A (j0, i0), B (j0, i0 + 1), C (j0 + 1, i0 + 1), D (j0 + 1, i0).
+				double ax = grid.getLon(j0, i0) * scale, ay = grid.getLat(j0, i0);
+				double bx = grid.getLon(j0, i0 + 1) * scale, by = grid.getLat(j0, i0 + 1);
+				double cx = grid.getLon(j0 + 1, i0 + 1) * scale, cy = grid.getLat(j0 + 1, i0 + 1);
+				double dx = grid.getLon(j0 + 1, i0) * scale, dy = grid.getLat(j0 + 1, i0);
+
+				if (Double.isNaN(ax + ay + bx + by + cx + cy + dx + dy)) {
+					continue;
+				}
+
+				// Newton on (s, t) from the centre of the quadrilateral.
+				double s = 0.5;
+				double t = 0.5;
+				boolean converged = false;
+
+				for (int iteration = 0; iteration < 20; iteration++) {
+					double fx = (1 - s) * (1 - t) * ax + s * (1 - t) * bx + s * t * cx + (1 - s) * t * dx - px;
+					double fy = (1 - s) * (1 - t) * ay + s * (1 - t) * by + s * t * cy + (1 - s) * t * dy - lat;
+
+					double sx = (1 - t) * (bx - ax) + t * (cx - dx);
+					double sy = (1 - t) * (by - ay) + t * (cy - dy);
+					double tx = (1 - s) * (dx - ax) + s * (cx - bx);
+					double ty = (1 - s) * (dy - ay) + s * (cy - by);
+
+					double determinant = sx * ty - sy * tx;
+					if (determinant == 0) {
+						break;
+					}
+
+					double ds = (fx * ty - fy * tx) / determinant;
+					double dt = (sx * fy - sy * fx) / determinant;
+					s -= ds;
+					t -= dt;
+
+					if (Math.abs(ds) < 1e-10 && Math.abs(dt) < 1e-10) {
+						converged = true;
+						break;
+					}
+				}
+
+				double tolerance = 1e-6;
+				if (converged && s >= -tolerance && s <= 1 + tolerance && t >= -tolerance && t <= 1 + tolerance) {
+					s = Math.min(1, Math.max(0, s));
+					t = Math.min(1, Math.max(0, t));
+
+					int nx = grid.getNx();
+					corners[0] = j0 * nx + i0;
+					corners[1] = j0 * nx + i0 + 1;
+					corners[2] = (j0 + 1) * nx + i0 + 1;
+					corners[3] = (j0 + 1) * nx + i0;
+					weights[0] = (1 - s) * (1 - t);
+					weights[1] = s * (1 - t);
+					weights[2] = s * t;
+					weights[3] = (1 - s) * t;
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return "RegridWeights [rows=" + getRows() + ", columns=" + getColumns() + ", nonZeros=" + getNonZeros()
+				+ ", method=" + method + "]";
+	}
+
+	/**
+	 * A regular lat/lon grid: ny x nx cells of step degrees from (latMin,
+	 * lonMin), their values at the centres.
+	 */
+	public static final class TargetGrid {
+		private final double latMin;
+		private final double lonMin;
+		private final double latStep;
+		private final double lonStep;
+		private final int ny;
+		private final int nx;
+
+		public TargetGrid(double latMin, double lonMin, double latStep, double lonStep, int ny, int nx) {
+			if (latStep <= 0 || lonStep <= 0 || ny < 1 || nx < 1) {
+				throw new IllegalArgumentException("Empty target grid: steps " + latStep + ", " + lonStep
+						+ ", cells " + ny + " x " + nx);
+			}
+			this.latMin = latMin;
+			this.lonMin = lonMin;
+			this.latStep = latStep;
+			this.lonStep = lonStep;
+			this.ny = ny;
+			this.nx = nx;
+		}
+
+		/**
+		 * The grid of step degrees covering a box.
+		 */
+		public static TargetGrid covering(double latMin, double latMax, double lonMin, double lonMax, double step) {
+			return new TargetGrid(latMin, lonMin, step, step, (int) Math.ceil((latMax - latMin) / step - 1e-9),
+					(int) Math.ceil((lonMax - lonMin) / step - 1e-9));
+		}
+
+		public double getLatMin() {
+			return latMin;
+		}
+
+		public double getLonMin() {
+			return lonMin;
+		}
+
+		public int getNy() {
+			return ny;
+		}
+
+		public int getNx() {
+			return nx;
+		}
+
+		public double getLatStep() {
+			return latStep;
+		}
+
+		public double getLonStep() {
+			return lonStep;
+		}
+
+		/**
+		 * Latitude of the centre of row j.
+		 */
+		public double latitude(int j) {
+			return latMin + (j + 0.5) * latStep;
+		}
+
+		/**
+		 * Longitude of the centre of column i.
+		 */
+		public double longitude(int i) {
+			return lonMin + (i + 0.5) * lonStep;
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(new double[] { latMin, lonMin, latStep, lonStep, ny, nx });
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof TargetGrid)) {
+				return false;
+			}
+			TargetGrid grid = (TargetGrid) other;
+			return latMin == grid.latMin && lonMin == grid.lonMin && latStep == grid.latStep
+					&& lonStep == grid.lonStep && ny == grid.ny && nx == grid.nx;
+		}
+
+		@Override
+		public String toString() {
+			return "TargetGrid [" + ny + " x " + nx + " from " + latMin + ", " + lonMin + " step " + latStep + ", "
+					+ lonStep + "]";
+		}
+	}
+
+	/**
+	 * Builds the weights of the target rows [from, to).
+	 */
+	private static class BuildTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final GridIndex source;
+		private final TargetGrid target;
+		private final Method method;
+		private final int samples;
+		private final int from;
+		private final int to;
+		private final int[][] columns;
+		private final float[][] weights;
+
+		BuildTask(GridIndex source, TargetGrid target, Method method, int samples, int from, int to,
+				int[][] columns, float[][] weights) {
+			this.source = source;
+			this.target = target;
+			this.method = method;
+			this.samples = samples;
+			this.from = from;
+			this.to = to;
+			this.columns = columns;
+			this.weights = weights;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > ROWS_PER_TASK) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new BuildTask(source, target, method, samples, from, middle, columns, weights),
+						new BuildTask(source, target, method, samples, middle, to, columns, weights));
+				return;
+			}
+
+			int[] corners = new int[4];
+			double[] cornerWeights = new double[4];
+
+			for (int j = from; j < to; j++) {
+				for (int i = 0; i < target.getNx(); i++) {
+					int row = j * target.getNx() + i;
+
+					if (method == Method.BILINEAR) {
+						if (bilinear(source, target.latitude(j), target.longitude(i), corners, cornerWeights)) {
+							row(row, corners, cornerWeights, 4);
+						} else {
+							row(row, corners, cornerWeights, 0);
+						}
+					} else {
+						conservative(j, i, row, corners, cornerWeights);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Samples of a target cell taken by their nearest source cell.
+		 */
+		private void conservative(int j, int i, int row, int[] corners, double[] cornerWeights) {
+			int[] cells = new int[samples * samples];
+			double[] areas = new double[samples * samples];
+			int found = 0;
+
+			for (int sj = 0; sj < samples; sj++) {
+				double lat = target.latitude(j) + ((sj + 0.5) / samples - 0.5) * target.getLatStep();
+				for (int si = 0; si < samples; si++) {
+					double lon = target.longitude(i) + ((si + 0.5) / samples - 0.5) * target.getLonStep();
+
+					// Only the samples inside the source grid.
+					if (!bilinear(source, lat, lon, corners, cornerWeights)) {
+						continue;
+					}
+
+					int[] nearest = source.nearest(lat, lon);
+					int cell = nearest[0] * source.getNx() + nearest[1];
+					double area = Math.cos(Math.toRadians(lat));
+
+					int k = 0;
+					while (k < found && cells[k] != cell) {
+						k++;
+					}
+					if (k == found) {
+						cells[found++] = cell;
+					}
+					areas[k] += area;
+				}
+			}
+
+			row(row, cells, areas, found);
+		}
+
+		/**
+		 * Keeps the first n cells of a row, sorted, with their weights normalized
+		 * to a sum of 1.
+		 */
+		private void row(int row, int[] cells, double[] values, int n) {
+			double sum = 0;
+			int kept = 0;
+			for (int k = 0; k < n; k++) {
+				if (values[k] > 0) {
+					sum += values[k];
+					kept++;
+				}
+			}
+
+			long[] sorted = new long[kept];
+			kept = 0;
+			for (int k = 0; k < n; k++) {
+				if (values[k] > 0) {
+					sorted[kept++] = ((long) cells[k] << 32) | k;
+				}
+			}
+			// By source cell, so a row reads the source in order.
+			Arrays.sort(sorted);
+
+			int[] rowColumns = new int[kept];
+			float[] rowWeights = new float[kept];
+			for (int k = 0; k < kept; k++) {
+				rowColumns[k] = (int) (sorted[k] >>> 32);
+				rowWeights[k] = (float) (values[(int) sorted[k]] / sum);
+			}
+
+			columns[row] = rowColumns;
+			weights[row] = rowWeights;
+		}
+	}
+}
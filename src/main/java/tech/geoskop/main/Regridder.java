@@ -0,0 +1,433 @@
+package tech.geoskop.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.Attribute;
+import ucar.nc2.Dimension;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Variable;
+import ucar.nc2.write.NetcdfFormatWriter;
+
+/**
+ * Regridding of (time, y, x) variables from the grid of their lat/lon (2D for
+ * a curvilinear grid, 1D for a rectilinear one) to a regular lat/lon grid,
+ * written to a new netcdf file with 1D lat and lon.
+ *
+ * The weights (RegridWeights) are built once for the source grid, target grid
+ * and method and kept in a file, so the next runs over files of the same grid
+ * only read them. The source is read ahead (ChunkIterator) in time slabs
+ * bounded by the heap budget, and each step of a slab is a sparse
+ * matrix-vector product, the target cells being split across a fork-join pool.
+ *
+ * Usage:
+ *
+ * <pre>
+ * CopyStats stats = new Regridder(source, destination).addVariable("tas")
+ * 		.setTarget(RegridWeights.TargetGrid.covering(35, 44, -10, 5, 0.1))
+ * 		.setMethod(RegridWeights.Method.BILINEAR).regrid();
+ * </pre>
+ *
+ */
+public class Regridder {
+
+	// Target cells below which a fork-join task is not split.
+	private static final int CELLS_PER_TASK = 4096;
+
+	private final String sourcePath;
+	private final String destinationPath;
+
+	private final Set<String> variables = new LinkedHashSet<>();
+
+	private RegridWeights.TargetGrid target;
+	private RegridWeights.Method method = RegridWeights.Method.BILINEAR;
+	private int samples = RegridWeights.DEFAULT_SAMPLES;
+	private File weightsFile;
+	private long heapBudget = SubsetCopy.DEFAULT_HEAP_BUDGET;
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	public Regridder(String sourcePath, String destinationPath) {
+		this.sourcePath = sourcePath;
+		this.destinationPath = destinationPath;
+	}
+
+	/**
+	 * Adds a (time, y, x) variable to regrid.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public Regridder addVariable(String name) {
+		variables.add(name);
+		return this;
+	}
+
+	public Regridder setTarget(RegridWeights.TargetGrid target) {
+		this.target = target;
+		return this;
+	}
+
+	public Regridder setMethod(RegridWeights.Method method) {
+		this.method = method;
+		return this;
+	}
+
+	/**
+	 * Samples per side of a target cell, for CONSERVATIVE.
+	 *
+	 * @param samples
+	 * @return
+	 */
+	public Regridder setSamples(int samples) {
+		if (samples < 1) {
+			throw new IllegalArgumentException("Samples must be at least 1: " + samples);
+		}
+		this.samples = samples;
+		return this;
+	}
+
+	/**
+	 * File of the weights, read if it has those of the grids and method, else
+	 * written. By default a file named by their key in the temporary directory.
+	 *
+	 * @param weightsFile
+	 * @return
+	 */
+	public Regridder setWeightsFile(File weightsFile) {
+		this.weightsFile = weightsFile;
+		return this;
+	}
+
+	public Regridder setHeapBudget(long heapBudget) {
+		if (heapBudget <= 0) {
+			throw new IllegalArgumentException("Heap budget must be positive: " + heapBudget);
+		}
+		this.heapBudget = heapBudget;
+		return this;
+	}
+
+	public Regridder setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Threads must be at least 1: " + threads);
+		}
+		this.threads = threads;
+		return this;
+	}
+
+	/**
+	 * Creates the destination file and regrids the variables.
+	 *
+	 * @return
+	 * @throws IOException
+	 * @throws InvalidRangeException
+	 */
+	public CopyStats regrid() throws IOException, InvalidRangeException {
+		if (target == null) {
+			throw new IllegalStateException("No target grid to regrid " + sourcePath + " to");
+		}
+
+		long start = System.nanoTime();
+		long bytes = 0;
+		int slabs = 0;
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+
+		try (NetcdfFile source = NetcdfFiles.open(sourcePath)) {
+			GridIndex grid = sourceGrid(source);
+
+			File file = weightsFile != null ? weightsFile
+					: new File(new File(System.getProperty("java.io.tmpdir"), "geolab-weights"),
+							Long.toHexString(RegridWeights.key(grid, target, method, samples)) + ".bin");
+			RegridWeights weights = RegridWeights.of(grid, target, method, samples, threads, file);
+
+			NetcdfFormatWriter.Builder builder = NetcdfFormatWriter.createNewNetcdf3(destinationPath);
+			Variable time = define(source, grid, builder);
+
+			try (NetcdfFormatWriter writer = builder.build()) {
+				writeAxes(writer);
+
+				if (time != null) {
+					Array data = time.read();
+					writer.write(writer.findVariable(NetCDFTool.TIME), data);
+					bytes += data.getSize() * time.getElementSize();
+				}
+
+				for (String name : variables) {
+					long[] read = regrid(source.findVariable(name), weights, writer, pool);
+					bytes += read[0];
+					slabs += read[1];
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+
+		return new CopyStats(variables.size(), slabs, bytes, System.nanoTime() - start);
+	}
+
+	/**
+	 * Streams a variable through the weights, a slab of steps at a time.
+	 *
+	 * @return bytes and slabs read.
+	 */
+	private long[] regrid(Variable variable, RegridWeights weights, NetcdfFormatWriter writer, ForkJoinPool pool)
+			throws IOException, InvalidRangeException {
+
+		int[] shape = variable.getShape();
+		int cells = shape[1] * shape[2];
+		int rows = weights.getRows();
+
+		float fill = (float) variable.attributes().findAttributeDouble(TemporalAggregation.FILL_VALUE,
+				variable.attributes().findAttributeDouble(TemporalAggregation.MISSING_VALUE, Double.NaN));
+
+		Variable output = writer.findVariable(variable.getShortName());
+
+		// The budget is shared by the slabs read ahead and the regridded one.
+		long sourceStep = 4L * cells;
+		long targetStep = 4L * rows;
+		int steps = (int) Math.max(1, Math.min(shape[0],
+				heapBudget / ((ChunkIterator.DEFAULT_PREFETCH + 1) * sourceStep + targetStep)));
+
+		float[] regridded = null;
+		long bytes = 0;
+		int slabs = 0;
+
+		// The next slabs are read while this one is regridded.
+		try (ChunkIterator chunks = new ChunkIterator(variable, steps, ChunkIterator.DEFAULT_PREFETCH).asFloats()) {
+			while (chunks.hasNext()) {
+				ChunkIterator.Chunk chunk = chunks.next();
+				int ts = chunk.getSteps();
+
+				if (regridded == null || regridded.length != ts * rows) {
+					regridded = new float[ts * rows];
+				}
+
+				pool.invoke(new ApplyTask(weights, chunk.getFloats(), regridded, ts, cells, rows, 0, rows, fill));
+
+				writer.write(output, new int[] { chunk.getFirst(), 0, 0 },
+						Array.factory(DataType.FLOAT, new int[] { ts, target.getNy(), target.getNx() }, regridded));
+
+				bytes += chunk.getSize() * variable.getElementSize();
+				slabs++;
+			}
+		}
+
+		return new long[] { bytes, slabs };
+	}
+
+	/**
+	 * The index of the lat/lon of the source, a 1D lat and lon being expanded to
+	 * the 2D grid.
+	 */
+	private GridIndex sourceGrid(NetcdfFile source) throws IOException {
+		Variable latitude = source.findVariable(NetCDFTool.LATITUDE);
+		Variable longitude = source.findVariable(NetCDFTool.LONGITUDE);
+
+		if (latitude == null || longitude == null) {
+			throw new IllegalArgumentException("No lat/lon in " + sourcePath);
+		}
+
+		if (latitude.getRank() == 2) {
+			return GridIndex.of(source);
+		}
+
+		Array lat = latitude.read();
+		Array lon = longitude.read();
+		int ny = (int) lat.getSize();
+		int nx = (int) lon.getSize();
+
+		double[] lat2 = new double[ny * nx];
+		double[] lon2 = new double[ny * nx];
+		for (int j = 0; j < ny; j++) {
+			for (int i = 0; i < nx; i++) {
+				lat2[j * nx + i] = lat.getDouble(j);
+				lon2[j * nx + i] = lon.getDouble(i);
+			}
+		}
+
+		return GridIndex.build(ny, nx, lat2, lon2);
+	}
+
+	/**
+	 * Adds the global attributes, time, the target lat/lon and the regridded
+	 * variables to the builder.
+	 *
+	 * @return the time of the source, null if it has none.
+	 */
+	private Variable define(NetcdfFile source, GridIndex grid, NetcdfFormatWriter.Builder builder) {
+		for (Attribute attribute : source.getRootGroup().attributes()) {
+			builder.addAttribute(attribute);
+		}
+		builder.addAttribute(new Attribute("regrid_method", method.name().toLowerCase()));
+
+		List<Long> variableBytes = new ArrayList<>();
+
+		Variable time = source.findVariable(NetCDFTool.TIME);
+		Dimension timeDim = null;
+		if (time != null) {
+			timeDim = builder.addDimension(NetCDFTool.TIME, time.getShape(0));
+			List<Dimension> timeDims = new ArrayList<>();
+			timeDims.add(timeDim);
+			builder.addVariable(NetCDFTool.TIME, time.getDataType(), timeDims).addAttributes(time.attributes());
+			variableBytes.add(LargeFile.bytes(time.getDataType(), time.getShape()));
+		}
+
+		Dimension latDim = builder.addDimension(NetCDFTool.LATITUDE, target.getNy());
+		Dimension lonDim = builder.addDimension(NetCDFTool.LONGITUDE, target.getNx());
+
+		List<Dimension> latDims = new ArrayList<>();
+		latDims.add(latDim);
+		builder.addVariable(NetCDFTool.LATITUDE, DataType.DOUBLE, latDims)
+				.addAttribute(new Attribute(NetCDFTool.UNITS, "degrees_north"))
+				.addAttribute(new Attribute("standard_name", "latitude"));
+
+		List<Dimension> lonDims = new ArrayList<>();
+		lonDims.add(lonDim);
+		builder.addVariable(NetCDFTool.LONGITUDE, DataType.DOUBLE, lonDims)
+				.addAttribute(new Attribute(NetCDFTool.UNITS, "degrees_east"))
+				.addAttribute(new Attribute("standard_name", "longitude"));
+
+		variableBytes.add(LargeFile.bytes(DataType.DOUBLE, target.getNy()));
+		variableBytes.add(LargeFile.bytes(DataType.DOUBLE, target.getNx()));
+
+		for (String name : variables) {
+			Variable variable = source.findVariable(name);
+
+			if (variable == null) {
+				throw new IllegalArgumentException("Variable " + name + " not found in " + sourcePath);
+			}
+			if (time == null || variable.getRank() != 3
+					|| !NetCDFTool.TIME.equals(variable.getDimension(0).getShortName())
+					|| variable.getShape(1) != grid.getNy() || variable.getShape(2) != grid.getNx()) {
+				throw new IllegalArgumentException(
+						"Variable " + name + " is not (time, y, x) on the " + grid.getNy() + " x " + grid.getNx()
+								+ " grid of lat/lon");
+			}
+
+			List<Dimension> dimensions = new ArrayList<>();
+			dimensions.add(timeDim);
+			dimensions.add(latDim);
+			dimensions.add(lonDim);
+
+			Variable.Builder<?> varBuilder = builder.addVariable(name, DataType.FLOAT, dimensions);
+
+			// The attributes of the source grid do not apply anymore.
+			for (Attribute attribute : variable.attributes()) {
+				String attName = attribute.getShortName();
+				if (!TemporalAggregation.FILL_VALUE.equals(attName)
+						&& !TemporalAggregation.MISSING_VALUE.equals(attName) && !attName.startsWith("CDI_grid")
+						&& !"coordinates".equals(attName) && !"grid_mapping".equals(attName)) {
+					varBuilder.addAttribute(attribute);
+				}
+			}
+			varBuilder.addAttribute(new Attribute(TemporalAggregation.FILL_VALUE, Float.NaN));
+
+			variableBytes.add(LargeFile.bytes(DataType.FLOAT, variable.getShape(0), target.getNy(), target.getNx()));
+		}
+
+		LargeFile.setFormat(builder, destinationPath, variableBytes.stream().mapToLong(Long::longValue).toArray());
+
+		return time;
+	}
+
+	private void writeAxes(NetcdfFormatWriter writer) throws IOException, InvalidRangeException {
+		double[] lat = new double[target.getNy()];
+		for (int j = 0; j < lat.length; j++) {
+			lat[j] = target.latitude(j);
+		}
+
+		double[] lon = new double[target.getNx()];
+		for (int i = 0; i < lon.length; i++) {
+			lon[i] = target.longitude(i);
+		}
+
+		writer.write(writer.findVariable(NetCDFTool.LATITUDE),
+				Array.factory(DataType.DOUBLE, new int[] { lat.length }, lat));
+		writer.write(writer.findVariable(NetCDFTool.LONGITUDE),
+				Array.factory(DataType.DOUBLE, new int[] { lon.length }, lon));
+	}
+
+	/**
+	 * Applies the weights to the target cells [from, to) of every step of a
+	 * slab.
+	 */
+	private static class ApplyTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final RegridWeights weights;
+		private final float[] source;
+		private final float[] target;
+		private final int ts;
+		private final int cells;
+		private final int rows;
+		private final int from;
+		private final int to;
+		private final float fill;
+
+		ApplyTask(RegridWeights weights, float[] source, float[] target, int ts, int cells, int rows, int from,
+				int to, float fill) {
+			this.weights = weights;
+			this.source = source;
+			this.target = target;
+			this.ts = ts;
+			this.cells = cells;
+			this.rows = rows;
+			this.from = from;
+			this.to = to;
+			this.fill = fill;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > CELLS_PER_TASK) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new ApplyTask(weights, source, target, ts, cells, rows, from, middle, fill),
+						new ApplyTask(weights, source, target, ts, cells, rows, middle, to, fill));
+				return;
+			}
+
+			for (int t = 0; t < ts; t++) {
+				weights.apply(source, t * cells, target, t * rows, from, to, fill);
+			}
+		}
+	}
+
+	/**
+	 * Regrids a variable: source.nc destination.nc variable latMin latMax lonMin
+	 * lonMax step [BILINEAR|CONSERVATIVE] [weights.bin]
+	 *
+	 * @param args
+	 * @throws IOException
+	 * @throws InvalidRangeException
+	 */
+	public static void main(String[] args) throws IOException, InvalidRangeException {
+		if (args.length < 8) {
+			System.err.println("Usage: Regridder source.nc destination.nc variable latMin latMax lonMin lonMax step"
+					+ " [BILINEAR|CONSERVATIVE] [weights.bin]");
+			return;
+		}
+
+		Regridder regridder = new Regridder(args[0], args[1]).addVariable(args[2])
+				.setTarget(RegridWeights.TargetGrid.covering(Double.parseDouble(args[3]), Double.parseDouble(args[4]),
+						Double.parseDouble(args[5]), Double.parseDouble(args[6]), Double.parseDouble(args[7])));
+
+		if (args.length > 8) {
+			regridder.setMethod(RegridWeights.Method.valueOf(args[8]));
+		}
+		if (args.length > 9) {
+			regridder.setWeightsFile(new File(args[9]));
+		}
+
+		System.out.println(regridder.regrid());
+	}
+}
@@ -0,0 +1,587 @@
+package tech.geoskop.main;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Range;
+import ucar.nc2.Attribute;
+import ucar.nc2.Dimension;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Variable;
+import ucar.nc2.write.NetcdfFormatWriter;
+
+/**
+ * Engine for copying a subset of a netcdf file into a new netcdf file.
+ *
+ * The variables running along the stream dimension (time by default) are not
+ * read in one go: they are copied in slabs of consecutive steps and each slab
+ * is written at its origin in the destination file. The size of a slab is
+ * bounded by the heap budget, so the memory used does not depend on the length
+ * of the series. The rest of variables (lat, lon, spatial_ref, ...) are small
+ * and are copied with a single read.
+ *
+ * With more than one thread, the slabs of all the variables are read by a pool
+ * of workers, each one with its own handle of the source file, and queued in a
+ * bounded queue. The calling thread is the only writer: it drains the queue and
+ * writes each slab at its origin, since the writer is not thread-safe. The heap
+ * budget is then shared by the slabs being read and the queued ones.
+ *
+ * The format of the destination is chosen from the size of the copy (see
+ * LargeFile). With a max file size, a larger copy is split along the stream
+ * dimension in several files named by LargeFile.partPath.
+ *
+ * Usage:
+ *
+ * <pre>
+ * CopyStats stats = new SubsetCopy(source, destination).addVariable("lat").addVariable("tas")
+ * 		.setRange("time", new Range(0, 364)).copy();
+ * </pre>
+ *
+ */
+public class SubsetCopy {
+
+	public static final long DEFAULT_HEAP_BUDGET = 64L * 1024 * 1024;
+	public static final int DEFAULT_QUEUE_CAPACITY = 4;
+
+	private final String sourcePath;
+	private final String destinationPath;
+
+	// destination name -> source name, in order of declaration.
+	private final Map<String, String> variables = new LinkedHashMap<>();
+
+	// dimension name -> range (Fortran 0 based inclusive upper bound).
+	private final Map<String, Range> ranges = new HashMap<>();
+
+	private String streamDimension = NetCDFTool.TIME;
+	private long heapBudget = DEFAULT_HEAP_BUDGET;
+	private int threads = 1;
+	private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+
+	// 0: a single file.
+	private long maxFileSize;
+
+	public SubsetCopy(String sourcePath, String destinationPath) {
+		this.sourcePath = sourcePath;
+		this.destinationPath = destinationPath;
+	}
+
+	/**
+	 * Adds a variable to copy, keeping its name.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public SubsetCopy addVariable(String name) {
+		return addVariable(name, name);
+	}
+
+	/**
+	 * Adds a variable to copy with a new name in the destination file.
+	 *
+	 * @param sourceName
+	 * @param destinationName
+	 * @return
+	 */
+	public SubsetCopy addVariable(String sourceName, String destinationName) {
+		variables.put(destinationName, sourceName);
+		return this;
+	}
+
+	/**
+	 * Restricts a dimension to a range. Dimensions without a range are copied
+	 * whole.
+	 *
+	 * @param dimension
+	 * @param range
+	 * @return
+	 */
+	public SubsetCopy setRange(String dimension, Range range) {
+		ranges.put(dimension, range);
+		return this;
+	}
+
+	public SubsetCopy setStreamDimension(String streamDimension) {
+		this.streamDimension = streamDimension;
+		return this;
+	}
+
+	/**
+	 * Max number of bytes of a slab held in memory.
+	 *
+	 * @param heapBudget
+	 * @return
+	 */
+	public SubsetCopy setHeapBudget(long heapBudget) {
+		if (heapBudget <= 0) {
+			throw new IllegalArgumentException("Heap budget must be positive: " + heapBudget);
+		}
+		this.heapBudget = heapBudget;
+		return this;
+	}
+
+	/**
+	 * Number of threads reading slabs. With one thread the copy is serial.
+	 *
+	 * @param threads
+	 * @return
+	 */
+	public SubsetCopy setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Threads must be at least 1: " + threads);
+		}
+		this.threads = threads;
+		return this;
+	}
+
+	/**
+	 * Max number of read slabs waiting for the writer.
+	 *
+	 * @param queueCapacity
+	 * @return
+	 */
+	public SubsetCopy setQueueCapacity(int queueCapacity) {
+		if (queueCapacity < 1) {
+			throw new IllegalArgumentException("Queue capacity must be at least 1: " + queueCapacity);
+		}
+		this.queueCapacity = queueCapacity;
+		return this;
+	}
+
+	/**
+	 * Max bytes of a destination file. A larger copy is split along the stream
+	 * dimension; 0 (the default) never splits.
+	 *
+	 * @param maxFileSize
+	 * @return
+	 */
+	public SubsetCopy setMaxFileSize(long maxFileSize) {
+		if (maxFileSize < 0) {
+			throw new IllegalArgumentException("Max file size must not be negative: " + maxFileSize);
+		}
+		this.maxFileSize = maxFileSize;
+		return this;
+	}
+
+	public String getSourcePath() {
+		return sourcePath;
+	}
+
+	public String getDestinationPath() {
+		return destinationPath;
+	}
+
+	public long getHeapBudget() {
+		return heapBudget;
+	}
+
+	/**
+	 * Creates the destination file and copies the data, slab by slab.
+	 *
+	 * @return
+	 * @throws IOException
+	 * @throws InvalidRangeException
+	 */
+	public CopyStats copy() throws IOException, InvalidRangeException {
+		long start = System.nanoTime();
+		long bytes = 0;
+		List<Slab> slabs = new ArrayList<>();
+
+		try (NetcdfFile source = NetcdfFiles.open(sourcePath)) {
+			NetcdfFormatWriter.Builder builder = NetcdfFormatWriter.createNewNetcdf3(destinationPath);
+			List<VariableCopy> copies = define(source, builder);
+
+			long[] variableBytes = new long[copies.size()];
+			long totalBytes = 0;
+			for (int v = 0; v < copies.size(); v++) {
+				variableBytes[v] = bytes(copies.get(v), -1);
+				totalBytes += variableBytes[v];
+			}
+
+			if (maxFileSize > 0 && totalBytes + LargeFile.HEADER_ALLOWANCE > maxFileSize) {
+				return copyParts(source, copies, start);
+			}
+
+			// Before building, so a copy too large fails before writing anything.
+			LargeFile.setFormat(builder, destinationPath, variableBytes);
+
+			for (VariableCopy copy : copies) {
+				slabs.addAll(slabs(copy));
+			}
+
+			try (NetcdfFormatWriter writer = builder.build()) {
+				if (threads > 1) {
+					bytes = copyParallel(slabs, writer);
+				} else {
+					bytes = copySerial(slabs, writer);
+				}
+			}
+		}
+
+		return new CopyStats(variables.size(), slabs.size(), bytes, System.nanoTime() - start);
+	}
+
+	/**
+	 * Copies in several files, each one with a part of the stream dimension and
+	 * all the variables without it.
+	 *
+	 * @param source
+	 * @param copies
+	 * @param start
+	 * @return
+	 * @throws IOException
+	 * @throws InvalidRangeException
+	 */
+	private CopyStats copyParts(NetcdfFile source, List<VariableCopy> copies, long start)
+			throws IOException, InvalidRangeException {
+
+		long fixedBytes = 0;
+		long bytesPerStep = 0;
+		for (VariableCopy copy : copies) {
+			if (copy.streamAxis < 0) {
+				fixedBytes += bytes(copy, -1);
+			} else {
+				bytesPerStep += bytes(copy, copy.streamAxis);
+			}
+		}
+
+		Range streamRange = ranges.get(streamDimension);
+		if (streamRange == null) {
+			Dimension dimension = source.findDimension(streamDimension);
+			if (dimension == null) {
+				throw new IllegalArgumentException("No dimension " + streamDimension + " to split " + sourcePath);
+			}
+			streamRange = new Range(0, dimension.getLength() - 1);
+		}
+
+		int steps = LargeFile.stepsPerPart(fixedBytes, bytesPerStep, maxFileSize);
+		int slabs = 0;
+		long bytes = 0;
+
+		for (int offSet = 0; offSet < streamRange.length(); offSet += steps) {
+			int upTo = Math.min(offSet + steps, streamRange.length()) - 1;
+			Range partRange = new Range(streamRange.element(offSet), streamRange.element(upTo), streamRange.stride());
+
+			SubsetCopy part = new SubsetCopy(sourcePath, LargeFile.partPath(destinationPath, offSet, upTo))
+					.setStreamDimension(streamDimension)
+					.setHeapBudget(heapBudget)
+					.setThreads(threads)
+					.setQueueCapacity(queueCapacity);
+
+			part.variables.putAll(variables);
+			part.ranges.putAll(ranges);
+			part.setRange(streamDimension, partRange);
+
+			CopyStats stats = part.copy();
+			slabs += stats.getSlabs();
+			bytes += stats.getBytes();
+		}
+
+		return new CopyStats(variables.size(), slabs, bytes, System.nanoTime() - start);
+	}
+
+	/**
+	 * Bytes of the copy of a variable, or of a step of its stream axis.
+	 *
+	 * @param copy
+	 * @param stepAxis axis counted as one step, -1 for the whole variable.
+	 * @return
+	 */
+	static long bytes(VariableCopy copy, int stepAxis) {
+		int[] shape = new int[copy.ranges.size()];
+		for (int axis = 0; axis < shape.length; axis++) {
+			shape[axis] = axis == stepAxis ? 1 : copy.ranges.get(axis).length();
+		}
+		return LargeFile.bytes(copy.source.getDataType(), shape);
+	}
+
+	private long copySerial(List<Slab> slabs, NetcdfFormatWriter writer) throws IOException, InvalidRangeException {
+		long bytes = 0;
+
+		for (Slab slab : slabs) {
+			Array data = slab.copy.source.read(slab.ranges);
+			writer.write(writer.findVariable(slab.copy.destinationName), slab.origin, data);
+
+			bytes += data.getSize() * slab.copy.source.getElementSize();
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * The workers read the slabs into the queue and the calling thread writes
+	 * them.
+	 *
+	 * @param slabs
+	 * @param writer
+	 * @return
+	 * @throws IOException
+	 * @throws InvalidRangeException
+	 */
+	private long copyParallel(List<Slab> slabs, NetcdfFormatWriter writer)
+			throws IOException, InvalidRangeException {
+		BlockingQueue<ReadSlab> queue = new ArrayBlockingQueue<>(queueCapacity);
+		AtomicInteger next = new AtomicInteger();
+		AtomicReference<Exception> failure = new AtomicReference<>();
+
+		int workers = Math.min(threads, slabs.size());
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, workers));
+
+		for (int w = 0; w < workers; w++) {
+			pool.execute(() -> readSlabs(slabs, next, queue, failure));
+		}
+
+		long bytes = 0;
+
+		try {
+			for (int written = 0; written < slabs.size(); written++) {
+				ReadSlab read = queue.take();
+
+				if (read.slab == null) {
+					Exception e = failure.get();
+					if (e instanceof InvalidRangeException) {
+						throw (InvalidRangeException) e;
+					}
+					throw new IOException("Failed reading " + sourcePath, e);
+				}
+
+				writer.write(writer.findVariable(read.slab.copy.destinationName), read.slab.origin, read.data);
+
+				bytes += read.data.getSize() * read.slab.copy.source.getElementSize();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted copying " + sourcePath, e);
+		} finally {
+			pool.shutdownNow();
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * Worker loop: takes the next slab not yet read until there are no more. A
+	 * failure is recorded and signaled to the writer with an empty slab.
+	 *
+	 * @param slabs
+	 * @param next
+	 * @param queue
+	 * @param failure
+	 */
+	private void readSlabs(List<Slab> slabs, AtomicInteger next, BlockingQueue<ReadSlab> queue,
+			AtomicReference<Exception> failure) {
+
+		// NetcdfFile is not thread-safe, every worker has its own.
+		try (NetcdfFile source = NetcdfFiles.open(sourcePath)) {
+			Map<String, Variable> mapVars = new HashMap<>();
+
+			for (int i = next.getAndIncrement(); i < slabs.size(); i = next.getAndIncrement()) {
+				if (failure.get() != null) {
+					return;
+				}
+
+				Slab slab = slabs.get(i);
+				String name = slab.copy.source.getFullName();
+
+				Variable variable = mapVars.get(name);
+				if (variable == null) {
+					variable = source.findVariable(name);
+					mapVars.put(name, variable);
+				}
+
+				queue.put(new ReadSlab(slab, variable.read(slab.ranges)));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException | InvalidRangeException | RuntimeException e) {
+			failure.compareAndSet(null, e);
+			try {
+				queue.put(new ReadSlab(null, null));
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Adds dimensions, variables and attributes of the subset to the builder.
+	 *
+	 * @param source
+	 * @param builder
+	 * @return the copy plan of each variable.
+	 * @throws InvalidRangeException
+	 */
+	List<VariableCopy> define(NetcdfFile source, NetcdfFormatWriter.Builder builder)
+			throws InvalidRangeException {
+
+		for (Attribute attribute : source.getRootGroup().attributes()) {
+			builder.addAttribute(attribute);
+		}
+
+		Map<String, Dimension> mapDims = new HashMap<>();
+		List<VariableCopy> copies = new ArrayList<>();
+
+		for (Map.Entry<String, String> entry : variables.entrySet()) {
+			Variable variable = source.findVariable(entry.getValue());
+
+			if (variable == null) {
+				throw new IllegalArgumentException(
+						"Variable " + entry.getValue() + " not found in " + sourcePath);
+			}
+
+			List<Dimension> dimensions = new ArrayList<Dimension>();
+			List<Range> variableRanges = new ArrayList<>();
+			int streamAxis = -1;
+
+			for (int axis = 0; axis < variable.getRank(); axis++) {
+				Dimension sourceDim = variable.getDimension(axis);
+				String dimName = sourceDim.getShortName();
+
+				Range range = ranges.get(dimName);
+				if (range == null) {
+					range = new Range(0, sourceDim.getLength() - 1);
+				}
+
+				Dimension dimension = mapDims.get(dimName);
+				if (dimension == null) {
+					// An unlimited (record) dimension stays one; its length grows with
+					// the slabs written.
+					dimension = sourceDim.isUnlimited() ? builder.addUnlimitedDimension(dimName)
+							: builder.addDimension(dimName, range.length());
+					mapDims.put(dimName, dimension);
+				}
+
+				if (dimName.equals(streamDimension)) {
+					streamAxis = axis;
+				}
+
+				dimensions.add(dimension);
+				variableRanges.add(range);
+			}
+
+			builder.addVariable(entry.getKey(), variable.getDataType(), dimensions)
+					.addAttributes(variable.attributes());
+
+			copies.add(new VariableCopy(variable, entry.getKey(), variableRanges, streamAxis));
+		}
+
+		return copies;
+	}
+
+	/**
+	 * Splits the copy of a variable in slabs along its stream axis. A variable
+	 * without stream axis is a single slab.
+	 *
+	 * @param copy
+	 * @return
+	 * @throws InvalidRangeException
+	 */
+	List<Slab> slabs(VariableCopy copy) throws InvalidRangeException {
+		List<Slab> slabs = new ArrayList<>();
+		int rank = copy.ranges.size();
+
+		if (copy.streamAxis < 0) {
+			slabs.add(new Slab(copy, new int[rank], copy.ranges));
+			return slabs;
+		}
+
+		Range streamRange = copy.ranges.get(copy.streamAxis);
+		int steps = slabSteps(copy);
+
+		for (int offSet = 0; offSet < streamRange.length(); offSet += steps) {
+			int upTo = Math.min(offSet + steps, streamRange.length()) - 1;
+
+			List<Range> slabRanges = new ArrayList<>(copy.ranges);
+			slabRanges.set(copy.streamAxis,
+					new Range(streamRange.element(offSet), streamRange.element(upTo), streamRange.stride()));
+
+			int[] origin = new int[rank];
+			origin[copy.streamAxis] = offSet;
+
+			slabs.add(new Slab(copy, origin, slabRanges));
+		}
+
+		return slabs;
+	}
+
+	/**
+	 * Number of steps of the stream axis that fit in the heap budget (at least
+	 * one).
+	 *
+	 * @param copy
+	 * @return
+	 */
+	int slabSteps(VariableCopy copy) {
+		long bytesPerStep = copy.source.getElementSize();
+
+		for (int axis = 0; axis < copy.ranges.size(); axis++) {
+			if (axis != copy.streamAxis) {
+				bytesPerStep *= copy.ranges.get(axis).length();
+			}
+		}
+
+		// In parallel, every worker and every place in the queue may hold a slab.
+		long slabsInMemory = threads > 1 ? threads + queueCapacity : 1;
+		long steps = Math.max(1, heapBudget / slabsInMemory / bytesPerStep);
+
+		return (int) Math.min(steps, copy.ranges.get(copy.streamAxis).length());
+	}
+
+	/**
+	 * Copy plan of a variable.
+	 */
+	static class VariableCopy {
+		final Variable source;
+		final String destinationName;
+		final List<Range> ranges;
+		final int streamAxis;
+
+		VariableCopy(Variable source, String destinationName, List<Range> ranges, int streamAxis) {
+			this.source = source;
+			this.destinationName = destinationName;
+			this.ranges = ranges;
+			this.streamAxis = streamAxis;
+		}
+	}
+
+	/**
+	 * A section of the source variable and its origin in the destination.
+	 */
+	static class Slab {
+		final VariableCopy copy;
+		final int[] origin;
+		final List<Range> ranges;
+
+		Slab(VariableCopy copy, int[] origin, List<Range> ranges) {
+			this.copy = copy;
+			this.origin = origin;
+			this.ranges = ranges;
+		}
+	}
+
+	/**
+	 * A slab read by a worker, waiting for the writer. A null slab signals a
+	 * failure.
+	 */
+	static class ReadSlab {
+		final Slab slab;
+		final Array data;
+
+		ReadSlab(Slab slab, Array data) {
+			this.slab = slab;
+			this.data = data;
+		}
+	}
+}
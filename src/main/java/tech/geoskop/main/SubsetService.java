@@ -0,0 +1,490 @@
+package tech.geoskop.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Range;
+import ucar.nc2.Variable;
+
+/**
+ * Local HTTP service answering subsets of the files of a directory:
+ *
+ * <pre>
+ * /subset?file=tas_2021-2075.nc&amp;var=tas&amp;time=2030-01-01/2030-12-31&amp;bbox=latMin,latMax,lonMin,lonMax&amp;format=csv
+ * </pre>
+ *
+ * time and bbox are optional, the whole dimensions by default; the variable is
+ * a (time, y, x) one when they are given. format is csv (the default) or nc.
+ *
+ * A CSV is streamed as it is read, in slabs along time, with chunked transfer:
+ * a slab is read only once the previous one was written to the socket, so a
+ * slow client slows the reads down and the memory used stays at one slab per
+ * request, whatever the size of the response. A netcdf file is copied with
+ * SubsetCopy to a temporary file, streamed and deleted.
+ *
+ * The files are kept open between requests in a FileHandleCache. The requests
+ * run on a fixed pool of threads with a bounded queue; when the queue is full
+ * the server stops accepting until a request ends. It listens on the loopback
+ * address only.
+ *
+ */
+public class SubsetService {
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 64;
+
+	private final File root;
+	private final FileHandleCache handles;
+
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+	private long heapBudget = SubsetCopy.DEFAULT_HEAP_BUDGET;
+
+	private HttpServer server;
+	private ThreadPoolExecutor executor;
+
+	/**
+	 * A service of the files under a directory.
+	 *
+	 * @param root
+	 */
+	public SubsetService(File root) {
+		this(root, FileHandleCache.shared());
+	}
+
+	public SubsetService(File root, FileHandleCache handles) {
+		this.root = root.getAbsoluteFile();
+		this.handles = handles;
+	}
+
+	/**
+	 * Number of requests answered at the same time.
+	 *
+	 * @param threads
+	 * @return
+	 */
+	public SubsetService setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Threads must be at least 1: " + threads);
+		}
+		this.threads = threads;
+		return this;
+	}
+
+	/**
+	 * Max number of requests waiting for a thread.
+	 *
+	 * @param queueCapacity
+	 * @return
+	 */
+	public SubsetService setQueueCapacity(int queueCapacity) {
+		if (queueCapacity < 1) {
+			throw new IllegalArgumentException("Queue capacity must be at least 1: " + queueCapacity);
+		}
+		this.queueCapacity = queueCapacity;
+		return this;
+	}
+
+	/**
+	 * Max number of bytes of the slabs of all the requests, shared among the
+	 * threads.
+	 *
+	 * @param heapBudget
+	 * @return
+	 */
+	public SubsetService setHeapBudget(long heapBudget) {
+		if (heapBudget <= 0) {
+			throw new IllegalArgumentException("Heap budget must be positive: " + heapBudget);
+		}
+		this.heapBudget = heapBudget;
+		return this;
+	}
+
+	/**
+	 * Starts listening on http://localhost:port/subset.
+	 *
+	 * @param port 0 for any free port.
+	 * @return the port.
+	 * @throws IOException
+	 */
+	public synchronized int start(int port) throws IOException {
+		if (server != null) {
+			return server.getAddress().getPort();
+		}
+
+		// A full queue blocks the dispatcher instead of dropping the request.
+		executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity), (runnable, pool) -> {
+					try {
+						pool.getQueue().put(runnable);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new RejectedExecutionException("Interrupted queueing a request", e);
+					}
+				});
+
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/subset", this::subset);
+		server.setExecutor(executor);
+		server.start();
+
+		return server.getAddress().getPort();
+	}
+
+	public synchronized void stop() {
+		if (server != null) {
+			server.stop(0);
+			executor.shutdownNow();
+			server = null;
+			executor = null;
+		}
+	}
+
+	private void subset(HttpExchange exchange) throws IOException {
+		try {
+			Map<String, String> parameters = parameters(exchange.getRequestURI().getRawQuery());
+
+			String format = parameters.getOrDefault("format", "csv");
+			if (!"csv".equals(format) && !"nc".equals(format)) {
+				throw new IllegalArgumentException("Unknown format " + format + ", csv or nc");
+			}
+
+			String name = required(parameters, "var");
+			File file = resolve(required(parameters, "file"));
+
+			try (FileHandleCache.Handle handle = handles.acquire(file.getPath())) {
+				Variable variable = handle.findVariable(name);
+				if (variable == null) {
+					fail(exchange, 404, "Variable " + name + " not found");
+					return;
+				}
+
+				List<Range> section = section(handle, variable, parameters.get("time"), parameters.get("bbox"));
+				if (section == null) {
+					fail(exchange, 404, "No values of " + name + " in the time or box asked");
+				} else if ("nc".equals(format)) {
+					sendNetcdf(exchange, handle, variable, section);
+				} else {
+					sendCsv(exchange, handle, variable, section);
+				}
+			}
+		} catch (IllegalArgumentException | InvalidRangeException e) {
+			fail(exchange, 400, e.getMessage());
+		} catch (IOException | RuntimeException e) {
+			fail(exchange, 500, e.toString());
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Streams the section as CSV, a slab at a time.
+	 */
+	private void sendCsv(HttpExchange exchange, FileHandleCache.Handle handle, Variable variable,
+			List<Range> section) throws IOException, InvalidRangeException {
+
+		int steps = ChunkIterator.slabSteps(variable, heapBudget / threads, 0);
+		TimeAxis axis = section.size() == 3 ? handle.getTimeAxis() : null;
+
+		int[] shape = new int[section.size()];
+		for (int d = 0; d < shape.length; d++) {
+			shape[d] = section.get(d).length();
+		}
+
+		exchange.getResponseHeaders().set("Content-Type", "text/csv");
+		// Length 0: chunked, the length is not known until the end.
+		exchange.sendResponseHeaders(200, 0);
+
+		try (CsvSink sink = new CsvSink(exchange.getResponseBody(), PrintSink.DECIMALS)) {
+			if (axis != null && axis.size() == variable.getShape(0)) {
+				sink.setTimeAxis(axis);
+			}
+			sink.begin(variable.getShortName(), shape);
+
+			if (section.isEmpty()) {
+				Array data;
+				synchronized (handle.getLock()) {
+					data = variable.read();
+				}
+				sink.row(new int[0], data.get1DJavaArray(data.getDataType()), 0, 1, 1);
+			}
+
+			Range first = section.isEmpty() ? null : section.get(0);
+			for (int offSet = 0; first != null && offSet < first.length(); offSet += steps) {
+				int upTo = Math.min(offSet + steps, first.length()) - 1;
+
+				List<Range> ranges = new ArrayList<>(section);
+				ranges.set(0, new Range(first.element(offSet), first.element(upTo), first.stride()));
+
+				Array slab;
+				synchronized (handle.getLock()) {
+					slab = ranges.size() == 3 ? NetCDFTool.loadMainVar(variable, ranges.get(0), ranges.get(1),
+							ranges.get(2)) : variable.read(ranges);
+				}
+
+				IoMetrics.Sample sample = IoMetrics.start(IoMetrics.FORMAT, variable);
+				Exporter.exportSlab(slab, ranges, new ExportSink[] { sink });
+				sample.stop(slab);
+			}
+
+			sink.end();
+		}
+	}
+
+	/**
+	 * Copies the section to a temporary netcdf file and streams it.
+	 */
+	private void sendNetcdf(HttpExchange exchange, FileHandleCache.Handle handle, Variable variable,
+			List<Range> section) throws IOException, InvalidRangeException {
+
+		File temporary = File.createTempFile("subset", ".nc");
+		try {
+			SubsetCopy copy = new SubsetCopy(handle.getPath(), temporary.getPath())
+					.setHeapBudget(heapBudget / threads).addVariable(variable.getShortName());
+
+			for (int d = 0; d < section.size(); d++) {
+				copy.setRange(variable.getDimension(d).getShortName(), section.get(d));
+			}
+
+			// The coordinates of the dimensions copied, if the file has them.
+			for (String coordinate : new String[] { NetCDFTool.TIME, NetCDFTool.LATITUDE, NetCDFTool.LONGITUDE }) {
+				if (!coordinate.equals(variable.getShortName()) && handle.findVariable(coordinate) != null) {
+					copy.addVariable(coordinate);
+				}
+			}
+
+			copy.copy();
+
+			exchange.getResponseHeaders().set("Content-Type", "application/x-netcdf");
+			exchange.getResponseHeaders().set("Content-Disposition",
+					"attachment; filename=\"" + variable.getShortName() + "_subset.nc\"");
+			exchange.sendResponseHeaders(200, temporary.length());
+
+			try (OutputStream output = exchange.getResponseBody()) {
+				Files.copy(temporary.toPath(), output);
+			}
+		} finally {
+			temporary.delete();
+		}
+	}
+
+	/**
+	 * Ranges of the variable for the time (from/to as yyyy-MM-dd) and box
+	 * (latMin,latMax,lonMin,lonMax) asked, the whole dimensions without them.
+	 *
+	 * @return null if no step or cell is inside.
+	 */
+	private List<Range> section(FileHandleCache.Handle handle, Variable variable, String time, String bbox)
+			throws IOException, InvalidRangeException {
+
+		int[] shape = variable.getShape();
+		List<Range> section = new ArrayList<>();
+		for (int length : shape) {
+			section.add(new Range(0, length - 1));
+		}
+
+		if ((time != null || bbox != null) && shape.length != 3) {
+			throw new IllegalArgumentException(
+					"time and bbox need a (time, y, x) variable, " + variable.getShortName() + " has rank " + shape.length);
+		}
+
+		if (time != null) {
+			String[] dates = time.split("/");
+			int from = date(dates[0]);
+			int to = dates.length > 1 ? date(dates[1]) : from;
+
+			TimeAxis axis = handle.getTimeAxis();
+			if (axis == null) {
+				throw new IllegalArgumentException("No time axis in " + handle.getPath());
+			}
+
+			int first = firstStepAfter(axis, from - 1);
+			int last = firstStepAfter(axis, to) - 1;
+			if (first > last) {
+				return null;
+			}
+			section.set(0, new Range(first, last));
+		}
+
+		if (bbox != null) {
+			String[] values = bbox.split(",");
+			if (values.length != 4) {
+				throw new IllegalArgumentException("bbox is latMin,latMax,lonMin,lonMax: " + bbox);
+			}
+			double latMin = Double.parseDouble(values[0]);
+			double latMax = Double.parseDouble(values[1]);
+			double lonMin = Double.parseDouble(values[2]);
+			double lonMax = Double.parseDouble(values[3]);
+
+			Variable latitude = handle.findVariable(NetCDFTool.LATITUDE);
+			if (latitude == null || handle.findVariable(NetCDFTool.LONGITUDE) == null) {
+				throw new IllegalArgumentException("No lat/lon in " + handle.getPath());
+			}
+
+			List<Range> box;
+			if (latitude.getRank() == 2) {
+				box = handle.getGridIndex().boundingBox(latMin, latMax, lonMin, lonMax);
+			} else {
+				Range y = inside(handle.getLatitudes(), latMin, latMax);
+				Range x = inside(handle.getLongitudes(), lonMin, lonMax);
+				box = y == null || x == null ? null : Arrays.asList(y, x);
+			}
+
+			if (box == null) {
+				return null;
+			}
+			section.set(1, box.get(0));
+			section.set(2, box.get(1));
+		}
+
+		return section;
+	}
+
+	/**
+	 * First step of a date after a date (yyyyMMdd), size() if there is none.
+	 */
+	private static int firstStepAfter(TimeAxis axis, int date) {
+		int low = 0;
+		int high = axis.size();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (axis.getDate(middle) <= date) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Range of the positions of the values of a 1D axis within [min, max], null
+	 * if none is.
+	 */
+	private static Range inside(double[] axis, double min, double max) throws InvalidRangeException {
+		int first = -1;
+		int last = -1;
+		for (int i = 0; i < axis.length; i++) {
+			if (axis[i] >= min && axis[i] <= max) {
+				if (first < 0) {
+					first = i;
+				}
+				last = i;
+			}
+		}
+		return first < 0 ? null : new Range(first, last);
+	}
+
+	/**
+	 * yyyy-MM-dd as yyyyMMdd.
+	 */
+	private static int date(String text) {
+		String[] parts = text.trim().split("-");
+		if (parts.length != 3) {
+			throw new IllegalArgumentException("Dates are yyyy-MM-dd: " + text);
+		}
+		return Integer.parseInt(parts[0]) * 10000 + Integer.parseInt(parts[1]) * 100 + Integer.parseInt(parts[2]);
+	}
+
+	/**
+	 * A file under the root; the path cannot leave it.
+	 */
+	private File resolve(String path) throws IOException {
+		File file = new File(root, path).getCanonicalFile();
+		if (!file.toPath().startsWith(root.getCanonicalFile().toPath())) {
+			throw new IllegalArgumentException("File " + path + " is not under the served directory");
+		}
+		if (!file.isFile()) {
+			throw new IllegalArgumentException("File " + path + " not found");
+		}
+		return file;
+	}
+
+	private static String required(Map<String, String> parameters, String name) {
+		String value = parameters.get(name);
+		if (value == null || value.isEmpty()) {
+			throw new IllegalArgumentException("Missing parameter " + name);
+		}
+		return value;
+	}
+
+	private static Map<String, String> parameters(String query) throws UnsupportedEncodingException {
+		Map<String, String> parameters = new HashMap<>();
+		if (query == null) {
+			return parameters;
+		}
+
+		for (String pair : query.split("&")) {
+			int equals = pair.indexOf('=');
+			if (equals > 0) {
+				parameters.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+						URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+			}
+		}
+		return parameters;
+	}
+
+	/**
+	 * Sends an error, if the response did not start yet.
+	 */
+	private static void fail(HttpExchange exchange, int status, String message) {
+		if (exchange.getResponseCode() != -1) {
+			// Too late, the client sees a cut response.
+			return;
+		}
+
+		byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+		try {
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+			exchange.sendResponseHeaders(status, body.length);
+			try (OutputStream output = exchange.getResponseBody()) {
+				output.write(body);
+			}
+		} catch (IOException e) {
+			// The client is gone.
+		}
+	}
+
+	/**
+	 * Serves a directory: directory [port] [threads].
+	 *
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: SubsetService directory [port] [threads]");
+			return;
+		}
+
+		IoMetrics.install();
+
+		SubsetService service = new SubsetService(new File(args[0]));
+		if (args.length > 2) {
+			service.setThreads(Integer.parseInt(args[2]));
+		}
+
+		int port = service.start(args.length > 1 ? Integer.parseInt(args[1]) : 8080);
+		System.out.println("Serving " + args[0] + " on http://localhost:" + port + "/subset");
+	}
+}
@@ -0,0 +1,401 @@
+package tech.geoskop.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.Dimension;
+import ucar.nc2.write.NetcdfFileFormat;
+import ucar.nc2.write.NetcdfFormatWriter;
+
+/**
+ * A NetcdfCreationTemplate compiled once into an immutable schema: dimensions
+ * resolved to indices, lengths, types, data sources and attributes validated,
+ * and the size of every variable and the netcdf-3 format computed. Creating a
+ * file from it only adds what is already resolved to the builder.
+ *
+ * The file name, the attribute values and the files of the data sources may
+ * have ${parameter} placeholders, replaced by the parameters of each file (see
+ * BatchCreate), like tas_${model}_${algo}_${ssp}_2021-2075.nc.
+ *
+ */
+public final class TemplateSchema {
+
+	private static final Pattern PLACEHOLDER = Pattern.compile("\\$\\{([A-Za-z0-9_]+)\\}");
+
+	private final String dir;
+	private final String name;
+	private final List<String[]> fileMetadata;
+	private final List<String> dimensionNames;
+	private final int[] dimensionLengths;
+	private final List<VariableSchema> variables;
+	private final NetcdfFileFormat format;
+	private final long heapBudget;
+	private final Set<String> parameters;
+
+	private TemplateSchema(String dir, String name, List<String[]> fileMetadata, List<String> dimensionNames,
+			int[] dimensionLengths, List<VariableSchema> variables, NetcdfFileFormat format, long heapBudget,
+			Set<String> parameters) {
+		this.dir = dir;
+		this.name = name;
+		this.fileMetadata = fileMetadata;
+		this.dimensionNames = dimensionNames;
+		this.dimensionLengths = dimensionLengths;
+		this.variables = variables;
+		this.format = format;
+		this.heapBudget = heapBudget;
+		this.parameters = parameters;
+	}
+
+	/**
+	 * Reads and compiles a JSON template.
+	 *
+	 * @param pathToJson
+	 * @return
+	 * @throws IOException
+	 */
+	public static TemplateSchema compile(String pathToJson) throws IOException {
+		return compile(new ObjectMapper().readValue(new File(pathToJson), NetcdfCreationTemplate.class));
+	}
+
+	/**
+	 * Compiles a template.
+	 *
+	 * @param template
+	 * @return
+	 * @throws IllegalArgumentException if the template is not consistent: a
+	 *                                  dimension with two lengths, a variable
+	 *                                  twice or without type, an unknown data
+	 *                                  source...
+	 */
+	public static TemplateSchema compile(NetcdfCreationTemplate template) {
+		if (template.getFilePathName() == null || template.getFilePathName().getName() == null) {
+			throw new IllegalArgumentException("The template has no file name");
+		}
+		if (template.getVariables() == null || template.getVariables().isEmpty()) {
+			throw new IllegalArgumentException("The template has no variables");
+		}
+
+		String dir = template.getFilePathName().getDir() == null ? "" : template.getFilePathName().getDir();
+		String name = template.getFilePathName().getName();
+		Set<String> parameters = new HashSet<>();
+		placeholders(dir + name, parameters);
+
+		List<String[]> fileMetadata = attributes(template.getFileMetadata(), "the file", parameters);
+
+		Map<String, Integer> dimensions = new LinkedHashMap<>();
+		List<Integer> lengths = new ArrayList<>();
+		List<VariableSchema> variables = new ArrayList<>();
+		Set<String> variableNames = new HashSet<>();
+
+		for (Variable variable : template.getVariables()) {
+			String variableName = variable.getName();
+			if (variableName == null || variableName.isEmpty()) {
+				throw new IllegalArgumentException("A variable has no name");
+			}
+			if (!variableNames.add(variableName)) {
+				throw new IllegalArgumentException("Variable " + variableName + " is defined twice");
+			}
+			if (variable.getType() == null) {
+				throw new IllegalArgumentException("Variable " + variableName + " has no type");
+			}
+
+			List<Dim> dims = variable.getDimensions() == null ? Collections.<Dim>emptyList()
+					: variable.getDimensions();
+			int[] indices = new int[dims.size()];
+			int[] shape = new int[dims.size()];
+
+			for (int d = 0; d < dims.size(); d++) {
+				Dim dim = dims.get(d);
+				if (dim.getName() == null || dim.getSize() <= 0) {
+					throw new IllegalArgumentException(
+							"Dimension " + dim.getName() + " of " + variableName + " has no name or length");
+				}
+
+				Integer index = dimensions.get(dim.getName());
+				if (index == null) {
+					index = lengths.size();
+					dimensions.put(dim.getName(), index);
+					lengths.add(dim.getSize());
+				} else if (lengths.get(index) != dim.getSize()) {
+					throw new IllegalArgumentException("Dimension " + dim.getName() + " of " + variableName
+							+ " has length " + dim.getSize() + ", it was " + lengths.get(index));
+				}
+
+				indices[d] = index;
+				shape[d] = dim.getSize();
+			}
+
+			DataSource data = variable.getData();
+			if (data != null) {
+				check(data, variableName, shape.length);
+				placeholders(data.getFile(), parameters);
+			}
+
+			variables.add(new VariableSchema(variableName, variable.getType(), indices,
+					attributes(variable.getAttributes(), variableName, parameters), data == null ? null : copy(data),
+					LargeFile.bytes(variable.getType(), shape)));
+		}
+
+		long[] variableBytes = new long[variables.size()];
+		for (int v = 0; v < variableBytes.length; v++) {
+			variableBytes[v] = variables.get(v).bytes;
+		}
+
+		NetcdfFileFormat format = LargeFile.formatFor(variableBytes);
+		if (format == null) {
+			throw new IllegalArgumentException(
+					"The variables of " + dir + name + " take more than netcdf-3 can hold: split them along time");
+		}
+
+		int[] dimensionLengths = new int[lengths.size()];
+		for (int d = 0; d < dimensionLengths.length; d++) {
+			dimensionLengths[d] = lengths.get(d);
+		}
+
+		long heapBudget = template.getHeapBudget() > 0 ? template.getHeapBudget() : SubsetCopy.DEFAULT_HEAP_BUDGET;
+
+		return new TemplateSchema(dir, name, fileMetadata, Collections.unmodifiableList(new ArrayList<>(dimensions.keySet())),
+				dimensionLengths, Collections.unmodifiableList(variables), format, heapBudget,
+				Collections.unmodifiableSet(parameters));
+	}
+
+	/**
+	 * Names of the ${parameter} placeholders of the schema.
+	 */
+	public Set<String> getParameters() {
+		return parameters;
+	}
+
+	public long getHeapBudget() {
+		return heapBudget;
+	}
+
+	public NetcdfFileFormat getFormat() {
+		return format;
+	}
+
+	public List<String> getDimensionNames() {
+		return dimensionNames;
+	}
+
+	public int getDimensionLength(int d) {
+		return dimensionLengths[d];
+	}
+
+	public int getVariableCount() {
+		return variables.size();
+	}
+
+	/**
+	 * Path of the file of some parameters.
+	 *
+	 * @param values parameter -> value.
+	 * @return
+	 */
+	public String path(Map<String, String> values) {
+		return substitute(dir + name, values);
+	}
+
+	/**
+	 * Creates the file of some parameters: header, and the data of the variables
+	 * with a data source; the others are left to the fill value, or not written
+	 * at all without fill.
+	 *
+	 * @param values parameter -> value.
+	 * @param fill   false to leave the variables without data unwritten.
+	 * @return bytes of data written.
+	 * @throws IOException
+	 * @throws InvalidRangeException
+	 */
+	public long create(Map<String, String> values, boolean fill) throws IOException, InvalidRangeException {
+		return create(values, fill, heapBudget);
+	}
+
+	/**
+	 * Creates the file of some parameters with its own heap budget, as when
+	 * several files are created at the same time.
+	 *
+	 * @param values     parameter -> value.
+	 * @param fill       false to leave the variables without data unwritten.
+	 * @param heapBudget max bytes of a slab of data in memory.
+	 * @return bytes of data written.
+	 * @throws IOException
+	 * @throws InvalidRangeException
+	 */
+	public long create(Map<String, String> values, boolean fill, long heapBudget)
+			throws IOException, InvalidRangeException {
+		for (String parameter : parameters) {
+			if (!values.containsKey(parameter)) {
+				throw new IllegalArgumentException("No value for parameter " + parameter + " of " + dir + name);
+			}
+		}
+
+		String path = path(values);
+		NetcdfFormatWriter.Builder builder = NetcdfFormatWriter.createNewNetcdf3(path);
+		builder.setFormat(format);
+		builder.setFill(fill);
+
+		for (String[] attribute : fileMetadata) {
+			builder.addAttribute(new ucar.nc2.Attribute(attribute[0], substitute(attribute[1], values)));
+		}
+
+		Dimension[] dimensions = new Dimension[dimensionLengths.length];
+		for (int d = 0; d < dimensions.length; d++) {
+			dimensions[d] = builder.addDimension(dimensionNames.get(d), dimensionLengths[d]);
+		}
+
+		for (VariableSchema variable : variables) {
+			List<Dimension> variableDimensions = new ArrayList<>(variable.dimensions.length);
+			for (int index : variable.dimensions) {
+				variableDimensions.add(dimensions[index]);
+			}
+
+			ucar.nc2.Variable.Builder<?> varBuilder = builder.addVariable(variable.name, variable.type,
+					variableDimensions);
+			for (String[] attribute : variable.attributes) {
+				varBuilder.addAttribute(new ucar.nc2.Attribute(attribute[0], substitute(attribute[1], values)));
+			}
+		}
+
+		long bytes = 0;
+
+		try (NetcdfFormatWriter writer = builder.build(); DataFiller filler = new DataFiller(writer, heapBudget)) {
+			for (VariableSchema variable : variables) {
+				if (variable.data != null) {
+					DataSource data = copy(variable.data);
+					data.setFile(substitute(data.getFile(), values));
+					bytes += filler.fill(variable.name, data);
+				}
+			}
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * Replaces the ${parameter} placeholders of a text.
+	 */
+	static String substitute(String text, Map<String, String> values) {
+		if (text == null || text.indexOf('$') < 0) {
+			return text;
+		}
+
+		Matcher matcher = PLACEHOLDER.matcher(text);
+		StringBuffer result = new StringBuffer();
+		while (matcher.find()) {
+			String value = values.get(matcher.group(1));
+			matcher.appendReplacement(result, Matcher.quoteReplacement(value != null ? value : matcher.group()));
+		}
+		matcher.appendTail(result);
+
+		return result.toString();
+	}
+
+	private static void placeholders(String text, Set<String> parameters) {
+		if (text == null) {
+			return;
+		}
+
+		Matcher matcher = PLACEHOLDER.matcher(text);
+		while (matcher.find()) {
+			parameters.add(matcher.group(1));
+		}
+	}
+
+	private static List<String[]> attributes(List<Attribute> attributes, String owner, Set<String> parameters) {
+		List<String[]> compiled = new ArrayList<>();
+		if (attributes == null) {
+			return Collections.unmodifiableList(compiled);
+		}
+
+		Set<String> names = new HashSet<>();
+		for (Attribute attribute : attributes) {
+			if (attribute.getName() == null || attribute.getValue() == null) {
+				throw new IllegalArgumentException("An attribute of " + owner + " has no name or value");
+			}
+			if (!names.add(attribute.getName())) {
+				throw new IllegalArgumentException("Attribute " + attribute.getName() + " of " + owner + " is twice");
+			}
+
+			placeholders(attribute.getValue(), parameters);
+			compiled.add(new String[] { attribute.getName(), attribute.getValue() });
+		}
+
+		return Collections.unmodifiableList(compiled);
+	}
+
+	private static void check(DataSource data, String variable, int rank) {
+		String kind = data.getType();
+
+		if (DataSource.COPY.equals(kind)) {
+			if (data.getFile() == null || data.getVariable() == null) {
+				throw new IllegalArgumentException("The copy source of " + variable + " needs a file and a variable");
+			}
+		} else if (DataSource.BINARY.equals(kind)) {
+			if (data.getFile() == null) {
+				throw new IllegalArgumentException("The binary source of " + variable + " needs a file");
+			}
+		} else if (DataSource.LINEAR.equals(kind)) {
+			if (data.getAxis() < 0 || data.getAxis() >= Math.max(1, rank)) {
+				throw new IllegalArgumentException(
+						"Axis " + data.getAxis() + " of the linear source of " + variable + " is out of its rank");
+			}
+		} else if (!DataSource.CONSTANT.equals(kind)) {
+			throw new IllegalArgumentException("Unknown data source type " + kind + " of " + variable);
+		}
+	}
+
+	private static DataSource copy(DataSource data) {
+		DataSource copy = new DataSource();
+		copy.setType(data.getType());
+		copy.setFile(data.getFile());
+		copy.setVariable(data.getVariable());
+		copy.setSection(data.getSection());
+		copy.setValue(data.getValue());
+		copy.setText(data.getText());
+		copy.setStart(data.getStart());
+		copy.setStep(data.getStep());
+		copy.setAxis(data.getAxis());
+		copy.setOffset(data.getOffset());
+		copy.setByteOrder(data.getByteOrder());
+		return copy;
+	}
+
+	@Override
+	public String toString() {
+		return "TemplateSchema [" + dir + name + ", dimensions=" + dimensionNames + ", variables=" + variables.size()
+				+ ", format=" + format + ", parameters=" + parameters + "]";
+	}
+
+	private static final class VariableSchema {
+		final String name;
+		final DataType type;
+		final int[] dimensions;
+		final List<String[]> attributes;
+		final DataSource data;
+		final long bytes;
+
+		VariableSchema(String name, DataType type, int[] dimensions, List<String[]> attributes, DataSource data,
+				long bytes) {
+			this.name = name;
+			this.type = type;
+			this.dimensions = dimensions;
+			this.attributes = attributes;
+			this.data = data;
+			this.bytes = bytes;
+		}
+	}
+}
@@ -0,0 +1,708 @@
+package tech.geoskop.main;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.Attribute;
+import ucar.nc2.Dimension;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Variable;
+import ucar.nc2.write.NetcdfFormatWriter;
+
+/**
+ * Aggregation of daily (time, y, x) variables into monthly, annual or monthly
+ * climatology mean, min, max or sum, written to a new netcdf file with time
+ * bounds.
+ *
+ * The time axis is decoded once (TimeAxis) and every step is assigned to its
+ * period. The source is read ahead (ChunkIterator) in time slabs bounded by the
+ * heap budget, and each slab is added to per-cell accumulators (primitive
+ * arrays) of the periods of its steps, the cells being split across a fork-join
+ * pool. A period is written as soon as its last step is read, so monthly and
+ * annual aggregations keep the accumulators of a single period in memory, and
+ * a climatology those of its twelve months.
+ *
+ * Every statistic of every variable is written as variable_statistic (tas_mean,
+ * tas_max, ...). The variables without time (lat, lon, spatial_ref) are copied
+ * as they are.
+ *
+ * Usage:
+ *
+ * <pre>
+ * CopyStats stats = new TemporalAggregation(source, destination).addVariable("tas")
+ * 		.setPeriod(TemporalAggregation.Period.MONTHLY).addStatistic(TemporalAggregation.Statistic.MAX)
+ * 		.aggregate();
+ * </pre>
+ *
+ */
+public class TemporalAggregation {
+
+	public static final String BOUNDS = "bnds";
+	public static final String TIME_BOUNDS = "time_bnds";
+	public static final String CLIMATOLOGY_BOUNDS = "climatology_bnds";
+	public static final String FILL_VALUE = "_FillValue";
+	public static final String MISSING_VALUE = "missing_value";
+
+	// Cells below which a fork-join task is not split.
+	private static final int CELLS_PER_TASK = 4096;
+
+	public enum Period {
+		MONTHLY, ANNUAL, MONTHLY_CLIMATOLOGY
+	}
+
+	public enum Statistic {
+		MEAN, MIN, MAX, SUM;
+
+		public String getName() {
+			return name().toLowerCase();
+		}
+	}
+
+	private final String sourcePath;
+	private final String destinationPath;
+
+	private final Set<String> variables = new LinkedHashSet<>();
+	private final Set<Statistic> statistics = EnumSet.noneOf(Statistic.class);
+
+	private Period period = Period.MONTHLY;
+	private long heapBudget = SubsetCopy.DEFAULT_HEAP_BUDGET;
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	public TemporalAggregation(String sourcePath, String destinationPath) {
+		this.sourcePath = sourcePath;
+		this.destinationPath = destinationPath;
+	}
+
+	/**
+	 * Adds a (time, ...) variable to aggregate.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public TemporalAggregation addVariable(String name) {
+		variables.add(name);
+		return this;
+	}
+
+	/**
+	 * Adds a statistic. Without statistics, the mean is computed.
+	 *
+	 * @param statistic
+	 * @return
+	 */
+	public TemporalAggregation addStatistic(Statistic statistic) {
+		statistics.add(statistic);
+		return this;
+	}
+
+	public TemporalAggregation setPeriod(Period period) {
+		this.period = period;
+		return this;
+	}
+
+	public TemporalAggregation setHeapBudget(long heapBudget) {
+		if (heapBudget <= 0) {
+			throw new IllegalArgumentException("Heap budget must be positive: " + heapBudget);
+		}
+		this.heapBudget = heapBudget;
+		return this;
+	}
+
+	public TemporalAggregation setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Threads must be at least 1: " + threads);
+		}
+		this.threads = threads;
+		return this;
+	}
+
+	/**
+	 * Creates the destination file and aggregates the variables.
+	 *
+	 * @return
+	 * @throws IOException
+	 * @throws InvalidRangeException
+	 */
+	public CopyStats aggregate() throws IOException, InvalidRangeException {
+		if (statistics.isEmpty()) {
+			statistics.add(Statistic.MEAN);
+		}
+
+		long start = System.nanoTime();
+		long bytes = 0;
+		int slabs = 0;
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+
+		try (NetcdfFile source = NetcdfFiles.open(sourcePath)) {
+			Variable time = source.findVariable(NetCDFTool.TIME);
+			if (time == null) {
+				throw new IllegalArgumentException("No " + NetCDFTool.TIME + " in " + sourcePath);
+			}
+
+			TimeAxis axis = TimeAxis.of(source, time);
+			Periods periods = Periods.of(axis, period);
+
+			NetcdfFormatWriter.Builder builder = NetcdfFormatWriter.createNewNetcdf3(destinationPath);
+			List<Variable> copied = define(source, time, periods, builder);
+
+			try (NetcdfFormatWriter writer = builder.build()) {
+				periods.write(writer, axis.getUnits());
+
+				for (Variable variable : copied) {
+					Array data = variable.read();
+					writer.write(writer.findVariable(variable.getShortName()), data);
+					bytes += data.getSize() * variable.getElementSize();
+				}
+
+				for (String name : variables) {
+					long[] read = aggregate(source.findVariable(name), periods, writer, pool);
+					bytes += read[0];
+					slabs += read[1];
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+
+		return new CopyStats(variables.size(), slabs, bytes, System.nanoTime() - start);
+	}
+
+	/**
+	 * Streams a variable through the accumulators of its periods.
+	 *
+	 * @return bytes and slabs read.
+	 */
+	private long[] aggregate(Variable variable, Periods periods, NetcdfFormatWriter writer, ForkJoinPool pool)
+			throws IOException, InvalidRangeException {
+
+		int[] shape = variable.getShape();
+		int cells = 1;
+		for (int d = 1; d < shape.length; d++) {
+			cells *= shape[d];
+		}
+
+		float fill = (float) variable.attributes().findAttributeDouble(FILL_VALUE,
+				variable.attributes().findAttributeDouble(MISSING_VALUE, Double.NaN));
+
+		List<Variable> outputs = new ArrayList<>();
+		for (Statistic statistic : statistics) {
+			outputs.add(writer.findVariable(variable.getShortName() + "_" + statistic.getName()));
+		}
+
+		int steps = ChunkIterator.slabSteps(variable, heapBudget, ChunkIterator.DEFAULT_PREFETCH);
+
+		Accumulator[] open = new Accumulator[periods.size()];
+		long bytes = 0;
+		int slabs = 0;
+
+		// The next slabs are read while the accumulators take this one.
+		try (ChunkIterator chunks = new ChunkIterator(variable, steps, ChunkIterator.DEFAULT_PREFETCH).asFloats()) {
+			while (chunks.hasNext()) {
+				ChunkIterator.Chunk chunk = chunks.next();
+				float[] values = chunk.getFloats();
+				int t0 = chunk.getFirst();
+				int ts = chunk.getSteps();
+
+				for (int t = t0; t < t0 + ts; t++) {
+					int p = periods.periodOf[t];
+					if (open[p] == null) {
+						open[p] = new Accumulator(cells, statistics,
+								periods.period == Period.MONTHLY_CLIMATOLOGY);
+					}
+				}
+
+				pool.invoke(new SlabTask(values, t0, ts, cells, 0, cells, fill, periods.periodOf, periods.yearOf,
+						open));
+
+				// Periods whose last step has been read.
+				for (int t = t0; t < t0 + ts; t++) {
+					int p = periods.periodOf[t];
+					if (periods.lastStep[p] == t) {
+						write(open[p], p, shape, outputs, writer);
+						open[p] = null;
+					}
+				}
+
+				bytes += chunk.getSize() * variable.getElementSize();
+				slabs++;
+			}
+		}
+
+		return new long[] { bytes, slabs };
+	}
+
+	private void write(Accumulator accumulator, int p, int[] shape, List<Variable> outputs,
+			NetcdfFormatWriter writer) throws IOException, InvalidRangeException {
+
+		int[] origin = new int[shape.length];
+		int[] count = shape.clone();
+		origin[0] = p;
+		count[0] = 1;
+
+		int s = 0;
+		for (Statistic statistic : statistics) {
+			float[] values = accumulator.result(statistic);
+			writer.write(outputs.get(s++), origin, Array.factory(DataType.FLOAT, count, values));
+		}
+	}
+
+	/**
+	 * Adds the dimensions, the time and bounds, the variables without time and
+	 * the aggregated ones to the builder.
+	 *
+	 * @return the variables copied as they are.
+	 */
+	private List<Variable> define(NetcdfFile source, Variable time, Periods periods,
+			NetcdfFormatWriter.Builder builder) {
+
+		Map<String, Dimension> mapDims = new HashMap<>();
+		List<Long> variableBytes = new ArrayList<>();
+
+		List<Variable> copied = defineTime(source, time, periods, builder, mapDims, variableBytes);
+
+		for (String name : variables) {
+			Variable variable = source.findVariable(name);
+
+			if (variable == null) {
+				throw new IllegalArgumentException("Variable " + name + " not found in " + sourcePath);
+			}
+			if (variable.getRank() < 1 || !NetCDFTool.TIME.equals(variable.getDimension(0).getShortName())) {
+				throw new IllegalArgumentException("Variable " + name + " is not (time, ...)");
+			}
+
+			List<Dimension> dimensions = dimensions(builder, mapDims, variable);
+			int[] shape = variable.getShape();
+			shape[0] = periods.size();
+
+			for (Statistic statistic : statistics) {
+				Variable.Builder<?> varBuilder = builder.addVariable(name + "_" + statistic.getName(),
+						DataType.FLOAT, dimensions);
+
+				for (Attribute attribute : variable.attributes()) {
+					String attName = attribute.getShortName();
+					if (!FILL_VALUE.equals(attName) && !MISSING_VALUE.equals(attName)) {
+						varBuilder.addAttribute(attribute);
+					}
+				}
+
+				varBuilder.addAttribute(new Attribute(FILL_VALUE, Float.NaN));
+				varBuilder.addAttribute(new Attribute("cell_methods", cellMethods(statistic)));
+
+				variableBytes.add(LargeFile.bytes(DataType.FLOAT, shape));
+			}
+		}
+
+		LargeFile.setFormat(builder, destinationPath, variableBytes.stream().mapToLong(Long::longValue).toArray());
+
+		return copied;
+	}
+
+	/**
+	 * Adds the global attributes, the time of the periods with its bounds and the
+	 * variables without time of the source to the builder.
+	 *
+	 * @param source
+	 * @param time
+	 * @param periods
+	 * @param builder
+	 * @param mapDims       the dimensions added, by name.
+	 * @param variableBytes bytes of each variable added.
+	 * @return the variables without time, to copy as they are.
+	 */
+	static List<Variable> defineTime(NetcdfFile source, Variable time, Periods periods,
+			NetcdfFormatWriter.Builder builder, Map<String, Dimension> mapDims, List<Long> variableBytes) {
+
+		for (Attribute attribute : source.getRootGroup().attributes()) {
+			builder.addAttribute(attribute);
+		}
+
+		Dimension timeDim = builder.addDimension(NetCDFTool.TIME, periods.size());
+		Dimension boundsDim = builder.addDimension(BOUNDS, 2);
+		mapDims.put(NetCDFTool.TIME, timeDim);
+
+		boolean climatology = periods.period == Period.MONTHLY_CLIMATOLOGY;
+
+		List<Dimension> timeDims = new ArrayList<Dimension>();
+		timeDims.add(timeDim);
+		builder.addVariable(NetCDFTool.TIME, DataType.DOUBLE, timeDims)
+				.addAttribute(new Attribute(NetCDFTool.UNITS, time.getUnitsString()))
+				.addAttribute(new Attribute(TimeUnits.CALENDAR,
+						time.attributes().findAttributeString(TimeUnits.CALENDAR, TimeUnits.STANDARD)))
+				.addAttribute(new Attribute("standard_name", NetCDFTool.TIME))
+				.addAttribute(new Attribute(climatology ? "climatology" : "bounds", periods.boundsName()));
+
+		List<Dimension> boundsDims = new ArrayList<Dimension>();
+		boundsDims.add(timeDim);
+		boundsDims.add(boundsDim);
+		builder.addVariable(periods.boundsName(), DataType.DOUBLE, boundsDims);
+
+		variableBytes.add(LargeFile.bytes(DataType.DOUBLE, periods.size()));
+		variableBytes.add(LargeFile.bytes(DataType.DOUBLE, periods.size(), 2));
+
+		List<Variable> copied = new ArrayList<>();
+
+		for (Variable variable : source.getVariables()) {
+			if (variable.findDimensionIndex(NetCDFTool.TIME) >= 0) {
+				continue;
+			}
+
+			builder.addVariable(variable.getShortName(), variable.getDataType(),
+					dimensions(builder, mapDims, variable)).addAttributes(variable.attributes());
+			variableBytes.add(LargeFile.bytes(variable.getDataType(), variable.getShape()));
+			copied.add(variable);
+		}
+
+		return copied;
+	}
+
+	private String cellMethods(Statistic statistic) {
+		String method = statistic == Statistic.MIN ? "minimum"
+				: statistic == Statistic.MAX ? "maximum" : statistic.getName();
+
+		// A sum is averaged over the years, a min or max is the extreme of all of them.
+		if (period == Period.MONTHLY_CLIMATOLOGY) {
+			String overYears = statistic == Statistic.MIN || statistic == Statistic.MAX ? method : "mean";
+			return "time: " + method + " within years time: " + overYears + " over years";
+		}
+		return "time: " + method;
+	}
+
+	static List<Dimension> dimensions(NetcdfFormatWriter.Builder builder, Map<String, Dimension> mapDims,
+			Variable variable) {
+		List<Dimension> dimensions = new ArrayList<Dimension>();
+
+		for (Dimension sourceDim : variable.getDimensions()) {
+			Dimension dimension = mapDims.get(sourceDim.getShortName());
+			if (dimension == null) {
+				dimension = builder.addDimension(sourceDim.getShortName(), sourceDim.getLength());
+				mapDims.put(sourceDim.getShortName(), dimension);
+			}
+			dimensions.add(dimension);
+		}
+
+		return dimensions;
+	}
+
+	/**
+	 * The periods of a time axis: the period and year of each step, and the
+	 * year, month and last step of each period.
+	 */
+	static class Periods {
+		final Period period;
+		final int[] periodOf;
+		final int[] yearOf;
+		final int[] year;
+		final int[] month;
+		final int[] lastYear;
+		final int[] lastStep;
+
+		private Periods(Period period, int[] periodOf, int[] yearOf, int[] year, int[] month, int[] lastYear,
+				int[] lastStep) {
+			this.period = period;
+			this.periodOf = periodOf;
+			this.yearOf = yearOf;
+			this.year = year;
+			this.month = month;
+			this.lastYear = lastYear;
+			this.lastStep = lastStep;
+		}
+
+		static Periods of(TimeAxis axis, Period period) {
+			int[] periodOf = new int[axis.size()];
+			int[] yearOf = new int[axis.size()];
+			Map<Integer, Integer> index = new HashMap<>();
+			List<int[]> found = new ArrayList<>();
+
+			for (int t = 0; t < axis.size(); t++) {
+				int year = axis.getYear(t);
+				int month = axis.getMonth(t);
+
+				int key = period == Period.MONTHLY ? year * 12 + month - 1
+						: period == Period.ANNUAL ? year : month;
+
+				Integer p = index.get(key);
+				if (p == null) {
+					p = found.size();
+					index.put(key, p);
+					found.add(new int[] { year, period == Period.ANNUAL ? 1 : month, year, t });
+				}
+
+				int[] info = found.get(p);
+				info[2] = year;
+				info[3] = t;
+				periodOf[t] = p;
+				yearOf[t] = year;
+			}
+
+			// A climatology is ordered by month.
+			if (period == Period.MONTHLY_CLIMATOLOGY) {
+				List<int[]> sorted = new ArrayList<>(found);
+				sorted.sort((a, b) -> Integer.compare(a[1], b[1]));
+
+				int[] renumber = new int[found.size()];
+				for (int p = 0; p < found.size(); p++) {
+					renumber[p] = sorted.indexOf(found.get(p));
+				}
+				for (int t = 0; t < periodOf.length; t++) {
+					periodOf[t] = renumber[periodOf[t]];
+				}
+				found = sorted;
+			}
+
+			int n = found.size();
+			int[] year = new int[n];
+			int[] month = new int[n];
+			int[] lastYear = new int[n];
+			int[] lastStep = new int[n];
+
+			for (int p = 0; p < n; p++) {
+				int[] info = found.get(p);
+				year[p] = info[0];
+				month[p] = info[1];
+				lastYear[p] = info[2];
+				lastStep[p] = info[3];
+			}
+
+			return new Periods(period, periodOf, yearOf, year, month, lastYear, lastStep);
+		}
+
+		int size() {
+			return year.length;
+		}
+
+		String boundsName() {
+			return period == Period.MONTHLY_CLIMATOLOGY ? CLIMATOLOGY_BOUNDS : TIME_BOUNDS;
+		}
+
+		/**
+		 * Writes the time of each period, the middle of its bounds, and the bounds.
+		 */
+		void write(NetcdfFormatWriter writer, TimeUnits units) throws IOException, InvalidRangeException {
+			double[] times = new double[size()];
+			double[] bounds = new double[size() * 2];
+
+			for (int p = 0; p < size(); p++) {
+				bounds[2 * p] = start(units, p);
+				bounds[2 * p + 1] = end(units, p);
+				times[p] = (bounds[2 * p] + bounds[2 * p + 1]) / 2;
+			}
+
+			writer.write(writer.findVariable(NetCDFTool.TIME),
+					Array.factory(DataType.DOUBLE, new int[] { times.length }, times));
+			writer.write(writer.findVariable(boundsName()),
+					Array.factory(DataType.DOUBLE, new int[] { times.length, 2 }, bounds));
+		}
+
+		/**
+		 * Offset of the first day of a period.
+		 */
+		double start(TimeUnits units, int p) {
+			return units.offsetOf(year[p], month[p], 1);
+		}
+
+		/**
+		 * Offset of the first day after a period (of its last year for a
+		 * climatology).
+		 */
+		double end(TimeUnits units, int p) {
+			if (period == Period.ANNUAL) {
+				return units.offsetOf(year[p] + 1, 1, 1);
+			}
+
+			int endYear = period == Period.MONTHLY_CLIMATOLOGY ? lastYear[p] : year[p];
+			return month[p] == 12 ? units.offsetOf(endYear + 1, 1, 1) : units.offsetOf(endYear, month[p] + 1, 1);
+		}
+	}
+
+	/**
+	 * Per-cell accumulators of a period. Only the arrays of the requested
+	 * statistics are allocated.
+	 *
+	 * The period of a climatology spans several years: its sum counts the years
+	 * with data of each cell, so the result is the mean of the sums of the
+	 * years, not their total.
+	 */
+	static class Accumulator {
+		final int[] count;
+		final double[] sum;
+		final float[] min;
+		final float[] max;
+
+		// Years with data and last year seen of each cell, for the sum over years.
+		final int[] years;
+		final int[] lastYear;
+
+		Accumulator(int cells, Set<Statistic> statistics, boolean overYears) {
+			count = new int[cells];
+			sum = statistics.contains(Statistic.MEAN) || statistics.contains(Statistic.SUM) ? new double[cells]
+					: null;
+			min = statistics.contains(Statistic.MIN) ? filled(cells, Float.POSITIVE_INFINITY) : null;
+			max = statistics.contains(Statistic.MAX) ? filled(cells, Float.NEGATIVE_INFINITY) : null;
+
+			boolean yearly = overYears && statistics.contains(Statistic.SUM);
+			years = yearly ? new int[cells] : null;
+			lastYear = yearly ? filled(cells, Integer.MIN_VALUE) : null;
+		}
+
+		private static int[] filled(int cells, int value) {
+			int[] values = new int[cells];
+			Arrays.fill(values, value);
+			return values;
+		}
+
+		private static float[] filled(int cells, float value) {
+			float[] values = new float[cells];
+			Arrays.fill(values, value);
+			return values;
+		}
+
+		void add(float[] values, int offset, int from, int to, int year) {
+			for (int c = from; c < to; c++) {
+				float value = values[offset + c];
+				if (Float.isNaN(value)) {
+					continue;
+				}
+
+				count[c]++;
+				if (years != null && lastYear[c] != year) {
+					years[c]++;
+					lastYear[c] = year;
+				}
+				if (sum != null) {
+					sum[c] += value;
+				}
+				if (min != null && value < min[c]) {
+					min[c] = value;
+				}
+				if (max != null && value > max[c]) {
+					max[c] = value;
+				}
+			}
+		}
+
+		/**
+		 * Values of a statistic, NaN for cells without data.
+		 */
+		float[] result(Statistic statistic) {
+			float[] result = new float[count.length];
+
+			for (int c = 0; c < count.length; c++) {
+				if (count[c] == 0) {
+					result[c] = Float.NaN;
+					continue;
+				}
+
+				switch (statistic) {
+				case MEAN:
+					result[c] = (float) (sum[c] / count[c]);
+					break;
+				case SUM:
+					result[c] = (float) (years != null ? sum[c] / years[c] : sum[c]);
+					break;
+				case MIN:
+					result[c] = min[c];
+					break;
+				default:
+					result[c] = max[c];
+				}
+			}
+
+			return result;
+		}
+	}
+
+	/**
+	 * Adds the steps of a slab to the accumulators of their periods, for a range
+	 * of cells, splitting the range while it is large.
+	 */
+	private static class SlabTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final float[] values;
+		private final int t0;
+		private final int ts;
+		private final int cells;
+		private final int from;
+		private final int to;
+		private final float fill;
+		private final int[] periodOf;
+		private final int[] yearOf;
+		private final Accumulator[] open;
+
+		SlabTask(float[] values, int t0, int ts, int cells, int from, int to, float fill, int[] periodOf,
+				int[] yearOf, Accumulator[] open) {
+			this.values = values;
+			this.t0 = t0;
+			this.ts = ts;
+			this.cells = cells;
+			this.from = from;
+			this.to = to;
+			this.fill = fill;
+			this.periodOf = periodOf;
+			this.yearOf = yearOf;
+			this.open = open;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > CELLS_PER_TASK) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new SlabTask(values, t0, ts, cells, from, middle, fill, periodOf, yearOf, open),
+						new SlabTask(values, t0, ts, cells, middle, to, fill, periodOf, yearOf, open));
+				return;
+			}
+
+			if (!Float.isNaN(fill)) {
+				for (int i = from; i < to; i++) {
+					for (int t = 0; t < ts; t++) {
+						if (values[t * cells + i] == fill) {
+							values[t * cells + i] = Float.NaN;
+						}
+					}
+				}
+			}
+
+			for (int t = 0; t < ts; t++) {
+				open[periodOf[t0 + t]].add(values, t * cells, from, to, yearOf[t0 + t]);
+			}
+		}
+	}
+
+	/**
+	 * Aggregates a file: source destination variable period [statistic ...].
+	 *
+	 * @param args
+	 * @throws IOException
+	 * @throws InvalidRangeException
+	 */
+	public static void main(String[] args) throws IOException, InvalidRangeException {
+		if (args.length < 4) {
+			System.err.println(
+					"Usage: TemporalAggregation source.nc destination.nc variable MONTHLY|ANNUAL|MONTHLY_CLIMATOLOGY [MEAN|MIN|MAX|SUM ...]");
+			return;
+		}
+
+		TemporalAggregation aggregation = new TemporalAggregation(args[0], args[1]).addVariable(args[2])
+				.setPeriod(Period.valueOf(args[3]));
+
+		for (int a = 4; a < args.length; a++) {
+			aggregation.addStatistic(Statistic.valueOf(args[a]));
+		}
+
+		System.out.println(aggregation.aggregate());
+	}
+}
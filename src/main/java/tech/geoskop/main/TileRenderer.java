@@ -0,0 +1,308 @@
+package tech.geoskop.main;
+
+import static java.lang.System.out;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Renderer of XYZ (Web Mercator) PNG tiles of a variable (time, y, x) of a Zarr
+ * store for a web map: [Zarr] >> leaflet request >> [web map].
+ *
+ * The grid is curvilinear, so each cell is painted over the pixels half way to
+ * its neighbours, using the 2D lat/lon of the store. The projected lat/lon grid
+ * is computed once; decoded time slices and rendered tiles are kept in LRU
+ * caches bounded in bytes, so panning over a map renders every tile once.
+ *
+ * Usage: TileRenderer store variable time z x y file.png
+ *
+ */
+public class TileRenderer {
+
+	public static final int TILE_SIZE = 256;
+	public static final long DEFAULT_CACHE_BYTES = 256L * 1024 * 1024;
+
+	private final ZarrReader reader;
+	private final ColorRamp ramp;
+
+	private final LruCache<String, byte[]> tiles;
+	private final LruCache<String, float[]> slices;
+
+	// Cell centres in Web Mercator world coordinates, [0, 1) for the whole world.
+	private double[] worldX;
+	private double[] worldY;
+	private int ny;
+	private int nx;
+
+	public TileRenderer(ZarrReader reader, ColorRamp ramp) {
+		this(reader, ramp, DEFAULT_CACHE_BYTES);
+	}
+
+	/**
+	 * @param reader
+	 * @param ramp
+	 * @param cacheBytes shared by the tile cache (3/4) and the slice cache (1/4).
+	 */
+	public TileRenderer(ZarrReader reader, ColorRamp ramp, long cacheBytes) {
+		this.reader = reader;
+		this.ramp = ramp;
+		this.tiles = new LruCache<>(cacheBytes - cacheBytes / 4, png -> png.length);
+		this.slices = new LruCache<>(cacheBytes / 4, slice -> 4L * slice.length);
+	}
+
+	/**
+	 * The PNG of a tile, from the cache when it was rendered before.
+	 *
+	 * @param variable
+	 * @param time     index of the time step.
+	 * @param z
+	 * @param x
+	 * @param y
+	 * @return
+	 * @throws IOException
+	 */
+	public byte[] renderTile(String variable, int time, int z, int x, int y) throws IOException {
+		String key = variable + '/' + time + '/' + z + '/' + x + '/' + y;
+
+		byte[] png = tiles.get(key);
+		if (png == null) {
+			png = encode(paint(slice(variable, time), z, x, y));
+			tiles.put(key, png);
+		}
+
+		return png;
+	}
+
+	/**
+	 * Paints the cells of a slice that fall in a tile.
+	 *
+	 * @param slice
+	 * @param z
+	 * @param x
+	 * @param y
+	 * @return ARGB pixels of the tile, row by row.
+	 * @throws IOException
+	 */
+	int[] paint(float[] slice, int z, int x, int y) throws IOException {
+		loadGrid();
+
+		int[] pixels = new int[TILE_SIZE * TILE_SIZE];
+		double scale = (double) TILE_SIZE * (1L << z);
+		double offSetX = (double) x * TILE_SIZE;
+		double offSetY = (double) y * TILE_SIZE;
+
+		for (int j = 0; j < ny; j++) {
+			for (int i = 0; i < nx; i++) {
+				int cell = j * nx + i;
+				int argb = ramp.argb(slice[cell]);
+
+				if (argb == ColorRamp.NO_DATA) {
+					continue;
+				}
+
+				// Footprint: box of the midpoints with the four neighbours.
+				double cx = worldX[cell] * scale - offSetX;
+				double cy = worldY[cell] * scale - offSetY;
+				double minX = cx;
+				double maxX = cx;
+				double minY = cy;
+				double maxY = cy;
+
+				int[] neighbours = { j > 0 ? cell - nx : cell + nx, j < ny - 1 ? cell + nx : cell - nx,
+						i > 0 ? cell - 1 : cell + 1, i < nx - 1 ? cell + 1 : cell - 1 };
+
+				for (int neighbour : neighbours) {
+					if (neighbour < 0 || neighbour >= slice.length) {
+						continue;
+					}
+					double mx = (cx + worldX[neighbour] * scale - offSetX) / 2;
+					double my = (cy + worldY[neighbour] * scale - offSetY) / 2;
+					minX = Math.min(minX, mx);
+					maxX = Math.max(maxX, mx);
+					minY = Math.min(minY, my);
+					maxY = Math.max(maxY, my);
+				}
+
+				if (maxX < 0 || maxY < 0 || minX >= TILE_SIZE || minY >= TILE_SIZE) {
+					continue;
+				}
+
+				// At least one pixel per cell.
+				int px0 = Math.max(0, (int) Math.floor(minX));
+				int py0 = Math.max(0, (int) Math.floor(minY));
+				int px1 = Math.min(TILE_SIZE - 1, Math.max(px0, (int) Math.ceil(maxX) - 1));
+				int py1 = Math.min(TILE_SIZE - 1, Math.max(py0, (int) Math.ceil(maxY) - 1));
+
+				for (int py = py0; py <= py1; py++) {
+					int row = py * TILE_SIZE;
+					for (int px = px0; px <= px1; px++) {
+						pixels[row + px] = argb;
+					}
+				}
+			}
+		}
+
+		return pixels;
+	}
+
+	/**
+	 * A time slice of a variable as floats, from the cache when it was decoded
+	 * before. The fill value of the array and the _FillValue and missing_value
+	 * attributes become NaN, so they are not painted.
+	 *
+	 * @param variable
+	 * @param time
+	 * @return
+	 * @throws IOException
+	 */
+	float[] slice(String variable, int time) throws IOException {
+		String key = variable + '/' + time;
+
+		float[] slice = slices.get(key);
+		if (slice == null) {
+			int[] shape = reader.getMetadata(variable).getShape();
+			Object box = reader.readBox(variable, new int[] { time, 0, 0 }, new int[] { 1, shape[1], shape[2] },
+					null);
+
+			slice = toFloats(box);
+			mask(slice, missingValues(variable));
+			slices.put(key, slice);
+		}
+
+		return slice;
+	}
+
+	/**
+	 * Projects the lat/lon grid to Web Mercator, once.
+	 *
+	 * @throws IOException
+	 */
+	private synchronized void loadGrid() throws IOException {
+		if (worldX != null) {
+			return;
+		}
+
+		int[] shape = reader.getMetadata(NetCDFTool.LATITUDE).getShape();
+		Object lat = reader.read(NetCDFTool.LATITUDE);
+		Object lon = reader.read(NetCDFTool.LONGITUDE);
+
+		double[] projectedX = new double[shape[0] * shape[1]];
+		double[] projectedY = new double[projectedX.length];
+
+		for (int cell = 0; cell < projectedX.length; cell++) {
+			projectedX[cell] = mercatorX(ZarrChunks.getDouble(lon, cell));
+			projectedY[cell] = mercatorY(ZarrChunks.getDouble(lat, cell));
+		}
+
+		ny = shape[0];
+		nx = shape[1];
+		worldY = projectedY;
+		worldX = projectedX;
+	}
+
+	static double mercatorX(double lon) {
+		return (lon + 180) / 360;
+	}
+
+	static double mercatorY(double lat) {
+		// Web Mercator is cut at +-85.0511 degrees.
+		double clamped = Math.max(-85.0511, Math.min(85.0511, lat));
+		double radians = Math.toRadians(clamped);
+
+		return (1 - Math.log(Math.tan(radians) + 1 / Math.cos(radians)) / Math.PI) / 2;
+	}
+
+	/**
+	 * The fill value of an array and its _FillValue and missing_value
+	 * attributes, as floats like the slice; NaN ones left out.
+	 */
+	private float[] missingValues(String variable) throws IOException {
+		List<Double> missing = new ArrayList<>();
+		missing.add(reader.getMetadata(variable).getFillDouble());
+
+		Map<String, Object> attributes = reader.getAttributes(variable);
+		for (String name : new String[] { TemporalAggregation.FILL_VALUE, TemporalAggregation.MISSING_VALUE }) {
+			Object value = attributes == null ? null : attributes.get(name);
+			if (value instanceof Number) {
+				missing.add(((Number) value).doubleValue());
+			}
+		}
+
+		float[] values = new float[missing.size()];
+		int n = 0;
+		for (double value : missing) {
+			if (!Double.isNaN(value)) {
+				values[n++] = (float) value;
+			}
+		}
+		return Arrays.copyOf(values, n);
+	}
+
+	private static void mask(float[] slice, float[] missing) {
+		if (missing.length == 0) {
+			return;
+		}
+
+		for (int cell = 0; cell < slice.length; cell++) {
+			for (float value : missing) {
+				if (slice[cell] == value) {
+					slice[cell] = Float.NaN;
+					break;
+				}
+			}
+		}
+	}
+
+	private static float[] toFloats(Object box) {
+		if (box instanceof float[]) {
+			return (float[]) box;
+		}
+
+		int length = java.lang.reflect.Array.getLength(box);
+		float[] floats = new float[length];
+		for (int i = 0; i < length; i++) {
+			floats[i] = (float) ZarrChunks.getDouble(box, i);
+		}
+		return floats;
+	}
+
+	private static byte[] encode(int[] pixels) throws IOException {
+		BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+		image.setRGB(0, 0, TILE_SIZE, TILE_SIZE, pixels, 0, TILE_SIZE);
+
+		ByteArrayOutputStream png = new ByteArrayOutputStream();
+		ImageIO.write(image, "png", png);
+
+		return png.toByteArray();
+	}
+
+	public LruCache<String, byte[]> getTileCache() {
+		return tiles;
+	}
+
+	public LruCache<String, float[]> getSliceCache() {
+		return slices;
+	}
+
+	public static void main(String[] args) throws IOException {
+
+		// src/main/resources/testmean.zarr tas 0 6 31 24 tile.png
+		TileRenderer renderer = new TileRenderer(new ZarrReader(args[0]), ColorRamp.temperature(250, 310));
+
+		byte[] png = renderer.renderTile(args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+				Integer.parseInt(args[4]), Integer.parseInt(args[5]));
+
+		Files.write(Paths.get(args[6]), png);
+
+		out.printf("Tile written to %s (%d bytes)%n", args[6], png.length);
+	}
+}
@@ -0,0 +1,259 @@
+package tech.geoskop.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ucar.ma2.Array;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.Variable;
+
+/**
+ * A time variable decoded in one pass: for each step, its offset, its date
+ * (packed as yyyyMMdd) and its second of the day.
+ *
+ * The axis of a variable of a file is decoded once and cached, until the file
+ * changes.
+ *
+ */
+public class TimeAxis {
+
+	// location#variable -> decoded axis.
+	private static final Map<String, CachedAxis> CACHE = new ConcurrentHashMap<>();
+
+	private final TimeUnits units;
+	private final double[] offsets;
+	private final int[] dates;
+	private final int[] secondsOfDay;
+
+	private TimeAxis(TimeUnits units, double[] offsets) {
+		this.units = units;
+		this.offsets = offsets;
+		this.dates = new int[offsets.length];
+		this.secondsOfDay = new int[offsets.length];
+
+		for (int i = 0; i < offsets.length; i++) {
+			dates[i] = units.dateOf(units.dayOf(offsets[i]));
+			secondsOfDay[i] = units.secondOfDayOf(offsets[i]);
+		}
+	}
+
+	/**
+	 * Decodes offsets in the given units.
+	 *
+	 * @param units
+	 * @param offsets
+	 * @return
+	 */
+	public static TimeAxis decode(TimeUnits units, double[] offsets) {
+		return new TimeAxis(units, offsets);
+	}
+
+	/**
+	 * Decodes the offsets of an Array.
+	 *
+	 * @param data
+	 * @param units
+	 * @param calendar
+	 * @return
+	 */
+	public static TimeAxis decode(Array data, String units, String calendar) {
+		double[] offsets = new double[(int) data.getSize()];
+		for (int i = 0; i < offsets.length; i++) {
+			offsets[i] = data.getDouble(i);
+		}
+		return new TimeAxis(TimeUnits.parse(units, calendar), offsets);
+	}
+
+	/**
+	 * Decodes the offsets of a primitive array, as read from a Zarr store.
+	 *
+	 * @param data
+	 * @param units
+	 * @param calendar
+	 * @return
+	 */
+	public static TimeAxis decode(Object data, String units, String calendar) {
+		double[] offsets = new double[java.lang.reflect.Array.getLength(data)];
+		for (int i = 0; i < offsets.length; i++) {
+			offsets[i] = ZarrChunks.getDouble(data, i);
+		}
+		return new TimeAxis(TimeUnits.parse(units, calendar), offsets);
+	}
+
+	/**
+	 * Reads and decodes a whole time variable, using its units and calendar
+	 * attributes.
+	 *
+	 * @param time
+	 * @return
+	 * @throws IOException
+	 */
+	public static TimeAxis read(Variable time) throws IOException {
+		return decode(time.read(), time.getUnitsString(),
+				time.attributes().findAttributeString(TimeUnits.CALENDAR, TimeUnits.STANDARD));
+	}
+
+	/**
+	 * The decoded axis of a time variable of a file, from the cache if the file
+	 * did not change since it was decoded.
+	 *
+	 * @param file
+	 * @param time
+	 * @return
+	 * @throws IOException
+	 */
+	public static TimeAxis of(NetcdfFile file, Variable time) throws IOException {
+		String key = file.getLocation() + '#' + time.getFullName();
+		File location = new File(file.getLocation());
+
+		CachedAxis cached = CACHE.get(key);
+		if (cached != null && cached.lastModified == location.lastModified() && cached.length == location.length()) {
+			return cached.axis;
+		}
+
+		TimeAxis axis = read(time);
+		CACHE.put(key, new CachedAxis(axis, location.lastModified(), location.length()));
+
+		return axis;
+	}
+
+	public static void clearCache() {
+		CACHE.clear();
+	}
+
+	public int size() {
+		return offsets.length;
+	}
+
+	public TimeUnits getUnits() {
+		return units;
+	}
+
+	public double getOffset(int i) {
+		return offsets[i];
+	}
+
+	/**
+	 * Date of a step packed as yyyyMMdd.
+	 *
+	 * @param i
+	 * @return
+	 */
+	public int getDate(int i) {
+		return dates[i];
+	}
+
+	public int getYear(int i) {
+		return TimeUnits.year(dates[i]);
+	}
+
+	public int getMonth(int i) {
+		return TimeUnits.month(dates[i]);
+	}
+
+	public int getDay(int i) {
+		return TimeUnits.day(dates[i]);
+	}
+
+	public int getSecondOfDay(int i) {
+		return secondsOfDay[i];
+	}
+
+	/**
+	 * Seconds since 1970-01-01T00:00:00Z of a step. Only for Gregorian
+	 * calendars.
+	 *
+	 * @param i
+	 * @return
+	 */
+	public long getEpochSecond(int i) {
+		if (!units.isGregorian()) {
+			throw new UnsupportedOperationException("No epoch in calendar " + units.getCalendar());
+		}
+		return units.dayOf(offsets[i]) * TimeUnits.SECONDS_PER_DAY + secondsOfDay[i];
+	}
+
+	/**
+	 * Date of a step as yyyy-MM-dd.
+	 *
+	 * @param i
+	 * @return
+	 */
+	public String getIsoDate(int i) {
+		return isoDate(dates[i]);
+	}
+
+	/**
+	 * A packed date as yyyy-MM-dd.
+	 *
+	 * @param date
+	 * @return
+	 */
+	public static String isoDate(int date) {
+		char[] chars = new char[10];
+		int year = TimeUnits.year(date);
+		int month = TimeUnits.month(date);
+		int day = TimeUnits.day(date);
+
+		chars[0] = (char) ('0' + year / 1000 % 10);
+		chars[1] = (char) ('0' + year / 100 % 10);
+		chars[2] = (char) ('0' + year / 10 % 10);
+		chars[3] = (char) ('0' + year % 10);
+		chars[4] = '-';
+		chars[5] = (char) ('0' + month / 10);
+		chars[6] = (char) ('0' + month % 10);
+		chars[7] = '-';
+		chars[8] = (char) ('0' + day / 10);
+		chars[9] = (char) ('0' + day % 10);
+
+		return new String(chars);
+	}
+
+	/**
+	 * First step not before the start of a day (size() if there is none). The
+	 * axis is increasing.
+	 *
+	 * @param year
+	 * @param month
+	 * @param day
+	 * @return
+	 */
+	public int indexOf(int year, int month, int day) {
+		double offset = units.offsetOf(year, month, day);
+
+		int low = 0;
+		int high = offsets.length;
+
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (offsets[middle] < offset) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+
+		return low;
+	}
+
+	@Override
+	public String toString() {
+		return "TimeAxis [units=" + units + ", size=" + offsets.length
+				+ (offsets.length > 0 ? ", first=" + getIsoDate(0) + ", last=" + getIsoDate(offsets.length - 1) : "")
+				+ "]";
+	}
+
+	private static class CachedAxis {
+		final TimeAxis axis;
+		final long lastModified;
+		final long length;
+
+		CachedAxis(TimeAxis axis, long lastModified, long length) {
+			this.axis = axis;
+			this.lastModified = lastModified;
+			this.length = length;
+		}
+	}
+}
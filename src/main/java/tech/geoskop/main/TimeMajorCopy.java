@@ -0,0 +1,255 @@
+package tech.geoskop.main;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.Attribute;
+import ucar.nc2.Dimension;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Variable;
+import ucar.nc2.write.NetcdfFormatWriter;
+
+/**
+ * Copy of a netcdf file with its main variables rechunked from (time, y, x) to
+ * (y, x, time), so the whole series of a cell is contiguous and is read with a
+ * single read. The source layout stays the one for map-style access.
+ *
+ * The transposition is done in external memory: the grid is split in tiles of
+ * (rows, columns) whose whole series fit in half the heap budget. Each tile is
+ * filled reading the source in time slabs (the other half of the budget),
+ * transposed in memory and written in one go at its origin.
+ *
+ */
+public class TimeMajorCopy {
+
+	private final String sourcePath;
+	private final String destinationPath;
+
+	// Copied as they are.
+	private final Set<String> variables = new LinkedHashSet<>();
+
+	// Written (y, x, time).
+	private final Set<String> transposed = new LinkedHashSet<>();
+
+	private long heapBudget = SubsetCopy.DEFAULT_HEAP_BUDGET;
+
+	public TimeMajorCopy(String sourcePath, String destinationPath) {
+		this.sourcePath = sourcePath;
+		this.destinationPath = destinationPath;
+	}
+
+	/**
+	 * Adds a variable copied with its layout (lat, lon, time, ...).
+	 *
+	 * @param name
+	 * @return
+	 */
+	public TimeMajorCopy addVariable(String name) {
+		variables.add(name);
+		return this;
+	}
+
+	/**
+	 * Adds a variable (time, y, x) written as (y, x, time).
+	 *
+	 * @param name
+	 * @return
+	 */
+	public TimeMajorCopy addTransposed(String name) {
+		transposed.add(name);
+		return this;
+	}
+
+	public TimeMajorCopy setHeapBudget(long heapBudget) {
+		if (heapBudget <= 0) {
+			throw new IllegalArgumentException("Heap budget must be positive: " + heapBudget);
+		}
+		this.heapBudget = heapBudget;
+		return this;
+	}
+
+	/**
+	 * Creates the destination file and copies the data.
+	 *
+	 * @return
+	 * @throws IOException
+	 * @throws InvalidRangeException
+	 */
+	public CopyStats copy() throws IOException, InvalidRangeException {
+		long start = System.nanoTime();
+		long bytes = 0;
+		int slabs = 0;
+
+		try (NetcdfFile source = NetcdfFiles.open(sourcePath)) {
+			NetcdfFormatWriter.Builder builder = NetcdfFormatWriter.createNewNetcdf3(destinationPath);
+
+			for (Attribute attribute : source.getRootGroup().attributes()) {
+				builder.addAttribute(attribute);
+			}
+
+			Map<String, Dimension> mapDims = new HashMap<>();
+			List<Long> variableBytes = new ArrayList<>();
+
+			for (String name : variables) {
+				Variable variable = find(source, name);
+				builder.addVariable(name, variable.getDataType(), dimensions(builder, mapDims, variable, false))
+						.addAttributes(variable.attributes());
+				variableBytes.add(LargeFile.bytes(variable.getDataType(), variable.getShape()));
+			}
+
+			for (String name : transposed) {
+				Variable variable = find(source, name);
+
+				if (variable.getRank() != 3) {
+					throw new IllegalArgumentException("Variable " + name + " is not (time, y, x)");
+				}
+
+				builder.addVariable(name, variable.getDataType(), dimensions(builder, mapDims, variable, true))
+						.addAttributes(variable.attributes());
+				variableBytes.add(LargeFile.bytes(variable.getDataType(), variable.getShape()));
+			}
+
+			LargeFile.setFormat(builder, destinationPath,
+					variableBytes.stream().mapToLong(Long::longValue).toArray());
+
+			try (NetcdfFormatWriter writer = builder.build()) {
+				for (String name : variables) {
+					Array data = source.findVariable(name).read();
+					writer.write(writer.findVariable(name), data);
+
+					bytes += data.getSize() * source.findVariable(name).getElementSize();
+					slabs++;
+				}
+
+				for (String name : transposed) {
+					long[] written = transpose(source.findVariable(name), writer.findVariable(name), writer);
+					bytes += written[0];
+					slabs += written[1];
+				}
+			}
+		}
+
+		return new CopyStats(variables.size() + transposed.size(), slabs, bytes, System.nanoTime() - start);
+	}
+
+	/**
+	 * Transposes a variable tile by tile.
+	 *
+	 * @param source
+	 * @param destination
+	 * @param writer
+	 * @return bytes and slabs read.
+	 * @throws IOException
+	 * @throws InvalidRangeException
+	 */
+	private long[] transpose(Variable source, Variable destination, NetcdfFormatWriter writer)
+			throws IOException, InvalidRangeException {
+
+		int[] shape = source.getShape();
+		int nt = shape[0];
+		int ny = shape[1];
+		int nx = shape[2];
+		long elementSize = source.getElementSize();
+
+		// Tile: whole rows when a row of series fits in half the budget, else part of
+		// a row.
+		long seriesBytes = nt * elementSize;
+		long cellsPerTile = Math.max(1, heapBudget / 2 / seriesBytes);
+
+		int tileColumns = (int) Math.min(nx, cellsPerTile);
+		int tileRows = (int) Math.max(1, Math.min(ny, cellsPerTile / nx));
+
+		long bytes = 0;
+		int slabs = 0;
+
+		for (int y0 = 0; y0 < ny; y0 += tileRows) {
+			for (int x0 = 0; x0 < nx; x0 += tileColumns) {
+				int ty = Math.min(tileRows, ny - y0);
+				int tx = Math.min(tileColumns, nx - x0);
+
+				Array tile = Array.factory(source.getDataType(), new int[] { ty, tx, nt });
+
+				int steps = (int) Math.max(1, Math.min(nt, heapBudget / 2 / (ty * (long) tx * elementSize)));
+
+				for (int t0 = 0; t0 < nt; t0 += steps) {
+					int ts = Math.min(steps, nt - t0);
+					Array slab = source.read(new int[] { t0, y0, x0 }, new int[] { ts, ty, tx });
+
+					transposeSlab(slab, tile, t0, ts, ty, tx, nt);
+
+					bytes += slab.getSize() * elementSize;
+					slabs++;
+				}
+
+				writer.write(destination, new int[] { y0, x0, 0 }, tile);
+			}
+		}
+
+		return new long[] { bytes, slabs };
+	}
+
+	/**
+	 * Moves a slab (ts, ty, tx) into a tile (ty, tx, nt) from the step t0.
+	 */
+	static void transposeSlab(Array slab, Array tile, int t0, int ts, int ty, int tx, int nt) {
+		Object src = slab.getStorage();
+		Object dst = tile.getStorage();
+
+		if (src instanceof float[] && dst instanceof float[]) {
+			float[] from = (float[]) src;
+			float[] to = (float[]) dst;
+
+			int i = 0;
+			for (int t = 0; t < ts; t++) {
+				for (int cell = 0; cell < ty * tx; cell++) {
+					to[cell * nt + t0 + t] = from[i++];
+				}
+			}
+			return;
+		}
+
+		int i = 0;
+		for (int t = 0; t < ts; t++) {
+			for (int cell = 0; cell < ty * tx; cell++) {
+				tile.setDouble(cell * nt + t0 + t, slab.getDouble(i++));
+			}
+		}
+	}
+
+	private List<Dimension> dimensions(NetcdfFormatWriter.Builder builder, Map<String, Dimension> mapDims,
+			Variable variable, boolean timeLast) {
+		List<Dimension> dimensions = new ArrayList<Dimension>();
+
+		for (Dimension sourceDim : variable.getDimensions()) {
+			Dimension dimension = mapDims.get(sourceDim.getShortName());
+			if (dimension == null) {
+				dimension = builder.addDimension(sourceDim.getShortName(), sourceDim.getLength());
+				mapDims.put(sourceDim.getShortName(), dimension);
+			}
+			dimensions.add(dimension);
+		}
+
+		if (timeLast) {
+			// (time, y, x) -> (y, x, time)
+			dimensions.add(dimensions.remove(0));
+		}
+
+		return dimensions;
+	}
+
+	private Variable find(NetcdfFile source, String name) {
+		Variable variable = source.findVariable(name);
+		if (variable == null) {
+			throw new IllegalArgumentException("Variable " + name + " not found in " + sourcePath);
+		}
+		return variable;
+	}
+}
@@ -0,0 +1,331 @@
+package tech.geoskop.main;
+
+import java.util.Locale;
+
+/**
+ * CF units and calendar of a time variable, "minutes since 1850-01-01" and
+ * "standard" for instance, parsed once.
+ *
+ * Dates are handled as day numbers of the calendar and converted with integer
+ * arithmetic only, so decoding a value allocates nothing and does not depend
+ * on the default time zone: times are UTC.
+ *
+ * Calendars: standard, gregorian and proleptic_gregorian (all three as
+ * proleptic Gregorian, which only differs from standard before 1582-10-15),
+ * noleap and 365_day, all_leap and 366_day, 360_day.
+ *
+ * See https://cfconventions.org/Data/cf-conventions/cf-conventions-1.10/cf-conventions.html#time-coordinate
+ *
+ */
+public class TimeUnits {
+
+	public static final String STANDARD = "standard";
+	public static final String GREGORIAN = "gregorian";
+	public static final String PROLEPTIC_GREGORIAN = "proleptic_gregorian";
+	public static final String NOLEAP = "noleap";
+	public static final String DAYS_365 = "365_day";
+	public static final String ALL_LEAP = "all_leap";
+	public static final String DAYS_366 = "366_day";
+	public static final String DAYS_360 = "360_day";
+	public static final String CALENDAR = "calendar";
+
+	public static final long SECONDS_PER_DAY = 86400L;
+
+	private static final int[] DAYS_BEFORE_MONTH = { 0, 31, 59, 90, 120, 151, 181, 212, 243, 273, 304, 334, 365 };
+	private static final int[] DAYS_BEFORE_MONTH_LEAP = { 0, 31, 60, 91, 121, 152, 182, 213, 244, 274, 305, 335,
+			366 };
+
+	private enum Kind {
+		GREGORIAN, NOLEAP, ALL_LEAP, DAYS_360
+	}
+
+	private final String units;
+	private final String calendar;
+	private final Kind kind;
+	private final double unitSeconds;
+	private final long originDay;
+	private final int originSecond;
+
+	private TimeUnits(String units, String calendar, Kind kind, double unitSeconds, long originDay,
+			int originSecond) {
+		this.units = units;
+		this.calendar = calendar;
+		this.kind = kind;
+		this.unitSeconds = unitSeconds;
+		this.originDay = originDay;
+		this.originSecond = originSecond;
+	}
+
+	/**
+	 * Parses "unit since yyyy-MM-dd[ HH:mm[:ss]]". The time zone, if any, is
+	 * ignored.
+	 *
+	 * @param units
+	 * @param calendar null is standard.
+	 * @return
+	 */
+	public static TimeUnits parse(String units, String calendar) {
+		String[] parts = units.trim().split("\\s+since\\s+");
+
+		if (parts.length != 2) {
+			throw new IllegalArgumentException("Not a time unit: " + units);
+		}
+
+		double unitSeconds = unitSeconds(parts[0].toLowerCase(Locale.ROOT));
+		Kind kind = kindOf(calendar);
+
+		// 1850-01-01, 1850-1-1 00:00:00, 1850-01-01T00:00:00Z
+		String[] dateTime = parts[1].trim().split("[ T]+");
+		String[] date = dateTime[0].split("-");
+
+		if (date.length != 3) {
+			throw new IllegalArgumentException("Not a reference date: " + units);
+		}
+
+		int year = Integer.parseInt(date[0]);
+		int month = Integer.parseInt(date[1]);
+		int day = Integer.parseInt(date[2]);
+
+		int second = 0;
+		if (dateTime.length > 1 && dateTime[1].indexOf(':') > 0) {
+			String[] time = dateTime[1].replace("Z", "").split(":");
+			second = Integer.parseInt(time[0]) * 3600 + Integer.parseInt(time[1]) * 60;
+			if (time.length > 2) {
+				second += (int) Double.parseDouble(time[2]);
+			}
+		}
+
+		long originDay = dayNumber(kind, year, month, day);
+
+		return new TimeUnits(units, calendar == null ? STANDARD : calendar, kind, unitSeconds, originDay, second);
+	}
+
+	private static double unitSeconds(String unit) {
+		switch (unit) {
+		case "seconds":
+		case "second":
+		case "secs":
+		case "sec":
+		case "s":
+			return 1;
+		case "minutes":
+		case "minute":
+		case "mins":
+		case "min":
+			return 60;
+		case "hours":
+		case "hour":
+		case "hrs":
+		case "hr":
+		case "h":
+			return 3600;
+		case "days":
+		case "day":
+		case "d":
+			return SECONDS_PER_DAY;
+		default:
+			throw new IllegalArgumentException("Unsupported time unit " + unit);
+		}
+	}
+
+	private static Kind kindOf(String calendar) {
+		if (calendar == null) {
+			return Kind.GREGORIAN;
+		}
+
+		switch (calendar.toLowerCase(Locale.ROOT)) {
+		case STANDARD:
+		case GREGORIAN:
+		case PROLEPTIC_GREGORIAN:
+			return Kind.GREGORIAN;
+		case NOLEAP:
+		case DAYS_365:
+			return Kind.NOLEAP;
+		case ALL_LEAP:
+		case DAYS_366:
+			return Kind.ALL_LEAP;
+		case DAYS_360:
+			return Kind.DAYS_360;
+		default:
+			throw new IllegalArgumentException("Unsupported calendar " + calendar);
+		}
+	}
+
+	/**
+	 * Seconds between the start of the origin day and an offset.
+	 *
+	 * @param offset in units.
+	 * @return
+	 */
+	public long secondsFromOriginDay(double offset) {
+		return originSecond + Math.round(offset * unitSeconds);
+	}
+
+	/**
+	 * Day number of the day of an offset.
+	 *
+	 * @param offset
+	 * @return
+	 */
+	public long dayOf(double offset) {
+		return originDay + Math.floorDiv(secondsFromOriginDay(offset), SECONDS_PER_DAY);
+	}
+
+	/**
+	 * Second of the day of an offset.
+	 *
+	 * @param offset
+	 * @return
+	 */
+	public int secondOfDayOf(double offset) {
+		return (int) Math.floorMod(secondsFromOriginDay(offset), SECONDS_PER_DAY);
+	}
+
+	/**
+	 * Offset, in units, of the start of a day.
+	 *
+	 * @param year
+	 * @param month
+	 * @param day
+	 * @return
+	 */
+	public double offsetOf(int year, int month, int day) {
+		long seconds = (dayNumber(kind, year, month, day) - originDay) * SECONDS_PER_DAY - originSecond;
+		return seconds / unitSeconds;
+	}
+
+	/**
+	 * Day number of a date in this calendar. For the Gregorian calendars it is
+	 * the epoch day (days since 1970-01-01).
+	 *
+	 * @param year
+	 * @param month
+	 * @param day
+	 * @return
+	 */
+	public long dayNumber(int year, int month, int day) {
+		return dayNumber(kind, year, month, day);
+	}
+
+	/**
+	 * Date of a day number, packed as yyyyMMdd.
+	 *
+	 * @param dayNumber
+	 * @return
+	 */
+	public int dateOf(long dayNumber) {
+		switch (kind) {
+		case NOLEAP:
+			return dateOfFixedYear(dayNumber, 365, DAYS_BEFORE_MONTH);
+		case ALL_LEAP:
+			return dateOfFixedYear(dayNumber, 366, DAYS_BEFORE_MONTH_LEAP);
+		case DAYS_360: {
+			long year = Math.floorDiv(dayNumber, 360L);
+			int dayOfYear = (int) (dayNumber - year * 360);
+			return pack(year, dayOfYear / 30 + 1, dayOfYear % 30 + 1);
+		}
+		default:
+			return gregorianDateOf(dayNumber);
+		}
+	}
+
+	/**
+	 * Whether day numbers are epoch days.
+	 *
+	 * @return
+	 */
+	public boolean isGregorian() {
+		return kind == Kind.GREGORIAN;
+	}
+
+	public String getUnits() {
+		return units;
+	}
+
+	public String getCalendar() {
+		return calendar;
+	}
+
+	public double getUnitSeconds() {
+		return unitSeconds;
+	}
+
+	public static int year(int date) {
+		return date / 10000;
+	}
+
+	public static int month(int date) {
+		return (date / 100) % 100;
+	}
+
+	public static int day(int date) {
+		return date % 100;
+	}
+
+	private static int pack(long year, int month, int day) {
+		return (int) year * 10000 + month * 100 + day;
+	}
+
+	private static long dayNumber(Kind kind, int year, int month, int day) {
+		switch (kind) {
+		case NOLEAP:
+			return year * 365L + DAYS_BEFORE_MONTH[month - 1] + day - 1;
+		case ALL_LEAP:
+			return year * 366L + DAYS_BEFORE_MONTH_LEAP[month - 1] + day - 1;
+		case DAYS_360:
+			return year * 360L + (month - 1) * 30 + day - 1;
+		default:
+			return gregorianDayNumber(year, month, day);
+		}
+	}
+
+	private static int dateOfFixedYear(long dayNumber, int daysPerYear, int[] daysBeforeMonth) {
+		long year = Math.floorDiv(dayNumber, (long) daysPerYear);
+		int dayOfYear = (int) (dayNumber - year * daysPerYear);
+
+		int month = 1;
+		while (dayOfYear >= daysBeforeMonth[month]) {
+			month++;
+		}
+
+		return pack(year, month, dayOfYear - daysBeforeMonth[month - 1] + 1);
+	}
+
+	/**
+	 * Days since 1970-01-01 of a proleptic Gregorian date (H. Hinnant,
+	 * days_from_civil).
+	 */
+	private static long gregorianDayNumber(int year, int month, int day) {
+		long y = month <= 2 ? year - 1 : year;
+		long era = Math.floorDiv(y, 400L);
+		long yearOfEra = y - era * 400;
+		long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+	/**
+	 * Proleptic Gregorian date of days since 1970-01-01 (H. Hinnant,
+	 * civil_from_days).
+	 */
+	private static int gregorianDateOf(long dayNumber) {
+		long z = dayNumber + 719468;
+		long era = Math.floorDiv(z, 146097L);
+		long dayOfEra = z - era * 146097;
+		long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		long mp = (5 * dayOfYear + 2) / 153;
+
+		int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+		int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+		long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+		return pack(year, month, day);
+	}
+
+	@Override
+	public String toString() {
+		return "TimeUnits [units=" + units + ", calendar=" + calendar + "]";
+	}
+}
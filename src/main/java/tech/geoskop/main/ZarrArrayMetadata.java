@@ -0,0 +1,286 @@
+package tech.geoskop.main;
+
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import ucar.ma2.DataType;
+
+/**
+ * Contents of the .zarray file of a Zarr v2 array.
+ *
+ * See https://zarr.readthedocs.io/en/stable/spec/v2.html
+ *
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ZarrArrayMetadata {
+
+	public static final int ZARR_FORMAT = 2;
+
+	@JsonProperty("zarr_format")
+	private int zarrFormat = ZARR_FORMAT;
+
+	private int[] shape;
+
+	private int[] chunks;
+
+	private String dtype;
+
+	// {"id": "zlib", "level": 5} or null for raw chunks.
+	private Map<String, Object> compressor;
+
+	// A number, "NaN", "Infinity", "-Infinity" or null.
+	@JsonProperty("fill_value")
+	private Object fillValue;
+
+	private String order = "C";
+
+	private Object filters;
+
+	@JsonProperty("dimension_separator")
+	private String dimensionSeparator = ".";
+
+	public ZarrArrayMetadata() {
+	}
+
+	public ZarrArrayMetadata(int[] shape, int[] chunks, DataType dataType, Map<String, Object> compressor,
+			Object fillValue) {
+		if (shape.length != chunks.length) {
+			throw new IllegalArgumentException(
+					"Chunks " + Arrays.toString(chunks) + " do not match shape " + Arrays.toString(shape));
+		}
+		this.shape = shape;
+		this.chunks = chunks;
+		this.dtype = dtypeOf(dataType);
+		this.compressor = compressor;
+		this.fillValue = fillValue;
+	}
+
+	public int getZarrFormat() {
+		return zarrFormat;
+	}
+
+	public void setZarrFormat(int zarrFormat) {
+		this.zarrFormat = zarrFormat;
+	}
+
+	public int[] getShape() {
+		return shape;
+	}
+
+	public void setShape(int[] shape) {
+		this.shape = shape;
+	}
+
+	public int[] getChunks() {
+		return chunks;
+	}
+
+	public void setChunks(int[] chunks) {
+		this.chunks = chunks;
+	}
+
+	public String getDtype() {
+		return dtype;
+	}
+
+	public void setDtype(String dtype) {
+		this.dtype = dtype;
+	}
+
+	public Map<String, Object> getCompressor() {
+		return compressor;
+	}
+
+	public void setCompressor(Map<String, Object> compressor) {
+		this.compressor = compressor;
+	}
+
+	public Object getFillValue() {
+		return fillValue;
+	}
+
+	public void setFillValue(Object fillValue) {
+		this.fillValue = fillValue;
+	}
+
+	public String getOrder() {
+		return order;
+	}
+
+	public void setOrder(String order) {
+		this.order = order;
+	}
+
+	public Object getFilters() {
+		return filters;
+	}
+
+	public void setFilters(Object filters) {
+		this.filters = filters;
+	}
+
+	public String getDimensionSeparator() {
+		return dimensionSeparator;
+	}
+
+	public void setDimensionSeparator(String dimensionSeparator) {
+		this.dimensionSeparator = dimensionSeparator;
+	}
+
+	/**
+	 * The netcdf type of the dtype.
+	 *
+	 * @return
+	 */
+	@JsonIgnore
+	public DataType getDataType() {
+		switch (dtype.substring(1)) {
+		case "f4":
+			return DataType.FLOAT;
+		case "f8":
+			return DataType.DOUBLE;
+		case "i1":
+		case "u1":
+			return DataType.BYTE;
+		case "i2":
+			return DataType.SHORT;
+		case "i4":
+			return DataType.INT;
+		case "i8":
+			return DataType.LONG;
+		case "S1":
+			return DataType.CHAR;
+		default:
+			throw new IllegalArgumentException("Unsupported dtype " + dtype);
+		}
+	}
+
+	@JsonIgnore
+	public ByteOrder getByteOrder() {
+		return dtype.charAt(0) == '>' ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+	}
+
+	@JsonIgnore
+	public int getElementSize() {
+		return getDataType().getSize();
+	}
+
+	/**
+	 * Number of elements of a chunk (edge chunks are padded to this size).
+	 *
+	 * @return
+	 */
+	@JsonIgnore
+	public int getChunkLength() {
+		int length = 1;
+		for (int chunk : chunks) {
+			length *= chunk;
+		}
+		return length;
+	}
+
+	/**
+	 * Number of chunks along each dimension.
+	 *
+	 * @return
+	 */
+	@JsonIgnore
+	public int[] getChunkGrid() {
+		int[] grid = new int[shape.length];
+		for (int d = 0; d < shape.length; d++) {
+			grid[d] = (shape[d] + chunks[d] - 1) / chunks[d];
+		}
+		return grid;
+	}
+
+	/**
+	 * The fill value as a double, NaN when there is none.
+	 *
+	 * @return
+	 */
+	@JsonIgnore
+	public double getFillDouble() {
+		if (fillValue instanceof Number) {
+			return ((Number) fillValue).doubleValue();
+		}
+		if ("Infinity".equals(fillValue)) {
+			return Double.POSITIVE_INFINITY;
+		}
+		if ("-Infinity".equals(fillValue)) {
+			return Double.NEGATIVE_INFINITY;
+		}
+		return Double.NaN;
+	}
+
+	/**
+	 * Little-endian dtype of a netcdf type.
+	 *
+	 * @param dataType
+	 * @return
+	 */
+	public static String dtypeOf(DataType dataType) {
+		switch (dataType) {
+		case FLOAT:
+			return "<f4";
+		case DOUBLE:
+			return "<f8";
+		case BYTE:
+			return "|i1";
+		case SHORT:
+			return "<i2";
+		case INT:
+			return "<i4";
+		case LONG:
+			return "<i8";
+		case CHAR:
+			return "|S1";
+		default:
+			throw new IllegalArgumentException("Unsupported data type " + dataType);
+		}
+	}
+
+	/**
+	 * The JSON value of a fill value, NaN and infinities as strings.
+	 *
+	 * @param fill
+	 * @return
+	 */
+	public static Object fillValueOf(double fill) {
+		if (Double.isNaN(fill)) {
+			return "NaN";
+		}
+		if (Double.isInfinite(fill)) {
+			return fill > 0 ? "Infinity" : "-Infinity";
+		}
+		return fill;
+	}
+
+	/**
+	 * A compressor of numcodecs (zlib or gzip), null for none.
+	 *
+	 * @param id
+	 * @param level
+	 * @return
+	 */
+	public static Map<String, Object> compressorOf(String id, int level) {
+		if (id == null) {
+			return null;
+		}
+		Map<String, Object> compressor = new LinkedHashMap<>();
+		compressor.put("id", id);
+		compressor.put("level", level);
+		return compressor;
+	}
+
+	@Override
+	public String toString() {
+		return "ZarrArrayMetadata [shape=" + Arrays.toString(shape) + ", chunks=" + Arrays.toString(chunks)
+				+ ", dtype=" + dtype + ", compressor=" + compressor + ", fillValue=" + fillValue + "]";
+	}
+}
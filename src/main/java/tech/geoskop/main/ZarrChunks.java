@@ -0,0 +1,290 @@
+package tech.geoskop.main;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import ucar.ma2.DataType;
+
+/**
+ * Conversions between the primitive arrays of a chunk and its raw bytes.
+ *
+ * A chunk is held as the java array of its type (float[], int[], ...) in C
+ * order, which is also the storage of a ucar Array, so rows can be moved with
+ * System.arraycopy.
+ *
+ */
+public class ZarrChunks {
+
+	private ZarrChunks() {
+	}
+
+	/**
+	 * A new primitive array of a type.
+	 *
+	 * @param dataType
+	 * @param length
+	 * @return
+	 */
+	public static Object newArray(DataType dataType, int length) {
+		switch (dataType) {
+		case FLOAT:
+			return new float[length];
+		case DOUBLE:
+			return new double[length];
+		case BYTE:
+			return new byte[length];
+		case SHORT:
+			return new short[length];
+		case INT:
+			return new int[length];
+		case LONG:
+			return new long[length];
+		case CHAR:
+			return new char[length];
+		default:
+			throw new IllegalArgumentException("Unsupported data type " + dataType);
+		}
+	}
+
+	/**
+	 * Fills a primitive array. Integer types take 0 when the fill value is NaN.
+	 *
+	 * @param array
+	 * @param fill
+	 */
+	public static void fill(Object array, double fill) {
+		long integral = Double.isNaN(fill) ? 0 : (long) fill;
+
+		if (array instanceof float[]) {
+			Arrays.fill((float[]) array, (float) fill);
+		} else if (array instanceof double[]) {
+			Arrays.fill((double[]) array, fill);
+		} else if (array instanceof byte[]) {
+			Arrays.fill((byte[]) array, (byte) integral);
+		} else if (array instanceof short[]) {
+			Arrays.fill((short[]) array, (short) integral);
+		} else if (array instanceof int[]) {
+			Arrays.fill((int[]) array, (int) integral);
+		} else if (array instanceof long[]) {
+			Arrays.fill((long[]) array, integral);
+		} else if (array instanceof char[]) {
+			Arrays.fill((char[]) array, (char) integral);
+		} else {
+			throw new IllegalArgumentException("Unsupported array " + array.getClass());
+		}
+	}
+
+	/**
+	 * An element of a primitive array as a double.
+	 *
+	 * @param array
+	 * @param i
+	 * @return
+	 */
+	public static double getDouble(Object array, int i) {
+		if (array instanceof float[]) {
+			return ((float[]) array)[i];
+		} else if (array instanceof double[]) {
+			return ((double[]) array)[i];
+		} else if (array instanceof int[]) {
+			return ((int[]) array)[i];
+		} else if (array instanceof short[]) {
+			return ((short[]) array)[i];
+		} else if (array instanceof long[]) {
+			return ((long[]) array)[i];
+		} else if (array instanceof byte[]) {
+			return ((byte[]) array)[i];
+		} else if (array instanceof char[]) {
+			return ((char[]) array)[i];
+		}
+		throw new IllegalArgumentException("Unsupported array " + array.getClass());
+	}
+
+	/**
+	 * Raw bytes of a primitive array in the given byte order.
+	 *
+	 * @param array
+	 * @param order
+	 * @return
+	 */
+	public static byte[] toBytes(Object array, ByteOrder order) {
+		if (array instanceof byte[]) {
+			return ((byte[]) array).clone();
+		}
+
+		if (array instanceof char[]) {
+			char[] chars = (char[]) array;
+			byte[] bytes = new byte[chars.length];
+			for (int i = 0; i < chars.length; i++) {
+				bytes[i] = (byte) chars[i];
+			}
+			return bytes;
+		}
+
+		int length = java.lang.reflect.Array.getLength(array);
+		ByteBuffer buffer;
+
+		if (array instanceof float[]) {
+			buffer = ByteBuffer.allocate(length * 4).order(order);
+			buffer.asFloatBuffer().put((float[]) array);
+		} else if (array instanceof double[]) {
+			buffer = ByteBuffer.allocate(length * 8).order(order);
+			buffer.asDoubleBuffer().put((double[]) array);
+		} else if (array instanceof short[]) {
+			buffer = ByteBuffer.allocate(length * 2).order(order);
+			buffer.asShortBuffer().put((short[]) array);
+		} else if (array instanceof int[]) {
+			buffer = ByteBuffer.allocate(length * 4).order(order);
+			buffer.asIntBuffer().put((int[]) array);
+		} else if (array instanceof long[]) {
+			buffer = ByteBuffer.allocate(length * 8).order(order);
+			buffer.asLongBuffer().put((long[]) array);
+		} else {
+			throw new IllegalArgumentException("Unsupported array " + array.getClass());
+		}
+
+		return buffer.array();
+	}
+
+	/**
+	 * Primitive array of a type from raw bytes in the given byte order.
+	 *
+	 * @param bytes
+	 * @param dataType
+	 * @param order
+	 * @return
+	 */
+	public static Object fromBytes(byte[] bytes, DataType dataType, ByteOrder order) {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes).order(order);
+		Object array = newArray(dataType, bytes.length / dataType.getSize());
+
+		switch (dataType) {
+		case FLOAT:
+			buffer.asFloatBuffer().get((float[]) array);
+			break;
+		case DOUBLE:
+			buffer.asDoubleBuffer().get((double[]) array);
+			break;
+		case BYTE:
+			System.arraycopy(bytes, 0, array, 0, bytes.length);
+			break;
+		case SHORT:
+			buffer.asShortBuffer().get((short[]) array);
+			break;
+		case INT:
+			buffer.asIntBuffer().get((int[]) array);
+			break;
+		case LONG:
+			buffer.asLongBuffer().get((long[]) array);
+			break;
+		case CHAR:
+			char[] chars = (char[]) array;
+			for (int i = 0; i < bytes.length; i++) {
+				chars[i] = (char) (bytes[i] & 0xFF);
+			}
+			break;
+		default:
+			throw new IllegalArgumentException("Unsupported data type " + dataType);
+		}
+
+		return array;
+	}
+
+	/**
+	 * Copies a box of elements between two C order arrays, one
+	 * System.arraycopy per row of the last dimension.
+	 *
+	 * @param src
+	 * @param srcShape
+	 * @param srcStart first element of the box in the source.
+	 * @param dst
+	 * @param dstShape
+	 * @param dstStart first element of the box in the destination.
+	 * @param count    elements of the box along each dimension.
+	 */
+	public static void copyBox(Object src, int[] srcShape, int[] srcStart, Object dst, int[] dstShape,
+			int[] dstStart, int[] count) {
+		int[] step = new int[count.length];
+		Arrays.fill(step, 1);
+		copyBox(src, srcShape, srcStart, step, dst, dstShape, dstStart, count);
+	}
+
+	/**
+	 * Copies a box of elements between two C order arrays, taking every step-th
+	 * element of the source along each dimension into consecutive elements of
+	 * the destination. With a step of 1 along the last dimension, one
+	 * System.arraycopy per row.
+	 *
+	 * @param src
+	 * @param srcShape
+	 * @param srcStart first element of the box in the source.
+	 * @param srcStep  step between the elements taken from the source.
+	 * @param dst
+	 * @param dstShape
+	 * @param dstStart first element of the box in the destination.
+	 * @param count    elements of the box along each dimension.
+	 */
+	public static void copyBox(Object src, int[] srcShape, int[] srcStart, int[] srcStep, Object dst,
+			int[] dstShape, int[] dstStart, int[] count) {
+		int rank = count.length;
+
+		if (rank == 0) {
+			System.arraycopy(src, 0, dst, 0, 1);
+			return;
+		}
+
+		int[] srcStrides = strides(srcShape);
+		int[] dstStrides = strides(dstShape);
+
+		int rows = 1;
+		for (int d = 0; d < rank - 1; d++) {
+			rows *= count[d];
+		}
+
+		int rowLength = count[rank - 1];
+		int rowStep = srcStep[rank - 1];
+		int[] counter = new int[rank];
+
+		for (int r = 0; r < rows; r++) {
+			int srcPos = srcStart[rank - 1];
+			int dstPos = dstStart[rank - 1];
+
+			for (int d = 0; d < rank - 1; d++) {
+				srcPos += (srcStart[d] + counter[d] * srcStep[d]) * srcStrides[d];
+				dstPos += (dstStart[d] + counter[d]) * dstStrides[d];
+			}
+
+			if (rowStep == 1) {
+				System.arraycopy(src, srcPos, dst, dstPos, rowLength);
+			} else {
+				for (int k = 0; k < rowLength; k++) {
+					System.arraycopy(src, srcPos + k * rowStep, dst, dstPos + k, 1);
+				}
+			}
+
+			for (int d = rank - 2; d >= 0; d--) {
+				if (++counter[d] < count[d]) {
+					break;
+				}
+				counter[d] = 0;
+			}
+		}
+	}
+
+	/**
+	 * Strides of a C order array.
+	 *
+	 * @param shape
+	 * @return
+	 */
+	public static int[] strides(int[] shape) {
+		int[] strides = new int[shape.length];
+		int stride = 1;
+		for (int d = shape.length - 1; d >= 0; d--) {
+			strides[d] = stride;
+			stride *= shape[d];
+		}
+		return strides;
+	}
+}
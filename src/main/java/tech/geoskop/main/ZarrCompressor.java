@@ -0,0 +1,143 @@
+package tech.geoskop.main;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Codecs of the chunks of a Zarr array: the numcodecs zlib and gzip
+ * compressors, or none.
+ *
+ * Blosc is not supported, it needs a native library.
+ *
+ */
+public class ZarrCompressor {
+
+	public static final String ZLIB = "zlib";
+	public static final String GZIP = "gzip";
+	public static final int DEFAULT_LEVEL = 5;
+
+	private ZarrCompressor() {
+	}
+
+	/**
+	 * Compresses a raw chunk.
+	 *
+	 * @param compressor
+	 * @param raw
+	 * @return
+	 * @throws IOException
+	 */
+	public static byte[] compress(Map<String, Object> compressor, byte[] raw) throws IOException {
+		if (compressor == null) {
+			return raw;
+		}
+
+		String id = String.valueOf(compressor.get("id"));
+		int level = level(compressor);
+
+		if (ZLIB.equals(id)) {
+			Deflater deflater = new Deflater(level);
+			try {
+				deflater.setInput(raw);
+				deflater.finish();
+
+				ByteArrayOutputStream bos = new ByteArrayOutputStream(raw.length / 2 + 64);
+				byte[] buffer = new byte[64 * 1024];
+				while (!deflater.finished()) {
+					int count = deflater.deflate(buffer);
+					bos.write(buffer, 0, count);
+				}
+				return bos.toByteArray();
+			} finally {
+				deflater.end();
+			}
+		}
+
+		if (GZIP.equals(id)) {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream(raw.length / 2 + 64);
+			try (GZIPOutputStream gzip = new GZIPOutputStream(bos) {
+				{
+					def.setLevel(level);
+				}
+			}) {
+				gzip.write(raw);
+			}
+			return bos.toByteArray();
+		}
+
+		throw new IllegalArgumentException("Unsupported compressor " + id);
+	}
+
+	/**
+	 * Decompresses a chunk into a raw chunk of the given length.
+	 *
+	 * @param compressor
+	 * @param encoded
+	 * @param rawLength
+	 * @return
+	 * @throws IOException
+	 */
+	public static byte[] decompress(Map<String, Object> compressor, byte[] encoded, int rawLength)
+			throws IOException {
+		if (compressor == null) {
+			return encoded;
+		}
+
+		String id = String.valueOf(compressor.get("id"));
+		byte[] raw = new byte[rawLength];
+
+		if (ZLIB.equals(id)) {
+			Inflater inflater = new Inflater();
+			try {
+				inflater.setInput(encoded);
+				int offSet = 0;
+				while (offSet < rawLength && !inflater.finished()) {
+					int count = inflater.inflate(raw, offSet, rawLength - offSet);
+					if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+						break;
+					}
+					offSet += count;
+				}
+				checkLength(offSet, rawLength);
+				return raw;
+			} catch (DataFormatException e) {
+				throw new IOException("Corrupted zlib chunk", e);
+			} finally {
+				inflater.end();
+			}
+		}
+
+		if (GZIP.equals(id)) {
+			try (InputStream gzip = new GZIPInputStream(new ByteArrayInputStream(encoded))) {
+				int offSet = 0;
+				int count;
+				while (offSet < rawLength && (count = gzip.read(raw, offSet, rawLength - offSet)) > 0) {
+					offSet += count;
+				}
+				checkLength(offSet, rawLength);
+				return raw;
+			}
+		}
+
+		throw new IllegalArgumentException("Unsupported compressor " + id);
+	}
+
+	private static int level(Map<String, Object> compressor) {
+		Object level = compressor.get("level");
+		return level instanceof Number ? ((Number) level).intValue() : DEFAULT_LEVEL;
+	}
+
+	private static void checkLength(int length, int expected) throws IOException {
+		if (length != expected) {
+			throw new IOException("Chunk of " + length + " bytes, expected " + expected);
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package tech.geoskop.main;
+
+import static java.lang.System.out;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Range;
+
+/**
+ * Extraction of the time series of a cell or a small box of a Zarr store as
+ * CSV: [Zarr] >> Client request >> [csv].
+ *
+ * The request is served one band of time chunks at a time: only the chunks
+ * that overlap the cells and dates requested are read, decompressed in
+ * parallel, and their rows (date, lat, lon, value) written to the stream before
+ * the next band is read. A strided box reads only the chunks with its cells.
+ * The pool decompressing the chunks is kept from request to request until the
+ * extractor is closed.
+ *
+ * Usage: ZarrCsvExtractor store variable yIni yEnd xIni xEnd yyyy-MM-dd
+ * yyyy-MM-dd
+ *
+ */
+public class ZarrCsvExtractor implements Closeable {
+
+	public static final int DEFAULT_DECIMALS = 4;
+	public static final String HEADER = "date,lat,lon,value";
+
+	private final ZarrReader reader;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int decimals = DEFAULT_DECIMALS;
+
+	private ExecutorService pool;
+
+	public ZarrCsvExtractor(String storePath) {
+		this(new ZarrReader(storePath));
+	}
+
+	public ZarrCsvExtractor(ZarrReader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * Threads decompressing the chunks; a pool already started is replaced.
+	 */
+	public synchronized ZarrCsvExtractor setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Threads must be at least 1: " + threads);
+		}
+		this.threads = threads;
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+		return this;
+	}
+
+	public ZarrCsvExtractor setDecimals(int decimals) {
+		if (decimals < 0 || decimals > 10) {
+			throw new IllegalArgumentException("Decimals must be between 0 and 10: " + decimals);
+		}
+		this.decimals = decimals;
+		return this;
+	}
+
+	/**
+	 * Writes the rows of a variable (time, y, x) within a box of cells and a range
+	 * of dates. The stream is flushed but not closed.
+	 *
+	 * @param variable
+	 * @param yRange   Fortran 0 based inclusive upper bound, with its stride.
+	 * @param xRange   Fortran 0 based inclusive upper bound, with its stride.
+	 * @param from     first date, inclusive.
+	 * @param to       last date, inclusive.
+	 * @param output
+	 * @return rows written.
+	 * @throws IOException
+	 */
+	public long extract(String variable, Range yRange, Range xRange, LocalDate from, LocalDate to,
+			OutputStream output) throws IOException {
+
+		ZarrArrayMetadata metadata = reader.getMetadata(variable);
+		if (metadata.getShape().length != 3) {
+			throw new IllegalArgumentException("Variable " + variable + " is not (time, y, x)");
+		}
+
+		int y0 = yRange.first();
+		int x0 = xRange.first();
+		int ny = yRange.length();
+		int nx = xRange.length();
+		int sy = yRange.stride();
+		int sx = xRange.stride();
+
+		// Time axis, decoded once.
+		Map<String, Object> timeAttributes = reader.getAttributes(NetCDFTool.TIME);
+		Object calendar = timeAttributes.get(TimeUnits.CALENDAR);
+		TimeAxis axis = TimeAxis.decode(reader.read(NetCDFTool.TIME),
+				String.valueOf(timeAttributes.get(NetCDFTool.UNITS)),
+				calendar == null ? TimeUnits.STANDARD : calendar.toString());
+
+		int tFirst = axis.indexOf(from.getYear(), from.getMonthValue(), from.getDayOfMonth());
+		LocalDate after = to.plusDays(1);
+		int tEnd = axis.indexOf(after.getYear(), after.getMonthValue(), after.getDayOfMonth());
+
+		AsciiWriter writer = new AsciiWriter(output);
+		writer.append(HEADER).newLine();
+
+		long rows = 0;
+
+		if (tFirst >= tEnd) {
+			writer.flush();
+			return rows;
+		}
+
+		ExecutorService pool = pool();
+
+		Object lat = reader.readBox(NetCDFTool.LATITUDE, new int[] { y0, x0 }, new int[] { ny, nx },
+				new int[] { sy, sx }, pool);
+		Object lon = reader.readBox(NetCDFTool.LONGITUDE, new int[] { y0, x0 }, new int[] { ny, nx },
+				new int[] { sy, sx }, pool);
+
+		int chunkTime = metadata.getChunks()[0];
+
+		for (int t = tFirst; t < tEnd;) {
+			// The band ends at the end of the time chunk of t.
+			int bandEnd = Math.min(tEnd, (t / chunkTime + 1) * chunkTime);
+			int steps = bandEnd - t;
+
+			Object band = reader.readBox(variable, new int[] { t, y0, x0 }, new int[] { steps, ny, nx },
+					new int[] { 1, sy, sx }, pool);
+
+			int i = 0;
+			for (int step = 0; step < steps; step++) {
+				int date = axis.getDate(t + step);
+
+				for (int cell = 0; cell < ny * nx; cell++) {
+					writer.appendDate(TimeUnits.year(date), TimeUnits.month(date), TimeUnits.day(date))
+							.append(',');
+					writer.append(ZarrChunks.getDouble(lat, cell), decimals).append(',');
+					writer.append(ZarrChunks.getDouble(lon, cell), decimals).append(',');
+					writer.append(ZarrChunks.getDouble(band, i++), decimals).newLine();
+					rows++;
+				}
+			}
+
+			t = bandEnd;
+		}
+
+		writer.flush();
+		return rows;
+	}
+
+	private synchronized ExecutorService pool() {
+		if (pool == null) {
+			pool = Executors.newFixedThreadPool(threads, runnable -> {
+				Thread thread = new Thread(runnable, "zarr-csv");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return pool;
+	}
+
+	@Override
+	public synchronized void close() {
+		if (pool != null) {
+			pool.shutdownNow();
+			pool = null;
+		}
+	}
+
+	public static void main(String[] args) throws IOException, InvalidRangeException {
+
+		// src/main/resources/testmean.zarr tas 10 12 20 22 2030-01-01 2030-12-31
+		try (ZarrCsvExtractor extractor = new ZarrCsvExtractor(args[0])) {
+			Range yRange = new Range(Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+			Range xRange = new Range(Integer.parseInt(args[4]), Integer.parseInt(args[5]));
+
+			extractor.extract(args[1], yRange, xRange, LocalDate.parse(args[6]), LocalDate.parse(args[7]), out);
+		}
+	}
+}
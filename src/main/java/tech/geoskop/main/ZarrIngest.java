@@ -0,0 +1,443 @@
+package tech.geoskop.main;
+
+import static java.lang.System.out;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.Attribute;
+import ucar.nc2.Dimension;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Variable;
+
+/**
+ * Ingest of a netcdf file into a Zarr v2 store: [netCDF] >> Ingest >> [Zarr].
+ *
+ * Each variable is read in slabs along its first dimension. A slab spans a
+ * whole number of chunks along that dimension, so every chunk is complete in
+ * one slab. The chunks of a slab are encoded, compressed and written by a pool
+ * of threads while the calling thread reads the next slab; at most two slabs
+ * are in memory, both within the heap budget.
+ *
+ * Usage: ZarrIngest ./src/main/resources/ingest.json
+ *
+ */
+public class ZarrIngest {
+
+	public static final int DEFAULT_TIME_CHUNK = 365;
+	public static final String FILL_VALUE = "_FillValue";
+	public static final String MISSING_VALUE = "missing_value";
+
+	private final String sourcePath;
+	private final ZarrStore store;
+
+	// Empty: all the variables of the source.
+	private final Map<String, ZarrVariable> variables = new LinkedHashMap<>();
+
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private long heapBudget = SubsetCopy.DEFAULT_HEAP_BUDGET;
+
+	public ZarrIngest(String sourcePath, String storePath) {
+		this.sourcePath = sourcePath;
+		this.store = new ZarrStore(storePath);
+	}
+
+	public static ZarrIngest fromTemplate(ZarrIngestTemplate template) {
+		ZarrIngest ingest = new ZarrIngest(template.getSource(), template.getStore())
+				.setThreads(template.getThreads())
+				.setHeapBudget(template.getHeapBudget());
+
+		if (template.getVariables() != null) {
+			for (ZarrVariable variable : template.getVariables()) {
+				ingest.variables.put(variable.getName(), variable);
+			}
+		}
+
+		return ingest;
+	}
+
+	/**
+	 * Adds a variable to ingest.
+	 *
+	 * @param name
+	 * @param chunks     chunk shape, null for the default.
+	 * @param compressor zlib, gzip or null for raw chunks.
+	 * @param level
+	 * @return
+	 */
+	public ZarrIngest addVariable(String name, int[] chunks, String compressor, int level) {
+		ZarrVariable variable = new ZarrVariable();
+		variable.setName(name);
+		variable.setChunks(chunks);
+		variable.setCompressor(compressor);
+		variable.setLevel(level);
+
+		variables.put(name, variable);
+		return this;
+	}
+
+	public ZarrIngest setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Threads must be at least 1: " + threads);
+		}
+		this.threads = threads;
+		return this;
+	}
+
+	public ZarrIngest setHeapBudget(long heapBudget) {
+		if (heapBudget <= 0) {
+			throw new IllegalArgumentException("Heap budget must be positive: " + heapBudget);
+		}
+		this.heapBudget = heapBudget;
+		return this;
+	}
+
+	public ZarrStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Creates the store and ingests the variables.
+	 *
+	 * @return
+	 * @throws IOException
+	 * @throws InvalidRangeException
+	 */
+	public CopyStats ingest() throws IOException, InvalidRangeException {
+		long start = System.nanoTime();
+		long bytes = 0;
+		int slabs = 0;
+		int ingested = 0;
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+		try (NetcdfFile source = NetcdfFiles.open(sourcePath)) {
+			store.createGroup(attributesOf(source.getRootGroup().attributes()));
+
+			List<ZarrVariable> selected = new ArrayList<>(variables.values());
+
+			if (selected.isEmpty()) {
+				for (Variable variable : source.getVariables()) {
+					ZarrVariable all = new ZarrVariable();
+					all.setName(variable.getFullName());
+					selected.add(all);
+				}
+			}
+
+			for (ZarrVariable zarrVariable : selected) {
+				Variable variable = source.findVariable(zarrVariable.getName());
+
+				if (variable == null) {
+					throw new IllegalArgumentException(
+							"Variable " + zarrVariable.getName() + " not found in " + sourcePath);
+				}
+
+				ZarrArrayMetadata metadata = metadataOf(variable, zarrVariable);
+
+				Map<String, Object> attributes = attributesOf(variable.attributes());
+				List<String> dimensions = new ArrayList<>();
+				for (Dimension dimension : variable.getDimensions()) {
+					dimensions.add(dimension.getShortName());
+				}
+				attributes.put(ZarrStore.ARRAY_DIMENSIONS, dimensions);
+
+				store.createArray(zarrVariable.getName(), metadata, attributes);
+
+				long[] written = ingestVariable(variable, zarrVariable.getName(), metadata, pool);
+				bytes += written[0];
+				slabs += written[1];
+				ingested++;
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+
+		return new CopyStats(ingested, slabs, bytes, System.nanoTime() - start);
+	}
+
+	/**
+	 * Reads a variable slab by slab and writes its chunks.
+	 *
+	 * @param variable
+	 * @param name
+	 * @param metadata
+	 * @param pool
+	 * @return bytes read and slabs.
+	 * @throws IOException
+	 * @throws InvalidRangeException
+	 */
+	private long[] ingestVariable(Variable variable, String name, ZarrArrayMetadata metadata, ExecutorService pool)
+			throws IOException, InvalidRangeException {
+
+		int[] shape = variable.getShape();
+		long bytes = 0;
+		int slabs = 0;
+
+		if (shape.length == 0) {
+			Array data = variable.read();
+			await(submitChunks(name, metadata, data, 0, pool));
+			return new long[] { variable.getElementSize(), 1 };
+		}
+
+		int steps = slabSteps(variable, metadata);
+		List<Future<?>> pending = new ArrayList<>();
+
+		for (int first = 0; first < shape[0]; first += steps) {
+			int[] origin = new int[shape.length];
+			int[] slabShape = shape.clone();
+			origin[0] = first;
+			slabShape[0] = Math.min(steps, shape[0] - first);
+
+			// The chunks of the previous slab are written while this one is read.
+			Array data = variable.read(origin, slabShape);
+			await(pending);
+
+			pending = submitChunks(name, metadata, data, first, pool);
+
+			bytes += data.getSize() * variable.getElementSize();
+			slabs++;
+		}
+
+		await(pending);
+
+		return new long[] { bytes, slabs };
+	}
+
+	/**
+	 * Steps of the first dimension in a slab: a multiple of the chunk, two slabs
+	 * within the heap budget. With an empty dimension after the first, the whole
+	 * variable is a single (empty) slab.
+	 *
+	 * @param variable
+	 * @param metadata
+	 * @return
+	 */
+	private int slabSteps(Variable variable, ZarrArrayMetadata metadata) {
+		int[] shape = variable.getShape();
+		int chunk = metadata.getChunks()[0];
+
+		long bytesPerStep = variable.getElementSize();
+		for (int d = 1; d < shape.length; d++) {
+			bytesPerStep *= shape[d];
+		}
+
+		if (bytesPerStep == 0) {
+			return Math.max(shape[0], 1);
+		}
+
+		long chunksPerSlab = Math.max(1, heapBudget / 2 / bytesPerStep / chunk);
+
+		return (int) Math.min(chunksPerSlab * chunk, Math.max(shape[0], 1));
+	}
+
+	/**
+	 * Submits one task per chunk of a slab.
+	 *
+	 * @param name
+	 * @param metadata
+	 * @param data
+	 * @param slabFirst first step of the slab along the first dimension.
+	 * @param pool
+	 * @return
+	 */
+	private List<Future<?>> submitChunks(String name, ZarrArrayMetadata metadata, Array data, int slabFirst,
+			ExecutorService pool) {
+
+		Object storage = data.get1DJavaArray(data.getDataType());
+		int[] slabShape = data.getShape();
+		int[] chunks = metadata.getChunks();
+		int rank = chunks.length;
+
+		List<Future<?>> futures = new ArrayList<>();
+
+		if (rank == 0) {
+			futures.add(pool.submit(() -> {
+				writeChunk(name, metadata, storage, slabShape, slabFirst, new int[0]);
+				return null;
+			}));
+			return futures;
+		}
+
+		// Chunk grid of the slab: a band along the first dimension, all of the rest.
+		int[] grid = metadata.getChunkGrid();
+		int firstChunk = slabFirst / chunks[0];
+		grid[0] = (slabFirst + slabShape[0] + chunks[0] - 1) / chunks[0] - firstChunk;
+
+		int total = 1;
+		for (int cells : grid) {
+			total *= cells;
+		}
+
+		int[] counter = new int[rank];
+
+		for (int c = 0; c < total; c++) {
+			int[] chunkIndex = counter.clone();
+			chunkIndex[0] += firstChunk;
+
+			futures.add(pool.submit(() -> {
+				writeChunk(name, metadata, storage, slabShape, slabFirst, chunkIndex);
+				return null;
+			}));
+
+			for (int d = rank - 1; d >= 0; d--) {
+				if (++counter[d] < grid[d]) {
+					break;
+				}
+				counter[d] = 0;
+			}
+		}
+
+		return futures;
+	}
+
+	/**
+	 * Copies a chunk out of a slab, padding edge chunks with the fill value, and
+	 * writes it encoded.
+	 *
+	 * @param name
+	 * @param metadata
+	 * @param storage
+	 * @param slabShape
+	 * @param slabFirst
+	 * @param chunkIndex
+	 * @throws IOException
+	 */
+	private void writeChunk(String name, ZarrArrayMetadata metadata, Object storage, int[] slabShape, int slabFirst,
+			int[] chunkIndex) throws IOException {
+
+		int[] chunks = metadata.getChunks();
+		int rank = chunks.length;
+
+		Object chunk = ZarrChunks.newArray(metadata.getDataType(), metadata.getChunkLength());
+
+		int[] srcStart = new int[rank];
+		int[] count = new int[rank];
+		boolean edge = false;
+
+		for (int d = 0; d < rank; d++) {
+			srcStart[d] = chunkIndex[d] * chunks[d] - (d == 0 ? slabFirst : 0);
+			count[d] = Math.min(chunks[d], slabShape[d] - srcStart[d]);
+			edge |= count[d] < chunks[d];
+		}
+
+		if (edge) {
+			ZarrChunks.fill(chunk, metadata.getFillDouble());
+		}
+
+		ZarrChunks.copyBox(storage, slabShape, srcStart, chunk, chunks, new int[rank], count);
+
+		byte[] raw = ZarrChunks.toBytes(chunk, metadata.getByteOrder());
+		store.writeChunk(name, chunkIndex, ZarrCompressor.compress(metadata.getCompressor(), raw));
+	}
+
+	private static void await(List<Future<?>> futures) throws IOException {
+		try {
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted writing chunks", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Failed writing chunk", e.getCause());
+		}
+	}
+
+	/**
+	 * Zarr metadata of a variable: chosen or default chunks and compressor, and
+	 * the fill value of its attributes.
+	 *
+	 * @param variable
+	 * @param zarrVariable
+	 * @return
+	 */
+	static ZarrArrayMetadata metadataOf(Variable variable, ZarrVariable zarrVariable) {
+		int[] shape = variable.getShape();
+		int[] chunks = zarrVariable.getChunks();
+
+		if (chunks == null) {
+			chunks = shape.clone();
+			if (shape.length > 0 && NetCDFTool.TIME.equals(variable.getDimension(0).getShortName())) {
+				chunks[0] = Math.min(shape[0], DEFAULT_TIME_CHUNK);
+			}
+		}
+
+		for (int d = 0; d < chunks.length; d++) {
+			chunks[d] = Math.max(1, chunks[d]);
+		}
+
+		Object fillValue = null;
+		Attribute fill = variable.attributes().findAttribute(FILL_VALUE);
+		if (fill == null) {
+			fill = variable.attributes().findAttribute(MISSING_VALUE);
+		}
+
+		if (fill != null && !fill.isString()) {
+			fillValue = ZarrArrayMetadata.fillValueOf(fill.getNumericValue().doubleValue());
+		} else if (variable.getDataType().isFloatingPoint()) {
+			fillValue = ZarrArrayMetadata.fillValueOf(Double.NaN);
+		}
+
+		return new ZarrArrayMetadata(shape, chunks, variable.getDataType(),
+				ZarrArrayMetadata.compressorOf(zarrVariable.getCompressor(), zarrVariable.getLevel()), fillValue);
+	}
+
+	/**
+	 * JSON attributes of a netcdf attribute container.
+	 *
+	 * @param attributes
+	 * @return
+	 */
+	static Map<String, Object> attributesOf(Iterable<Attribute> attributes) {
+		Map<String, Object> map = new LinkedHashMap<>();
+
+		for (Attribute attribute : attributes) {
+			if (attribute.isString()) {
+				map.put(attribute.getShortName(), attribute.getStringValue());
+			} else if (attribute.getLength() == 1) {
+				map.put(attribute.getShortName(), jsonNumber(attribute.getNumericValue()));
+			} else {
+				List<Object> values = new ArrayList<>();
+				for (int i = 0; i < attribute.getLength(); i++) {
+					values.add(jsonNumber(attribute.getNumericValue(i)));
+				}
+				map.put(attribute.getShortName(), values);
+			}
+		}
+
+		return map;
+	}
+
+	private static Object jsonNumber(Number number) {
+		double value = number.doubleValue();
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			return ZarrArrayMetadata.fillValueOf(value);
+		}
+		return number;
+	}
+
+	public static void main(String[] args) throws IOException, InvalidRangeException {
+
+		String pathToJson = args[0];
+		// ./src/main/resources/ingest.json
+
+		ObjectMapper mapper = new ObjectMapper();
+		ZarrIngestTemplate template = mapper.readValue(new File(pathToJson), ZarrIngestTemplate.class);
+
+		out.println(template);
+		out.println(fromTemplate(template).ingest());
+	}
+}
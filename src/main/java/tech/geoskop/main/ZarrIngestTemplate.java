@@ -0,0 +1,132 @@
+package tech.geoskop.main;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * JSON template of an ingest of a netcdf file into a Zarr store.
+ *
+ * <pre>
+ * {
+ *   "source": "src/main/resources/testmean.nc",
+ *   "store": "src/main/resources/testmean.zarr",
+ *   "threads": 8,
+ *   "heapBudget": 67108864,
+ *   "variables": [
+ *     { "name": "tas", "chunks": [365, 53, 71], "compressor": "zlib", "level": 5 }
+ *   ]
+ * }
+ * </pre>
+ *
+ * Without variables, all the variables of the source are ingested with default
+ * chunks.
+ */
+public class ZarrIngestTemplate {
+
+	private String source;
+
+	private String store;
+
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	private long heapBudget = SubsetCopy.DEFAULT_HEAP_BUDGET;
+
+	private List<ZarrVariable> variables;
+
+	public String getSource() {
+		return source;
+	}
+
+	public void setSource(String source) {
+		this.source = source;
+	}
+
+	public String getStore() {
+		return store;
+	}
+
+	public void setStore(String store) {
+		this.store = store;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public long getHeapBudget() {
+		return heapBudget;
+	}
+
+	public void setHeapBudget(long heapBudget) {
+		this.heapBudget = heapBudget;
+	}
+
+	public List<ZarrVariable> getVariables() {
+		return variables;
+	}
+
+	public void setVariables(List<ZarrVariable> variables) {
+		this.variables = variables;
+	}
+
+	public ZarrIngestTemplate() {
+	}
+
+	@Override
+	public String toString() {
+		return "ZarrIngestTemplate [source=" + source + ", store=" + store + ", threads=" + threads
+				+ ", heapBudget=" + heapBudget + ", variables=" + variables + "]";
+	}
+}
+
+class ZarrVariable {
+	private String name;
+	// null: default chunks.
+	private int[] chunks;
+	// zlib, gzip or null for raw chunks.
+	private String compressor = ZarrCompressor.ZLIB;
+	private int level = ZarrCompressor.DEFAULT_LEVEL;
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public int[] getChunks() {
+		return chunks;
+	}
+
+	public void setChunks(int[] chunks) {
+		this.chunks = chunks;
+	}
+
+	public String getCompressor() {
+		return compressor;
+	}
+
+	public void setCompressor(String compressor) {
+		this.compressor = compressor;
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	public void setLevel(int level) {
+		this.level = level;
+	}
+
+	@Override
+	public String toString() {
+		return "ZarrVariable [name=" + name + ", chunks=" + Arrays.toString(chunks) + ", compressor=" + compressor
+				+ ", level=" + level + "]";
+	}
+
+}
@@ -0,0 +1,242 @@
+package tech.geoskop.main;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Reader of the arrays of a Zarr v2 store.
+ *
+ * A box of an array is read touching only the chunks that overlap it; the
+ * chunks are decompressed in parallel when a pool is given, and each one copies
+ * its part of the box into the result.
+ *
+ */
+public class ZarrReader {
+
+	private final ZarrStore store;
+	private final Map<String, ZarrArrayMetadata> metadata = new ConcurrentHashMap<>();
+
+	public ZarrReader(String storePath) {
+		this(new ZarrStore(storePath));
+	}
+
+	public ZarrReader(ZarrStore store) {
+		this.store = store;
+	}
+
+	public ZarrStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Metadata of an array, read once.
+	 *
+	 * @param name
+	 * @return
+	 * @throws IOException
+	 */
+	public ZarrArrayMetadata getMetadata(String name) throws IOException {
+		ZarrArrayMetadata arrayMetadata = metadata.get(name);
+
+		if (arrayMetadata == null) {
+			arrayMetadata = store.readMetadata(name);
+			metadata.put(name, arrayMetadata);
+		}
+
+		return arrayMetadata;
+	}
+
+	public Map<String, Object> getAttributes(String name) throws IOException {
+		return store.readAttributes(name);
+	}
+
+	/**
+	 * Reads a whole array.
+	 *
+	 * @param name
+	 * @return primitive array in C order.
+	 * @throws IOException
+	 */
+	public Object read(String name) throws IOException {
+		int[] shape = getMetadata(name).getShape();
+		return readBox(name, new int[shape.length], shape, null);
+	}
+
+	/**
+	 * Reads a box of an array.
+	 *
+	 * @param name
+	 * @param start first element of the box.
+	 * @param count elements of the box along each dimension.
+	 * @param pool  pool decompressing the chunks, null to do it in this thread.
+	 * @return primitive array of the box in C order.
+	 * @throws IOException
+	 */
+	public Object readBox(String name, int[] start, int[] count, ExecutorService pool) throws IOException {
+		int[] stride = new int[start.length];
+		Arrays.fill(stride, 1);
+		return readBox(name, start, count, stride, pool);
+	}
+
+	/**
+	 * Reads a strided box of an array: count elements along each dimension from
+	 * start, one every stride. The chunks between two strided elements are not
+	 * read.
+	 *
+	 * @param name
+	 * @param start  first element of the box.
+	 * @param count  elements of the box along each dimension.
+	 * @param stride step between the elements along each dimension.
+	 * @param pool   pool decompressing the chunks, null to do it in this thread.
+	 * @return primitive array of the box in C order.
+	 * @throws IOException
+	 */
+	public Object readBox(String name, int[] start, int[] count, int[] stride, ExecutorService pool)
+			throws IOException {
+		ZarrArrayMetadata arrayMetadata = getMetadata(name);
+		int[] shape = arrayMetadata.getShape();
+		int[] chunks = arrayMetadata.getChunks();
+		int rank = shape.length;
+
+		int length = 1;
+		int[] firstChunk = new int[rank];
+		int[] grid = new int[rank];
+
+		for (int d = 0; d < rank; d++) {
+			if (start[d] < 0 || count[d] < 1 || stride[d] < 1
+					|| start[d] + (long) (count[d] - 1) * stride[d] >= shape[d]) {
+				throw new IllegalArgumentException("Box " + Arrays.toString(start) + " + " + Arrays.toString(count)
+						+ " by " + Arrays.toString(stride) + " out of " + name + Arrays.toString(shape));
+			}
+			length *= count[d];
+			firstChunk[d] = start[d] / chunks[d];
+			grid[d] = (start[d] + (count[d] - 1) * stride[d]) / chunks[d] - firstChunk[d] + 1;
+		}
+
+		Object box = ZarrChunks.newArray(arrayMetadata.getDataType(), length);
+
+		int total = 1;
+		for (int cells : grid) {
+			total *= cells;
+		}
+
+		List<Future<?>> futures = new ArrayList<>();
+		int[] counter = new int[rank];
+
+		for (int c = 0; c < total; c++) {
+			int[] chunkIndex = new int[rank];
+			for (int d = 0; d < rank; d++) {
+				chunkIndex[d] = firstChunk[d] + counter[d];
+			}
+
+			// Chunks between two strided elements are skipped.
+			if (overlaps(chunks, chunkIndex, start, count, stride)) {
+				if (pool == null) {
+					copyChunk(name, arrayMetadata, chunkIndex, box, start, count, stride);
+				} else {
+					futures.add(pool.submit(() -> {
+						copyChunk(name, arrayMetadata, chunkIndex, box, start, count, stride);
+						return null;
+					}));
+				}
+			}
+
+			for (int d = rank - 1; d >= 0; d--) {
+				if (++counter[d] < grid[d]) {
+					break;
+				}
+				counter[d] = 0;
+			}
+		}
+
+		try {
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted reading " + name, e);
+		} catch (ExecutionException e) {
+			throw new IOException("Failed reading " + name, e.getCause());
+		}
+
+		return box;
+	}
+
+	/**
+	 * Decodes a chunk, the fill value when it was not written.
+	 *
+	 * @param name
+	 * @param chunkIndex
+	 * @return primitive array of the chunk.
+	 * @throws IOException
+	 */
+	public Object readChunk(String name, int[] chunkIndex) throws IOException {
+		ZarrArrayMetadata arrayMetadata = getMetadata(name);
+		byte[] encoded = store.readChunk(name, chunkIndex);
+
+		if (encoded == null) {
+			Object chunk = ZarrChunks.newArray(arrayMetadata.getDataType(), arrayMetadata.getChunkLength());
+			ZarrChunks.fill(chunk, arrayMetadata.getFillDouble());
+			return chunk;
+		}
+
+		int rawLength = arrayMetadata.getChunkLength() * arrayMetadata.getElementSize();
+		byte[] raw = ZarrCompressor.decompress(arrayMetadata.getCompressor(), encoded, rawLength);
+
+		return ZarrChunks.fromBytes(raw, arrayMetadata.getDataType(), arrayMetadata.getByteOrder());
+	}
+
+	/**
+	 * Copies the elements of a strided box in a chunk into the box.
+	 */
+	private void copyChunk(String name, ZarrArrayMetadata arrayMetadata, int[] chunkIndex, Object box, int[] start,
+			int[] count, int[] stride) throws IOException {
+		int[] chunks = arrayMetadata.getChunks();
+		int rank = chunks.length;
+
+		int[] srcStart = new int[rank];
+		int[] dstStart = new int[rank];
+		int[] overlap = new int[rank];
+
+		for (int d = 0; d < rank; d++) {
+			int chunkFirst = chunkIndex[d] * chunks[d];
+			int low = first(chunkFirst, start[d], stride[d]);
+			int high = Math.min(count[d] - 1, (chunkFirst + chunks[d] - 1 - start[d]) / stride[d]);
+
+			srcStart[d] = start[d] + low * stride[d] - chunkFirst;
+			dstStart[d] = low;
+			overlap[d] = high - low + 1;
+		}
+
+		ZarrChunks.copyBox(readChunk(name, chunkIndex), chunks, srcStart, stride, box, count, dstStart, overlap);
+	}
+
+	/**
+	 * Whether a chunk has an element of a strided box.
+	 */
+	private static boolean overlaps(int[] chunks, int[] chunkIndex, int[] start, int[] count, int[] stride) {
+		for (int d = 0; d < chunks.length; d++) {
+			int chunkFirst = chunkIndex[d] * chunks[d];
+			int low = first(chunkFirst, start[d], stride[d]);
+			if (low >= count[d] || start[d] + low * stride[d] >= chunkFirst + chunks[d]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Index in the box of the first strided element at or after an element.
+	 */
+	private static int first(int element, int start, int stride) {
+		return element <= start ? 0 : (element - start + stride - 1) / stride;
+	}
+}
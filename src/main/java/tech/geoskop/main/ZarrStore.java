@@ -0,0 +1,157 @@
+package tech.geoskop.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * A Zarr v2 store in a directory of the local file system: a root group with
+ * one array per variable, each chunk in its own file.
+ *
+ * <pre>
+ * store/.zgroup
+ * store/.zattrs
+ * store/tas/.zarray
+ * store/tas/.zattrs
+ * store/tas/0.0.0
+ * </pre>
+ *
+ */
+public class ZarrStore {
+
+	public static final String ZGROUP = ".zgroup";
+	public static final String ZARRAY = ".zarray";
+	public static final String ZATTRS = ".zattrs";
+
+	// xarray convention for the names of the dimensions of an array.
+	public static final String ARRAY_DIMENSIONS = "_ARRAY_DIMENSIONS";
+
+	private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+	private final Path root;
+
+	public ZarrStore(String root) {
+		this.root = Paths.get(root);
+	}
+
+	public Path getRoot() {
+		return root;
+	}
+
+	/**
+	 * Creates the root group with its attributes.
+	 *
+	 * @param attributes
+	 * @throws IOException
+	 */
+	public void createGroup(Map<String, Object> attributes) throws IOException {
+		Files.createDirectories(root);
+
+		Map<String, Object> zgroup = new LinkedHashMap<>();
+		zgroup.put("zarr_format", ZarrArrayMetadata.ZARR_FORMAT);
+
+		writeJson(root.resolve(ZGROUP), zgroup);
+		writeJson(root.resolve(ZATTRS), attributes);
+	}
+
+	/**
+	 * Creates an array of the root group with its attributes.
+	 *
+	 * @param name
+	 * @param metadata
+	 * @param attributes
+	 * @throws IOException
+	 */
+	public void createArray(String name, ZarrArrayMetadata metadata, Map<String, Object> attributes)
+			throws IOException {
+		Path array = root.resolve(name);
+		Files.createDirectories(array);
+
+		writeJson(array.resolve(ZARRAY), metadata);
+		writeJson(array.resolve(ZATTRS), attributes);
+	}
+
+	public ZarrArrayMetadata readMetadata(String name) throws IOException {
+		return MAPPER.readValue(root.resolve(name).resolve(ZARRAY).toFile(), ZarrArrayMetadata.class);
+	}
+
+	public Map<String, Object> readAttributes(String name) throws IOException {
+		File file = root.resolve(name).resolve(ZATTRS).toFile();
+
+		if (!file.exists()) {
+			return Collections.emptyMap();
+		}
+
+		return MAPPER.readValue(file, new TypeReference<Map<String, Object>>() {
+		});
+	}
+
+	/**
+	 * Writes an encoded chunk. The chunk is written to a temporary file and moved,
+	 * so a reader never sees half a chunk.
+	 *
+	 * @param name
+	 * @param chunkIndex
+	 * @param encoded
+	 * @throws IOException
+	 */
+	public void writeChunk(String name, int[] chunkIndex, byte[] encoded) throws IOException {
+		Path chunk = root.resolve(name).resolve(chunkKey(chunkIndex));
+		Path temporary = chunk.resolveSibling(chunk.getFileName() + ".tmp");
+
+		Files.write(temporary, encoded);
+		Files.move(temporary, chunk, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Reads an encoded chunk, null if the chunk was not written (all fill value).
+	 *
+	 * @param name
+	 * @param chunkIndex
+	 * @return
+	 * @throws IOException
+	 */
+	public byte[] readChunk(String name, int[] chunkIndex) throws IOException {
+		try {
+			return Files.readAllBytes(root.resolve(name).resolve(chunkKey(chunkIndex)));
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Key of a chunk: its indices joined by dots, "0" for a scalar.
+	 *
+	 * @param chunkIndex
+	 * @return
+	 */
+	public static String chunkKey(int[] chunkIndex) {
+		if (chunkIndex.length == 0) {
+			return "0";
+		}
+
+		StringBuilder key = new StringBuilder();
+		for (int d = 0; d < chunkIndex.length; d++) {
+			if (d > 0) {
+				key.append('.');
+			}
+			key.append(chunkIndex[d]);
+		}
+		return key.toString();
+	}
+
+	private static void writeJson(Path path, Object value) throws IOException {
+		MAPPER.writeValue(path.toFile(), value);
+	}
+}